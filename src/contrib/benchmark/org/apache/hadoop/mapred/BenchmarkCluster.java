@@ -0,0 +1,329 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.server.jobtracker.TaskTracker;
+import org.apache.hadoop.mapreduce.split.JobSplit;
+
+/**
+ * A scheduler running in mock mode over fake trackers and jobs, for the
+ * benchmarks. The jobs hand out the same task on every call and never change
+ * state, so that repeated heartbeats measure the scheduler in a steady state
+ * rather than the task bookkeeping of the JobTracker.
+ *
+ * This class is compiled into the benchmarks of each scheduler contrib, whose
+ * subclass creates and updates its scheduler. Both are called from this
+ * class's constructor, so they may not use the fields of the subclass.
+ */
+abstract class BenchmarkCluster<S extends TaskScheduler> {
+  static final int MAP_SLOTS = 2;
+  static final int REDUCE_SLOTS = 2;
+
+  final S scheduler;
+  final TaskTracker[] trackers;
+  final List<BenchmarkJob> jobs = new ArrayList<BenchmarkJob>();
+  private final BenchmarkClock clock = new BenchmarkClock();
+  private final BenchmarkTaskTrackerManager taskTrackerManager;
+  private final JobTracker jobTracker;
+  private final File allocFile;
+  private int jobCounter;
+
+  static class BenchmarkClock extends Clock {
+    long time = 1000;
+
+    @Override
+    long getTime() {
+      return time;
+    }
+  }
+
+  /**
+   * A running job whose tasks are never started. It hands out the same map
+   * and reduce task on every call, and its maps are local to every tracker.
+   */
+  class BenchmarkJob extends JobInProgress {
+    private final Task mapTask;
+    private final Task reduceTask;
+
+    BenchmarkJob(JobConf jobConf) throws IOException {
+      super(new JobID("bench", ++jobCounter), jobConf, jobTracker);
+      this.startTime = clock.getTime();
+      JobID jobId = getJobID();
+      numMapTasks = jobConf.getNumMapTasks();
+      numReduceTasks = jobConf.getNumReduceTasks();
+      // Setup and cleanup tips are needed by getTaskInProgress()
+      cleanup = new TaskInProgress[2];
+      cleanup[0] = new TaskInProgress(jobId, "", null, jobTracker, jobConf,
+          this, numMapTasks, 1);
+      cleanup[0].setJobCleanupTask();
+      cleanup[1] = new TaskInProgress(jobId, "", numMapTasks, numReduceTasks,
+          jobTracker, jobConf, this, 1);
+      cleanup[1].setJobCleanupTask();
+      setup = new TaskInProgress[2];
+      setup[0] = new TaskInProgress(jobId, "", null, jobTracker, jobConf,
+          this, numMapTasks + 1, 1);
+      setup[0].setJobSetupTask();
+      setup[1] = new TaskInProgress(jobId, "", numMapTasks,
+          numReduceTasks + 1, jobTracker, jobConf, this, 1);
+      setup[1].setJobSetupTask();
+      maps = new TaskInProgress[numMapTasks];
+      for (int i = 0; i < maps.length; i++) {
+        maps[i] = new TaskInProgress(jobId, "", JobSplit.EMPTY_TASK_SPLIT,
+            jobTracker, jobConf, this, i, 1);
+      }
+      reduces = new TaskInProgress[numReduceTasks];
+      for (int i = 0; i < reduces.length; i++) {
+        reduces[i] = new TaskInProgress(jobId, "", maps.length, i,
+            jobTracker, jobConf, this, 1);
+      }
+      // The scheduler looks up the job and TIP of the tasks it assigns
+      mapTask = new MapTask("", new TaskAttemptID(maps[0].getTIPId(), 0), 0,
+          new JobSplit.TaskSplitIndex(), 1);
+      reduceTask = new ReduceTask("", new TaskAttemptID(reduces[0].getTIPId(),
+          0), 0, maps.length, 1);
+      status.setRunState(JobStatus.RUNNING);
+    }
+
+    @Override
+    public boolean inited() {
+      return true;
+    }
+
+    @Override
+    public synchronized boolean scheduleReduces() {
+      return true;
+    }
+
+    @Override
+    int getLocalityLevel(TaskInProgress tip, TaskTrackerStatus tts) {
+      return 0;
+    }
+
+    @Override
+    public Task obtainNewNodeLocalMapTask(TaskTrackerStatus tts,
+        int clusterSize, int numUniqueHosts) {
+      return mapTask;
+    }
+
+    @Override
+    public Task obtainNewNodeOrRackLocalMapTask(TaskTrackerStatus tts,
+        int clusterSize, int numUniqueHosts) {
+      return mapTask;
+    }
+
+    @Override
+    public Task obtainNewMapTask(TaskTrackerStatus tts, int clusterSize,
+        int numUniqueHosts) {
+      return mapTask;
+    }
+
+    @Override
+    public Task obtainNewReduceTask(TaskTrackerStatus tts, int clusterSize,
+        int numUniqueHosts) {
+      return reduceTask;
+    }
+  }
+
+  class BenchmarkTaskTrackerManager implements TaskTrackerManager {
+    private final List<JobInProgressListener> listeners =
+      new ArrayList<JobInProgressListener>();
+    private final List<TaskTrackerStatus> statuses =
+      new ArrayList<TaskTrackerStatus>();
+    private final Map<JobID, JobInProgress> jobs =
+      new HashMap<JobID, JobInProgress>();
+
+    @Override
+    public ClusterStatus getClusterStatus() {
+      return new ClusterStatus(trackers.length, 0, 0, 10 * 60 * 1000L, 0, 0,
+          trackers.length * MAP_SLOTS, trackers.length * REDUCE_SLOTS,
+          JobTracker.State.RUNNING);
+    }
+
+    @Override
+    public QueueManager getQueueManager() {
+      return null;
+    }
+
+    @Override
+    public int getNumberOfUniqueHosts() {
+      return trackers.length;
+    }
+
+    @Override
+    public Collection<TaskTrackerStatus> taskTrackers() {
+      return statuses;
+    }
+
+    @Override
+    public void addJobInProgressListener(JobInProgressListener listener) {
+      listeners.add(listener);
+    }
+
+    @Override
+    public void removeJobInProgressListener(JobInProgressListener listener) {
+      listeners.remove(listener);
+    }
+
+    @Override
+    public void addTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    @Override
+    public void removeTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    @Override
+    public int getNextHeartbeatInterval() {
+      return MRConstants.HEARTBEAT_INTERVAL_MIN;
+    }
+
+    @Override
+    public void killJob(JobID jobid) {
+    }
+
+    @Override
+    public JobInProgress getJob(JobID jobid) {
+      return jobs.get(jobid);
+    }
+
+    @Override
+    public void initJob(JobInProgress job) {
+    }
+
+    @Override
+    public void failJob(JobInProgress job) {
+    }
+
+    @Override
+    public boolean killTask(TaskAttemptID taskid, boolean shouldFail) {
+      return false;
+    }
+
+    void submitJob(JobInProgress job) throws IOException {
+      jobs.put(job.getJobID(), job);
+      for (JobInProgressListener listener: listeners) {
+        listener.jobAdded(job);
+      }
+    }
+  }
+
+  /**
+   * Start a scheduler over numRacks * nodesPerRack trackers, and submit
+   * numJobs jobs spread round-robin over numPools pools, each of which has
+   * an equal min share of the cluster. Each job needs at least one map and
+   * one reduce.
+   */
+  BenchmarkCluster(int numRacks, int nodesPerRack, int numPools, int numJobs,
+      int mapsPerJob, int reducesPerJob) throws IOException {
+    trackers = new TaskTracker[numRacks * nodesPerRack];
+    taskTrackerManager = new BenchmarkTaskTrackerManager();
+    for (int rack = 0; rack < numRacks; rack++) {
+      for (int node = 0; node < nodesPerRack; node++) {
+        String host = "rack" + rack + ".node" + node;
+        TaskTracker tt = new TaskTracker("tracker_" + host);
+        tt.setStatus(new TaskTrackerStatus("tracker_" + host, host, 0,
+            new ArrayList<TaskStatus>(), 0, MAP_SLOTS, REDUCE_SLOTS));
+        trackers[rack * nodesPerRack + node] = tt;
+        taskTrackerManager.statuses.add(tt.getStatus());
+      }
+    }
+
+    allocFile = writeAllocFile(numPools);
+    JobConf conf = new JobConf();
+    conf.set("mapred.fairscheduler.allocation.file",
+        allocFile.getAbsolutePath());
+    conf.setLong("mapred.fairscheduler.locality.delay.node", 5000);
+    conf.setLong("mapred.fairscheduler.locality.delay.rack", 10000);
+    configure(conf);
+    conf.set("mapred.job.tracker", "localhost:0");
+    conf.set("mapred.job.tracker.http.address", "0.0.0.0:0");
+    try {
+      jobTracker = new JobTracker(conf, clock);
+    } catch (Exception e) {
+      throw new IOException("Could not create JobTracker", e);
+    }
+    scheduler = createScheduler(clock);
+    scheduler.setConf(conf);
+    scheduler.setTaskTrackerManager(taskTrackerManager);
+    scheduler.start();
+
+    for (int i = 0; i < numJobs; i++) {
+      JobConf jobConf = new JobConf(conf);
+      jobConf.setNumMapTasks(mapsPerJob);
+      jobConf.setNumReduceTasks(reducesPerJob);
+      jobConf.set(PoolManager.EXPLICIT_POOL_PROPERTY, "pool" + (i % numPools));
+      BenchmarkJob job = new BenchmarkJob(jobConf);
+      jobs.add(job);
+      taskTrackerManager.submitJob(job);
+    }
+    update();
+  }
+
+  /** Set the scheduler options of the benchmarks in the given conf. */
+  void configure(JobConf conf) {
+  }
+
+  /** Create the scheduler, in mock mode. */
+  abstract S createScheduler(Clock clock);
+
+  /** Run a scheduler update. */
+  abstract void update();
+
+  private File writeAllocFile(int numPools) throws IOException {
+    File file = File.createTempFile("benchmark-pools", ".xml");
+    file.deleteOnExit();
+    int minMaps = trackers.length * MAP_SLOTS / numPools;
+    int minReduces = trackers.length * REDUCE_SLOTS / numPools;
+    PrintWriter writer = new PrintWriter(new FileWriter(file));
+    writer.println("<?xml version=\"1.0\"?>");
+    writer.println("<allocations>");
+    for (int i = 0; i < numPools; i++) {
+      writer.println("  <pool name=\"pool" + i + "\">");
+      writer.println("    <minMaps>" + minMaps + "</minMaps>");
+      writer.println("    <minReduces>" + minReduces + "</minReduces>");
+      writer.println("  </pool>");
+    }
+    writer.println("</allocations>");
+    writer.close();
+    return file;
+  }
+
+  void shutdown() throws IOException {
+    scheduler.terminate();
+    // Stop the servers the JobTracker started, so that the forked benchmark
+    // JVM can exit. JobTracker.close() expects a fully started JobTracker.
+    jobTracker.interTrackerServer.stop();
+    try {
+      jobTracker.infoServer.stop();
+    } catch (Exception e) {
+      throw new IOException("Could not stop the JobTracker web server", e);
+    }
+    allocFile.delete();
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.mapreduce.TaskType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link SchedulingAlgorithms}, which the scheduler runs over
+ * all pools and all jobs of a pool on every update and heartbeat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulingAlgorithmsBenchmark {
+  /** Number of schedulables, i.e. pools or jobs in a pool. */
+  @Param({"10", "100", "1000"})
+  public int schedulables;
+
+  private List<Schedulable> scheds;
+  private List<Schedulable> sorted;
+  private double totalSlots;
+
+  /** A schedulable with fixed demand, running tasks and weight. */
+  static class BenchmarkSchedulable extends Schedulable {
+    private final String name;
+    private final int demand;
+    private final int runningTasks;
+    private final int minShare;
+    private final double weight;
+    private final JobPriority priority;
+    private final long startTime;
+
+    BenchmarkSchedulable(String name, int demand, int runningTasks,
+        int minShare, double weight, JobPriority priority, long startTime) {
+      this.name = name;
+      this.demand = demand;
+      this.runningTasks = runningTasks;
+      this.minShare = minShare;
+      this.weight = weight;
+      this.priority = priority;
+      this.startTime = startTime;
+    }
+
+    @Override
+    public Task assignTask(TaskTrackerStatus tts, long currentTime,
+        Collection<JobInProgress> visited) throws IOException {
+      return null;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public TaskType getTaskType() {
+      return TaskType.MAP;
+    }
+
+    @Override
+    public int getDemand() {
+      return demand;
+    }
+
+    @Override
+    public int getRunningTasks() {
+      return runningTasks;
+    }
+
+    @Override
+    public int getMinShare() {
+      return minShare;
+    }
+
+    @Override
+    public double getWeight() {
+      return weight;
+    }
+
+    @Override
+    public JobPriority getPriority() {
+      return priority;
+    }
+
+    @Override
+    public long getStartTime() {
+      return startTime;
+    }
+
+    @Override
+    public void updateDemand() {}
+
+    @Override
+    public void redistributeShare() {}
+
+    @Override
+    protected String getMetricsContextName() {
+      return "benchmark";
+    }
+
+    @Override
+    void updateMetrics() {}
+  }
+
+  @Setup
+  public void setUp() {
+    // A fixed seed keeps the inputs identical across forks and builds
+    Random random = new Random(42);
+    JobPriority[] priorities = JobPriority.values();
+    scheds = new ArrayList<Schedulable>(schedulables);
+    for (int i = 0; i < schedulables; i++) {
+      int demand = random.nextInt(200);
+      scheds.add(new BenchmarkSchedulable("sched" + i, demand,
+          random.nextInt(demand + 1), random.nextInt(50),
+          0.5 + random.nextInt(4), priorities[random.nextInt(priorities.length)],
+          random.nextInt(1000000)));
+    }
+    sorted = new ArrayList<Schedulable>(scheds);
+    // Enough slots to meet about half of the total demand
+    totalSlots = 50 * schedulables;
+  }
+
+  @Benchmark
+  public List<Schedulable> computeFairShares() {
+    SchedulingAlgorithms.computeFairShares(scheds, totalSlots);
+    return scheds;
+  }
+
+  @Benchmark
+  public List<Schedulable> sortFairShare() {
+    // Sort from the same order every time, as assignTasks does
+    Collections.copy(sorted, scheds);
+    Collections.sort(sorted, new SchedulingAlgorithms.FairShareComparator());
+    return sorted;
+  }
+
+  @Benchmark
+  public List<Schedulable> sortFifo() {
+    Collections.copy(sorted, scheds);
+    Collections.sort(sorted, new SchedulingAlgorithms.FifoComparator());
+    return sorted;
+  }
+}
@@ -567,6 +567,12 @@ public class TestCapacityScheduler extends TestCase {
     public void removeJobInProgressListener(JobInProgressListener listener) {
       mylisteners.remove(listener);
     }
+
+    public void addTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    public void removeTaskTrackerListener(TaskTrackerListener listener) {
+    }
     
     public void submitJob(JobInProgress job) throws IOException {
       jobs.put(job.getJobID(), job);
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for a credit tick of {@link CreditEngine}, loading every pool
+ * and its memory and slot time use and computing its gains as the credit
+ * updater does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreditEngineBenchmark {
+  @Param({"100", "1000", "10000"})
+  public int pools;
+
+  private final CreditEngine engine = new CreditEngine();
+  private String[] names;
+  private int[][] state;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    names = new String[pools];
+    state = new int[pools][8];
+    for (int i = 0; i < pools; i++) {
+      names[i] = "pool" + i;
+      for (int j = 0; j < 8; j++) {
+        state[i][j] = random.nextInt(100);
+      }
+    }
+  }
+
+  @Benchmark
+  public CreditEngine computeGains() {
+    engine.reset();
+    for (int i = 0; i < pools; i++) {
+      int[] s = state[i];
+      engine.add(names[i], false, s[0], s[1], s[2], s[3], s[4], s[5]);
+      engine.setUsage(TaskType.MAP, CreditEngine.Resource.MEMORY,
+          s[0] * 2, s[1] * 2);
+      engine.setUsage(TaskType.MAP, CreditEngine.Resource.SLOT_TIME,
+          s[0], s[6]);
+      engine.setUsage(TaskType.REDUCE, CreditEngine.Resource.SLOT_TIME,
+          s[3], s[7]);
+    }
+    engine.computeGains();
+    return engine;
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * The pool and user allocations of one load of the allocation file.
+ *
+ * Snapshots are immutable. {@link PoolManager#reloadAllocs()} compiles the
+ * file into a new snapshot and publishes it by replacing the pool manager's
+ * current one, which is a single volatile write, so the heartbeat and
+ * update paths read allocations without locking and never see half of a
+ * reload. The settings of the pools named in the file are held in arrays
+ * indexed by pool; each {@link Pool} caches its {@link PoolAllocation}, so
+ * looking a setting up is a couple of field reads until the next reload.
+ * Pools not named in the file get the defaults, held after the named pools.
+ */
+class AllocationSnapshot {
+  static final AllocationSnapshot EMPTY = new AllocationSnapshot(
+      Collections.<String>emptyList(), new HashMap<String, Integer>(),
+      new HashMap<String, Integer>(), new HashMap<String, Integer>(),
+      new HashMap<String, Integer>(), new HashMap<String, Integer>(),
+      new HashMap<String, Double>(), new HashMap<String, Long>(),
+      new HashMap<String, CreditPolicy>(), new HashMap<String, String>(),
+      new HashMap<String, Integer>(), Integer.MAX_VALUE, Integer.MAX_VALUE,
+      Long.MAX_VALUE, Long.MAX_VALUE, SchedulingMode.FAIR,
+      new CreditPolicies.Unbounded());
+
+  /** The allocation of one pool in this snapshot. */
+  class PoolAllocation {
+    private final int index;
+
+    private PoolAllocation(int index) {
+      this.index = index;
+    }
+
+    /** The snapshot this allocation belongs to. */
+    AllocationSnapshot getSnapshot() {
+      return AllocationSnapshot.this;
+    }
+
+    /** Min share of the pool, or 0 if not set. */
+    int getMinShare(TaskType type) {
+      return (type == TaskType.MAP ? minMaps : minReduces)[index];
+    }
+
+    /** Cap on the pool's running tasks, or Integer.MAX_VALUE if not set. */
+    int getMaxSlots(TaskType type) {
+      return (type == TaskType.MAP ? maxMaps : maxReduces)[index];
+    }
+
+    /** Is the pool's cap on running tasks less than its min share? */
+    boolean isInvertedMinMax(TaskType type) {
+      return getMaxSlots(type) < getMinShare(type);
+    }
+
+    int getMaxRunningJobs() {
+      return maxRunningJobs[index];
+    }
+
+    double getWeight() {
+      return weights[index];
+    }
+
+    /** Min share preemption timeout of the pool, in milliseconds. */
+    long getMinSharePreemptionTimeout() {
+      return minSharePreemptionTimeouts[index];
+    }
+
+    CreditPolicy getCreditPolicy() {
+      return creditPolicies[index];
+    }
+  }
+
+  // Index of each pool named in the allocation file
+  private final Map<String, Integer> poolIndices =
+    new HashMap<String, Integer>();
+  // Settings of each pool, by index; the last element holds the defaults
+  private final int[] minMaps;
+  private final int[] minReduces;
+  private final int[] maxMaps;
+  private final int[] maxReduces;
+  private final int[] maxRunningJobs;
+  private final double[] weights;
+  private final long[] minSharePreemptionTimeouts;
+  private final CreditPolicy[] creditPolicies;
+  private final PoolAllocation[] allocations;
+
+  private final Map<String, Integer> userMaxJobs;
+  private final int userMaxJobsDefault;
+  private final long fairSharePreemptionTimeout;
+  private final SchedulingMode defaultSchedulingMode;
+  private final Map<String, String> poolParents;
+  private final Set<String> parentPoolNames;
+
+  /**
+   * Compile the settings of the given pools, read from the allocation file,
+   * into a snapshot. Settings missing from a map take the default. The
+   * snapshot takes ownership of the user and parent maps, which must not be
+   * modified afterwards.
+   */
+  AllocationSnapshot(Collection<String> poolNames,
+      Map<String, Integer> mapAllocs, Map<String, Integer> reduceAllocs,
+      Map<String, Integer> poolMaxMaps, Map<String, Integer> poolMaxReduces,
+      Map<String, Integer> poolMaxJobs, Map<String, Double> poolWeights,
+      Map<String, Long> minSharePreemptionTimeouts,
+      Map<String, CreditPolicy> poolCreditPolicies,
+      Map<String, String> poolParents, Map<String, Integer> userMaxJobs,
+      int userMaxJobsDefault, int poolMaxJobsDefault,
+      long fairSharePreemptionTimeout, long defaultMinSharePreemptionTimeout,
+      SchedulingMode defaultSchedulingMode,
+      CreditPolicy defaultCreditPolicy) {
+    for (String name: poolNames) {
+      if (!poolIndices.containsKey(name)) {
+        poolIndices.put(name, poolIndices.size());
+      }
+    }
+    int size = poolIndices.size() + 1;
+    this.minMaps = new int[size];
+    this.minReduces = new int[size];
+    this.maxMaps = new int[size];
+    this.maxReduces = new int[size];
+    this.maxRunningJobs = new int[size];
+    this.weights = new double[size];
+    this.minSharePreemptionTimeouts = new long[size];
+    this.creditPolicies = new CreditPolicy[size];
+    this.allocations = new PoolAllocation[size];
+    for (int i = 0; i < size; i++) {
+      maxMaps[i] = Integer.MAX_VALUE;
+      maxReduces[i] = Integer.MAX_VALUE;
+      maxRunningJobs[i] = poolMaxJobsDefault;
+      weights[i] = 1.0;
+      this.minSharePreemptionTimeouts[i] = defaultMinSharePreemptionTimeout;
+      creditPolicies[i] = defaultCreditPolicy;
+      allocations[i] = new PoolAllocation(i);
+    }
+    for (Map.Entry<String, Integer> entry: poolIndices.entrySet()) {
+      String name = entry.getKey();
+      int i = entry.getValue();
+      minMaps[i] = get(mapAllocs, name, 0);
+      minReduces[i] = get(reduceAllocs, name, 0);
+      maxMaps[i] = get(poolMaxMaps, name, Integer.MAX_VALUE);
+      maxReduces[i] = get(poolMaxReduces, name, Integer.MAX_VALUE);
+      maxRunningJobs[i] = get(poolMaxJobs, name, poolMaxJobsDefault);
+      weights[i] = get(poolWeights, name, 1.0);
+      this.minSharePreemptionTimeouts[i] = get(minSharePreemptionTimeouts,
+          name, defaultMinSharePreemptionTimeout);
+      creditPolicies[i] = get(poolCreditPolicies, name, defaultCreditPolicy);
+    }
+    this.userMaxJobs = userMaxJobs;
+    this.userMaxJobsDefault = userMaxJobsDefault;
+    this.fairSharePreemptionTimeout = fairSharePreemptionTimeout;
+    this.defaultSchedulingMode = defaultSchedulingMode;
+    this.poolParents = poolParents;
+    this.parentPoolNames = new HashSet<String>(poolParents.values());
+  }
+
+  private static <T> T get(Map<String, T> map, String name, T defaultValue) {
+    T value = map.get(name);
+    return (value == null ? defaultValue : value);
+  }
+
+  /** The allocation of the given pool, which has the defaults if unnamed. */
+  PoolAllocation getPoolAllocation(String pool) {
+    Integer index = poolIndices.get(pool);
+    return allocations[index == null ? allocations.length - 1 : index];
+  }
+
+  int getUserMaxJobs(String user) {
+    return get(userMaxJobs, user, userMaxJobsDefault);
+  }
+
+  /** Fair share preemption timeout, in milliseconds. */
+  long getFairSharePreemptionTimeout() {
+    return fairSharePreemptionTimeout;
+  }
+
+  SchedulingMode getDefaultSchedulingMode() {
+    return defaultSchedulingMode;
+  }
+
+  /**
+   * Name of the pool the allocation file nests the given pool in, or null.
+   */
+  String getParentName(String pool) {
+    return poolParents.get(pool);
+  }
+
+  /** Does the allocation file nest other pools in the given pool? */
+  boolean isParentPool(String pool) {
+    return parentPoolNames.contains(pool);
+  }
+}
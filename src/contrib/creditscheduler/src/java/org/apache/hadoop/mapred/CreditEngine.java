@@ -0,0 +1,248 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Computes the credit gained or lost by every pool in one credit update
+ * tick.
+ *
+ * The demand, running tasks (allocation) and capacity (min share) of each
+ * pool are first loaded into primitive arrays with {@link #reset()} and
+ * {@link #add(String, boolean, int, int, int, int, int, int)}, after which
+ * {@link #computeGains()} computes the map and reduce gains of all pools in
+ * a single pass. The arrays are reused from tick to tick and only grow when
+ * pools are added, so a tick does not allocate once the pool set is stable.
+ *
+ * A pool's gain for a task type is computed as follows. Let the wasted
+ * slots of a pool be the slots the other pools could not have used had the
+ * pool not been running its tasks: its allocation plus the capacity no pool
+ * demands, less whatever the other pools demand beyond their own capacity.
+ * A pool running fewer tasks than its capacity earns the part of its unused
+ * capacity that the other pools did not waste; a pool running more than its
+ * capacity pays for the part of its excess that was not taken from wasted
+ * slots. Cluster totals exclude the default pool.
+ *
+ * Gains are computed this way for each {@link Resource} a pool uses, all
+ * measured in slots so that they compare with its capacity. Loading a pool
+ * with {@link #add} counts one slot of every resource per task; its use of
+ * memory and slot time may then be set with {@link #setUsage}. A pool's
+ * gain is its gain in its dominant resource, the one in which it earns the
+ * least or pays the most, so a pool whose tasks take more memory than a
+ * slot is charged for that memory even if it runs few tasks.
+ *
+ * This class is not thread-safe; it is only used by the credit updater.
+ */
+class CreditEngine {
+  /** Resources a pool's credit is accounted over, measured in slots. */
+  enum Resource {
+    /** Tasks running at the last scheduler update. */
+    SLOTS,
+    /** Memory requested by the running tasks, in units of slot memory. */
+    MEMORY,
+    /** Slot time consumed during the tick, per unit of time. */
+    SLOT_TIME
+  }
+
+  private static final Resource[] RESOURCES = Resource.values();
+  private static final int NUM_RESOURCES = RESOURCES.length;
+  private static final int MAP = 0;
+  private static final int REDUCE = 1;
+
+  private int numPools = 0;
+  private String[] names = new String[0];
+  private boolean[] isDefault = new boolean[0];
+  // Inputs, indexed by [task type][pool] for capacities, and by
+  // [task type * NUM_RESOURCES + resource][pool] for demands and allocations
+  private final int[][] capacity = new int[2][0];
+  private final float[][] demand = new float[2 * NUM_RESOURCES][0];
+  private final float[][] running = new float[2 * NUM_RESOURCES][0];
+  // Outputs of computeGains(), indexed like the demands
+  private final float[][] gain = new float[2 * NUM_RESOURCES][0];
+  // Index of the dominant resource of each pool, by [task type][pool]
+  private final int[][] dominant = new int[2][0];
+  // Cluster totals over all pools but the default pool
+  private final int[] totalCapacity = new int[2];
+  private final float[] totalDemand = new float[2 * NUM_RESOURCES];
+
+  private static int typeIndex(TaskType type) {
+    return (type == TaskType.MAP ? MAP : REDUCE);
+  }
+
+  private static int row(int type, int resource) {
+    return type * NUM_RESOURCES + resource;
+  }
+
+  /** Forget the pools loaded for the previous tick. */
+  void reset() {
+    numPools = 0;
+    Arrays.fill(totalCapacity, 0);
+    Arrays.fill(totalDemand, 0);
+  }
+
+  /**
+   * Load the state of one pool for this tick, counting one slot of every
+   * resource per task.
+   */
+  void add(String name, boolean defaultPool,
+      int mapDemand, int mapRunning, int mapCapacity,
+      int reduceDemand, int reduceRunning, int reduceCapacity) {
+    if (numPools == names.length) {
+      grow(Math.max(16, names.length * 2));
+    }
+    int i = numPools++;
+    this.names[i] = name;
+    this.isDefault[i] = defaultPool;
+    this.capacity[MAP][i] = mapCapacity;
+    this.capacity[REDUCE][i] = reduceCapacity;
+    if (!defaultPool) {
+      totalCapacity[MAP] += mapCapacity;
+      totalCapacity[REDUCE] += reduceCapacity;
+    }
+    for (int r = 0; r < NUM_RESOURCES; r++) {
+      load(i, row(MAP, r), mapDemand, mapRunning);
+      load(i, row(REDUCE, r), reduceDemand, reduceRunning);
+    }
+  }
+
+  /**
+   * Set the demand and allocation of one resource, in slots, of the pool
+   * loaded last.
+   */
+  void setUsage(TaskType type, Resource resource, float demand,
+      float running) {
+    int i = numPools - 1;
+    int row = row(typeIndex(type), resource.ordinal());
+    if (!isDefault[i]) {
+      totalDemand[row] -= this.demand[row][i];
+    }
+    load(i, row, demand, running);
+  }
+
+  private void load(int i, int row, float demand, float running) {
+    this.demand[row][i] = demand;
+    this.running[row][i] = running;
+    if (!isDefault[i]) {
+      totalDemand[row] += demand;
+    }
+  }
+
+  /** Compute the map and reduce gains of every loaded pool. */
+  void computeGains() {
+    for (int t = MAP; t <= REDUCE; t++) {
+      for (int r = 0; r < NUM_RESOURCES; r++) {
+        int row = row(t, r);
+        float oldWasted = Math.max(0, totalCapacity[t] - totalDemand[row]);
+        for (int i = 0; i < numPools; i++) {
+          gain[row][i] = gain(running[row][i], capacity[t][i],
+              wastedSlots(oldWasted, totalDemand[row] - demand[row][i],
+                  totalCapacity[t] - capacity[t][i], running[row][i]));
+        }
+      }
+      for (int i = 0; i < numPools; i++) {
+        int d = 0;
+        for (int r = 1; r < NUM_RESOURCES; r++) {
+          if (gain[row(t, r)][i] < gain[row(t, d)][i]) {
+            d = r;
+          }
+        }
+        dominant[t][i] = d;
+      }
+    }
+  }
+
+  /**
+   * Slots wasted by the cluster that are attributed to one pool, which may
+   * be fractional for resources measured in part slots.
+   *
+   * @param oldWasted capacity not demanded by any pool
+   * @param otherDemand demand of all other pools
+   * @param otherCapacity capacity of all other pools
+   * @param allocation slots allocated to the pool
+   */
+  static float wastedSlots(float oldWasted, float otherDemand,
+      float otherCapacity, float allocation) {
+    if (otherDemand > otherCapacity) {
+      // still someone can use more machines
+      return Math.max(0, allocation + oldWasted - (otherDemand - otherCapacity));
+    } else {
+      // no one requires more
+      return allocation + oldWasted;
+    }
+  }
+
+  /** Credit gained (or, if negative, lost) by one pool in a tick. */
+  static float gain(float allocation, float capacity, float wasted) {
+    if (allocation > capacity) {
+      return Math.min(0, wasted - (allocation - capacity));
+    } else {
+      return Math.max(0, (capacity - allocation) - wasted);
+    }
+  }
+
+  int getNumPools() {
+    return numPools;
+  }
+
+  String getPoolName(int i) {
+    return names[i];
+  }
+
+  /** Gain of a pool in its dominant resource. */
+  float getGain(int i, TaskType type) {
+    int t = typeIndex(type);
+    return gain[row(t, dominant[t][i])][i];
+  }
+
+  /** Gain of a pool in one resource. */
+  float getGain(int i, TaskType type, Resource resource) {
+    return gain[row(typeIndex(type), resource.ordinal())][i];
+  }
+
+  /** The resource that decides a pool's gain. */
+  Resource getDominantResource(int i, TaskType type) {
+    return RESOURCES[dominant[typeIndex(type)][i]];
+  }
+
+  /** One-line description of the last tick, for the JobTracker log. */
+  String getSummary() {
+    return String.format("Updated credits of %d pools: maps demand %d of " +
+        "capacity %d, reduces demand %d of capacity %d", numPools,
+        (int) totalDemand[row(MAP, Resource.SLOTS.ordinal())],
+        totalCapacity[MAP],
+        (int) totalDemand[row(REDUCE, Resource.SLOTS.ordinal())],
+        totalCapacity[REDUCE]);
+  }
+
+  private void grow(int size) {
+    names = Arrays.copyOf(names, size);
+    isDefault = Arrays.copyOf(isDefault, size);
+    for (int t = MAP; t <= REDUCE; t++) {
+      capacity[t] = Arrays.copyOf(capacity[t], size);
+      dominant[t] = Arrays.copyOf(dominant[t], size);
+    }
+    for (int row = 0; row < demand.length; row++) {
+      demand[row] = Arrays.copyOf(demand[row], size);
+      running[row] = Arrays.copyOf(running[row], size);
+      gain[row] = Arrays.copyOf(gain[row], size);
+    }
+  }
+}
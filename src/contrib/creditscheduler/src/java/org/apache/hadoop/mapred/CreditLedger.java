@@ -0,0 +1,331 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * A durable record of the credit balances of the credit scheduler's pools,
+ * so that long-term fairness history survives JobTracker restarts.
+ *
+ * The ledger lives in a local directory and consists of two files:
+ * <ul>
+ * <li><tt>credits.snapshot</tt>, holding the balances of every pool as of
+ *     some credit update tick. It is rewritten every
+ *     <tt>snapshotInterval</tt> ticks by writing a temporary file, syncing it
+ *     to disk and renaming it over the previous snapshot.</li>
+ * <li><tt>credits.journal</tt>, an append-only file holding one record per
+ *     tick since the snapshot, with the new balances of the pools whose
+ *     credit changed during that tick. Each tick's record is written and
+ *     synced to disk with a single fsync.</li>
+ * </ul>
+ * Both files start with a magic number and version, followed by records of
+ * the form <tt>(int length, long crc32, byte[length] payload)</tt>, where a
+ * payload is <tt>(long tick, long time, int count, count * (UTF pool name,
+ * float map credit, float reduce credit))</tt>. Records hold absolute
+ * balances rather than increments, and journal records whose tick is not
+ * newer than the snapshot's are skipped, so replaying is idempotent even if
+ * the JobTracker dies between replacing the snapshot and truncating the
+ * journal. A torn or corrupt record at the end of the journal (e.g. from a
+ * crash in the middle of a write) ends recovery at the last good record.
+ *
+ * Since the journal is truncated at each snapshot, recovery reads at most one
+ * snapshot and <tt>snapshotInterval</tt> journal records, no matter how long
+ * the cluster has been accumulating credit.
+ *
+ * This class is not thread-safe; it is only used by the credit updater
+ * thread once recovery is done.
+ */
+class CreditLedger {
+  private static final Log LOG = LogFactory.getLog(
+    "org.apache.hadoop.mapred.CreditLedger");
+
+  static final String SNAPSHOT_FILE = "credits.snapshot";
+  static final String JOURNAL_FILE = "credits.journal";
+  private static final int MAGIC = 0x43524544; // "CRED"
+  private static final int VERSION = 1;
+
+  private final File dir;
+  private final int snapshotInterval;
+
+  /** Balances as of the last record written, keyed by pool name. */
+  private Map<String, float[]> balances = new HashMap<String, float[]>();
+  private long lastTick = 0;
+  private int ticksSinceSnapshot = 0;
+  // Set while the journal is written, and left set if that fails, since a
+  // torn record would end recovery; the next tick writes a snapshot instead
+  private boolean journalTorn = false;
+
+  FileOutputStream journalFile; // package-private for testing
+  private DataOutputStream journal;
+
+  /**
+   * @param dir directory holding the ledger files, created if necessary
+   * @param snapshotInterval number of credit update ticks between snapshots
+   */
+  CreditLedger(File dir, int snapshotInterval) {
+    this.dir = dir;
+    this.snapshotInterval = Math.max(1, snapshotInterval);
+  }
+
+  /**
+   * Read the snapshot and replay the journal, then open the journal for
+   * appending. Must be called once, before {@link #append(long, Map)}.
+   *
+   * @return the recovered balances, keyed by pool name, as two-element
+   *         arrays holding the map and reduce credit
+   * @throws IOException if the directory or the snapshot cannot be read
+   */
+  Map<String, float[]> recover() throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Mkdirs failed to create " + dir);
+    }
+    File snapshot = new File(dir, SNAPSHOT_FILE);
+    if (snapshot.exists()) {
+      DataInputStream in = openForRead(snapshot);
+      try {
+        lastTick = readRecord(in, balances);
+        if (lastTick < 0) {
+          throw new IOException("Corrupt credit snapshot " + snapshot);
+        }
+      } finally {
+        IOUtils.closeStream(in);
+      }
+    }
+    int replayed = 0;
+    File journalPath = new File(dir, JOURNAL_FILE);
+    // A journal without records beyond its 8-byte header (possibly not even
+    // a complete header, if we died right after creating it) has nothing to
+    // replay
+    if (journalPath.length() > 8) {
+      DataInputStream in = openForRead(journalPath);
+      try {
+        Map<String, float[]> delta = new HashMap<String, float[]>();
+        long tick;
+        while ((tick = readRecord(in, delta)) >= 0) {
+          if (tick > lastTick) {
+            balances.putAll(delta);
+            lastTick = tick;
+            replayed++;
+          }
+          delta.clear();
+        }
+      } finally {
+        IOUtils.closeStream(in);
+      }
+    }
+    LOG.info("Recovered credits of " + balances.size() + " pools from " +
+        dir + " (tick " + lastTick + ", " + replayed + " journal records)");
+    // Start from a fresh snapshot, which also drops any torn journal tail
+    writeSnapshot(lastTick, balances);
+    return copyOf(balances);
+  }
+
+  /**
+   * Record the balances after a credit update tick. Only pools whose credit
+   * changed since the last tick are written, all in one record followed by
+   * one fsync. Every <tt>snapshotInterval</tt> ticks the journal is folded
+   * into a new snapshot instead. The balances only count as recorded once
+   * they are synced, so if this fails, the next tick records them again.
+   *
+   * @param time time of the tick, for diagnostics
+   * @param credits current balances keyed by pool name, as
+   *        {map credit, reduce credit} arrays
+   */
+  void append(long time, Map<String, float[]> credits) throws IOException {
+    Map<String, float[]> changed = new HashMap<String, float[]>();
+    for (Map.Entry<String, float[]> entry: credits.entrySet()) {
+      float[] old = balances.get(entry.getKey());
+      float[] now = entry.getValue();
+      if (old == null || Float.compare(old[0], now[0]) != 0 ||
+          Float.compare(old[1], now[1]) != 0) {
+        changed.put(entry.getKey(), new float[] {now[0], now[1]});
+      }
+    }
+    long tick = lastTick + 1;
+    if (journalTorn || ticksSinceSnapshot + 1 >= snapshotInterval) {
+      Map<String, float[]> next = new HashMap<String, float[]>(balances);
+      next.putAll(changed);
+      writeSnapshot(tick, next);
+    } else {
+      if (!changed.isEmpty()) {
+        journalTorn = true;
+        writeRecord(journal, tick, time, changed);
+        journal.flush();
+        journalFile.getChannel().force(false);
+        journalTorn = false;
+        balances.putAll(changed);
+      }
+      lastTick = tick;
+      ticksSinceSnapshot++;
+    }
+  }
+
+  /**
+   * Close the journal. The ledger may not be appended to afterwards.
+   */
+  void close() {
+    IOUtils.closeStream(journal);
+    journal = null;
+    journalFile = null;
+  }
+
+  /**
+   * Atomically replace the snapshot with the given balances as of the given
+   * tick, which become the recorded ones, and start an empty journal.
+   */
+  private void writeSnapshot(long tick, Map<String, float[]> credits)
+      throws IOException {
+    File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+    FileOutputStream file = new FileOutputStream(tmp);
+    DataOutputStream out = new DataOutputStream(file);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeRecord(out, tick, System.currentTimeMillis(), credits);
+      out.flush();
+      file.getChannel().force(true);
+    } finally {
+      out.close();
+    }
+    File snapshot = new File(dir, SNAPSHOT_FILE);
+    if (!tmp.renameTo(snapshot)) {
+      // Windows-style filesystems do not rename over an existing file
+      if (!snapshot.delete() || !tmp.renameTo(snapshot)) {
+        throw new IOException("Failed to rename " + tmp + " to " + snapshot);
+      }
+    }
+    balances = credits;
+    lastTick = tick;
+    // Records up to lastTick are now in the snapshot; restart the journal
+    close();
+    journalTorn = true;
+    journalFile = new FileOutputStream(new File(dir, JOURNAL_FILE), false);
+    journal = new DataOutputStream(journalFile);
+    journal.writeInt(MAGIC);
+    journal.writeInt(VERSION);
+    journal.flush();
+    journalFile.getChannel().force(true);
+    journalTorn = false;
+    ticksSinceSnapshot = 0;
+  }
+
+  private void writeRecord(DataOutputStream out, long tick, long time,
+      Map<String, float[]> credits) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream payload = new DataOutputStream(bytes);
+    payload.writeLong(tick);
+    payload.writeLong(time);
+    payload.writeInt(credits.size());
+    for (Map.Entry<String, float[]> entry: credits.entrySet()) {
+      payload.writeUTF(entry.getKey());
+      payload.writeFloat(entry.getValue()[0]);
+      payload.writeFloat(entry.getValue()[1]);
+    }
+    payload.flush();
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray(), 0, bytes.size());
+    out.writeInt(bytes.size());
+    out.writeLong(crc.getValue());
+    bytes.writeTo(out);
+  }
+
+  /**
+   * Read one record into <tt>credits</tt>.
+   *
+   * @return the record's tick, or -1 if the stream ended or the record is
+   *         torn or corrupt
+   */
+  private long readRecord(DataInputStream in, Map<String, float[]> credits)
+      throws IOException {
+    byte[] bytes;
+    try {
+      int length = in.readInt();
+      long checksum = in.readLong();
+      if (length < 0 || length > in.available()) {
+        return -1;
+      }
+      bytes = new byte[length];
+      in.readFully(bytes);
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, length);
+      if (crc.getValue() != checksum) {
+        LOG.warn("Checksum mismatch in credit ledger; ignoring the rest");
+        return -1;
+      }
+    } catch (EOFException e) {
+      return -1;
+    }
+    DataInputStream payload = new DataInputStream(
+        new ByteArrayInputStream(bytes));
+    long tick = payload.readLong();
+    payload.readLong(); // time of the tick
+    int count = payload.readInt();
+    for (int i = 0; i < count; i++) {
+      String pool = payload.readUTF();
+      float mapCredit = payload.readFloat();
+      float reduceCredit = payload.readFloat();
+      credits.put(pool, new float[] {mapCredit, reduceCredit});
+    }
+    return tick;
+  }
+
+  private DataInputStream openForRead(File file) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a credit ledger file");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported credit ledger version " + version +
+            " in " + file);
+      }
+    } catch (IOException e) {
+      IOUtils.closeStream(in);
+      throw e;
+    }
+    return in;
+  }
+
+  private static Map<String, float[]> copyOf(Map<String, float[]> credits) {
+    Map<String, float[]> copy = new HashMap<String, float[]>();
+    for (Map.Entry<String, float[]> entry: credits.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue().clone());
+    }
+    return copy;
+  }
+}
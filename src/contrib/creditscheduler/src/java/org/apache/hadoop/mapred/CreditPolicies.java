@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * The {@link CreditPolicy} implementations that can be configured in the
+ * allocation file with a creditPolicy element, e.g.
+ * &lt;creditPolicy type="decay" halfLife="3600"/&gt;.
+ */
+class CreditPolicies {
+  /**
+   * Adds each tick's gain to the balance without any bound. This is the
+   * default, and lets a long-idle pool build up an arbitrarily large credit.
+   */
+  static class Unbounded implements CreditPolicy {
+    public float updateBalance(String pool, TaskType type, float balance,
+        float gain, long tickSecs) {
+      return balance + gain;
+    }
+
+    @Override
+    public String toString() {
+      return "unbounded";
+    }
+  }
+
+  /**
+   * Decays the balance exponentially, so that credit (or debt) earned one
+   * half-life ago counts for half as much as credit earned now. A pool that
+   * keeps gaining g per tick converges to a balance of about
+   * g / (1 - 2^(-tick / halfLife)) instead of growing forever.
+   */
+  static class ExponentialDecay implements CreditPolicy {
+    private final long halfLifeSecs;
+
+    ExponentialDecay(long halfLifeSecs) {
+      if (halfLifeSecs <= 0)
+        throw new IllegalArgumentException("Credit half-life must be positive");
+      this.halfLifeSecs = halfLifeSecs;
+    }
+
+    public float updateBalance(String pool, TaskType type, float balance,
+        float gain, long tickSecs) {
+      double factor = Math.pow(0.5, (double) tickSecs / halfLifeSecs);
+      return (float) (balance * factor) + gain;
+    }
+
+    @Override
+    public String toString() {
+      return "decay(halfLife=" + halfLifeSecs + "s)";
+    }
+  }
+
+  /**
+   * Keeps only the credit gained during the last window, so that what a
+   * pool did longer ago than the window has no effect at all.
+   *
+   * The gains of the ticks in the window are kept per pool and task type.
+   * The first time a pool is seen, e.g. after a restart or a reload of the
+   * allocation file, its balance is spread evenly over the window so that
+   * it expires over one window length. A pool that gained nothing for a
+   * whole window has a balance of zero, which is what it would start from
+   * if it were seen for the first time, so its gains are dropped; pools
+   * made for users that left thus do not stay in memory.
+   */
+  static class SlidingWindow implements CreditPolicy {
+    private final long windowSecs;
+    // Pool name -> its window of gains
+    private final Map<String, Window> windows = new HashMap<String, Window>();
+
+    /** The gains of a pool, per task type. */
+    private static class Window {
+      // Ring buffers of one window's worth of ticks
+      final float[][] gains = new float[2][];
+      final int[] positions = new int[2];
+      // Number of ticks in a row without a gain
+      final int[] idleTicks = new int[2];
+
+      boolean isIdle(int t) {
+        return gains[t] == null || idleTicks[t] >= gains[t].length;
+      }
+    }
+
+    SlidingWindow(long windowSecs) {
+      if (windowSecs <= 0)
+        throw new IllegalArgumentException("Credit window must be positive");
+      this.windowSecs = windowSecs;
+    }
+
+    public float updateBalance(String pool, TaskType type, float balance,
+        float gain, long tickSecs) {
+      int t = (type == TaskType.MAP ? 0 : 1);
+      Window window = windows.get(pool);
+      if (window == null) {
+        window = new Window();
+        windows.put(pool, window);
+      }
+      float[] gains = window.gains[t];
+      if (gains == null) {
+        int ticks = (int) Math.max(1, windowSecs / Math.max(1, tickSecs));
+        gains = new float[ticks];
+        Arrays.fill(gains, balance / ticks);
+        window.gains[t] = gains;
+        window.idleTicks[t] = (balance == 0 ? ticks : 0);
+      }
+      int pos = window.positions[t];
+      float expired = gains[pos];
+      gains[pos] = gain;
+      window.positions[t] = (pos + 1) % gains.length;
+      window.idleTicks[t] = (gain == 0 ? window.idleTicks[t] + 1 : 0);
+      if (window.isIdle(0) && window.isIdle(1)) {
+        windows.remove(pool);
+      }
+      return balance - expired + gain;
+    }
+
+    /** Number of pools whose gains are kept. */
+    int getPoolCount() {
+      return windows.size();
+    }
+
+    @Override
+    public String toString() {
+      return "window(" + windowSecs + "s)";
+    }
+  }
+
+  /**
+   * Adds each tick's gain to the balance, but keeps the balance within
+   * [-max, max], so that neither credit nor debt can exceed max.
+   */
+  static class CappedBalance implements CreditPolicy {
+    private final float max;
+
+    CappedBalance(float max) {
+      if (max < 0)
+        throw new IllegalArgumentException("Credit cap must not be negative");
+      this.max = max;
+    }
+
+    public float updateBalance(String pool, TaskType type, float balance,
+        float gain, long tickSecs) {
+      return Math.max(-max, Math.min(max, balance + gain));
+    }
+
+    @Override
+    public String toString() {
+      return "capped(max=" + max + ")";
+    }
+  }
+}
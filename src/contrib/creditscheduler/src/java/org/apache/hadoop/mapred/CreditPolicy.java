@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Decides how a pool's credit balance evolves from one credit update tick to
+ * the next, given the credit the pool gained (or lost) during the tick.
+ *
+ * Credits are counted in slots per tick: a pool that lends one slot for a
+ * whole tick gains one credit. Policies whose parameters are durations are
+ * given the length of a tick so that they can be configured in seconds
+ * regardless of mapred.fairscheduler.creditupdateinterval.
+ *
+ * Policies are configured per pool in the allocation file; see
+ * {@link CreditPolicies} for the policies that are available. A policy may
+ * be shared by several pools and is only called from the credit updater
+ * thread.
+ */
+public interface CreditPolicy {
+  /**
+   * Compute a pool's balance at the end of a tick.
+   *
+   * @param pool name of the pool
+   * @param type task type the balance is for
+   * @param balance balance at the start of the tick
+   * @param gain credit gained during the tick; negative if the pool used
+   *        slots it was not entitled to
+   * @param tickSecs length of the tick in seconds
+   * @return the new balance
+   */
+  public float updateBalance(String pool, TaskType type, float balance,
+      float gain, long tickSecs);
+}
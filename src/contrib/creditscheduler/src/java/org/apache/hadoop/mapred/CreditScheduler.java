@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.mapred;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -28,9 +29,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +39,7 @@ import org.apache.hadoop.mapreduce.server.jobtracker.TaskTracker;
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.net.Node;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.mapred.SchedulingAlgorithms;
 
@@ -60,10 +59,15 @@ public class CreditScheduler extends TaskScheduler {
   // How often tasks are preempted (must be longer than a couple
   // of heartbeats to give task-kill commands a chance to act).
   protected long preemptionInterval = 15000;
+
+  // How many updates' states are kept for the JSON servlet
+  protected int stateHistorySize = 120;
   
   // Used to iterate through map and reduce task types
   private static final TaskType[] MAP_AND_REDUCE = 
     new TaskType[] {TaskType.MAP, TaskType.REDUCE};
+  private static final TaskType[] REDUCE_AND_MAP =
+    new TaskType[] {TaskType.REDUCE, TaskType.MAP};
   
   // Maximum locality delay when auto-computing locality delays
   private static final long MAX_AUTOCOMPUTED_LOCALITY_DELAY = 15000;
@@ -74,6 +78,11 @@ public class CreditScheduler extends TaskScheduler {
   protected WeightAdjuster weightAdjuster; // Can be null for no weight adjuster
   protected Map<JobInProgress, JobInfo> infos = // per-job scheduling variables
     new HashMap<JobInProgress, JobInfo>();
+  // Order in which pools are offered map and reduce slots on a heartbeat
+  protected PoolPriorityIndex mapPoolIndex =
+    new PoolPriorityIndex(TaskType.MAP);
+  protected PoolPriorityIndex reducePoolIndex =
+    new PoolPriorityIndex(TaskType.REDUCE);
   protected long lastUpdateTime;           // Time when we last updated infos
   protected long lastPreemptionUpdateTime; // Time when we last updated preemption vars
   protected boolean initialized;  // Are we initialized?
@@ -81,23 +90,55 @@ public class CreditScheduler extends TaskScheduler {
   protected boolean assignMultiple; // Simultaneously assign map and reduce?
   protected int mapAssignCap = -1;    // Max maps to launch per heartbeat
   protected int reduceAssignCap = -1; // Max reduces to launch per heartbeat
+  protected boolean assignBatch; // Assign each task type in one batch?
   protected long nodeLocalityDelay;   // Time to wait for node locality
   protected long rackLocalityDelay;   // Time to wait for rack locality
   protected boolean autoComputeLocalityDelay = false; // Compute locality delay
                                                       // from heartbeat interval
+  protected float minLocalityDelayScale; // Fraction of the locality delays
+                                         // that pools owed slots wait
+  // Memory of a map and a reduce slot in MB, against which the memory of
+  // tasks is charged; JobConf.DISABLED_MEMORY_LIMIT if not configured
+  private long mapSlotMemory = JobConf.DISABLED_MEMORY_LIMIT;
+  private long reduceSlotMemory = JobConf.DISABLED_MEMORY_LIMIT;
   protected boolean sizeBasedWeight; // Give larger weights to larger jobs
   protected boolean waitForMapsBeforeLaunchingReduces = true;
   protected boolean preemptionEnabled;
   protected boolean onlyLogPreemption; // Only log when tasks should be killed
   private Clock clock;
   private JobListener jobListener;
+  private TrackerListener trackerListener;
   private JobInitializer jobInitializer;
+  private int prefetchJobs; // Most jobs whose splits may be read ahead
   private boolean mockMode; // Used for unit tests; disables background updates
                             // and scheduler event log
   private CreditSchedulerEventLog eventLog;
+  private CreditSchedulerTrace trace; // Binary trace of heartbeat decisions
   protected long lastDumpTime;       // Time when we last dumped state to log
   protected long lastHeartbeatTime;  // Time we last ran assignTasks 
   private long lastPreemptCheckTime; // Time we last ran preemptTasksIfNecessary
+  // States of the pools at the last stateHistorySize updates, oldest first.
+  // Replaced by a new unmodifiable list at each update; see update()
+  private volatile List<SchedulerState> stateHistory =
+    Collections.emptyList();
+  // Location of the tracker whose heartbeat is being handled, resolved at
+  // most once per heartbeat; see getTrackerNode()
+  private TaskTrackerStatus resolvedTracker;
+  private Node resolvedTrackerNode;
+  
+  // Capacity of the cluster, kept up to date by the TrackerListener. These
+  // are only written with the TaskTrackerManager locked, so they can be read
+  // without taking the lock behind getClusterStatus().
+  private volatile int totalMapSlots;
+  private volatile int totalReduceSlots;
+  private volatile int numTaskTrackers;
+  
+  // Runnable and running tasks of all pools as of the last update(), plus
+  // the tasks assigned since then
+  private int runnableMaps;
+  private int runningMaps;
+  private int runnableReduces;
+  private int runningReduces;
   
   /**
    * A class for holding per-job scheduler variables. These always contain the
@@ -108,6 +149,8 @@ public class CreditScheduler extends TaskScheduler {
     boolean runnable = false;   // Can the job run given user/pool limits?
     // Does this job need to be initialized?
     volatile boolean needsInitializing = true;
+    // Have the job's splits been given to the initializer to read ahead?
+    boolean prefetchRequested = false;
     public JobSchedulable mapSchedulable;
     public JobSchedulable reduceSchedulable;
     // Variables used for delay scheduling
@@ -133,6 +176,7 @@ public class CreditScheduler extends TaskScheduler {
     this.clock = clock;
     this.mockMode = mockMode;
     this.jobListener = new JobListener();
+    this.trackerListener = new TrackerListener();
   }
 
   @Override
@@ -150,10 +194,44 @@ public class CreditScheduler extends TaskScheduler {
         }
         eventLog.init(conf, hostname);
       }
+      // Create the decision trace and start writing it if it is enabled
+      trace = new CreditSchedulerTrace(conf.getInt(
+          "mapred.fairscheduler.trace.buffer.records", 65536));
+      boolean traceEnabled = conf.getBoolean(
+          "mapred.fairscheduler.trace.enabled", false);
+      if (!mockMode && traceEnabled) {
+        String hostname = "localhost";
+        if (taskTrackerManager instanceof JobTracker) {
+          hostname = ((JobTracker) taskTrackerManager).getJobTrackerMachine();
+        }
+        trace.init(conf, hostname);
+      }
       // Initialize other pieces of the scheduler
-      jobInitializer = new JobInitializer(conf, taskTrackerManager);
+      jobInitializer = new JobInitializer(conf, taskTrackerManager, mockMode);
+      prefetchJobs = Math.max(0, conf.getInt(
+          "mapred.fairscheduler.jobinit.prefetch.jobs", 4));
       taskTrackerManager.addJobInProgressListener(jobListener);
+      // Take the trackers that have already joined from the cluster status,
+      // and the ones joining later from tracker events
+      synchronized (taskTrackerManager) {
+        ClusterStatus clusterStatus = taskTrackerManager.getClusterStatus();
+        totalMapSlots = clusterStatus.getMaxMapTasks();
+        totalReduceSlots = clusterStatus.getMaxReduceTasks();
+        numTaskTrackers = clusterStatus.getTaskTrackers();
+        taskTrackerManager.addTaskTrackerListener(trackerListener);
+      }
       poolMgr = new PoolManager(this);
+      boolean ledgerEnabled = conf.getBoolean(
+          "mapred.fairscheduler.credit.ledger.enabled", true);
+      if (!mockMode && ledgerEnabled) {
+        String ledgerDir = conf.get("mapred.fairscheduler.credit.ledger.location",
+            new File(System.getProperty("hadoop.log.dir", ".")).getAbsolutePath()
+            + File.separator + "creditscheduler");
+        int snapshotInterval = conf.getInt(
+            "mapred.fairscheduler.credit.ledger.snapshot.interval", 60);
+        poolMgr.setCreditLedger(
+            new CreditLedger(new File(ledgerDir), snapshotInterval));
+      }
       poolMgr.initialize();
       loadMgr = (LoadManager) ReflectionUtils.newInstance(
           conf.getClass("mapred.fairscheduler.loadmanager", 
@@ -176,6 +254,8 @@ public class CreditScheduler extends TaskScheduler {
           "mapred.fairscheduler.update.interval", 500);
       dumpInterval = conf.getLong(
           "mapred.fairscheduler.dump.interval", 10000);
+      stateHistorySize = Math.max(1, conf.getInt(
+          "mapred.fairscheduler.state.history.size", 120));
       preemptionInterval = conf.getLong(
           "mapred.fairscheduler.preemption.interval", 15000);
       assignMultiple = conf.getBoolean(
@@ -184,6 +264,8 @@ public class CreditScheduler extends TaskScheduler {
           "mapred.fairscheduler.assignmultiple.maps", -1);
       reduceAssignCap = conf.getInt(
           "mapred.fairscheduler.assignmultiple.reduces", -1);
+      assignBatch = conf.getBoolean(
+          "mapred.fairscheduler.assignmultiple.batch", false);
       sizeBasedWeight = conf.getBoolean(
           "mapred.fairscheduler.sizebasedweight", false);
       preemptionEnabled = conf.getBoolean(
@@ -200,6 +282,14 @@ public class CreditScheduler extends TaskScheduler {
           (nodeLocalityDelay == -1 || rackLocalityDelay == -1)) {
         autoComputeLocalityDelay = true; // Compute from heartbeat interval
       }
+      minLocalityDelayScale = Math.max(0f, Math.min(1f, conf.getFloat(
+          "mapred.fairscheduler.locality.delay.minscale", 0.25f)));
+      mapSlotMemory = conf.getLong(
+          JobTracker.MAPRED_CLUSTER_MAP_MEMORY_MB_PROPERTY,
+          JobConf.DISABLED_MEMORY_LIMIT);
+      reduceSlotMemory = conf.getLong(
+          JobTracker.MAPRED_CLUSTER_REDUCE_MEMORY_MB_PROPERTY,
+          JobConf.DISABLED_MEMORY_LIMIT);
       initialized = true;
       running = true;
       lastUpdateTime = clock.getTime();
@@ -214,6 +304,8 @@ public class CreditScheduler extends TaskScheduler {
         infoServer.setAttribute("scheduler", this);
         infoServer.addServlet("scheduler", "/scheduler",
             CreditSchedulerServlet.class);
+        infoServer.addServlet("schedulerstate", "/scheduler/state",
+            CreditSchedulerStateServlet.class);
       }
       
       initMetrics();
@@ -228,6 +320,7 @@ public class CreditScheduler extends TaskScheduler {
   }
 
   private MetricsUpdater metricsUpdater; // responsible for pushing hadoop metrics
+  private PoolMetricsSource poolMetrics; // job turnaround of each pool
 
   /**
    * Returns the LoadManager object used by the Fair Share scheduler
@@ -244,6 +337,7 @@ public class CreditScheduler extends TaskScheduler {
     MetricsContext context = MetricsUtil.getContext("fairscheduler");
     metricsUpdater = new MetricsUpdater();
     context.registerUpdater(metricsUpdater);
+    poolMetrics = PoolMetricsSource.create(this);
   }
 
   @Override
@@ -254,52 +348,22 @@ public class CreditScheduler extends TaskScheduler {
     jobInitializer.terminate();
     if (jobListener != null)
       taskTrackerManager.removeJobInProgressListener(jobListener);
+    if (trackerListener != null)
+      taskTrackerManager.removeTaskTrackerListener(trackerListener);
+    if (poolMgr != null)
+      poolMgr.terminate();
     if (eventLog != null)
       eventLog.shutdown();
+    if (trace != null)
+      trace.shutdown();
     if (metricsUpdater != null) {
       MetricsContext context = MetricsUtil.getContext("fairscheduler");
       context.unregisterUpdater(metricsUpdater);
       metricsUpdater = null;
     }
-  }
- 
-
-  private class JobInitializer {
-    private final int DEFAULT_NUM_THREADS = 1;
-    private ExecutorService threadPool;
-    private TaskTrackerManager ttm;
-    public JobInitializer(Configuration conf, TaskTrackerManager ttm) {
-      int numThreads = conf.getInt("mapred.jobinit.threads",
-          DEFAULT_NUM_THREADS);
-      threadPool = Executors.newFixedThreadPool(numThreads);
-      this.ttm = ttm;
-    }
-    public void initJob(JobInfo jobInfo, JobInProgress job) {
-      if (!mockMode) {
-        threadPool.execute(new InitJob(jobInfo, job));
-      } else {
-        new InitJob(jobInfo, job).run();
-      }
-    }
-    class InitJob implements Runnable {
-      private JobInfo jobInfo;
-      private JobInProgress job;
-      public InitJob(JobInfo jobInfo, JobInProgress job) {
-        this.jobInfo = jobInfo;
-        this.job = job;
-      }
-      public void run() {
-        ttm.initJob(job);
-      }
-    }
-    void terminate() {
-      LOG.info("Shutting down thread pool");
-      threadPool.shutdownNow();
-      try {
-        threadPool.awaitTermination(1, TimeUnit.MINUTES);
-      } catch (InterruptedException e) {
-        // Ignore, we are in shutdown anyway.
-      }
+    if (poolMetrics != null) {
+      poolMetrics.close();
+      poolMetrics = null;
     }
   }
 
@@ -329,7 +393,39 @@ public class CreditScheduler extends TaskScheduler {
   
     @Override
     public void jobUpdated(JobChangeEvent event) {
-      eventLog.log("JOB_UPDATED", event.getJobInProgress().getJobID());
+      JobInProgress job = event.getJobInProgress();
+      eventLog.log("JOB_UPDATED", job.getJobID());
+      if (event instanceof JobStatusChangeEvent) {
+        JobStatusChangeEvent statusEvent = (JobStatusChangeEvent) event;
+        if (statusEvent.getEventType() ==
+              JobStatusChangeEvent.EventType.RUN_STATE_CHANGED &&
+            statusEvent.getNewStatus().getRunState() == JobStatus.SUCCEEDED) {
+          synchronized (CreditScheduler.this) {
+            poolMgr.getPool(job).jobSucceeded(job,
+                getTotalSlots(TaskType.MAP), getTotalSlots(TaskType.REDUCE));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Used to keep the slot totals up to date as trackers join and leave the
+   * cluster of our {@link TaskTrackerManager}.
+   */
+  private class TrackerListener extends TaskTrackerListener {
+    @Override
+    public void trackerAdded(TaskTrackerStatus status) {
+      totalMapSlots += status.getMaxMapSlots();
+      totalReduceSlots += status.getMaxReduceSlots();
+      numTaskTrackers++;
+    }
+
+    @Override
+    public void trackerRemoved(TaskTrackerStatus status) {
+      totalMapSlots -= status.getMaxMapSlots();
+      totalReduceSlots -= status.getMaxReduceSlots();
+      numTaskTrackers--;
     }
   }
 
@@ -376,35 +472,28 @@ public class CreditScheduler extends TaskScheduler {
     if (!initialized) // Don't try to assign tasks if we haven't yet started up
       return null;
     String trackerName = tracker.getTrackerName();
-    eventLog.log("HEARTBEAT", trackerName);
     long currentTime = clock.getTime();
+    // Use the same pool credits throughout this heartbeat
+    CreditSnapshot credits = poolMgr.getCreditSnapshot();
     
-    // Compute total runnable maps and reduces, and currently running ones
-    int runnableMaps = 0;
-    int runningMaps = 0;
-    int runnableReduces = 0;
-    int runningReduces = 0;
-    for (Pool pool: poolMgr.getPools()) {
-      runnableMaps += pool.getMapSchedulable().getDemand();
-      runningMaps += pool.getMapSchedulable().getRunningTasks();
-      runnableReduces += pool.getReduceSchedulable().getDemand();
-      runningReduces += pool.getReduceSchedulable().getRunningTasks();
-    }
+    // Total runnable maps and reduces, and currently running ones
+    int runnableMaps = this.runnableMaps;
+    int runningMaps = this.runningMaps;
+    int runnableReduces = this.runnableReduces;
+    int runningReduces = this.runningReduces;
 
-    ClusterStatus clusterStatus = taskTrackerManager.getClusterStatus();
-    // Compute total map/reduce slots
-    // In the future we can precompute this if the Scheduler becomes a 
-    // listener of tracker join/leave events.
-    int totalMapSlots = getTotalSlots(TaskType.MAP, clusterStatus);
-    int totalReduceSlots = getTotalSlots(TaskType.REDUCE, clusterStatus);
+    // Total map/reduce slots, maintained from tracker join/leave events
+    int totalMapSlots = getTotalSlots(TaskType.MAP);
+    int totalReduceSlots = getTotalSlots(TaskType.REDUCE);
     
-    eventLog.log("RUNNABLE_TASKS", 
+    trace.heartbeat(trackerName,
         runnableMaps, runningMaps, runnableReduces, runningReduces);
 
     // Update time waited for local maps for jobs skipped on last heartbeat
     updateLocalityWaitTimes(currentTime);
     
     TaskTrackerStatus tts = tracker.getStatus();
+    resolvedTracker = null;
 
     int mapsAssigned = 0; // loop counter for map in the below while loop
     int reducesAssigned = 0; // loop counter for reduce in the below while
@@ -420,6 +509,33 @@ public class CreditScheduler extends TaskScheduler {
     Set<JobInProgress> launchedMap = new HashSet<JobInProgress>();
 
     ArrayList<Task> tasks = new ArrayList<Task>();
+    if (assignMultiple && assignBatch) {
+      // Assign each task type in one batch, starting with the type that has
+      // fewer running tasks on the tracker; this replaces the loop below
+      boolean mapsFirst = tts.countMapTasks() <= tts.countReduceTasks();
+      for (TaskType taskType: (mapsFirst ? MAP_AND_REDUCE : REDUCE_AND_MAP)) {
+        if (taskType == TaskType.MAP) {
+          mapsAssigned = assignTaskBatch(TaskType.MAP, tts, currentTime,
+              mapCapacity, runningMaps, runnableMaps, totalMapSlots,
+              visitedForMap, tasks, credits);
+          runningMaps += mapsAssigned;
+        } else {
+          reducesAssigned = assignTaskBatch(TaskType.REDUCE, tts, currentTime,
+              reduceCapacity, runningReduces, runnableReduces,
+              totalReduceSlots, visitedForReduce, tasks, credits);
+          runningReduces += reducesAssigned;
+        }
+      }
+      for (Task task: tasks) {
+        if (task.isMapTask()) {
+          JobInProgress job = taskTrackerManager.getJob(task.getJobID());
+          launchedMap.add(job);
+          updateLastMapLocalityLevel(job, task, tts);
+        }
+      }
+      mapRejected = true;
+      reduceRejected = true;
+    }
     // Scan jobs to assign tasks until neither maps nor reduces can be assigned
     while (true) {
       // Computing the ending conditions for the loop
@@ -431,7 +547,8 @@ public class CreditScheduler extends TaskScheduler {
         if (mapsAssigned == mapCapacity ||
             runningMaps == runnableMaps ||
             !loadMgr.canAssignMap(tts, runnableMaps, totalMapSlots)) {
-          eventLog.log("INFO", "Can't assign another MAP to " + trackerName);
+          trace.reject(trackerName, TaskType.MAP,
+              mapsAssigned, runningMaps, runnableMaps);
           mapRejected = true;
         }
       }
@@ -439,7 +556,8 @@ public class CreditScheduler extends TaskScheduler {
         if (reducesAssigned == reduceCapacity ||
             runningReduces == runnableReduces ||
             !loadMgr.canAssignReduce(tts, runnableReduces, totalReduceSlots)) {
-          eventLog.log("INFO", "Can't assign another REDUCE to " + trackerName);
+          trace.reject(trackerName, TaskType.REDUCE,
+              reducesAssigned, runningReduces, runnableReduces);
           reduceRejected = true;
         }
       }
@@ -468,38 +586,25 @@ public class CreditScheduler extends TaskScheduler {
         }
       }
 
-      // Get the map or reduce schedulables and sort them by fair sharing
-      List<PoolSchedulable> scheds = getPoolSchedulables(taskType);
-      Collections.sort(scheds, new SchedulingAlgorithms.SlotsComparator(taskType));
-      
+      // Get the map or reduce schedulables in the order they are offered
+      // slots: by slots gap while some pool with demand is below its min
+      // share, and by credit once every such pool has reached it
+      PoolPriorityIndex poolIndex = getPoolIndex(taskType);
+      Collection<PoolSchedulable> scheds = poolIndex.getOrderedPools();
       
-//      boolean sortByCredits = false;
-      for (PoolSchedulable poolsched : scheds) {
-    	  if (poolsched.getDemand() > 0) {
-    		  if (poolsched.getSlotsGap() >= 0) { 
-    			  //if the first pool whose demand has been over the minimum share
-    			  //we believe that we should give resources
-    			  Collections.sort(scheds, new SchedulingAlgorithms.CreditComparator(taskType));
-    			  LOG.warn("largest credit owner:" + scheds.get(0).toString() + ":" + 
-    					  scheds.get(0).getSlotsGap());
-    		  }
-    		  break;
-    	  }
-      }
-      
-      
-      boolean foundTask = false;
-      for (Schedulable sched: scheds) { // This loop will assign only one task
-        eventLog.log("INFO", "Checking for " + taskType +
-            " task in " + sched.getName());
+      PoolSchedulable assignedPool = null;
+      for (PoolSchedulable sched: scheds) { // This loop will assign only one task
+        trace.check(trackerName, taskType, sched.getName(),
+            sched.indexedSlotsGap, sched.indexedCredit);
         Task task = taskType == TaskType.MAP ? 
-                    sched.assignTask(tts, currentTime, visitedForMap) : 
-                    sched.assignTask(tts, currentTime, visitedForReduce);
+                    sched.assignTask(tts, currentTime, visitedForMap,
+                        credits) :
+                    sched.assignTask(tts, currentTime, visitedForReduce,
+                        credits);
         if (task != null) {
-          foundTask = true;
           JobInProgress job = taskTrackerManager.getJob(task.getJobID());
-          eventLog.log("ASSIGN", trackerName, taskType,
-              job.getJobID(), task.getTaskID());
+          trace.assign(trackerName, taskType, poolMgr.getPoolName(job),
+              task.getTaskID());
           // Update running task counts, and the job's locality level
           if (taskType == TaskType.MAP) {
             launchedMap.add(job);
@@ -512,12 +617,17 @@ public class CreditScheduler extends TaskScheduler {
           }
           // Add task to the list of assignments
           tasks.add(task);
+          assignedPool = sched;
           break; // This break makes this loop assign only one task
         } // end if(task != null)
       } // end for(Schedulable sched: scheds)
 
       // Reject the task type if we cannot find a task
-      if (!foundTask) {
+      if (assignedPool != null) {
+        // The pool's slots gap grew by one; move it to its new position
+        poolIndex.reposition(assignedPool, credits);
+      } else {
+        trace.noTask(trackerName, taskType);
         if (taskType == TaskType.MAP) {
           mapRejected = true;
         } else {
@@ -525,6 +635,8 @@ public class CreditScheduler extends TaskScheduler {
         }
       }
     } // end while (true)
+    this.runningMaps = runningMaps;
+    this.runningReduces = runningReduces;
 
     // Mark any jobs that were visited for map tasks but did not launch a task
     // as skipped on this heartbeat
@@ -538,6 +650,56 @@ public class CreditScheduler extends TaskScheduler {
     return tasks.isEmpty() ? null : tasks;
   }
 
+  /**
+   * Assign up to capacity tasks of a type to a tracker in one batch (see
+   * {@link PoolSchedulable#assignTasks(PoolPriorityIndex, TaskTrackerStatus,
+   * long, Collection, int, List, CreditSnapshot)}), adding them to tasks,
+   * and return how many were assigned. The load manager is asked once for
+   * the whole batch, as the tracker status it judges by does not change
+   * during a heartbeat.
+   */
+  private int assignTaskBatch(TaskType taskType, TaskTrackerStatus tts,
+      long currentTime, int capacity, int runningTasks, int runnableTasks,
+      int totalSlots, Collection<JobInProgress> visited, List<Task> tasks,
+      CreditSnapshot credits) throws IOException {
+    String trackerName = tts.getTrackerName();
+    int maxTasks = Math.min(capacity, runnableTasks - runningTasks);
+    boolean canAssign = (taskType == TaskType.MAP ?
+        loadMgr.canAssignMap(tts, runnableTasks, totalSlots) :
+        loadMgr.canAssignReduce(tts, runnableTasks, totalSlots));
+    if (maxTasks <= 0 || !canAssign) {
+      trace.reject(trackerName, taskType, 0, runningTasks, runnableTasks);
+      return 0;
+    }
+    int first = tasks.size();
+    int assigned = PoolSchedulable.assignTasks(getPoolIndex(taskType), tts,
+        currentTime, visited, maxTasks, tasks, credits);
+    if (assigned == 0) {
+      trace.noTask(trackerName, taskType);
+    }
+    for (Task task: tasks.subList(first, tasks.size())) {
+      JobInProgress job = taskTrackerManager.getJob(task.getJobID());
+      trace.assign(trackerName, taskType, poolMgr.getPoolName(job),
+          task.getTaskID());
+    }
+    return assigned;
+  }
+
+  /**
+   * Get the node of the network topology that a tracker runs on, or null if
+   * its host has not been resolved by the JobTracker yet. This is looked up
+   * once per heartbeat, for all the jobs that are offered the tracker.
+   */
+  Node getTrackerNode(TaskTrackerStatus tts) {
+    assert Thread.holdsLock(this);
+    if (resolvedTracker != tts) {
+      resolvedTracker = tts;
+      resolvedTrackerNode = (taskTrackerManager instanceof JobTracker ?
+          ((JobTracker) taskTrackerManager).getNode(tts.getHost()) : null);
+    }
+    return resolvedTrackerNode;
+  }
+
   /**
    * Get maximum number of tasks to assign on a TaskTracker on a heartbeat.
    * The scheduler may launch fewer than this many tasks if the LoadManager
@@ -594,7 +756,8 @@ public class CreditScheduler extends TaskScheduler {
    * or lower, unless it has waited at least nodeLocalityDelay or
    * rackLocalityDelay milliseconds depends on the current level. If it
    * has waited (nodeLocalityDelay + rackLocalityDelay) milliseconds,
-   * it can go to any level.
+   * it can go to any level. Both delays are scaled by the locality delay
+   * scale of the job's pool; see {@link #getLocalityDelayScale}.
    */
   protected LocalityLevel getAllowedLocalityLevel(JobInProgress job,
       long currentTime) {
@@ -610,7 +773,8 @@ public class CreditScheduler extends TaskScheduler {
     // Don't wait for locality if the job's pool is starving for maps
     Pool pool = poolMgr.getPool(job);
     PoolSchedulable sched = pool.getMapSchedulable();
-    long minShareTimeout = poolMgr.getMinSharePreemptionTimeout(pool.getName());
+    long minShareTimeout =
+      poolMgr.getPoolAllocation(pool).getMinSharePreemptionTimeout();
     long fairShareTimeout = poolMgr.getFairSharePreemptionTimeout();
     if (currentTime - sched.getLastTimeAtMinShare() > minShareTimeout ||
         currentTime - sched.getLastTimeAtHalfFairShare() > fairShareTimeout) {
@@ -619,17 +783,19 @@ public class CreditScheduler extends TaskScheduler {
       return LocalityLevel.ANY;
     }
     // In the common case, compute locality level based on time waited
+    float delayScale = sched.getLocalityDelayScale();
+    long nodeDelay = (long) (nodeLocalityDelay * delayScale);
+    long rackDelay = (long) (rackLocalityDelay * delayScale);
     switch(info.lastMapLocalityLevel) {
     case NODE: // Last task launched was node-local
-      if (info.timeWaitedForLocalMap >=
-          nodeLocalityDelay + rackLocalityDelay)
+      if (info.timeWaitedForLocalMap >= nodeDelay + rackDelay)
         return LocalityLevel.ANY;
-      else if (info.timeWaitedForLocalMap >= nodeLocalityDelay)
+      else if (info.timeWaitedForLocalMap >= nodeDelay)
         return LocalityLevel.RACK;
       else
         return LocalityLevel.NODE;
     case RACK: // Last task launched was rack-local
-      if (info.timeWaitedForLocalMap >= rackLocalityDelay)
+      if (info.timeWaitedForLocalMap >= rackDelay)
         return LocalityLevel.ANY;
       else
         return LocalityLevel.RACK;
@@ -644,10 +810,6 @@ public class CreditScheduler extends TaskScheduler {
    * and needed tasks of each type. 
    */
   protected void update() {
-    // Making more granular locking so that clusterStatus can be fetched 
-    // from Jobtracker without locking the scheduler.
-    ClusterStatus clusterStatus = taskTrackerManager.getClusterStatus();
-    
     // Recompute locality delay from JobTracker heartbeat interval if enabled.
     // This will also lock the JT, so do it outside of a fair scheduler lock.
     if (autoComputeLocalityDelay) {
@@ -657,7 +819,6 @@ public class CreditScheduler extends TaskScheduler {
       rackLocalityDelay = nodeLocalityDelay;
     }
     
-    // Got clusterStatus hence acquiring scheduler lock now.
     synchronized (this) {
       // Reload allocations file if it hasn't been loaded in a while
       poolMgr.reloadAllocsIfNecessary();
@@ -677,53 +838,194 @@ public class CreditScheduler extends TaskScheduler {
       
       updateRunnability(); // Set job runnability based on user/pool limits 
       
-      // Update demands of jobs and pools
-      for (Pool pool: poolMgr.getPools()) {
-        pool.getMapSchedulable().updateDemand();
-        pool.getReduceSchedulable().updateDemand();
+      // Update demands and running tasks of jobs and pools, and their totals.
+      // Parent pools update the pools nested in them and sum up theirs.
+      List<Pool> rootPools = poolMgr.getRootPools();
+      runnableMaps = 0;
+      runningMaps = 0;
+      runnableReduces = 0;
+      runningReduces = 0;
+      for (Pool pool: rootPools) {
+        PoolSchedulable mapSched = pool.getMapSchedulable();
+        PoolSchedulable reduceSched = pool.getReduceSchedulable();
+        mapSched.updateDemand();
+        reduceSched.updateDemand();
+        runnableMaps += mapSched.getDemand();
+        runningMaps += mapSched.getRunningTasks();
+        runnableReduces += reduceSched.getDemand();
+        runningReduces += reduceSched.getRunningTasks();
       }
       
-      // Compute fair shares based on updated demands
-      List<PoolSchedulable> mapScheds = getPoolSchedulables(TaskType.MAP);
-      List<PoolSchedulable> reduceScheds = getPoolSchedulables(TaskType.REDUCE);
+      // Compute fair shares of the top-level pools based on updated demands
+      List<PoolSchedulable> mapScheds =
+        getPoolSchedulables(rootPools, TaskType.MAP);
+      List<PoolSchedulable> reduceScheds =
+        getPoolSchedulables(rootPools, TaskType.REDUCE);
       SchedulingAlgorithms.computeFairShares(
-          mapScheds, clusterStatus.getMaxMapTasks());
+          mapScheds, getTotalSlots(TaskType.MAP));
       SchedulingAlgorithms.computeFairShares(
-          reduceScheds, clusterStatus.getMaxReduceTasks());
+          reduceScheds, getTotalSlots(TaskType.REDUCE));
       
-      // Use the computed shares to assign shares within each pool
-      for (Pool pool: poolMgr.getPools()) {
+      // Use the computed shares to assign shares within each pool, and
+      // within the pools nested in it
+      for (Pool pool: rootPools) {
         pool.getMapSchedulable().redistributeShare();
         pool.getReduceSchedulable().redistributeShare();
       }
       
+      // Move pools whose running tasks, demand or credit changed since the
+      // last update to their new place in the slot offer order, at every
+      // level of the pool tree
+      CreditSnapshot credits = poolMgr.getCreditSnapshot();
+      for (Pool pool: rootPools) {
+        pool.getMapSchedulable().updateChildIndex(credits);
+        pool.getReduceSchedulable().updateChildIndex(credits);
+        mapPoolIndex.reposition(pool.getMapSchedulable(), credits);
+        reducePoolIndex.reposition(pool.getReduceSchedulable(), credits);
+      }
+      
+      updateLocalityDelayScales(credits);
+      
       if (preemptionEnabled)
         updatePreemptionVariables();
+      
+      publishState(credits);
+    }
+  }
+
+  /**
+   * Capture the state of the pools after an update, and publish it along
+   * with the states of the previous updates.
+   */
+  private void publishState(CreditSnapshot credits) {
+    SchedulerState state = SchedulerState.capture(clock.getTime(),
+        poolMgr.getPools(), credits);
+    List<SchedulerState> oldHistory = stateHistory;
+    int keep = Math.min(oldHistory.size(), stateHistorySize - 1);
+    List<SchedulerState> history = new ArrayList<SchedulerState>(keep + 1);
+    history.addAll(oldHistory.subList(oldHistory.size() - keep,
+        oldHistory.size()));
+    history.add(state);
+    stateHistory = Collections.unmodifiableList(history);
+  }
+
+  /**
+   * Get the states of the pools at the last updates, oldest first. This does
+   * not take the scheduler lock, and the list does not change once returned.
+   */
+  List<SchedulerState> getStateHistory() {
+    return stateHistory;
+  }
+
+  /**
+   * Set the fraction of the locality delays that the jobs of each pool wait
+   * for local maps, from the pools' credits and slots gaps.
+   */
+  private void updateLocalityDelayScales(CreditSnapshot credits) {
+    // Jobs only run in leaf pools
+    List<PoolSchedulable> scheds =
+      getPoolSchedulables(poolMgr.getLeafPools(), TaskType.MAP);
+    float maxCredit = 0;
+    int waitingPools = 0;
+    for (PoolSchedulable sched: scheds) {
+      maxCredit = Math.max(maxCredit,
+          credits.getCredit(sched.getName(), TaskType.MAP));
+      if (sched.getDemand() > sched.getRunningTasks())
+        waitingPools++;
+    }
+    for (PoolSchedulable sched: scheds) {
+      sched.setLocalityDelayScale(getLocalityDelayScale(
+          sched.getRunningTasks(), sched.getMinShare(),
+          sched.getDemand() > sched.getRunningTasks(), waitingPools,
+          credits.getCredit(sched.getName(), TaskType.MAP), maxCredit,
+          minLocalityDelayScale));
     }
   }
 
+  /**
+   * Get the fraction of the configured locality delays that the jobs of a
+   * pool wait for local maps. Waiting for locality lets the slots that are
+   * not local to a job go to other pools, which is only worth it for pools
+   * that are not owed slots:
+   * - A pool that is the only one waiting for slots waits the least, since
+   *   no other pool can use the slots it passes up.
+   * - A pool with positive credit waits less the more credit it has, down
+   *   to minScale for the pool with the most credit.
+   * - A pool below its min share waits at most the fraction of its min share
+   *   that it runs, but never less than minScale.
+   */
+  static float getLocalityDelayScale(int runningTasks, int minShare,
+      boolean waiting, int waitingPools, float credit, float maxCredit,
+      float minScale) {
+    if (waiting && waitingPools == 1)
+      return minScale;
+    float scale = 1f;
+    if (credit > 0 && maxCredit > 0)
+      scale -= (1f - minScale) * Math.min(1f, credit / maxCredit);
+    if (runningTasks < minShare)
+      scale = Math.min(scale,
+          minScale + (1f - minScale) * runningTasks / minShare);
+    return Math.max(minScale, scale);
+  }
+
   private void jobNoLongerRunning(JobInProgress job) {
     assert Thread.holdsLock(this);
     JobInfo info = infos.remove(job);
     if (info != null) {
       info.mapSchedulable.cleanupMetrics();
       info.reduceSchedulable.cleanupMetrics();
+      info.mapSchedulable.stopDemandTracking();
+      info.reduceSchedulable.stopDemandTracking();
     }
+    Pool jobPool = poolMgr.getPool(job);
     poolMgr.removeJob(job);
+    // The job's pool and the pools it is nested in lost its running tasks
+    CreditSnapshot credits = poolMgr.getCreditSnapshot();
+    for (Pool pool = jobPool; pool != null;
+        pool = pool.getParent()) {
+      for (TaskType type: MAP_AND_REDUCE) {
+        Pool parent = pool.getParent();
+        PoolPriorityIndex index = (parent == null ? getPoolIndex(type) :
+          parent.getSchedulable(type).getChildIndex());
+        index.reposition(pool.getSchedulable(type), credits);
+      }
+    }
   }
   
   public List<PoolSchedulable> getPoolSchedulables(TaskType type) {
+    return getPoolSchedulables(poolMgr.getPools(), type);
+  }
+  
+  private static List<PoolSchedulable> getPoolSchedulables(
+      Collection<Pool> pools, TaskType type) {
     List<PoolSchedulable> scheds = new ArrayList<PoolSchedulable>();
-    for (Pool pool: poolMgr.getPools()) {
+    for (Pool pool: pools) {
       scheds.add(pool.getSchedulable(type));
     }
     return scheds;
   }
   
-  private void updateRunnability() {
+  /**
+   * Get the index holding the order in which top-level pools are offered
+   * slots of a given task type.
+   */
+  PoolPriorityIndex getPoolIndex(TaskType type) {
+    return (type == TaskType.MAP ? mapPoolIndex : reducePoolIndex);
+  }
+  
+  /**
+   * Mark the jobs that user and pool limits let run as runnable, and give
+   * the ones not initialized yet to the job initializer. The first job
+   * waiting on each limit is expected to run once a job ahead of it is
+   * done, so up to prefetchJobs such jobs have their splits read ahead.
+   */
+  void updateRunnability() {
     // Start by marking everything as not runnable
+    int prefetchesLeft = prefetchJobs;
     for (JobInfo info: infos.values()) {
       info.runnable = false;
+      if (info.prefetchRequested && info.needsInitializing)
+        prefetchesLeft--;
     }
     // Create a list of sorted jobs in order of start time and priority
     List<JobInProgress> jobs = new ArrayList<JobInProgress>(infos.keySet());
@@ -731,14 +1033,17 @@ public class CreditScheduler extends TaskScheduler {
     // Mark jobs as runnable in order of start time and priority, until
     // user or pool limits have been reached.
     Map<String, Integer> userJobs = new HashMap<String, Integer>();
-    Map<String, Integer> poolJobs = new HashMap<String, Integer>();
+    Map<Pool, Integer> poolJobs = new HashMap<Pool, Integer>();
+    Set<String> waitingUsers = new HashSet<String>();
+    Set<Pool> waitingPools = new HashSet<Pool>();
     for (JobInProgress job: jobs) {
       String user = job.getJobConf().getUser();
-      String pool = poolMgr.getPoolName(job);
+      Pool pool = poolMgr.getPool(job);
       int userCount = userJobs.containsKey(user) ? userJobs.get(user) : 0;
       int poolCount = poolJobs.containsKey(pool) ? poolJobs.get(pool) : 0;
-      if (userCount < poolMgr.getUserMaxJobs(user) &&
-          poolCount < poolMgr.getPoolMaxJobs(pool)) {
+      int userMaxJobs = poolMgr.getUserMaxJobs(user);
+      int poolMaxJobs = poolMgr.getPoolAllocation(pool).getMaxRunningJobs();
+      if (userCount < userMaxJobs && poolCount < poolMaxJobs) {
         if (job.getStatus().getRunState() == JobStatus.RUNNING ||
             job.getStatus().getRunState() == JobStatus.PREP) {
           userJobs.put(user, userCount + 1);
@@ -751,10 +1056,25 @@ public class CreditScheduler extends TaskScheduler {
             // for initialization if we have not already done it.
             if (jobInfo.needsInitializing) {
               jobInfo.needsInitializing = false;
-              jobInitializer.initJob(jobInfo, job);
+              jobInitializer.initJob(job);
             }
           }
         }
+      } else if (job.getStatus().getRunState() == JobStatus.PREP) {
+        // Waiting on a limit: the job runs next if no other job waits
+        // ahead of it on the limits it waits on
+        boolean next = true;
+        if (userCount >= userMaxJobs)
+          next &= waitingUsers.add(user);
+        if (poolCount >= poolMaxJobs)
+          next &= waitingPools.add(pool);
+        JobInfo jobInfo = infos.get(job);
+        if (next && prefetchesLeft > 0 && jobInfo.needsInitializing &&
+            !jobInfo.prefetchRequested) {
+          jobInfo.prefetchRequested = true;
+          prefetchesLeft--;
+          jobInitializer.prefetchSplits(job);
+        }
       }
     }
   }
@@ -796,9 +1116,16 @@ public class CreditScheduler extends TaskScheduler {
     return poolMgr;
   }
 
-  private int getTotalSlots(TaskType type, ClusterStatus clusterStatus) {
-    return (type == TaskType.MAP ?
-      clusterStatus.getMaxMapTasks() : clusterStatus.getMaxReduceTasks());
+  private int getTotalSlots(TaskType type) {
+    return (type == TaskType.MAP ? totalMapSlots : totalReduceSlots);
+  }
+
+  /**
+   * Get the number of trackers whose slots count towards the cluster capacity,
+   * without locking the {@link TaskTrackerManager}.
+   */
+  int getNumTaskTrackers() {
+    return numTaskTrackers;
   }
 
   /**
@@ -809,8 +1136,9 @@ public class CreditScheduler extends TaskScheduler {
   private void updatePreemptionVariables() {
     long now = clock.getTime();
     lastPreemptionUpdateTime = now;
+    List<Pool> leafPools = poolMgr.getLeafPools();
     for (TaskType type: MAP_AND_REDUCE) {
-      for (PoolSchedulable sched: getPoolSchedulables(type)) {
+      for (PoolSchedulable sched: getPoolSchedulables(leafPools, type)) {
         if (!isStarvedForMinShare(sched)) {
           sched.setLastTimeAtMinShare(now);
         }
@@ -847,7 +1175,8 @@ public class CreditScheduler extends TaskScheduler {
    * below their guaranteed share for minSharePreemptionTimeout or they
    * have been below half their fair share for the fairSharePreemptionTimeout.
    * If such pools exist, compute how many tasks of each type need to be
-   * preempted and then select the right ones using preemptTasks.
+   * preempted, select the right ones using the {@link PreemptionPlanner}
+   * and kill them using preemptTasks.
    * 
    * This method computes and logs the number of tasks we want to preempt even
    * if preemption is disabled, for debugging purposes.
@@ -861,91 +1190,48 @@ public class CreditScheduler extends TaskScheduler {
       return;
     lastPreemptCheckTime = curTime;
     
-    // Acquire locks on both the JobTracker (task tracker manager) and this
-    // because we might need to call some JobTracker methods (killTask).
-    synchronized (taskTrackerManager) {
-      synchronized (this) {
-        for (TaskType type: MAP_AND_REDUCE) {
-          List<PoolSchedulable> scheds = getPoolSchedulables(type);
-          int tasksToPreempt = 0;
-          for (PoolSchedulable sched: scheds) {
-            tasksToPreempt += tasksToPreempt(sched, curTime);
-          }
-          if (tasksToPreempt > 0) {
-            eventLog.log("SHOULD_PREEMPT", type, tasksToPreempt);
-            if (!onlyLogPreemption) {
-              preemptTasks(scheds, tasksToPreempt);
-            }
+    // Choose the victims holding only our lock, and acquire the JobTracker
+    // (task tracker manager) lock only to kill them
+    List<PreemptionPlanner.Victim> victims =
+      new ArrayList<PreemptionPlanner.Victim>();
+    synchronized (this) {
+      // Jobs only run in leaf pools, whose fair shares include their share
+      // of their parents'
+      List<Pool> leafPools = poolMgr.getLeafPools();
+      for (TaskType type: MAP_AND_REDUCE) {
+        List<PoolSchedulable> scheds = getPoolSchedulables(leafPools, type);
+        int tasksToPreempt = 0;
+        for (PoolSchedulable sched: scheds) {
+          tasksToPreempt += tasksToPreempt(sched, curTime);
+        }
+        if (tasksToPreempt > 0) {
+          eventLog.log("SHOULD_PREEMPT", type, tasksToPreempt);
+          if (!onlyLogPreemption) {
+            victims.addAll(PreemptionPlanner.planVictims(
+                PreemptionPlanner.collectVictims(scheds, curTime),
+                tasksToPreempt));
           }
         }
       }
     }
+    if (!victims.isEmpty()) {
+      preemptTasks(victims);
+    }
   }
 
   /**
-   * Preempt a given number of tasks from a list of PoolSchedulables. 
-   * The policy for this is to pick tasks from pools that are over their fair 
-   * share, but make sure that no pool is placed below its fair share in the 
-   * process. Furthermore, we want to minimize the amount of computation
-   * wasted by preemption, so out of the tasks in over-scheduled pools, we
-   * prefer to preempt tasks that started most recently.
+   * Kill the tasks chosen by the {@link PreemptionPlanner}. Tasks that
+   * finished since they were chosen are left alone by the JobTracker.
    */
-  private void preemptTasks(List<PoolSchedulable> scheds, int tasksToPreempt) {
-    if (scheds.isEmpty() || tasksToPreempt == 0)
-      return;
-    
-    TaskType taskType = scheds.get(0).getTaskType();
-    
-    // Collect running tasks of our type from over-scheduled pools
-    List<TaskStatus> runningTasks = new ArrayList<TaskStatus>();
-    for (PoolSchedulable sched: scheds) {
-      if (sched.getRunningTasks() > sched.getFairShare())
-      for (JobSchedulable js: sched.getJobSchedulables()) {
-        runningTasks.addAll(getRunningTasks(js.getJob(), taskType));
-      }
-    }
-    
-    // Sort tasks into reverse order of start time
-    Collections.sort(runningTasks, new Comparator<TaskStatus>() {
-      public int compare(TaskStatus t1, TaskStatus t2) {
-        if (t1.getStartTime() < t2.getStartTime())
-          return 1;
-        else if (t1.getStartTime() == t2.getStartTime())
-          return 0;
-        else
-          return -1;
-      }
-    });
-    
-    // Maintain a count of tasks left in each pool; this is a bit
-    // faster than calling runningTasks() on the pool repeatedly
-    // because the latter must scan through jobs in the pool
-    HashMap<Pool, Integer> tasksLeft = new HashMap<Pool, Integer>(); 
-    for (Pool p: poolMgr.getPools()) {
-      tasksLeft.put(p, p.getSchedulable(taskType).getRunningTasks());
-    }
-    
-    // Scan down the sorted list of task statuses until we've killed enough
-    // tasks, making sure we don't kill too many from any pool
-    for (TaskStatus status: runningTasks) {
-      JobID jobID = status.getTaskID().getJobID();
-      JobInProgress job = taskTrackerManager.getJob(jobID);
-      Pool pool = poolMgr.getPool(job);
-      PoolSchedulable sched = pool.getSchedulable(taskType);
-      int tasksLeftForPool = tasksLeft.get(pool);
-      if (tasksLeftForPool > sched.getFairShare()) {
-        eventLog.log("PREEMPT", status.getTaskID(),
-            status.getTaskTracker());
+  private void preemptTasks(List<PreemptionPlanner.Victim> victims) {
+    synchronized (taskTrackerManager) {
+      for (PreemptionPlanner.Victim victim: victims) {
+        eventLog.log("PREEMPT", victim.getAttemptId(),
+            victim.getTrackerName());
         try {
-          taskTrackerManager.killTask(status.getTaskID(), false);
-          tasksToPreempt--;
-          if (tasksToPreempt == 0)
-            break;
-          
-          // reduce tasks left for pool
-          tasksLeft.put(pool, --tasksLeftForPool);
+          taskTrackerManager.killTask(victim.getAttemptId(), false);
         } catch (IOException e) {
-          LOG.error("Failed to kill task " + status.getTaskID(), e);
+          LOG.error("Failed to kill task " + victim.getAttemptId(), e);
         }
       }
     }
@@ -962,8 +1248,8 @@ public class CreditScheduler extends TaskScheduler {
    * be identical for some reason).
    */
   protected int tasksToPreempt(PoolSchedulable sched, long curTime) {
-    String pool = sched.getName();
-    long minShareTimeout = poolMgr.getMinSharePreemptionTimeout(pool);
+    long minShareTimeout =
+      poolMgr.getPoolAllocation(sched.getPool()).getMinSharePreemptionTimeout();
     long fairShareTimeout = poolMgr.getFairSharePreemptionTimeout();
     int tasksDueToMinShare = 0;
     int tasksDueToFairShare = 0;
@@ -987,36 +1273,6 @@ public class CreditScheduler extends TaskScheduler {
     return tasksToPreempt;
   }
 
-  private List<TaskStatus> getRunningTasks(JobInProgress job, TaskType type) {
-    // Create a list of all running TaskInProgress'es in the job
-    Set<TaskInProgress> tips = new HashSet<TaskInProgress>();
-    if (type == TaskType.MAP) {
-      // Jobs may have both "non-local maps" which have a split with no locality
-      // info (e.g. the input file is not in HDFS), and maps with locality info,
-      // which are stored in the runningMapCache map from location to task list
-      tips.addAll(job.nonLocalRunningMaps);
-      for (Set<TaskInProgress> set: job.runningMapCache.values()) {
-        tips.addAll(set);
-      }
-    }
-    else {
-      tips.addAll(job.runningReduces);
-    }
-    // Get the active TaskStatus'es for each TaskInProgress (there may be
-    // more than one if the task has multiple copies active due to speculation)
-    List<TaskStatus> statuses = new ArrayList<TaskStatus>();
-    for (TaskInProgress tip: tips) {
-      for (TaskAttemptID id: tip.getActiveTasks().keySet()) {
-        TaskStatus stat = tip.getTaskStatus(id);
-        // status is null when the task has been scheduled but not yet running
-        if (stat != null) {
-          statuses.add(stat);
-        }
-      }
-    }
-    return statuses;
-  }
-
   protected boolean isRunnable(JobInProgress job) {
     JobInfo info = infos.get(job);
     if (info == null) return false;
@@ -1101,6 +1357,22 @@ public class CreditScheduler extends TaskScheduler {
   public Clock getClock() {
     return clock;
   }
+
+  /**
+   * Get the memory of a slot of the given type in MB, as configured for the
+   * cluster, or {@link JobConf#DISABLED_MEMORY_LIMIT} if it is not.
+   */
+  long getSlotMemory(TaskType type) {
+    return (type == TaskType.MAP ? mapSlotMemory : reduceSlotMemory);
+  }
+
+  /**
+   * Whether background threads are disabled, in which case the owner of the
+   * scheduler drives updates and credit ticks itself.
+   */
+  boolean isMockMode() {
+    return mockMode;
+  }
   
   public CreditSchedulerEventLog getEventLog() {
     return eventLog;
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.mapred.SchedulerState.PoolState;
+import org.apache.hadoop.mapred.SchedulerState.SlotState;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Servlet serving the state of the credit scheduler's pools as JSON,
+ * installed at [job tracker URL]/scheduler/state. Unlike the
+ * {@link CreditSchedulerServlet}, it only reads the states that the
+ * scheduler publishes at each update, so it takes no scheduler or
+ * JobTracker locks and may be polled often.
+ *
+ * The response holds the credit, running tasks, demand, min and fair
+ * shares and slots gap of each pool at the last update. It also holds the
+ * previous updates, oldest first, each as its time and, for every pool, an
+ * array of [map credit, running maps, map demand, reduce credit, running
+ * reduces, reduce demand]. The optional "history" parameter limits the
+ * number of previous updates returned; history=0 leaves them out.
+ */
+public class CreditSchedulerStateServlet extends HttpServlet {
+  private static final long serialVersionUID = 2571736514271283216L;
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private CreditScheduler scheduler;
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    this.scheduler =
+      (CreditScheduler) getServletContext().getAttribute("scheduler");
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+    int maxHistory = Integer.MAX_VALUE;
+    String historyParam = request.getParameter("history");
+    if (historyParam != null) {
+      try {
+        maxHistory = Math.max(0, Integer.parseInt(historyParam));
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "Bad history length: " + historyParam);
+        return;
+      }
+    }
+    response.setContentType("application/json; charset=utf-8");
+    Writer out = response.getWriter();
+    writeJson(scheduler.getStateHistory(), maxHistory, out);
+    out.close();
+  }
+
+  /**
+   * Write the last of the given states, followed by up to maxHistory of
+   * the states before it, as a JSON object.
+   */
+  static void writeJson(List<SchedulerState> states, int maxHistory,
+      Writer out) throws IOException {
+    SchedulerState current = (states.isEmpty() ? SchedulerState.EMPTY :
+        states.get(states.size() - 1));
+    List<SchedulerState> history = states.subList(
+        Math.max(0, states.size() - 1 - maxHistory),
+        Math.max(0, states.size() - 1));
+    JsonGenerator json = JSON_FACTORY.createJsonGenerator(out);
+    json.writeStartObject();
+    json.writeNumberField("time", current.getTime());
+    json.writeNumberField("creditTick", current.getCreditTick());
+    json.writeArrayFieldStart("pools");
+    for (PoolState pool: current.getPools()) {
+      json.writeStartObject();
+      json.writeStringField("name", pool.getName());
+      if (pool.getParent() != null) {
+        json.writeStringField("parent", pool.getParent());
+      }
+      json.writeNumberField("runningJobs", pool.getRunningJobs());
+      writeSlots(json, "map", pool.getSlots(TaskType.MAP));
+      writeSlots(json, "reduce", pool.getSlots(TaskType.REDUCE));
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+    json.writeArrayFieldStart("history");
+    for (SchedulerState state: history) {
+      json.writeStartObject();
+      json.writeNumberField("time", state.getTime());
+      json.writeObjectFieldStart("pools");
+      for (PoolState pool: state.getPools()) {
+        SlotState maps = pool.getSlots(TaskType.MAP);
+        SlotState reduces = pool.getSlots(TaskType.REDUCE);
+        json.writeArrayFieldStart(pool.getName());
+        json.writeNumber(maps.getCredit());
+        json.writeNumber(maps.getRunningTasks());
+        json.writeNumber(maps.getDemand());
+        json.writeNumber(reduces.getCredit());
+        json.writeNumber(reduces.getRunningTasks());
+        json.writeNumber(reduces.getDemand());
+        json.writeEndArray();
+      }
+      json.writeEndObject();
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+    json.writeEndObject();
+    json.flush();
+  }
+
+  private static void writeSlots(JsonGenerator json, String field,
+      SlotState slots) throws IOException {
+    json.writeObjectFieldStart(field);
+    json.writeNumberField("credit", slots.getCredit());
+    json.writeNumberField("runningTasks", slots.getRunningTasks());
+    json.writeNumberField("demand", slots.getDemand());
+    json.writeNumberField("minShare", slots.getMinShare());
+    json.writeNumberField("fairShare", slots.getFairShare());
+    json.writeNumberField("slotsGap", slots.getSlotsGap());
+    json.writeEndObject();
+  }
+}
@@ -0,0 +1,378 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Binary trace of the credit scheduler's per-heartbeat decisions, cheap
+ * enough to leave enabled on a busy JobTracker.
+ *
+ * Events are written into a preallocated ring of fixed-size records without
+ * locking, boxing or string formatting: a writer claims a record with one
+ * atomic increment and fills it with the event type, the time and up to
+ * {@link #ARGS} int arguments. Tracker and pool names are replaced by small
+ * ids, and each name is written to the file once. A daemon thread drains the
+ * ring to a file every <tt>flushInterval</tt> ms. If writers lap the dumper,
+ * the overwritten records are dropped and counted in the file instead of
+ * blocking the heartbeat.
+ *
+ * The file starts with a magic number and version, followed by entries that
+ * each start with a tag byte:
+ * <ul>
+ * <li><tt>NAME</tt>: <tt>(vint id, UTF name)</tt></li>
+ * <li><tt>RECORD</tt>: <tt>(vint event, vlong time delta, vint * args)</tt>,
+ *     where the number of arguments is given by the event, and the time
+ *     delta is relative to the previous record</li>
+ * <li><tt>LOST</tt>: <tt>(vlong count)</tt> records overwritten before they
+ *     could be written</li>
+ * </ul>
+ * Use {@link CreditSchedulerTraceReader} to print a trace file.
+ *
+ * Constructing this class creates a disabled trace. It must be initialized
+ * using {@link #init(Configuration, String)} to begin recording.
+ */
+class CreditSchedulerTrace {
+  private static final Log LOG = LogFactory.getLog(
+    "org.apache.hadoop.mapred.CreditSchedulerTrace");
+
+  static final int MAGIC = 0x43535452; // "CSTR"
+  static final int VERSION = 1;
+  static final byte NAME = 0;
+  static final byte RECORD = 1;
+  static final byte LOST = 2;
+
+  /** Maximum number of int arguments of an event. */
+  static final int ARGS = 5;
+
+  /** Kinds of event arguments, telling the reader how to print them. */
+  enum Arg { NAME, INT, TASK_TYPE, FLOAT }
+
+  /** Events recorded by the trace, with the kinds of their arguments. */
+  enum Event {
+    /** A tracker heartbeat: tracker, runnable and running maps/reduces. */
+    HEARTBEAT(Arg.NAME, Arg.INT, Arg.INT, Arg.INT, Arg.INT),
+    /**
+     * A task type was rejected before looking at the pools, because the
+     * heartbeat's assignment limit was reached, all runnable tasks are
+     * running or the load manager refused: tracker, type, tasks assigned
+     * on this heartbeat, running tasks, runnable tasks.
+     */
+    REJECT(Arg.NAME, Arg.TASK_TYPE, Arg.INT, Arg.INT, Arg.INT),
+    /** A pool was offered a slot: tracker, type, pool, slots gap, credit. */
+    CHECK(Arg.NAME, Arg.TASK_TYPE, Arg.NAME, Arg.INT, Arg.FLOAT),
+    /** A task was assigned: tracker, type, pool, job number, task number. */
+    ASSIGN(Arg.NAME, Arg.TASK_TYPE, Arg.NAME, Arg.INT, Arg.INT),
+    /** No pool had a task of a type for the tracker: tracker, type. */
+    NO_TASK(Arg.NAME, Arg.TASK_TYPE);
+
+    final Arg[] args;
+
+    Event(Arg... args) {
+      this.args = args;
+    }
+  }
+
+  // Record layout in the ring: sequence number, time, event, arguments
+  private static final int WORDS = 3 + ARGS;
+  private static final long IN_PROGRESS = -1;
+  private static final Event[] EVENTS = Event.values();
+
+  private final int capacity;
+  private final int mask;
+  /**
+   * The ring, allocated when the trace is enabled. The first word of a record
+   * holds the sequence number of the event in it once it is complete, and
+   * IN_PROGRESS while it is written.
+   */
+  private AtomicLongArray ring;
+  /** Sequence number of the next event to be recorded. */
+  private final AtomicLong next = new AtomicLong();
+
+  private final ConcurrentHashMap<String, Integer> ids =
+    new ConcurrentHashMap<String, Integer>();
+  private final List<String> names = new ArrayList<String>();
+
+  private volatile boolean enabled = false;
+
+  // State of the dumper; only used under the trace's lock
+  private DataOutputStream out;
+  private long nextToWrite = 0;
+  private int namesWritten = 0;
+  private long lastTime = 0;
+  private final long[] copy = new long[WORDS];
+  private Thread dumper;
+
+  /**
+   * @param capacity number of records held by the ring, rounded up to a
+   *        power of two
+   */
+  CreditSchedulerTrace(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.capacity = size;
+    this.mask = size - 1;
+  }
+
+  /**
+   * Open the trace file in the event log directory, and start a thread that
+   * dumps the ring to it every <tt>mapred.fairscheduler.trace.flush.interval</tt>
+   * ms.
+   */
+  boolean init(Configuration conf, String jobtrackerHostname) {
+    String logDir = conf.get("mapred.fairscheduler.eventlog.location",
+        new File(System.getProperty("hadoop.log.dir")).getAbsolutePath()
+        + File.separator + "fairscheduler");
+    final long flushInterval = conf.getLong(
+        "mapred.fairscheduler.trace.flush.interval", 1000);
+    File file = new File(logDir, String.format("hadoop-%s-creditscheduler-%s"
+        + ".%d.trace", System.getProperty("user.name"), jobtrackerHostname,
+        System.currentTimeMillis()));
+    try {
+      if (!file.getParentFile().isDirectory() &&
+          !file.getParentFile().mkdirs()) {
+        throw new IOException("Mkdirs failed to create " + logDir);
+      }
+      open(new FileOutputStream(file));
+    } catch (IOException e) {
+      LOG.error("Failed to initialize credit scheduler trace. Disabling it.",
+          e);
+      return false;
+    }
+    dumper = new Thread("CreditScheduler trace dumper") {
+      public void run() {
+        while (enabled) {
+          try {
+            Thread.sleep(flushInterval);
+            flush();
+          } catch (InterruptedException e) {
+            break;
+          } catch (IOException e) {
+            LOG.error("Failed to write credit scheduler trace. Disabling it.",
+                e);
+            enabled = false;
+          }
+        }
+      }
+    };
+    dumper.setDaemon(true);
+    dumper.start();
+    LOG.info("Initialized credit scheduler trace, writing to " + file);
+    return true;
+  }
+
+  /**
+   * Start recording into the given stream, which {@link #flush()} writes to.
+   */
+  synchronized void open(OutputStream stream) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    ring = new AtomicLongArray(capacity * WORDS);
+    for (int i = 0; i < capacity; i++) {
+      ring.set(i * WORDS, IN_PROGRESS);
+    }
+    nextToWrite = next.get();
+    enabled = true; // Publishes the ring to writers
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  void heartbeat(String tracker, int runnableMaps, int runningMaps,
+      int runnableReduces, int runningReduces) {
+    if (enabled) {
+      record(Event.HEARTBEAT, id(tracker), runnableMaps, runningMaps,
+          runnableReduces, runningReduces);
+    }
+  }
+
+  void reject(String tracker, TaskType type, int assigned, int running,
+      int runnable) {
+    if (enabled) {
+      record(Event.REJECT, id(tracker), type.ordinal(), assigned, running,
+          runnable);
+    }
+  }
+
+  void check(String tracker, TaskType type, String pool, int slotsGap,
+      float credit) {
+    if (enabled) {
+      record(Event.CHECK, id(tracker), type.ordinal(), id(pool), slotsGap,
+          Float.floatToIntBits(credit));
+    }
+  }
+
+  void assign(String tracker, TaskType type, String pool, TaskAttemptID task) {
+    if (enabled) {
+      record(Event.ASSIGN, id(tracker), type.ordinal(), id(pool),
+          task.getJobID().getId(), task.getTaskID().getId());
+    }
+  }
+
+  void noTask(String tracker, TaskType type) {
+    if (enabled) {
+      record(Event.NO_TASK, id(tracker), type.ordinal(), 0, 0, 0);
+    }
+  }
+
+  private int id(String name) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      synchronized (names) {
+        id = ids.get(name);
+        if (id == null) {
+          id = names.size();
+          names.add(name);
+          ids.put(name, id);
+        }
+      }
+    }
+    return id;
+  }
+
+  private void record(Event event, int a0, int a1, int a2, int a3, int a4) {
+    long seq = next.getAndIncrement();
+    int base = (int) (seq & mask) * WORDS;
+    // Invalidate the record before overwriting it, so that the dumper can
+    // tell a record it copied while it was rewritten
+    ring.lazySet(base, IN_PROGRESS);
+    ring.lazySet(base + 1, System.currentTimeMillis());
+    ring.lazySet(base + 2, event.ordinal());
+    ring.lazySet(base + 3, a0);
+    ring.lazySet(base + 4, a1);
+    ring.lazySet(base + 5, a2);
+    ring.lazySet(base + 6, a3);
+    ring.lazySet(base + 7, a4);
+    ring.lazySet(base, seq);
+  }
+
+  /**
+   * Write the records recorded since the last flush, and the names they use,
+   * to the trace file.
+   */
+  synchronized void flush() throws IOException {
+    if (out == null) {
+      return;
+    }
+    long end = next.get();
+    long lost = 0;
+    if (end - nextToWrite > capacity) {
+      lost = end - capacity - nextToWrite;
+      nextToWrite = end - capacity;
+    }
+    for (; nextToWrite < end; nextToWrite++) {
+      int base = (int) (nextToWrite & mask) * WORDS;
+      boolean valid = ring.get(base) == nextToWrite;
+      for (int i = 1; valid && i < WORDS; i++) {
+        copy[i] = ring.get(base + i);
+      }
+      if (!valid || ring.get(base) != nextToWrite) {
+        // Overwritten by a newer event, or still being written. Either way
+        // it is gone by the time we come back, so count it as lost.
+        lost++;
+        continue;
+      }
+      if (lost > 0) {
+        writeLost(lost);
+        lost = 0;
+      }
+      writeRecord();
+    }
+    if (lost > 0) {
+      writeLost(lost);
+    }
+    out.flush();
+  }
+
+  private void writeRecord() throws IOException {
+    long time = copy[1];
+    Event event = EVENTS[(int) copy[2]];
+    // Names are registered before the records using them are published, so
+    // any name this record refers to is in the list by now
+    for (int i = 0; i < event.args.length; i++) {
+      if (event.args[i] == Arg.NAME && copy[3 + i] >= namesWritten) {
+        writeNames();
+        break;
+      }
+    }
+    out.writeByte(RECORD);
+    WritableUtils.writeVInt(out, event.ordinal());
+    WritableUtils.writeVLong(out, time - lastTime);
+    for (int i = 0; i < event.args.length; i++) {
+      WritableUtils.writeVInt(out, (int) copy[3 + i]);
+    }
+    lastTime = time;
+  }
+
+  private void writeLost(long lost) throws IOException {
+    out.writeByte(LOST);
+    WritableUtils.writeVLong(out, lost);
+  }
+
+  private void writeNames() throws IOException {
+    synchronized (names) {
+      for (; namesWritten < names.size(); namesWritten++) {
+        out.writeByte(NAME);
+        WritableUtils.writeVInt(out, namesWritten);
+        out.writeUTF(names.get(namesWritten));
+      }
+    }
+  }
+
+  /**
+   * Stop recording, write out the records still in the ring and close the
+   * trace file.
+   */
+  void shutdown() {
+    enabled = false;
+    if (dumper != null) {
+      dumper.interrupt();
+    }
+    synchronized (this) {
+      try {
+        flush();
+      } catch (IOException e) {
+        LOG.error("Failed to write credit scheduler trace", e);
+      }
+      IOUtils.closeStream(out);
+      out = null;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.CreditSchedulerTrace.Arg;
+import org.apache.hadoop.mapred.CreditSchedulerTrace.Event;
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Reads a trace written by {@link CreditSchedulerTrace} back as lines in the
+ * tab-separated format of the scheduler's event log:
+ * <pre>
+ * DATE    EVENT_TYPE   PARAM_1   PARAM_2   ...
+ * </pre>
+ * with tracker and pool names in place of their ids. Records that were
+ * dropped because the trace was not written out fast enough show up as a
+ * <tt>LOST</tt> line with the number of records missing.
+ *
+ * Usage: <tt>CreditSchedulerTraceReader &lt;trace file&gt;...</tt>
+ */
+public class CreditSchedulerTraceReader {
+  private static final TaskType[] TASK_TYPES = TaskType.values();
+  private static final Event[] EVENTS = Event.values();
+
+  private final DataInputStream in;
+  private final List<String> names = new ArrayList<String>();
+  private long time = 0;
+
+  public CreditSchedulerTraceReader(InputStream stream) throws IOException {
+    in = new DataInputStream(new BufferedInputStream(stream));
+    if (in.readInt() != CreditSchedulerTrace.MAGIC) {
+      throw new IOException("Not a credit scheduler trace");
+    }
+    int version = in.readInt();
+    if (version != CreditSchedulerTrace.VERSION) {
+      throw new IOException("Unsupported credit scheduler trace version " +
+          version);
+    }
+  }
+
+  /**
+   * Time of the last record returned by {@link #next()}.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Read the next record.
+   *
+   * @return the record as <tt>EVENT_TYPE\tPARAM_1\t...</tt>, or null at the
+   *         end of the trace. A trace cut short by a crash ends at its last
+   *         complete record.
+   */
+  public String next() throws IOException {
+    try {
+      while (true) {
+        byte tag = in.readByte();
+        if (tag == CreditSchedulerTrace.NAME) {
+          int id = WritableUtils.readVInt(in);
+          String name = in.readUTF();
+          while (names.size() <= id) {
+            names.add(null);
+          }
+          names.set(id, name);
+        } else if (tag == CreditSchedulerTrace.LOST) {
+          return "LOST\t" + WritableUtils.readVLong(in);
+        } else if (tag == CreditSchedulerTrace.RECORD) {
+          return readRecord();
+        } else {
+          throw new IOException("Corrupt credit scheduler trace: tag " + tag);
+        }
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  private String readRecord() throws IOException {
+    int ordinal = WritableUtils.readVInt(in);
+    if (ordinal < 0 || ordinal >= EVENTS.length) {
+      throw new IOException("Corrupt credit scheduler trace: event " + ordinal);
+    }
+    Event event = EVENTS[ordinal];
+    time += WritableUtils.readVLong(in);
+    StringBuilder line = new StringBuilder(event.name());
+    for (Arg arg: event.args) {
+      int value = WritableUtils.readVInt(in);
+      line.append('\t');
+      switch (arg) {
+      case NAME:
+        line.append(value < names.size() ? names.get(value) : "#" + value);
+        break;
+      case TASK_TYPE:
+        line.append(TASK_TYPES[value]);
+        break;
+      case FLOAT:
+        line.append(Float.intBitsToFloat(value));
+        break;
+      default:
+        line.append(value);
+      }
+    }
+    return line.toString();
+  }
+
+  public void close() {
+    IOUtils.closeStream(in);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: CreditSchedulerTraceReader <trace file>...");
+      System.exit(-1);
+    }
+    // The same date format as the event log
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    for (String file: args) {
+      CreditSchedulerTraceReader reader =
+        new CreditSchedulerTraceReader(new FileInputStream(file));
+      try {
+        String line;
+        while ((line = reader.next()) != null) {
+          System.out.println(format.format(new Date(reader.getTime())) + "\t" +
+              line);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * The credit balances of all pools as of one credit update tick.
+ *
+ * Snapshots are immutable. The credit updater computes each tick's balances
+ * into a fresh map (see {@link #copyBalances()}) and publishes them by
+ * replacing the {@link PoolManager}'s current snapshot, which is a single
+ * volatile write. Readers such as the heartbeat path therefore never take a
+ * lock to read credits, and a reader holding on to one snapshot sees a
+ * consistent credit vector, never a mix of two ticks.
+ */
+class CreditSnapshot {
+  static final CreditSnapshot EMPTY =
+    new CreditSnapshot(0, new HashMap<String, float[]>());
+
+  private final long tick;
+  // Pool name -> {map credit, reduce credit}
+  private final Map<String, float[]> credits;
+
+  /**
+   * Create a snapshot. The snapshot takes ownership of the map and its
+   * arrays, which must not be modified afterwards.
+   */
+  CreditSnapshot(long tick, Map<String, float[]> credits) {
+    this.tick = tick;
+    this.credits = credits;
+  }
+
+  /** Number of credit update ticks this snapshot is the result of. */
+  long getTick() {
+    return tick;
+  }
+
+  /** Credit of the given pool, or 0 for pools that have not earned any. */
+  float getCredit(String pool, TaskType type) {
+    float[] balance = credits.get(pool);
+    if (balance == null)
+      return 0;
+    return (type == TaskType.MAP ? balance[0] : balance[1]);
+  }
+
+  /**
+   * Read-only view of all balances, keyed by pool name, as {map credit,
+   * reduce credit} arrays. The arrays must not be modified.
+   */
+  Map<String, float[]> getCredits() {
+    return Collections.unmodifiableMap(credits);
+  }
+
+  /**
+   * A modifiable copy of the balances, from which the next tick's snapshot
+   * can be built.
+   */
+  Map<String, float[]> copyBalances() {
+    Map<String, float[]> copy = new HashMap<String, float[]>();
+    for (Map.Entry<String, float[]> entry: credits.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue().clone());
+    }
+    return copy;
+  }
+}
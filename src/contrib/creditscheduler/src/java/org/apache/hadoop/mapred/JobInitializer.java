@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Initializes the jobs that the scheduler lets run, and reads ahead the
+ * split meta info of jobs expected to run soon.
+ *
+ * Jobs are initialized in one of two lanes, each with its own threads, so
+ * that small jobs do not queue up behind jobs whose splits take long to
+ * read: jobs with at least mapred.fairscheduler.jobinit.largejob.maps maps
+ * (one per split, as submitted) go to the large job lane, which has
+ * mapred.fairscheduler.jobinit.largejob.threads threads, and the others to
+ * the small job lane, which has mapred.jobinit.threads threads. Within a
+ * lane, initializations go before prefetches, and each in the order they
+ * were requested.
+ */
+class JobInitializer {
+  public static final Log LOG = LogFactory.getLog(
+      "org.apache.hadoop.mapred.JobInitializer");
+
+  static final int DEFAULT_NUM_THREADS = 1;
+  static final int DEFAULT_LARGE_JOB_THREADS = 1;
+  static final int DEFAULT_LARGE_JOB_MAPS = 10000;
+
+  private final TaskTrackerManager ttm;
+  private final boolean synchronous;
+  private final int largeJobMaps;
+  private final ThreadPoolExecutor smallJobLane;
+  private final ThreadPoolExecutor largeJobLane;
+  private final AtomicLong requests = new AtomicLong();
+
+  /**
+   * Create an initializer for the jobs of the given TaskTrackerManager. A
+   * synchronous initializer starts no threads: it initializes jobs in the
+   * caller's thread and does not prefetch.
+   */
+  JobInitializer(Configuration conf, TaskTrackerManager ttm,
+      boolean synchronous) {
+    this.ttm = ttm;
+    this.synchronous = synchronous;
+    this.largeJobMaps = conf.getInt(
+        "mapred.fairscheduler.jobinit.largejob.maps", DEFAULT_LARGE_JOB_MAPS);
+    this.smallJobLane = createLane(conf.getInt("mapred.jobinit.threads",
+        DEFAULT_NUM_THREADS));
+    this.largeJobLane = createLane(conf.getInt(
+        "mapred.fairscheduler.jobinit.largejob.threads",
+        DEFAULT_LARGE_JOB_THREADS));
+  }
+
+  private static ThreadPoolExecutor createLane(int numThreads) {
+    numThreads = Math.max(1, numThreads);
+    return new ThreadPoolExecutor(numThreads, numThreads, 0,
+        TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+  }
+
+  /** Whether a job is initialized in the large job lane. */
+  boolean isLargeJob(JobInProgress job) {
+    return job.desiredMaps() >= largeJobMaps;
+  }
+
+  /** Initialize a job, asynchronously unless the initializer is not. */
+  void initJob(JobInProgress job) {
+    if (synchronous) {
+      ttm.initJob(job);
+    } else {
+      getLane(job).execute(new Request(job, false));
+    }
+  }
+
+  /**
+   * Read the split meta info of a job in the background, ahead of its
+   * initialization. Ignored by a synchronous initializer.
+   */
+  void prefetchSplits(JobInProgress job) {
+    if (!synchronous) {
+      getLane(job).execute(new Request(job, true));
+    }
+  }
+
+  private ThreadPoolExecutor getLane(JobInProgress job) {
+    return (isLargeJob(job) ? largeJobLane : smallJobLane);
+  }
+
+  void terminate() {
+    LOG.info("Shutting down thread pool");
+    smallJobLane.shutdownNow();
+    largeJobLane.shutdownNow();
+    try {
+      smallJobLane.awaitTermination(1, TimeUnit.MINUTES);
+      largeJobLane.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      // Ignore, we are in shutdown anyway.
+    }
+  }
+
+  /** A request to initialize a job or to prefetch its splits. */
+  private class Request implements Runnable, Comparable<Request> {
+    private final JobInProgress job;
+    private final boolean prefetch;
+    private final long sequence = requests.incrementAndGet();
+
+    Request(JobInProgress job, boolean prefetch) {
+      this.job = job;
+      this.prefetch = prefetch;
+    }
+
+    public void run() {
+      if (!prefetch) {
+        ttm.initJob(job);
+        return;
+      }
+      try {
+        job.prefetchSplits();
+      } catch (IOException e) {
+        // The splits are read again when the job is initialized
+        LOG.warn("Failed to prefetch the splits of " + job.getJobID(), e);
+      }
+    }
+
+    @Override
+    public int compareTo(Request other) {
+      if (prefetch != other.prefetch) {
+        return (prefetch ? 1 : -1);
+      }
+      return (sequence < other.sequence ? -1 :
+          (sequence == other.sequence ? 0 : 1));
+    }
+  }
+}
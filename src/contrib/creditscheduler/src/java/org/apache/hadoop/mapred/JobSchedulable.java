@@ -20,15 +20,61 @@ package org.apache.hadoop.mapred;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.hadoop.mapred.CreditScheduler.JobInfo;
 import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.net.Node;
 
 public class JobSchedulable extends Schedulable {
   private CreditScheduler scheduler;
   private JobInProgress job;
   private TaskType taskType;
   private int demand = 0;
+  // Created once the job is running; see updateDemand()
+  private DemandTracker demandTracker;
+  // Created with the demand tracker of the job's maps, if the job has a map
+  // cache to seed it from
+  private LocalMapIndex localMapIndex;
+
+  /**
+   * Keeps count of the attempts that the job's tips of our task type need
+   * (see {@link TaskInProgress#getAttemptsNeeded()}), and of which of these
+   * tips are running and may thus need to be speculated, from the job's task
+   * state events. Only accessed with the job locked.
+   */
+  private class DemandTracker extends TaskInProgressListener {
+    private int attemptsNeeded = 0;
+    private final Set<TaskInProgress> runningTips =
+      new HashSet<TaskInProgress>();
+
+    DemandTracker(TaskInProgress[] tips) {
+      for (TaskInProgress tip: tips) {
+        attemptsNeeded += tip.getAttemptsNeeded();
+        updateRunningTips(tip);
+      }
+    }
+
+    @Override
+    public void taskStateChanged(TaskInProgress tip, int oldAttemptsNeeded,
+        int newAttemptsNeeded) {
+      if (tip.isMapTask() == (taskType == TaskType.MAP)) {
+        attemptsNeeded += newAttemptsNeeded - oldAttemptsNeeded;
+        updateRunningTips(tip);
+      }
+    }
+
+    private void updateRunningTips(TaskInProgress tip) {
+      if (tip.isRunning() && !tip.isComplete()) {
+        runningTips.add(tip);
+      } else {
+        runningTips.remove(tip);
+      }
+    }
+  }
 
   public JobSchedulable(CreditScheduler scheduler, JobInProgress job, 
       TaskType taskType) {
@@ -64,29 +110,60 @@ public class JobSchedulable extends Schedulable {
       // - have no attempts running, in which case it demands 1 slot
       // - have N attempts running, in which case it demands N slots, and may
       //   potentially demand one more slot if it needs to be speculated
-      TaskInProgress[] tips = (taskType == TaskType.MAP ? 
-          job.getTasks(TaskType.MAP) : job.getTasks(TaskType.REDUCE));
+      // The former is kept current by the demand tracker, so only the running
+      // TIPs are visited, to check whether they need to be speculated.
       boolean speculationEnabled = (taskType == TaskType.MAP ?
           job.getMapSpeculativeExecution() : job.getReduceSpeculativeExecution());
       double avgProgress = (taskType == TaskType.MAP ?
           job.getStatus().mapProgress() : job.getStatus().reduceProgress());
       long time = scheduler.getClock().getTime();
-      for (TaskInProgress tip: tips) {
-        if (!tip.isComplete()) {
-          if (tip.isRunning()) {
-            // Count active tasks and any speculative task we want to launch
-            demand += tip.getActiveTasks().size();
-            if (speculationEnabled && tip.hasSpeculativeTask(time, avgProgress))
+      synchronized (job) {
+        if (demandTracker == null) {
+          // Scan the TIPs once; the job is locked, so no event is missed
+          demandTracker = new DemandTracker(job.getTasks(taskType));
+          job.addTaskInProgressListener(demandTracker);
+          if (taskType == TaskType.MAP && job.nonRunningMapCache != null) {
+            localMapIndex = new LocalMapIndex(job);
+            job.addTaskInProgressListener(localMapIndex);
+          }
+        }
+        demand = demandTracker.attemptsNeeded;
+        if (speculationEnabled) {
+          for (TaskInProgress tip: demandTracker.runningTips) {
+            if (tip.hasSpeculativeTask(time, avgProgress))
               demand += 1;
-          } else {
-            // Need to launch 1 task
-            demand += 1;
           }
         }
       }
     }
   }
 
+  /**
+   * Stop listening to the job's task state events, once the job is no longer
+   * scheduled.
+   */
+  void stopDemandTracking() {
+    if (demandTracker != null) {
+      job.removeTaskInProgressListener(demandTracker);
+      demandTracker = null;
+    }
+    if (localMapIndex != null) {
+      job.removeTaskInProgressListener(localMapIndex);
+      localMapIndex = null;
+    }
+  }
+
+  /**
+   * Get the job's tips of our task type that have running attempts, as seen
+   * at the last task state event. Must be called with the job locked.
+   */
+  Collection<TaskInProgress> getRunningTips() {
+    if (demandTracker == null) {
+      return Collections.emptySet();
+    }
+    return demandTracker.runningTips;
+  }
+
   private boolean isRunnable() {
     JobInfo info = scheduler.getJobInfo(job);
     int runState = job.getStatus().getRunState();
@@ -114,6 +191,26 @@ public class JobSchedulable extends Schedulable {
     return taskType == TaskType.MAP ? job.runningMaps() : job.runningReduces();
   }
 
+  /**
+   * Get the memory that each task of ours requests, in units of the memory
+   * of a slot. Tasks of jobs that request no memory, or of clusters whose
+   * slot memory is not configured, count as one slot.
+   */
+  float getMemoryPerTask() {
+    long slotMemory = scheduler.getSlotMemory(taskType);
+    long taskMemory = (taskType == TaskType.MAP ?
+        job.getMemoryForMapTask() : job.getMemoryForReduceTask());
+    if (slotMemory <= 0 || taskMemory <= 0) {
+      return 1f;
+    }
+    return (float) taskMemory / slotMemory;
+  }
+
+  /** Number of slots that each running task of ours occupies. */
+  int getSlotsPerTask() {
+    return Math.max(1, job.getNumSlotsPerTask(taskType));
+  }
+
   @Override
   public long getStartTime() {
     return job.startTime;
@@ -135,8 +232,7 @@ public class JobSchedulable extends Schedulable {
     if (isRunnable()) {
       visited.add(job);
       TaskTrackerManager ttm = scheduler.taskTrackerManager;
-      ClusterStatus clusterStatus = ttm.getClusterStatus();
-      int numTaskTrackers = clusterStatus.getTaskTrackers();
+      int numTaskTrackers = scheduler.getNumTaskTrackers();
 
       // check with the load manager whether it is safe to 
       // launch this task on this taskTracker.
@@ -151,9 +247,13 @@ public class JobSchedulable extends Schedulable {
             "ALLOWED_LOC_LEVEL", job.getJobID(), localityLevel);
         switch (localityLevel) {
           case NODE:
+            if (!mayHaveLocalMaps(tts, false))
+              return null;
             return job.obtainNewNodeLocalMapTask(tts, numTaskTrackers,
                 ttm.getNumberOfUniqueHosts());
           case RACK:
+            if (!mayHaveLocalMaps(tts, true))
+              return null;
             return job.obtainNewNodeOrRackLocalMapTask(tts, numTaskTrackers,
                 ttm.getNumberOfUniqueHosts());
           default:
@@ -169,6 +269,74 @@ public class JobSchedulable extends Schedulable {
     }
   }
 
+  /**
+   * Assign up to maxTasks tasks of the job to a tracker in one go, adding
+   * them to tasks, and return how many were assigned. Maps are taken at the
+   * locality level the job is allowed, all in one call to
+   * {@link JobInProgress#obtainNewMapTasks}; reduces are taken one after
+   * another with the job locked once.
+   */
+  int assignTasks(TaskTrackerStatus tts, long currentTime,
+      Collection<JobInProgress> visited, int maxTasks, List<Task> tasks)
+      throws IOException {
+    if (maxTasks <= 0 || !isRunnable()) {
+      return 0;
+    }
+    visited.add(job);
+    TaskTrackerManager ttm = scheduler.taskTrackerManager;
+    int numTaskTrackers = scheduler.getNumTaskTrackers();
+    if (!scheduler.getLoadManager().canLaunchTask(tts, job, taskType)) {
+      return 0;
+    }
+    if (taskType == TaskType.MAP) {
+      LocalityLevel localityLevel = scheduler.getAllowedLocalityLevel(
+          job, currentTime);
+      scheduler.getEventLog().log(
+          "ALLOWED_LOC_LEVEL", job.getJobID(), localityLevel);
+      if (localityLevel != LocalityLevel.ANY &&
+          !mayHaveLocalMaps(tts, localityLevel == LocalityLevel.RACK)) {
+        return 0;
+      }
+      List<Task> maps = job.obtainNewMapTasks(tts, numTaskTrackers,
+          ttm.getNumberOfUniqueHosts(), localityLevel.toCacheLevelCap(),
+          maxTasks);
+      tasks.addAll(maps);
+      return maps.size();
+    } else {
+      int assigned = 0;
+      synchronized (job) {
+        while (assigned < maxTasks) {
+          Task task = job.obtainNewReduceTask(tts, numTaskTrackers,
+              ttm.getNumberOfUniqueHosts());
+          if (task == null) {
+            break;
+          }
+          tasks.add(task);
+          assigned++;
+        }
+      }
+      return assigned;
+    }
+  }
+
+  /**
+   * Look up whether the job may have maps to launch on a tracker at node
+   * level, or at node or rack level if includeRacks is set, in the job's
+   * {@link LocalMapIndex}. Jobs without an index, and trackers whose
+   * location is not known, are always given a try.
+   */
+  private boolean mayHaveLocalMaps(TaskTrackerStatus tts,
+      boolean includeRacks) {
+    if (localMapIndex == null)
+      return true;
+    Node node = scheduler.getTrackerNode(tts);
+    if (node == null)
+      return true;
+    // The index is only changed with the job locked
+    synchronized (job) {
+      return localMapIndex.hasLocalMaps(node, includeRacks);
+    }
+  }
   
   @Override
   protected String getMetricsContextName() {
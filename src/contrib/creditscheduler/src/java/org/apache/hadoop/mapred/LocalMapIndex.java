@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.net.Node;
+
+/**
+ * Counts, for every host and rack, the maps of a job that have not been
+ * launched yet and have a split there, so that the scheduler can tell
+ * without a scan whether {@link JobInProgress#obtainNewNodeLocalMapTask} or
+ * {@link JobInProgress#obtainNewNodeOrRackLocalMapTask} may find a task for
+ * a tracker, instead of calling them on every job at every heartbeat.
+ *
+ * The index is seeded from the job's non-running map cache and then kept
+ * current from the job's task state events. A map leaves the index when it
+ * is first launched. If it needs to run again after that, the job schedules
+ * it ahead of other maps whatever the locality of the tracker, so it is only
+ * counted among the maps that may run anywhere. Only accessed with the job
+ * locked.
+ */
+class LocalMapIndex extends TaskInProgressListener {
+  // Nodes holding the split of each map that was never launched
+  private final Map<TaskInProgress, List<Node>> splitNodes =
+    new HashMap<TaskInProgress, List<Node>>();
+  // Number of maps that were never launched with a split on each node
+  private final Map<Node, Integer> pendingMaps =
+    new IdentityHashMap<Node, Integer>();
+  // Maps that ran before and wait to be launched again
+  private final Set<TaskInProgress> retriedMaps =
+    new HashSet<TaskInProgress>();
+
+  /**
+   * Build the index of a job whose map cache exists, i.e. whose tasks have
+   * been initialized and not yet garbage collected.
+   */
+  LocalMapIndex(JobInProgress job) {
+    for (Map.Entry<Node, List<TaskInProgress>> entry:
+         job.nonRunningMapCache.entrySet()) {
+      for (TaskInProgress tip: entry.getValue()) {
+        if (isPending(tip) && tip.nextTaskId == 0) {
+          List<Node> nodes = splitNodes.get(tip);
+          if (nodes == null) {
+            nodes = new ArrayList<Node>();
+            splitNodes.put(tip, nodes);
+          }
+          nodes.add(entry.getKey());
+          increment(entry.getKey(), 1);
+        }
+      }
+    }
+    for (TaskInProgress tip: job.getTasks(TaskType.MAP)) {
+      if (isPending(tip) && tip.nextTaskId > 0) {
+        retriedMaps.add(tip);
+      }
+    }
+  }
+
+  private static boolean isPending(TaskInProgress tip) {
+    return tip.isRunnable() && !tip.isRunning();
+  }
+
+  private void increment(Node node, int delta) {
+    Integer count = pendingMaps.get(node);
+    int newCount = (count == null ? 0 : count) + delta;
+    if (newCount > 0) {
+      pendingMaps.put(node, newCount);
+    } else {
+      pendingMaps.remove(node);
+    }
+  }
+
+  @Override
+  public void taskStateChanged(TaskInProgress tip, int oldAttemptsNeeded,
+      int newAttemptsNeeded) {
+    if (!tip.isMapTask()) {
+      return;
+    }
+    if (!isPending(tip)) {
+      List<Node> nodes = splitNodes.remove(tip);
+      if (nodes != null) {
+        for (Node node: nodes) {
+          increment(node, -1);
+        }
+      }
+      retriedMaps.remove(tip);
+    } else if (tip.nextTaskId > 0 && !splitNodes.containsKey(tip)) {
+      retriedMaps.add(tip);
+    }
+  }
+
+  /**
+   * May the job have a map to launch on the given tracker node, looking
+   * for splits on the node itself, or also on the racks above it if
+   * includeRacks is set?
+   */
+  boolean hasLocalMaps(Node trackerNode, boolean includeRacks) {
+    if (!retriedMaps.isEmpty()) {
+      return true;
+    }
+    for (Node node = trackerNode; node != null; node = node.getParent()) {
+      if (pendingMaps.containsKey(node)) {
+        return true;
+      }
+      if (!includeRacks) {
+        break;
+      }
+    }
+    return false;
+  }
+}
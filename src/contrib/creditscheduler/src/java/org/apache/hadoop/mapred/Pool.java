@@ -20,12 +20,10 @@ package org.apache.hadoop.mapred;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map;
+import java.util.List;
 
 import org.apache.hadoop.mapred.JobInProgress.Counter;
 import org.apache.hadoop.mapreduce.TaskType;
-import org.apache.hadoop.metrics.MetricsContext;
-import org.mortbay.log.Log;
 
 /**
  * A schedulable pool of jobs.
@@ -34,9 +32,17 @@ public class Pool {
   /** Name of the default pool, where jobs with no pool parameter go. */
   public static final String DEFAULT_POOL_NAME = "default";
   
-  /** Pool name. */
+  /** Pool name; the full dotted name for pools nested in a parent pool. */
   private String name;
   
+  private CreditScheduler scheduler;
+  
+  /** Parent pool, or null for a top-level pool. */
+  private Pool parent;
+  
+  /** Pools nested in this pool; only changed by the {@link PoolManager}. */
+  private List<Pool> children = new ArrayList<Pool>();
+  
   /** Jobs in this specific pool; does not include children pools' jobs. */
   private Collection<JobInProgress> jobs = new ArrayList<JobInProgress>();
   
@@ -46,10 +52,12 @@ public class Pool {
   private PoolSchedulable mapSchedulable;
   private PoolSchedulable reduceSchedulable;
   
+  /** Allocation of this pool in the last allocations it was looked up in. */
+  private volatile AllocationSnapshot.PoolAllocation allocation;
   
-  private float mapCredit = 0;
-  private float reduceCredit = 0;
-  
+  // Turnaround of the jobs of this pool that succeeded (see jobSucceeded()):
+  // averages over all of them, and the stretch of the recent ones, which the
+  // credit updater reads without the scheduler lock
   private int nFinishedjobs = 0;
   private float inputSize = 0;
   private float mapInSize = 0;
@@ -60,9 +68,14 @@ public class Pool {
   private float stretch = 0;
   private float mapStretch = 0;
   private float reduceStretch = 0;
+  private volatile float recentStretch = 0;
+  
+  /** Weight of the last job in the stretch of recent jobs. */
+  static final float RECENT_STRETCH_WEIGHT = 0.25f;
   
   public Pool(CreditScheduler scheduler, String name) {
     this.name = name;
+    this.scheduler = scheduler;
     mapSchedulable = new PoolSchedulable(scheduler, this, TaskType.MAP);
     reduceSchedulable = new PoolSchedulable(scheduler, this, TaskType.REDUCE);
   }
@@ -78,63 +91,106 @@ public class Pool {
   }
   
   public void removeJob(JobInProgress job) {
-	Counters mapCounters = new Counters();
-	Counters reduceCounters = new Counters();
-	boolean isFine = job.getMapCounters(mapCounters);
-	mapCounters = (isFine? mapCounters : new Counters());
-	isFine = job.getReduceCounters(reduceCounters);
-	reduceCounters = (isFine? reduceCounters : new Counters());
-	
-	float jobminputsize = 0;//job.getInputLength();
-	float jobrinputsize = 0;//job.
-	float exitingJobResponseTime = (job.finishTime - job.startTime)/1000;
-	float exitingJobMResponseTime = job.getJobCounters().getCounter(JobInProgress.Counter.SLOTS_MILLIS_MAPS) /
-			1000; 
-			//job.getJobCounters().getCounter(JobInProgress.Counter.SLOTS_MILLIS_MAPS);
-	//mapCounters.getCounter(JobInProgress.Counter.SLOTS_MILLIS_MAPS);
-	float exitingJobRResponseTime = job.getJobCounters().getCounter(JobInProgress.Counter.SLOTS_MILLIS_REDUCES) /
-			1000;
-	//reduceCounters.getCounter(JobInProgress.Counter.SLOTS_MILLIS_REDUCES);
-	jobminputsize = (float)mapCounters.getGroup("FileSystemCounters").getCounter("HDFS_BYTES_READ") / 
-			(float)(1024 * 1024);
-	jobrinputsize = (float)reduceCounters.getGroup("FileSystemCounters").getCounter("FILE_BYTES_WRITTEN") /
-			(float)(1024 * 1024);
-	
-	this.mapInSize += jobminputsize;
-	this.reduceInSize += jobrinputsize;
-	jobs.remove(job);
+    jobs.remove(job);
     mapSchedulable.removeJob(job);
     reduceSchedulable.removeJob(job);
-    //update metrics
+  }
+  
+  /**
+   * Account for the turnaround of a job of this pool that just succeeded,
+   * given the map and reduce slots of the cluster. The job's response time
+   * is the time from its submission to its completion, and its stretch is
+   * its response time over the time its tasks would have taken on the
+   * cluster alone (see {@link #getIdealTime(long, int, int)}).
+   */
+  void jobSucceeded(JobInProgress job, int mapSlots, int reduceSlots) {
+    Counters jobCounters = job.getJobCounters();
+    long mapSlotMillis = jobCounters.getCounter(Counter.SLOTS_MILLIS_MAPS);
+    long reduceSlotMillis =
+      jobCounters.getCounter(Counter.SLOTS_MILLIS_REDUCES);
+    long mapTime = getIdealTime(mapSlotMillis, job.desiredMaps(), mapSlots);
+    long reduceTime =
+      getIdealTime(reduceSlotMillis, job.desiredReduces(), reduceSlots);
+    long jobResponseTime = Math.max(0, job.getFinishTime() - job.startTime);
+    float jobStretch = getStretch(jobResponseTime, mapTime + reduceTime);
+    
+    Counters mapCounters = new Counters();
+    Counters reduceCounters = new Counters();
+    if (!job.getMapCounters(mapCounters))
+      mapCounters = new Counters();
+    if (!job.getReduceCounters(reduceCounters))
+      reduceCounters = new Counters();
+    float mb = 1024 * 1024;
+    
     nFinishedjobs++;
-    inputSize += ((float)job.getInputLength()/(1024 * 1024));
-    //mapInSize += inFormat.get
-    responseTime = (responseTime * (nFinishedjobs - 1) + exitingJobResponseTime) 
-    		/ nFinishedjobs;
-    mapResponseTime = (this.mapResponseTime * (nFinishedjobs - 1) + exitingJobMResponseTime)
-    		/ nFinishedjobs;
-    reduceResponseTime = (this.reduceResponseTime * (nFinishedjobs - 1) + exitingJobRResponseTime)
-    		/ nFinishedjobs;
-    stretch = (stretch * (nFinishedjobs - 1) + exitingJobResponseTime / (float)jobminputsize) 
-    		/ nFinishedjobs;
-    mapStretch = (mapStretch * (nFinishedjobs - 1) + exitingJobMResponseTime / (float)jobminputsize) 
-    		/ nFinishedjobs;
-    reduceStretch = (reduceStretch * (nFinishedjobs - 1) + exitingJobRResponseTime / (float)jobrinputsize) 
-    		/ nFinishedjobs;
+    inputSize += job.getInputLength() / mb;
+    mapInSize += mapCounters.getGroup("FileSystemCounters")
+        .getCounter("HDFS_BYTES_READ") / mb;
+    reduceInSize += reduceCounters.getGroup("FileSystemCounters")
+        .getCounter("FILE_BYTES_WRITTEN") / mb;
+    responseTime = average(responseTime, jobResponseTime / 1000f);
+    mapResponseTime = average(mapResponseTime, mapSlotMillis / 1000f);
+    reduceResponseTime =
+      average(reduceResponseTime, reduceSlotMillis / 1000f);
+    stretch = average(stretch, jobStretch);
+    mapStretch = average(mapStretch, getStretch(jobResponseTime, mapTime));
+    reduceStretch =
+      average(reduceStretch, getStretch(jobResponseTime, reduceTime));
+    recentStretch = (nFinishedjobs == 1 ? jobStretch : recentStretch +
+        RECENT_STRETCH_WEIGHT * (jobStretch - recentStretch));
+  }
+  
+  private float average(float average, float value) {
+    return average + (value - average) / nFinishedjobs;
+  }
+  
+  /**
+   * Time in milliseconds that tasks which took the given slot time would
+   * take if each of them ran on its own slot, as many at a time as there
+   * are slots.
+   */
+  static long getIdealTime(long slotMillis, int tasks, int slots) {
+    return slotMillis / Math.max(1, Math.min(tasks, slots));
+  }
+  
+  /**
+   * Stretch of a job that took the given response time for work that would
+   * take the given ideal time: at least 1, and 1 if there was no work.
+   */
+  static float getStretch(long responseTime, long idealTime) {
+    if (idealTime <= 0)
+      return 1f;
+    return Math.max(1f, (float) responseTime / idealTime);
   }
   
   public String getName() {
     return name;
   }
   
+  /** Number of jobs of this pool that succeeded. */
+  public int getFinishedJobs() {
+    return nFinishedjobs;
+  }
+  
+  /** Average response time, in seconds, of the jobs that succeeded. */
   public float getResponseTime(){
 	  return responseTime;
   }
   
+  /** Average stretch of the jobs that succeeded. */
   public float getStretch(){
 	  return stretch;
   }
   
+  /**
+   * Stretch of the recently succeeded jobs, weighing each job more than
+   * the jobs before it; 0 if no job succeeded yet. Safe to call without
+   * holding the scheduler lock.
+   */
+  public float getRecentStretch() {
+    return recentStretch;
+  }
+  
   public float getInputSize(){
 	  return inputSize;
   }
@@ -147,18 +203,31 @@ public class Pool {
 	  return this.reduceInSize;
   }
   
+  /** Average slot time, in seconds, of the maps of the jobs that succeeded. */
   public float getMapResponseTime(){
 	  return this.mapResponseTime;
   }
   
+  /**
+   * Average slot time, in seconds, of the reduces of the jobs that
+   * succeeded.
+   */
   public float getReduceResponseTime(){
 	  return this.reduceResponseTime;
   }
   
+  /**
+   * Average stretch of the jobs that succeeded against the ideal time of
+   * their maps alone.
+   */
   public float getMapStretch(){
 	  return this.mapStretch;
   }
   
+  /**
+   * Average stretch of the jobs that succeeded against the ideal time of
+   * their reduces alone.
+   */
   public float getReduceStretch(){
 	  return this.reduceStretch;
   }
@@ -171,8 +240,65 @@ public class Pool {
     this.schedulingMode = schedulingMode;
   }
 
+  /**
+   * Get the pool's name relative to its parent, i.e. the last component of
+   * its full name for a nested pool.
+   */
+  public String getShortName() {
+    return (parent == null ? name : name.substring(
+        parent.getName().length() + 1));
+  }
+  
+  /**
+   * Get the pool this pool is nested in, or null for a top-level pool.
+   */
+  public Pool getParent() {
+    return parent;
+  }
+  
+  /**
+   * Get the pools nested in this pool.
+   */
+  public List<Pool> getChildren() {
+    return children;
+  }
+  
+  public boolean isLeaf() {
+    return children.isEmpty();
+  }
+  
+  /**
+   * Move the pool under a new parent, or to the top level if parent is null.
+   */
+  void setParent(Pool parent) {
+    if (this.parent != null) {
+      this.parent.children.remove(this);
+    }
+    this.parent = parent;
+    if (parent != null) {
+      parent.children.add(this);
+    }
+  }
+  
+  /**
+   * Whether this is the pool where jobs with no pool parameter go, or the
+   * pool where jobs naming a parent pool go, which is named "default" too.
+   */
   public boolean isDefaultPool() {
-    return Pool.DEFAULT_POOL_NAME.equals(name);
+    return Pool.DEFAULT_POOL_NAME.equals(getShortName());
+  }
+  
+  /**
+   * Get the allocation of this pool in the given allocations, looking it up
+   * only if they are not the ones it was last looked up in.
+   */
+  AllocationSnapshot.PoolAllocation getAllocation(AllocationSnapshot allocs) {
+    AllocationSnapshot.PoolAllocation alloc = allocation;
+    if (alloc == null || alloc.getSnapshot() != allocs) {
+      alloc = allocs.getPoolAllocation(name);
+      allocation = alloc;
+    }
+    return alloc;
   }
   
   public PoolSchedulable getMapSchedulable() {
@@ -203,16 +329,13 @@ public class Pool {
 	return taskSchedulable.getDemand();
   }
   
-  public void updateCredit(TaskType ttype, float l){
-	  if (ttype == TaskType.MAP){
-		  this.mapCredit += l;
-	  }
-	  if (ttype == TaskType.REDUCE){
-		  this.reduceCredit += l;
-	  }
-  }
-  
+  /**
+   * Get the pool's credit as of the last credit update tick. Credits are kept
+   * by the {@link PoolManager}; callers that read the credits of several
+   * pools and need them to be consistent should read them from one
+   * {@link PoolManager#getCreditSnapshot()} instead.
+   */
   public float getCredit(TaskType ttype){
-	  return ((ttype == TaskType.MAP ? this.mapCredit : this.reduceCredit));
+    return scheduler.getPoolManager().getCreditSnapshot().getCredit(name, ttype);
   }
 }
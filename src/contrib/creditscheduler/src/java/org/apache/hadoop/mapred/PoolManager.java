@@ -19,18 +19,17 @@
 package org.apache.hadoop.mapred;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -53,52 +52,53 @@ import org.xml.sax.SAXException;
  */
 public class PoolManager {
 	
+	/**
+	 * Runs a credit update tick and records the new credits every credit
+	 * update interval, until it is shut down.
+	 */
 	public class CreditUpdater extends Thread {
 		private long updateThreadPeriod;
 		private PoolManager poolMgr;
-		private FileWriter creditsReporter = null;
+		private volatile boolean running = true;
+		// Waited on between ticks, and notified on shutdown
+		private final Object sleepLock = new Object();
 		public CreditUpdater(PoolManager poolM){
+			super("creditUpdater");
+			setDaemon(true);
 			this.poolMgr = poolM;
 			this.updateThreadPeriod = this.poolMgr.creditUpdateInterval;
-			try {
-				this.creditsReporter = new FileWriter("creditsRecord_" + System.currentTimeMillis(), true);
-				creditsReporter.write(String.valueOf(this.updateThreadPeriod));
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 		}
 		
-		private void appendRecords(String records){
-			try {
-				String date = (new SimpleDateFormat("yyyy-MM-dd hh:mm:ss")).format(new Date());
-				creditsReporter.write("[" + date + "]:" + records + "\n");
-			} catch (Exception e) {
-				e.printStackTrace();
+		/**
+		 * Stop the updater, and wait for its current tick to complete. The
+		 * updater is woken up rather than interrupted, since an interrupt
+		 * would close the credit ledger's files in the middle of a sync.
+		 */
+		void shutdown() throws InterruptedException {
+			synchronized (sleepLock) {
+				running = false;
+				sleepLock.notifyAll();
 			}
-		}
-		
-		private String collectPoolStatus(String poolName){
-			Pool pool = pools.get(poolName);
-			return (pool.getName() + "\t" + "MAP:" + pool.getCredit(TaskType.MAP) + 
-							"\tREDUCE:" + pool.getCredit(TaskType.REDUCE) +
-							"\tMapFairShare:" + pool.getMapSchedulable().getFairShare() + 
-							"\tReduceFairShare:" + pool.getReduceSchedulable().getFairShare());
+			join();
 		}
 		
 		@Override
 		public void run(){
-			while (true){
+			while (running){
 				try{
-					poolMgr.updatePoolCreditValue(TaskType.MAP);
-					poolMgr.updatePoolCreditValue(TaskType.REDUCE);
-					for (Pool pool:pools.values()){
-						appendRecords(collectPoolStatus(pool.getName()));
+					poolMgr.updatePoolCredits();
+					poolMgr.recordCredits();
+					synchronized (sleepLock) {
+						if (running) {
+							sleepLock.wait(this.updateThreadPeriod * 1000);
+						}
 					}
-					creditsReporter.flush();
-					Thread.sleep(this.updateThreadPeriod * 1000);
+				}
+				catch(InterruptedException e){
+					// woken up early
 				}
 				catch(Exception e){
-					e.printStackTrace();
+					LOG.error("Failed to update pool credits", e);
 				}
 			}
 		}
@@ -121,39 +121,9 @@ public class PoolManager {
 
   private final CreditScheduler scheduler;
   
-  // Map and reduce minimum allocations for each pool
-  private Map<String, Integer> mapAllocs = new HashMap<String, Integer>();
-  private Map<String, Integer> reduceAllocs = new HashMap<String, Integer>();
-
-  // If set, cap number of map and reduce tasks in a pool
-  private Map<String, Integer> poolMaxMaps = new HashMap<String, Integer>();
-  private Map<String, Integer> poolMaxReduces = new HashMap<String, Integer>();
-
-  // Sharing weights for each pool
-  private Map<String, Double> poolWeights = new HashMap<String, Double>();
-  
-  // Max concurrent running jobs for each pool and for each user; in addition,
-  // for users that have no max specified, we use the userMaxJobsDefault.
-  private Map<String, Integer> poolMaxJobs = new HashMap<String, Integer>();
-  private Map<String, Integer> userMaxJobs = new HashMap<String, Integer>();
-  private int userMaxJobsDefault = Integer.MAX_VALUE;
-  private int poolMaxJobsDefault = Integer.MAX_VALUE;
-
-  // Min share preemption timeout for each pool in seconds. If a job in the pool
-  // waits this long without receiving its guaranteed share, it is allowed to
-  // preempt other jobs' tasks.
-  private Map<String, Long> minSharePreemptionTimeouts =
-    new HashMap<String, Long>();
-  
-  // Default min share preemption timeout for pools where it is not set
-  // explicitly.
-  private long defaultMinSharePreemptionTimeout = Long.MAX_VALUE;
-  
-  // Preemption timeout for jobs below fair share in seconds. If a job remains
-  // below half its fair share for this long, it is allowed to preempt tasks.
-  private long fairSharePreemptionTimeout = Long.MAX_VALUE;
-  
-  SchedulingMode defaultSchedulingMode = SchedulingMode.FAIR;
+  // Allocations as of the last load of the allocation file. Only
+  // reloadAllocs() replaces it, so readers need no lock.
+  private volatile AllocationSnapshot allocs = AllocationSnapshot.EMPTY;
   
   private Object allocFile; // Path to XML file containing allocations. This
                             // is either a URL to specify a classpath resource
@@ -163,31 +133,75 @@ public class PoolManager {
   private String poolNameProperty; // Jobconf property to use for determining a
                                    // job's pool name (default: user.name)
   
-  private Map<String, Pool> pools = new HashMap<String, Pool>();
+  // Pools by name. Pools are only added, with this manager locked, so they
+  // are looked up without locking.
+  private final Map<String, Pool> pools =
+    new ConcurrentHashMap<String, Pool>();
+  
+  // Pools grouped by parent, for the credit update ticks. Rebuilt whenever
+  // a pool is created or moved, with this manager locked, and replaced as a
+  // whole, so the credit updater reads it without locking.
+  private volatile List<List<Pool>> siblingGroups = Collections.emptyList();
+  
+  // Pool of each job added, so that the pool is not worked out from the
+  // job's configuration on every lookup
+  private final Map<JobInProgress, Pool> jobPools =
+    new ConcurrentHashMap<JobInProgress, Pool>();
   
   private long lastReloadAttempt; // Last time we tried to reload the pools file
   private long lastSuccessfulReload; // Last time we successfully reloaded pools
   private boolean lastReloadAttemptFailed = false;
   
   
-  //VCG Metrics
-  private int totalMapDemands = 0;
-  private int totalReduceDemands = 0;
-  private int totalMapCapacity = 0;
-  private int totalReduceCapacity = 0;
   private long creditUpdateInterval = 0;
   
+  // Computes each tick's credit gains; only used by the credit updater
+  private final CreditEngine creditEngine = new CreditEngine();
+  
+  // Most by which the stretch of a pool's jobs speeds up its credit gains
+  private float maxStretchBoost = 1f;
+  
+  // Scheduler clock time of the last credit update tick; only used by the
+  // credit updater, to turn the slot time pools consumed into slots
+  private long lastCreditUpdateTime;
+  
+  // Durable record of pool credits; null if credits are not persisted
+  private CreditLedger creditLedger;
+  
+  // Thread running the credit update ticks; null in mock mode
+  private CreditUpdater creditUpdater;
+  
+  // Pool credits as of the last credit update tick. Only the credit updater
+  // thread replaces it (or initialize(), before that thread starts), so
+  // heartbeats read credits without locking and without torn values.
+  private volatile CreditSnapshot credits = CreditSnapshot.EMPTY;
+  
   public PoolManager(CreditScheduler scheduler) {
     this.scheduler = scheduler;
   }
   
+  /**
+   * Persist pool credits to the given ledger. Must be called before
+   * {@link #initialize()}, which recovers the credits stored in it.
+   */
+  void setCreditLedger(CreditLedger creditLedger) {
+    this.creditLedger = creditLedger;
+  }
+  
   public void initialize() throws IOException, SAXException,
       AllocationConfigurationException, ParserConfigurationException {
     Configuration conf = scheduler.getConf();
     this.poolNameProperty = conf.get(
         "mapred.fairscheduler.poolnameproperty", "user.name");
     this.creditUpdateInterval = conf.getLong("mapred.fairscheduler.creditupdateinterval", 60000)/1000;
-    (new CreditUpdater(this)).start();
+    this.lastCreditUpdateTime = scheduler.getClock().getTime();
+    this.maxStretchBoost = Math.max(1f, conf.getFloat(
+        "mapred.fairscheduler.credit.stretch.boost", 2f));
+    recoverCredits();
+    if (!scheduler.isMockMode()) {
+      creditUpdater = new CreditUpdater(this);
+      creditUpdater.start();
+    }
     this.allocFile = conf.get("mapred.fairscheduler.allocation.file");
     if (allocFile == null) {
       // No allocation file specified in jobconf. Use the default allocation
@@ -204,34 +218,78 @@ public class PoolManager {
     lastReloadAttempt = System.currentTimeMillis();
     // Create the default pool so that it shows up in the web UI
     getPool(Pool.DEFAULT_POOL_NAME);
-    //get total capacity
-    for (Pool pool : pools.values()){
-		if (!pool.getName().equals("default")) {
-			totalMapCapacity += getCapacity(pool.getName(), TaskType.MAP);
-			totalReduceCapacity += getCapacity(pool.getName(),
-					TaskType.REDUCE);
-		}
-    }
   }
   
   /**
-   * Get a pool by name, creating it if necessary
+   * Get a pool by name, creating it if necessary. A new pool is nested in
+   * its parent pool, which is created too if necessary.
    */
-  public synchronized Pool getPool(String name) {
+  public Pool getPool(String name) {
+    Pool pool = pools.get(name);
+    return (pool != null ? pool : createPool(name));
+  }
+  
+  private synchronized Pool createPool(String name) {
     Pool pool = pools.get(name);
     if (pool == null) {
       pool = new Pool(scheduler, name);
-      pool.setSchedulingMode(defaultSchedulingMode);
+      pool.setSchedulingMode(allocs.getDefaultSchedulingMode());
       pools.put(name, pool);
+      String parentName = getParentName(name);
+      if (parentName != null) {
+        pool.setParent(getPool(parentName));
+      }
+      updateSiblingGroups();
     }
     return pool;
   }
   
+  /**
+   * Group the pools by parent, keeping the order in which they are listed.
+   * Assumes this manager is locked.
+   */
+  private void updateSiblingGroups() {
+    Map<Pool, List<Pool>> groups = new LinkedHashMap<Pool, List<Pool>>();
+    for (Pool pool: pools.values()) {
+      List<Pool> group = groups.get(pool.getParent());
+      if (group == null) {
+        group = new ArrayList<Pool>();
+        groups.put(pool.getParent(), group);
+      }
+      group.add(pool);
+    }
+    siblingGroups = new ArrayList<List<Pool>>(groups.values());
+  }
+  
+  /**
+   * Get the name of the pool a pool is nested in, or null for a top-level
+   * pool. Pools nested in the allocation file have their parent given there;
+   * other pools whose names start with the name of a parent pool and a dot,
+   * such as pools created for jobs that name a user's pool under their
+   * team's, are nested in the parent with the longest such name.
+   */
+  private String getParentName(String name) {
+    AllocationSnapshot allocs = this.allocs;
+    String parentName = allocs.getParentName(name);
+    if (parentName != null) {
+      return parentName;
+    }
+    for (int dot = name.lastIndexOf('.'); dot > 0;
+        dot = name.lastIndexOf('.', dot - 1)) {
+      String prefix = name.substring(0, dot);
+      if (allocs.isParentPool(prefix)) {
+        return prefix;
+      }
+    }
+    return null;
+  }
+  
   /**
    * Get the pool that a given job is in.
    */
   public Pool getPool(JobInProgress job) {
-    return getPool(getPoolName(job));
+    Pool pool = jobPools.get(job);
+    return (pool != null ? pool : getPool(getPoolName(job)));
   }
 
   /**
@@ -287,6 +345,11 @@ public class PoolManager {
    * </code>
    * 
    * Blank lines and lines starting with # are ignored.
+   * 
+   * A pool element may contain other pool elements, which define pools
+   * nested in it. A nested pool's full name is its parent's full name, a dot
+   * and its own name. A parent pool with no minMaps or minReduces of its
+   * own gets the sum of its children's.
    *  
    * @throws IOException if the config file cannot be read.
    * @throws AllocationConfigurationException if allocations are invalid.
@@ -307,11 +370,15 @@ public class PoolManager {
     Map<String, Double> poolWeights = new HashMap<String, Double>();
     Map<String, SchedulingMode> poolModes = new HashMap<String, SchedulingMode>();
     Map<String, Long> minSharePreemptionTimeouts = new HashMap<String, Long>();
+    Map<String, CreditPolicy> poolCreditPolicies =
+      new HashMap<String, CreditPolicy>();
+    Map<String, String> poolParents = new HashMap<String, String>();
     int userMaxJobsDefault = Integer.MAX_VALUE;
     int poolMaxJobsDefault = Integer.MAX_VALUE;
     long fairSharePreemptionTimeout = Long.MAX_VALUE;
     long defaultMinSharePreemptionTimeout = Long.MAX_VALUE;
     SchedulingMode defaultSchedulingMode = SchedulingMode.FAIR;
+    CreditPolicy defaultCreditPolicy = new CreditPolicies.Unbounded();
     
     // Remember all pool names so we can display them on web UI, etc.
     List<String> poolNamesInAllocFile = new ArrayList<String>();
@@ -331,14 +398,22 @@ public class PoolManager {
     if (!"allocations".equals(root.getTagName()))
       throw new AllocationConfigurationException("Bad fair scheduler config " + 
           "file: top-level element not <allocations>");
-    NodeList elements = root.getChildNodes();
-    for (int i = 0; i < elements.getLength(); i++) {
-      Node node = elements.item(i);
-      if (!(node instanceof Element))
-        continue;
-      Element element = (Element)node;
+    // Nested pool elements are appended to the elements as their parents are
+    // parsed, so every pool is listed after its parent in poolNamesInAllocFile
+    List<Element> elements = new ArrayList<Element>();
+    Map<Element, String> nestedPoolNames = new HashMap<Element, String>();
+    NodeList rootNodes = root.getChildNodes();
+    for (int i = 0; i < rootNodes.getLength(); i++) {
+      if (rootNodes.item(i) instanceof Element)
+        elements.add((Element) rootNodes.item(i));
+    }
+    for (int i = 0; i < elements.size(); i++) {
+      Element element = elements.get(i);
       if ("pool".equals(element.getTagName())) {
-        String poolName = element.getAttribute("name");
+        String poolName = nestedPoolNames.get(element);
+        if (poolName == null) {
+          poolName = element.getAttribute("name");
+        }
         poolNamesInAllocFile.add(poolName);
         NodeList fields = element.getChildNodes();
         for (int j = 0; j < fields.getLength(); j++) {
@@ -377,6 +452,19 @@ public class PoolManager {
           } else if ("schedulingMode".equals(field.getTagName())) {
             String text = ((Text)field.getFirstChild()).getData().trim();
             poolModes.put(poolName, parseSchedulingMode(text));
+          } else if ("creditPolicy".equals(field.getTagName())) {
+            poolCreditPolicies.put(poolName, parseCreditPolicy(field));
+          } else if ("pool".equals(field.getTagName())) {
+            String childName = field.getAttribute("name");
+            if (childName.length() == 0 || childName.indexOf('.') >= 0) {
+              throw new AllocationConfigurationException("Bad name \"" +
+                  childName + "\" for a pool nested in " + poolName +
+                  ": names of nested pools must be non-empty and dot-free");
+            }
+            childName = poolName + "." + childName;
+            nestedPoolNames.put(field, childName);
+            poolParents.put(childName, poolName);
+            elements.add(field);
           }
         }
         if (poolMaxMaps.containsKey(poolName) && mapAllocs.containsKey(poolName)
@@ -422,27 +510,51 @@ public class PoolManager {
       } else if ("defaultPoolSchedulingMode".equals(element.getTagName())) {
         String text = ((Text)element.getFirstChild()).getData().trim();
         defaultSchedulingMode = parseSchedulingMode(text);
+      } else if ("defaultCreditPolicy".equals(element.getTagName())) {
+        defaultCreditPolicy = parseCreditPolicy(element);
       } else {
         LOG.warn("Bad element in allocations file: " + element.getTagName());
       }
     }
     
-    // Commit the reload; also create any pool defined in the alloc file
-    // if it does not already exist, so it can be displayed on the web UI.
+    // Give parent pools that have no min shares of their own the sum of their
+    // children's. Children are listed after their parents, so visiting pools
+    // in reverse sums up every child before the child is added to its parent.
+    Map<String, Integer> childMapAllocs = new HashMap<String, Integer>();
+    Map<String, Integer> childReduceAllocs = new HashMap<String, Integer>();
+    for (int i = poolNamesInAllocFile.size() - 1; i >= 0; i--) {
+      String name = poolNamesInAllocFile.get(i);
+      if (childMapAllocs.containsKey(name)) {
+        sumChildAllocs(name, "maps", mapAllocs, childMapAllocs);
+        sumChildAllocs(name, "reduces", reduceAllocs, childReduceAllocs);
+      }
+      String parentName = poolParents.get(name);
+      if (parentName != null) {
+        addAlloc(childMapAllocs, parentName, mapAllocs.get(name));
+        addAlloc(childReduceAllocs, parentName, reduceAllocs.get(name));
+      }
+    }
+    
+    // Commit the reload by publishing the new allocations; also create any
+    // pool defined in the alloc file if it does not already exist, so it
+    // can be displayed on the web UI. Existing pools are moved to the
+    // parents the reload gives them.
+    AllocationSnapshot allocs = new AllocationSnapshot(poolNamesInAllocFile,
+        mapAllocs, reduceAllocs, poolMaxMaps, poolMaxReduces, poolMaxJobs,
+        poolWeights, minSharePreemptionTimeouts, poolCreditPolicies,
+        poolParents, userMaxJobs, userMaxJobsDefault, poolMaxJobsDefault,
+        fairSharePreemptionTimeout, defaultMinSharePreemptionTimeout,
+        defaultSchedulingMode, defaultCreditPolicy);
     synchronized(this) {
-      this.mapAllocs = mapAllocs;
-      this.reduceAllocs = reduceAllocs;
-      this.poolMaxMaps = poolMaxMaps;
-      this.poolMaxReduces = poolMaxReduces;
-      this.poolMaxJobs = poolMaxJobs;
-      this.userMaxJobs = userMaxJobs;
-      this.poolWeights = poolWeights;
-      this.minSharePreemptionTimeouts = minSharePreemptionTimeouts;
-      this.userMaxJobsDefault = userMaxJobsDefault;
-      this.poolMaxJobsDefault = poolMaxJobsDefault;
-      this.fairSharePreemptionTimeout = fairSharePreemptionTimeout;
-      this.defaultMinSharePreemptionTimeout = defaultMinSharePreemptionTimeout;
-      this.defaultSchedulingMode = defaultSchedulingMode;
+      this.allocs = allocs;
+      for (Pool pool: new ArrayList<Pool>(pools.values())) {
+        String parentName = getParentName(pool.getName());
+        Pool parent = (parentName == null ? null : getPool(parentName));
+        if (pool.getParent() != parent) {
+          pool.setParent(parent);
+        }
+      }
+      updateSiblingGroups();
       for (String name: poolNamesInAllocFile) {
         Pool pool = getPool(name);
         if (poolModes.containsKey(name)) {
@@ -454,6 +566,28 @@ public class PoolManager {
     }
   }
 
+  /**
+   * Give a parent pool with no min share of its own the sum of its children's
+   * min shares, or warn if the one it has is less than that sum.
+   */
+  private static void sumChildAllocs(String name, String type,
+      Map<String, Integer> allocs, Map<String, Integer> childAllocs) {
+    int sum = childAllocs.get(name);
+    Integer alloc = allocs.get(name);
+    if (alloc == null) {
+      allocs.put(name, sum);
+    } else if (alloc < sum) {
+      LOG.warn(String.format("Pool %s has min %s %d less than the %d of " +
+          "its children", name, type, alloc, sum));
+    }
+  }
+  
+  private static void addAlloc(Map<String, Integer> allocs, String name,
+      Integer alloc) {
+    Integer sum = allocs.get(name);
+    allocs.put(name, (sum == null ? 0 : sum) + (alloc == null ? 0 : alloc));
+  }
+
   /**
    * Does the pool have incompatible max and min allocation set.
    * 
@@ -464,13 +598,7 @@ public class PoolManager {
    * @return true if the max is less than the min
    */
   boolean invertedMinMax(TaskType type, String pool) {
-    Map<String, Integer> max = TaskType.MAP == type ? poolMaxMaps : poolMaxReduces;
-    Map<String, Integer> min = TaskType.MAP == type ? mapAllocs : reduceAllocs;
-    if (max.containsKey(pool) && min.containsKey(pool)
-        && max.get(pool) < min.get(pool)) {
-      return true;
-    }
-    return false;
+    return allocs.getPoolAllocation(pool).isInvertedMinMax(type);
   }
 
   private SchedulingMode parseSchedulingMode(String text)
@@ -486,14 +614,53 @@ public class PoolManager {
     }
   }
 
+  /**
+   * Parse a creditPolicy or defaultCreditPolicy element, whose type attribute
+   * names the policy and whose other attributes give its parameters:
+   * - unbounded: no parameters
+   * - decay: halfLife, in seconds
+   * - window: window, in seconds
+   * - capped: max, in credits
+   */
+  private CreditPolicy parseCreditPolicy(Element element)
+      throws AllocationConfigurationException {
+    String type = element.getAttribute("type").toLowerCase();
+    try {
+      if (type.equals("unbounded")) {
+        return new CreditPolicies.Unbounded();
+      } else if (type.equals("decay")) {
+        return new CreditPolicies.ExponentialDecay(
+            Long.parseLong(element.getAttribute("halfLife").trim()));
+      } else if (type.equals("window")) {
+        return new CreditPolicies.SlidingWindow(
+            Long.parseLong(element.getAttribute("window").trim()));
+      } else if (type.equals("capped")) {
+        return new CreditPolicies.CappedBalance(
+            Float.parseFloat(element.getAttribute("max").trim()));
+      }
+    } catch (IllegalArgumentException e) {
+      // Includes NumberFormatException for missing or malformed parameters
+      throw new AllocationConfigurationException("Bad " +
+          element.getTagName() + " of type " + type + ": " + e.getMessage());
+    }
+    throw new AllocationConfigurationException("Unknown credit policy : " +
+        type + "; expected 'unbounded', 'decay', 'window' or 'capped'");
+  }
+
   /**
    * Get the allocation for a particular pool
    */
   public int getAllocation(String pool, TaskType taskType) {
-    Map<String, Integer> allocationMap = (taskType == TaskType.MAP ?
-        mapAllocs : reduceAllocs);
-    Integer alloc = allocationMap.get(pool);
-    return (alloc == null ? 0 : alloc);
+    return allocs.getPoolAllocation(pool).getMinShare(taskType);
+  }
+  
+  /**
+   * Get the allocation of a pool in the current allocations. The pool
+   * caches it until the allocation file is reloaded, so this is cheaper than
+   * looking the pool's settings up by name.
+   */
+  AllocationSnapshot.PoolAllocation getPoolAllocation(Pool pool) {
+    return pool.getAllocation(allocs);
   }
   
   /**
@@ -506,31 +673,39 @@ public class PoolManager {
 	  return getAllocation(pool,taskType);
   }
 
+  /**
+   * Get the credit policy of a pool.
+   */
+  CreditPolicy getCreditPolicy(String pool) {
+    return allocs.getPoolAllocation(pool).getCreditPolicy();
+  }
+
   /**
    * Get the maximum map or reduce slots for the given pool.
    * @return the cap set on this pool, or Integer.MAX_VALUE if not set.
    */
   int getMaxSlots(String poolName, TaskType taskType) {
-    Map<String, Integer> maxMap = (taskType == TaskType.MAP ? poolMaxMaps : poolMaxReduces);
-    if (maxMap.containsKey(poolName)) {
-      return maxMap.get(poolName);
-    } else {
-      return Integer.MAX_VALUE;
-    }
+    return allocs.getPoolAllocation(poolName).getMaxSlots(taskType);
   }
  
   /**
    * Add a job in the appropriate pool
    */
   public synchronized void addJob(JobInProgress job) {
-    getPool(getPoolName(job)).addJob(job);
+    Pool pool = getPool(getPoolName(job));
+    jobPools.put(job, pool);
+    pool.addJob(job);
   }
   
   /**
-   * Remove a job
+   * Remove a job from the pool it was added to
    */
   public synchronized void removeJob(JobInProgress job) {
-    getPool(getPoolName(job)).removeJob(job);
+    Pool pool = jobPools.remove(job);
+    if (pool == null) {
+      pool = getPool(getPoolName(job));
+    }
+    pool.removeJob(job);
   }
   
   /**
@@ -549,17 +724,60 @@ public class PoolManager {
     return pools.values();
   }
   
+  /**
+   * Get the pools that are not nested in another pool.
+   */
+  public synchronized List<Pool> getRootPools() {
+    List<Pool> rootPools = new ArrayList<Pool>();
+    for (Pool pool: pools.values()) {
+      if (pool.getParent() == null) {
+        rootPools.add(pool);
+      }
+    }
+    return rootPools;
+  }
+  
+  /**
+   * Get the pools that have no pools nested in them.
+   */
+  public synchronized List<Pool> getLeafPools() {
+    List<Pool> leafPools = new ArrayList<Pool>();
+    for (Pool pool: pools.values()) {
+      if (pool.isLeaf()) {
+        leafPools.add(pool);
+      }
+    }
+    return leafPools;
+  }
+  
+  /**
+   * Whether the allocation file nests other pools in the given pool.
+   */
+  public boolean isParentPool(String name) {
+    return allocs.isParentPool(name);
+  }
+  
   /**
    * Get the pool name for a JobInProgress from its configuration.  This uses
    * the value of mapred.fairscheduler.pool if specified, otherwise the value 
    * of the property named in mapred.fairscheduler.poolnameproperty if that is
    * specified.  Otherwise if neither is specified it uses the "user.name" property 
-   * in the jobconf by default.
+   * in the jobconf by default. Jobs naming a parent pool go to the pool
+   * named "default" nested in it. Jobs that were added stay in the pool they
+   * were added to until they are removed.
    */
   public String getPoolName(JobInProgress job) {
+    Pool pool = jobPools.get(job);
+    if (pool != null) {
+      return pool.getName();
+    }
     Configuration conf = job.getJobConf();
-    return conf.get(EXPLICIT_POOL_PROPERTY,
+    String name = conf.get(EXPLICIT_POOL_PROPERTY,
       conf.get(poolNameProperty, Pool.DEFAULT_POOL_NAME)).trim();
+    if (allocs.isParentPool(name)) {
+      return name + "." + Pool.DEFAULT_POOL_NAME;
+    }
+    return name;
   }
 
   /**
@@ -576,27 +794,15 @@ public class PoolManager {
   }
 
   public int getUserMaxJobs(String user) {
-    if (userMaxJobs.containsKey(user)) {
-      return userMaxJobs.get(user);
-    } else {
-      return userMaxJobsDefault;
-    }
+    return allocs.getUserMaxJobs(user);
   }
 
   public int getPoolMaxJobs(String pool) {
-    if (poolMaxJobs.containsKey(pool)) {
-      return poolMaxJobs.get(pool);
-    } else {
-      return poolMaxJobsDefault;
-    }
+    return allocs.getPoolAllocation(pool).getMaxRunningJobs();
   }
 
   public double getPoolWeight(String pool) {
-    if (poolWeights.containsKey(pool)) {
-      return poolWeights.get(pool);
-    } else {
-      return 1.0;
-    }
+    return allocs.getPoolAllocation(pool).getWeight();
   }
 
   /**
@@ -605,11 +811,7 @@ public class PoolManager {
    * are below their min share.
    */
   public long getMinSharePreemptionTimeout(String pool) {
-    if (minSharePreemptionTimeouts.containsKey(pool)) {
-      return minSharePreemptionTimeouts.get(pool);
-    } else {
-      return defaultMinSharePreemptionTimeout;
-    }
+    return allocs.getPoolAllocation(pool).getMinSharePreemptionTimeout();
   }
   
   /**
@@ -618,7 +820,7 @@ public class PoolManager {
    * its fair share.
    */
   public long getFairSharePreemptionTimeout() {
-    return fairSharePreemptionTimeout;
+    return allocs.getFairSharePreemptionTimeout();
   }
 
   synchronized void updateMetrics() {
@@ -627,73 +829,175 @@ public class PoolManager {
     }
   }
   
-  public void refreshSystemStatus(){
-	  totalMapDemands = 0;
-	  totalReduceDemands = 0;
-	  for (Pool pool : pools.values()){
-			if (!pool.getName().equals("default")) {
-				totalMapDemands += pool.getDemand(TaskType.MAP);
-				totalReduceDemands += pool.getDemand(TaskType.REDUCE);
-			}
-	  }
-  }
-  
-  public int computeWastedSlotsExcludingOnePool(TaskType ttype, Pool pool) {
-	  int totalCapacity = (ttype == TaskType.MAP ? this.totalMapCapacity : 
-		  this.totalReduceCapacity);
-	  int totalDemand = (ttype == TaskType.MAP ? this.totalMapDemands : 
-		  this.totalReduceDemands);
-	  int poolDemand = (ttype == TaskType.MAP ? pool.getDemand(TaskType.MAP) :
-			  pool.getDemand(TaskType.REDUCE));
-	  int poolCapacity = (ttype == TaskType.MAP ? getCapacity(pool.getName(), TaskType.MAP):
-		  getCapacity(pool.getName(), TaskType.REDUCE));
-	  int poolAllocation = (ttype == TaskType.MAP? pool.getRunningTasks(TaskType.MAP):
-		  pool.getRunningTasks(TaskType.REDUCE));
-	  
-	  int oldWasted = Math.max(0, totalCapacity - totalDemand);
-	  int newDemand = totalDemand - poolDemand;
-	  int newCapacity = totalCapacity - poolCapacity;
-	  LOG.warn(ttype.toString() + " totalCapacity:" + totalCapacity + 
-			  " totalDemand:" + totalDemand +
-			  " poolDemand:" + poolDemand + 
-			  " poolCapacity:" + poolCapacity + 
-			  " poolAllocation:" + poolAllocation);
-	  if (newDemand > newCapacity) {
-		  // still someone can use more machines
-		  return Math.max(0, poolAllocation + oldWasted - (newDemand - newCapacity));
-	  } else {
-		  // no one requires more
-		  return poolAllocation + oldWasted;
-	  }
-  }
-  
-  public void updatePoolCreditValue(TaskType ttype)
-  {
-	  refreshSystemStatus();
-	  
-	  for (Pool pool:pools.values()){
-		  long gain = 0;
-		  int wasted = (ttype == TaskType.MAP ? 
-				  this.computeWastedSlotsExcludingOnePool(TaskType.MAP, pool) :
-					  this.computeWastedSlotsExcludingOnePool(TaskType.REDUCE, pool));
-		  int allocation = (ttype == TaskType.MAP ? 
-				  pool.getRunningTasks(TaskType.MAP) :
-					  pool.getRunningTasks(TaskType.REDUCE));
-		  int capacity = (ttype == TaskType.MAP ? 
-				  getCapacity(pool.getName(), TaskType.MAP) : getCapacity(pool.getName(), TaskType.REDUCE));
-		  LOG.warn(ttype.toString() + 
-				  " " + pool.getName() + 
-				  " wasted:" + wasted + 
-				  " allocation:" + allocation + 
-				   " capacity:" + capacity);
-		  if (allocation > capacity){
-			  gain = Math.max(0,  (allocation - capacity) - wasted);
-			  gain = -gain;
-		  }
-		  else{
-			  gain = Math.max(0, (capacity - allocation) - wasted);
-		  }
-		  pool.updateCredit(ttype, gain);// * this.creditUpdateInterval); // why /60?
-	  }
+  /**
+   * Stop the credit updater and then close the credit ledger, so that no
+   * credits are appended to it while or after it is closed.
+   */
+  void terminate() {
+    if (creditUpdater != null) {
+      try {
+        creditUpdater.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      creditUpdater = null;
+    }
+    if (creditLedger != null) {
+      creditLedger.close();
+    }
+  }
+  
+  /**
+   * Restore the pool credits saved in the credit ledger, creating the pools
+   * they belong to if necessary.
+   */
+  private void recoverCredits() throws IOException {
+    if (creditLedger == null)
+      return;
+    Map<String, float[]> recovered = creditLedger.recover();
+    for (String poolName: recovered.keySet()) {
+      getPool(poolName);
+    }
+    credits = new CreditSnapshot(0, recovered);
+  }
+  
+  /**
+   * Get the credits of all pools as of the last credit update tick.
+   */
+  public CreditSnapshot getCreditSnapshot() {
+    return credits;
+  }
+  
+  /**
+   * Append the current pool credits to the credit ledger, if there is one.
+   */
+  void recordCredits() {
+    if (creditLedger == null)
+      return;
+    try {
+      creditLedger.append(System.currentTimeMillis(), credits.getCredits());
+    } catch (IOException e) {
+      LOG.error("Failed to write pool credits to the credit ledger", e);
+    }
+  }
+  
+  /**
+   * Run one credit update tick: compute every pool's map and reduce credit
+   * gains from its demand and running tasks as of the scheduler's last
+   * update, apply them to its balances according to its {@link CreditPolicy}
+   * and publish the new balances as a new {@link CreditSnapshot}.
+   * Only called from the credit updater thread.
+   * 
+   * Gains are computed among sibling pools: the top-level pools share the
+   * cluster, and the pools nested in a parent pool share their parent's
+   * demand and running tasks, which include theirs. Credit thus accrues and
+   * is spent at every level of the pool tree.
+   * 
+   * Besides its running tasks, a pool is charged for the memory its tasks
+   * request and for the slot time they consumed since the last tick, each
+   * measured in slots; its balances move by its gain in whichever of these
+   * is its dominant resource (see {@link CreditEngine}). Pools whose recent
+   * jobs saw a worse stretch than their siblings' then earn credit faster
+   * (see {@link #getStretchBoost(float, float, float)}).
+   */
+  void updatePoolCredits() {
+    List<List<Pool>> siblings = siblingGroups;
+    long now = scheduler.getClock().getTime();
+    long elapsed = now - lastCreditUpdateTime;
+    lastCreditUpdateTime = now;
+    CreditSnapshot current = credits;
+    Map<String, float[]> balances = current.copyBalances();
+    for (List<Pool> group: siblings) {
+      updateCredits(group, balances, elapsed);
+    }
+    credits = new CreditSnapshot(current.getTick() + 1, balances);
+  }
+  
+  /**
+   * Apply one tick's credit gains of a group of sibling pools to their
+   * balances, given the time in milliseconds since the last tick.
+   */
+  private void updateCredits(List<Pool> group, Map<String, float[]> balances,
+      long elapsed) {
+    creditEngine.reset();
+    for (Pool pool: group) {
+      AllocationSnapshot.PoolAllocation alloc = getPoolAllocation(pool);
+      PoolSchedulable maps = pool.getMapSchedulable();
+      PoolSchedulable reduces = pool.getReduceSchedulable();
+      creditEngine.add(pool.getName(), pool.isDefaultPool(),
+          maps.getDemand(), maps.getRunningTasksAtLastUpdate(),
+          alloc.getMinShare(TaskType.MAP),
+          reduces.getDemand(), reduces.getRunningTasksAtLastUpdate(),
+          alloc.getMinShare(TaskType.REDUCE));
+      setUsage(maps, elapsed);
+      setUsage(reduces, elapsed);
+    }
+    creditEngine.computeGains();
+    
+    // Mean recent stretch of the pools whose jobs have finished
+    float totalStretch = 0;
+    int stretchedPools = 0;
+    for (Pool pool: group) {
+      if (pool.getRecentStretch() > 0) {
+        totalStretch += pool.getRecentStretch();
+        stretchedPools++;
+      }
+    }
+    float meanStretch = (stretchedPools == 0 ? 0 :
+        totalStretch / stretchedPools);
+    
+    for (int i = 0; i < creditEngine.getNumPools(); i++) {
+      String name = creditEngine.getPoolName(i);
+      float[] balance = balances.get(name);
+      if (balance == null) {
+        balance = new float[2];
+        balances.put(name, balance);
+      }
+      float boost = getStretchBoost(group.get(i).getRecentStretch(),
+          meanStretch, maxStretchBoost);
+      CreditPolicy policy = getPoolAllocation(group.get(i)).getCreditPolicy();
+      balance[0] = policy.updateBalance(name, TaskType.MAP, balance[0],
+          boostGain(creditEngine.getGain(i, TaskType.MAP), boost),
+          creditUpdateInterval);
+      balance[1] = policy.updateBalance(name, TaskType.REDUCE, balance[1],
+          boostGain(creditEngine.getGain(i, TaskType.REDUCE), boost),
+          creditUpdateInterval);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(creditEngine.getSummary());
+    }
+  }
+  
+  /**
+   * Give the credit engine the memory and slot time usage of the pool last
+   * added to it, for one task type.
+   */
+  private void setUsage(PoolSchedulable sched, long elapsed) {
+    TaskType type = sched.getTaskType();
+    creditEngine.setUsage(type, CreditEngine.Resource.MEMORY,
+        sched.getMemoryDemand(), sched.getRunningMemoryAtLastUpdate());
+    long slotMillis = sched.takeSlotMillis();
+    if (elapsed > 0) {
+      creditEngine.setUsage(type, CreditEngine.Resource.SLOT_TIME,
+          sched.getSlotDemand(), (float) slotMillis / elapsed);
+    }
+  }
+  
+  /**
+   * Factor by which the credit a pool earns is multiplied, given the stretch
+   * of its recent jobs and the mean stretch of its sibling pools: a pool
+   * whose jobs are stretched more than its siblings' earns credit faster,
+   * in proportion, up to maxBoost times faster. Pools whose jobs have not
+   * finished yet earn credit at the normal rate.
+   */
+  static float getStretchBoost(float stretch, float meanStretch,
+      float maxBoost) {
+    if (stretch <= 0 || meanStretch <= 0)
+      return 1f;
+    return Math.max(1f, Math.min(maxBoost, stretch / meanStretch));
+  }
+  
+  private static float boostGain(float gain, float boost) {
+    return (gain > 0 ? gain * boost : gain);
   }
 }
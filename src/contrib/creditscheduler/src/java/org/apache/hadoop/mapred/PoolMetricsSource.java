@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import org.apache.hadoop.metrics2.MetricsBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.MetricsSystem;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+
+/**
+ * Publishes the turnaround of the jobs that succeeded in each pool (see
+ * {@link Pool#jobSucceeded}) through metrics2, as a "pools" record per pool
+ * in the "fairscheduler" context, tagged with the pool name.
+ *
+ * The metrics system cannot unregister a source, so the source stops
+ * reporting once closed when its scheduler terminates.
+ */
+class PoolMetricsSource implements MetricsSource {
+  static final String NAME = "CreditSchedulerPools";
+
+  private volatile CreditScheduler scheduler;
+
+  PoolMetricsSource(CreditScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  static PoolMetricsSource create(CreditScheduler scheduler) {
+    return create(scheduler, DefaultMetricsSystem.INSTANCE);
+  }
+
+  static PoolMetricsSource create(CreditScheduler scheduler,
+                                  MetricsSystem ms) {
+    return ms.register(NAME, "Turnaround of the jobs of each pool",
+                       new PoolMetricsSource(scheduler));
+  }
+
+  /** Stop reporting the pools of the scheduler. */
+  void close() {
+    scheduler = null;
+  }
+
+  @Override
+  public void getMetrics(MetricsBuilder builder, boolean all) {
+    CreditScheduler scheduler = this.scheduler;
+    if (scheduler == null) {
+      return;
+    }
+    // Pools record their jobs with the scheduler locked
+    synchronized (scheduler) {
+      for (Pool pool : scheduler.getPoolManager().getPools()) {
+        builder.addRecord("pools")
+          .setContext("fairscheduler")
+          .tag("pool", "Pool name", pool.getName())
+          .addGauge("finished_jobs", "Jobs that succeeded",
+                    pool.getFinishedJobs())
+          .addGauge("response_time", "Mean response time in seconds",
+                    pool.getResponseTime())
+          .addGauge("stretch", "Mean stretch", pool.getStretch())
+          .addGauge("recent_stretch", "Stretch of the last jobs",
+                    pool.getRecentStretch())
+          .addGauge("map_slot_seconds", "Mean slot time of the maps",
+                    pool.getMapResponseTime())
+          .addGauge("reduce_slot_seconds", "Mean slot time of the reduces",
+                    pool.getReduceResponseTime())
+          .addGauge("map_stretch", "Mean stretch of the maps",
+                    pool.getMapStretch())
+          .addGauge("reduce_stretch", "Mean stretch of the reduces",
+                    pool.getReduceStretch());
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Keeps the {@link PoolSchedulable}s of one task type in the order in which
+ * the credit scheduler offers them slots, so that a heartbeat does not need
+ * to sort every pool each time it assigns a task.
+ *
+ * The scheduler offers slots in one of two orders:
+ * - While some pool with demand is below its minimum share, pools are
+ *   visited in increasing order of slots gap (running tasks - min share).
+ * - Once every pool with demand has reached its minimum share, pools are
+ *   visited in decreasing order of credit.
+ *
+ * Both orders are kept in sorted sets, together with a third set holding
+ * only the pools that have demand, whose first element decides which of the
+ * two orders applies. A pool is held in the sets under the sort keys it had
+ * when it was last passed to
+ * {@link #reposition(PoolSchedulable, CreditSnapshot)}; callers must
+ * reposition a pool whenever its running tasks, demand or credit may have
+ * changed, which costs O(log P) for P pools.
+ *
+ * The scheduler keeps one index of the top-level pools per task type, and
+ * every pool keeps one of the pools nested in it. A pool is held in at most
+ * one index; repositioning it in another index moves it there.
+ */
+class PoolPriorityIndex {
+  /** Visits pools with the smallest slots gap first. */
+  private static final Comparator<PoolSchedulable> GAP_ORDER =
+    new Comparator<PoolSchedulable>() {
+      public int compare(PoolSchedulable p1, PoolSchedulable p2) {
+        int res = compareInts(p1.indexedSlotsGap, p2.indexedSlotsGap);
+        if (res == 0)
+          res = p1.getName().compareTo(p2.getName());
+        return res;
+      }
+    };
+
+  /**
+   * Visits pools with the largest credit first. Ties are broken by slots gap
+   * so that the order matches a stable sort by credit of the gap order.
+   */
+  private static final Comparator<PoolSchedulable> CREDIT_ORDER =
+    new Comparator<PoolSchedulable>() {
+      public int compare(PoolSchedulable p1, PoolSchedulable p2) {
+        int res = Float.compare(p2.indexedCredit, p1.indexedCredit);
+        if (res == 0)
+          res = GAP_ORDER.compare(p1, p2);
+        return res;
+      }
+    };
+
+  private final TaskType taskType;
+  private final NavigableSet<PoolSchedulable> byGap =
+    new TreeSet<PoolSchedulable>(GAP_ORDER);
+  private final NavigableSet<PoolSchedulable> demandingByGap =
+    new TreeSet<PoolSchedulable>(GAP_ORDER);
+  private final NavigableSet<PoolSchedulable> byCredit =
+    new TreeSet<PoolSchedulable>(CREDIT_ORDER);
+
+  public PoolPriorityIndex(TaskType taskType) {
+    this.taskType = taskType;
+  }
+
+  public TaskType getTaskType() {
+    return taskType;
+  }
+
+  /**
+   * Insert a pool into the index, or move it to its new place if its slots
+   * gap, demand or credit changed since it was last positioned.
+   *
+   * @param credits the credit snapshot to take the pool's credit from; pools
+   *        repositioned together should be given the same snapshot
+   * @return true if the pool's sort keys changed
+   */
+  public boolean reposition(PoolSchedulable sched, CreditSnapshot credits) {
+    int gap = sched.getSlotsGap();
+    int demand = sched.getDemand();
+    float credit = credits.getCredit(sched.getName(), taskType);
+    if (sched.index == this && gap == sched.indexedSlotsGap &&
+        demand == sched.indexedDemand &&
+        Float.compare(credit, sched.indexedCredit) == 0) {
+      return false;
+    }
+    if (sched.index != null) {
+      sched.index.remove(sched);
+    }
+    sched.indexedSlotsGap = gap;
+    sched.indexedDemand = demand;
+    sched.indexedCredit = credit;
+    sched.index = this;
+    byGap.add(sched);
+    byCredit.add(sched);
+    if (demand > 0) {
+      demandingByGap.add(sched);
+    }
+    return true;
+  }
+
+  /**
+   * Remove a pool from the index. Must be called with the keys the pool was
+   * inserted under, which is why those keys are only changed from here.
+   */
+  public void remove(PoolSchedulable sched) {
+    if (sched.index != this)
+      return;
+    byGap.remove(sched);
+    byCredit.remove(sched);
+    demandingByGap.remove(sched);
+    sched.index = null;
+  }
+
+  /**
+   * Whether pools are currently visited by credit, i.e. whether every pool
+   * with demand has at least its minimum share.
+   */
+  public boolean isCreditOrdered() {
+    return !demandingByGap.isEmpty() &&
+        demandingByGap.first().indexedSlotsGap >= 0;
+  }
+
+  /**
+   * Get the pools in the order in which they should be offered a slot. The
+   * returned view is backed by the index, so callers must not reposition
+   * pools while iterating over it.
+   */
+  public Collection<PoolSchedulable> getOrderedPools() {
+    return Collections.unmodifiableCollection(
+        isCreditOrdered() ? byCredit : byGap);
+  }
+
+  /**
+   * Get the pools in increasing order of slots gap, whatever the order in
+   * which they are offered slots. The view is backed by the index.
+   */
+  public Collection<PoolSchedulable> getPoolsByGap() {
+    return Collections.unmodifiableCollection(byGap);
+  }
+
+  /**
+   * Get the pools in decreasing order of credit, whatever the order in
+   * which they are offered slots. The view is backed by the index.
+   */
+  public Collection<PoolSchedulable> getPoolsByCredit() {
+    return Collections.unmodifiableCollection(byCredit);
+  }
+
+  public int size() {
+    return byGap.size();
+  }
+
+  private static int compareInts(int i1, int i2) {
+    return (i1 < i2 ? -1 : (i1 == i2 ? 0 : 1));
+  }
+}
@@ -19,12 +19,14 @@
 package org.apache.hadoop.mapred;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,20 +42,53 @@ public class PoolSchedulable extends Schedulable {
   private TaskType taskType;
   private PoolManager poolMgr;
   private List<JobSchedulable> jobScheds = new LinkedList<JobSchedulable>();
-  private int demand = 0;
+  // Demand and running tasks as of the last updateDemand(). These are read
+  // without the scheduler lock by the credit updater, so they are volatile
+  // and only ever assigned fully computed values.
+  private volatile int demand = 0;
+  private volatile int runningTasksAtUpdate = 0;
+  // Memory demanded by and taken by running tasks as of the last update, in
+  // units of slot memory; read by the credit updater like the above
+  private volatile float memoryDemand = 0;
+  private volatile float runningMemory = 0;
+  // Slots demanded by the pool's tasks as of the last update, counting the
+  // slots each task occupies; read by the credit updater like the above
+  private volatile int slotDemand = 0;
+  // Slots occupied by running tasks as of the last update, and the slot
+  // time they consumed since the credit updater last took it
+  private int occupiedSlots = 0;
+  private long lastSlotTimeUpdate;
+  private final AtomicLong slotMillis = new AtomicLong();
+  // Running tasks at the last update, plus the tasks assigned since then
+  private int runningTasks = 0;
+  // Order in which the pools nested in this pool are offered slots
+  private final PoolPriorityIndex childIndex;
   
   // Variables used for preemption
   long lastTimeAtMinShare;
   long lastTimeAtHalfFairShare;
 
+  // Fraction of the locality delays its jobs wait, set at each update
+  private float localityDelayScale = 1f;
+
+  // Index this pool is held in, i.e. the scheduler's index of top-level pools
+  // or its parent's child index, and the sort keys it is held under there;
+  // only the index may change them (see PoolPriorityIndex#reposition)
+  PoolPriorityIndex index;
+  int indexedSlotsGap;
+  int indexedDemand;
+  float indexedCredit;
+
   public PoolSchedulable(CreditScheduler scheduler, Pool pool, TaskType type) {
     this.scheduler = scheduler;
     this.pool = pool;
     this.taskType = type;
     this.poolMgr = scheduler.getPoolManager();
+    this.childIndex = new PoolPriorityIndex(type);
     long currentTime = scheduler.getClock().getTime();
     this.lastTimeAtMinShare = currentTime;
     this.lastTimeAtHalfFairShare = currentTime;
+    this.lastSlotTimeUpdate = currentTime;
     
     initMetrics();
   }
@@ -69,40 +104,121 @@ public class PoolSchedulable extends Schedulable {
       JobSchedulable jobSched = it.next();
       if (jobSched.getJob() == job) {
         it.remove();
+        // The job's tasks are no longer counted by this pool or its parents
+        int jobTasks = jobSched.getRunningTasks();
+        for (Pool p = pool; p != null; p = p.getParent()) {
+          PoolSchedulable sched = p.getSchedulable(taskType);
+          sched.runningTasks = Math.max(0, sched.runningTasks - jobTasks);
+        }
         break;
       }
     }
   }
 
   /**
-   * Update demand by asking jobs in the pool to update
+   * Update demand by asking jobs and child pools in the pool to update, and
+   * charge the pool for the slot time its tasks took since the last update
    */
   @Override
   public void updateDemand() {
-    demand = 0;
+    int demand = 0;
+    int running = 0;
+    float memoryDemand = 0;
+    float runningMemory = 0;
+    int slots = 0;
+    int occupied = 0;
     for (JobSchedulable sched: jobScheds) {
+      sched.updateDemand();
+      int jobRunning = sched.getRunningTasks();
+      float memoryPerTask = sched.getMemoryPerTask();
+      demand += sched.getDemand();
+      running += jobRunning;
+      memoryDemand += sched.getDemand() * memoryPerTask;
+      runningMemory += jobRunning * memoryPerTask;
+      slots += sched.getDemand() * sched.getSlotsPerTask();
+      occupied += jobRunning * sched.getSlotsPerTask();
+    }
+    for (Pool child: pool.getChildren()) {
+      PoolSchedulable sched = child.getSchedulable(taskType);
       sched.updateDemand();
       demand += sched.getDemand();
+      running += sched.getRunningTasks();
+      memoryDemand += sched.memoryDemand;
+      runningMemory += sched.runningMemory;
+      slots += sched.slotDemand;
+      occupied += sched.occupiedSlots;
     }
     // if demand exceeds the cap for this pool, limit to the max
-    int maxTasks = poolMgr.getMaxSlots(pool.getName(), taskType);
+    int maxTasks = poolMgr.getPoolAllocation(pool).getMaxSlots(taskType);
     if(demand > maxTasks) {
+      memoryDemand = memoryDemand * maxTasks / demand;
+      slots = (int) ((long) slots * maxTasks / demand);
       demand = maxTasks;
     }
+    // Tasks are taken to have run since the last update as they were then
+    long now = scheduler.getClock().getTime();
+    slotMillis.addAndGet(occupiedSlots * Math.max(0, now - lastSlotTimeUpdate));
+    lastSlotTimeUpdate = now;
+    this.demand = demand;
+    this.runningTasksAtUpdate = running;
+    this.runningTasks = running;
+    this.memoryDemand = memoryDemand;
+    this.runningMemory = runningMemory;
+    this.slotDemand = slots;
+    this.occupiedSlots = occupied;
   }
   
   /**
-   * Distribute the pool's fair share among its jobs
+   * Distribute the pool's fair share among its jobs and child pools, and
+   * the child pools' shares among theirs
    */
   @Override
   public void redistributeShare() {
+    if (pool.isLeaf()) {
+      if (pool.getSchedulingMode() == SchedulingMode.FAIR) {
+        SchedulingAlgorithms.computeFairShares(jobScheds, getFairShare());
+      } else {
+        for (JobSchedulable sched: jobScheds) {
+          sched.setFairShare(0);
+        }
+      }
+      return;
+    }
+    List<Schedulable> scheds = new ArrayList<Schedulable>();
+    for (Pool child: pool.getChildren()) {
+      scheds.add(child.getSchedulable(taskType));
+    }
     if (pool.getSchedulingMode() == SchedulingMode.FAIR) {
-      SchedulingAlgorithms.computeFairShares(jobScheds, getFairShare());
+      scheds.addAll(jobScheds);
     } else {
       for (JobSchedulable sched: jobScheds) {
         sched.setFairShare(0);
       }
-    } 
+    }
+    SchedulingAlgorithms.computeFairShares(scheds, getFairShare());
+    for (Pool child: pool.getChildren()) {
+      child.getSchedulable(taskType).redistributeShare();
+    }
+  }
+  
+  /**
+   * Move the pools nested in this pool, and recursively the pools nested in
+   * them, to their places in their parents' child indexes.
+   */
+  void updateChildIndex(CreditSnapshot credits) {
+    for (Pool child: pool.getChildren()) {
+      PoolSchedulable sched = child.getSchedulable(taskType);
+      sched.updateChildIndex(credits);
+      childIndex.reposition(sched, credits);
+    }
+  }
+  
+  /**
+   * Get the index holding the order in which the pools nested in this pool
+   * are offered slots.
+   */
+  PoolPriorityIndex getChildIndex() {
+    return childIndex;
   }
 
   @Override
@@ -112,12 +228,12 @@ public class PoolSchedulable extends Schedulable {
 
   @Override
   public int getMinShare() {
-    return poolMgr.getAllocation(pool.getName(), taskType);
+    return poolMgr.getPoolAllocation(pool).getMinShare(taskType);
   }
 
   @Override
   public double getWeight() {
-    return poolMgr.getPoolWeight(pool.getName());
+    return poolMgr.getPoolAllocation(pool).getWeight();
   }
 
   @Override
@@ -129,13 +245,59 @@ public class PoolSchedulable extends Schedulable {
 	  return this.pool.getCredit(ttype);
   }
 
+  /**
+   * Get the running tasks of the pool as of the last update, plus the tasks
+   * it has been assigned since then. Tasks that finished since the last update
+   * are only accounted for at the next one.
+   */
   @Override
   public int getRunningTasks() {
-    int ans = 0;
-    for (JobSchedulable sched: jobScheds) {
-      ans += sched.getRunningTasks();
-    }
-    return ans;
+    return runningTasks;
+  }
+  
+  /**
+   * Number of running tasks as of the last {@link #updateDemand()}. Unlike
+   * {@link #getRunningTasks()}, this is safe to call without holding the
+   * scheduler lock.
+   */
+  public int getRunningTasksAtLastUpdate() {
+    return runningTasksAtUpdate;
+  }
+  
+  /**
+   * Memory demanded by the pool's tasks as of the last
+   * {@link #updateDemand()}, in units of the memory of a slot. Safe to call
+   * without holding the scheduler lock.
+   */
+  public float getMemoryDemand() {
+    return memoryDemand;
+  }
+
+  /**
+   * Memory taken by the pool's running tasks as of the last
+   * {@link #updateDemand()}, in units of the memory of a slot. Safe to call
+   * without holding the scheduler lock.
+   */
+  public float getRunningMemoryAtLastUpdate() {
+    return runningMemory;
+  }
+
+  /**
+   * Slots demanded by the pool's tasks as of the last {@link #updateDemand()},
+   * counting every slot a task of a multi-slot job occupies. Safe to call
+   * without holding the scheduler lock.
+   */
+  public int getSlotDemand() {
+    return slotDemand;
+  }
+
+  /**
+   * Get the slot time in milliseconds that the pool's tasks consumed since
+   * the last call, and start counting afresh. Only called by the credit
+   * updater; safe to call without holding the scheduler lock.
+   */
+  long takeSlotMillis() {
+    return slotMillis.getAndSet(0);
   }
   
   public int getSlotsGap() {
@@ -150,10 +312,39 @@ public class PoolSchedulable extends Schedulable {
   @Override
   public Task assignTask(TaskTrackerStatus tts, long currentTime,
       Collection<JobInProgress> visited) throws IOException {
-    int runningTasks = getRunningTasks();
-    if (runningTasks >= poolMgr.getMaxSlots(pool.getName(), taskType)) {
+    return assignTask(tts, currentTime, visited, poolMgr.getCreditSnapshot());
+  }
+
+  /**
+   * Assign a task from the pool. A parent pool offers the slot to its child
+   * pools first, in the order of its child index, so that a task is found by
+   * descending the pool tree one level at a time; the child that gets the
+   * task is then moved to its new place in that index.
+   *
+   * @param credits the credit snapshot of the heartbeat, to reposition the
+   *        child pools by
+   */
+  Task assignTask(TaskTrackerStatus tts, long currentTime,
+      Collection<JobInProgress> visited, CreditSnapshot credits)
+      throws IOException {
+    if (runningTasks >=
+        poolMgr.getPoolAllocation(pool).getMaxSlots(taskType)) {
       return null;
     }
+    if (!pool.isLeaf()) {
+      for (PoolSchedulable child: childIndex.getOrderedPools()) {
+        Task task = child.assignTask(tts, currentTime, visited, credits);
+        if (task != null) {
+          runningTasks++;
+          // The iteration ends here, so the child can be moved right away
+          childIndex.reposition(child, credits);
+          return task;
+        }
+      }
+      if (jobScheds.isEmpty()) {
+        return null;
+      }
+    }
     SchedulingMode mode = pool.getSchedulingMode();
     Comparator<Schedulable> comparator;
     if (mode == SchedulingMode.FIFO) {
@@ -166,12 +357,107 @@ public class PoolSchedulable extends Schedulable {
     Collections.sort(jobScheds, comparator);
     for (JobSchedulable sched: jobScheds) {
       Task task = sched.assignTask(tts, currentTime, visited);
-      if (task != null)
+      if (task != null) {
+        runningTasks++;
         return task;
+      }
     }
     return null;
   }
   
+  /**
+   * Assign up to maxTasks tasks from the pool in one go, adding them to
+   * tasks, and return how many were assigned. A parent pool hands them out
+   * among its child pools first (see
+   * {@link #assignTasks(PoolPriorityIndex, TaskTrackerStatus, long,
+   * Collection, int, List, CreditSnapshot)}), then to its own jobs. Jobs
+   * are asked for tasks in the pool's scheduling order; in fair mode, each
+   * is first asked for no more than it lacks to reach its fair share, so
+   * that one job does not take the whole batch.
+   *
+   * @param credits the credit snapshot of the heartbeat, to reposition the
+   *        child pools by
+   */
+  int assignTasks(TaskTrackerStatus tts, long currentTime,
+      Collection<JobInProgress> visited, int maxTasks, List<Task> tasks,
+      CreditSnapshot credits) throws IOException {
+    int max = Math.min(maxTasks,
+        poolMgr.getPoolAllocation(pool).getMaxSlots(taskType) - runningTasks);
+    if (max <= 0) {
+      return 0;
+    }
+    int assigned = 0;
+    if (!pool.isLeaf()) {
+      assigned = assignTasks(childIndex, tts, currentTime, visited, max,
+          tasks, credits);
+    }
+    if (assigned < max && !jobScheds.isEmpty()) {
+      SchedulingMode mode = pool.getSchedulingMode();
+      if (mode == SchedulingMode.FIFO) {
+        Collections.sort(jobScheds, new SchedulingAlgorithms.FifoComparator());
+      } else if (mode == SchedulingMode.FAIR) {
+        Collections.sort(jobScheds,
+            new SchedulingAlgorithms.FairShareComparator());
+        for (JobSchedulable sched: jobScheds) {
+          int deficit = (int) Math.ceil(sched.getFairShare()) -
+            sched.getRunningTasks();
+          assigned += sched.assignTasks(tts, currentTime, visited,
+              Math.min(max - assigned, Math.max(1, deficit)), tasks);
+        }
+      } else {
+        throw new RuntimeException("Unsupported pool scheduling mode " + mode);
+      }
+      for (JobSchedulable sched: jobScheds) {
+        assigned += sched.assignTasks(tts, currentTime, visited,
+            max - assigned, tasks);
+      }
+    }
+    runningTasks += assigned;
+    return assigned;
+  }
+
+  /**
+   * Assign up to maxTasks tasks from the pools of an index in one go,
+   * adding them to tasks, and return how many were assigned. Rather than
+   * offering the pools one task at a time and repositioning them after
+   * each, every pool is given a quota for the whole batch in one pass over
+   * each of the index's orders: first, pools below their min share are
+   * asked for the tasks they lack to reach it, most starved first; then
+   * pools are asked for the rest in decreasing order of credit, which does
+   * not change during a heartbeat. Quota a pool cannot fill passes on to
+   * the pools after it, and each pool is repositioned once at the end.
+   */
+  static int assignTasks(PoolPriorityIndex index, TaskTrackerStatus tts,
+      long currentTime, Collection<JobInProgress> visited, int maxTasks,
+      List<Task> tasks, CreditSnapshot credits) throws IOException {
+    List<PoolSchedulable> byGap =
+      new ArrayList<PoolSchedulable>(index.getPoolsByGap());
+    List<PoolSchedulable> byCredit =
+      new ArrayList<PoolSchedulable>(index.getPoolsByCredit());
+    int assigned = 0;
+    for (PoolSchedulable sched: byGap) {
+      if (assigned == maxTasks || sched.indexedSlotsGap >= 0) {
+        break;
+      }
+      assigned += sched.assignTasks(tts, currentTime, visited,
+          Math.min(maxTasks - assigned, -sched.indexedSlotsGap), tasks,
+          credits);
+    }
+    for (PoolSchedulable sched: byCredit) {
+      if (assigned == maxTasks) {
+        break;
+      }
+      assigned += sched.assignTasks(tts, currentTime, visited,
+          maxTasks - assigned, tasks, credits);
+    }
+    if (assigned > 0) {
+      for (PoolSchedulable sched: byGap) {
+        index.reposition(sched, credits);
+      }
+    }
+    return assigned;
+  }
+
   @Override
   public String getName() {
     return pool.getName();
@@ -206,6 +492,18 @@ public class PoolSchedulable extends Schedulable {
     this.lastTimeAtHalfFairShare = lastTimeAtHalfFairShare;
   }
 
+  /**
+   * Get the fraction of the scheduler's locality delays that jobs in this
+   * pool wait for local maps, as of the last update.
+   */
+  public float getLocalityDelayScale() {
+    return localityDelayScale;
+  }
+
+  void setLocalityDelayScale(float localityDelayScale) {
+    this.localityDelayScale = localityDelayScale;
+  }
+
   protected String getMetricsContextName() {
     return "pools";
   }
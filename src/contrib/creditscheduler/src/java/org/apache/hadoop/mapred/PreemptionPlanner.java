@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Chooses the running tasks that the credit scheduler kills to give slots
+ * back to starved pools.
+ *
+ * Only pools running more tasks than their fair share give up tasks, and
+ * never so many that they fall below it. Among these pools, the ones with
+ * the least credit, i.e. the ones that have used the most slots beyond their
+ * share, give up tasks first. Within a pool, the attempts that waste the
+ * least work when killed go first: the waste of an attempt is the time it
+ * has run, scaled by up to twice as much as its progress grows, so that
+ * attempts that are about to finish, and would soon give their slot back
+ * anyway, are killed last.
+ *
+ * Planning only needs the scheduler lock and the locks of the jobs it
+ * visits; the returned victims are killed afterwards by the caller, which
+ * is the only part that needs the JobTracker lock.
+ */
+class PreemptionPlanner {
+  private PreemptionPlanner() {}
+
+  /** A running attempt that may be killed, and what killing it costs. */
+  static class Victim {
+    private final TaskAttemptID attemptId;
+    private final String trackerName;
+    private final long startTime;
+    private final double waste;
+
+    Victim(TaskAttemptID attemptId, String trackerName, long startTime,
+        double waste) {
+      this.attemptId = attemptId;
+      this.trackerName = trackerName;
+      this.startTime = startTime;
+      this.waste = waste;
+    }
+
+    TaskAttemptID getAttemptId() {
+      return attemptId;
+    }
+
+    String getTrackerName() {
+      return trackerName;
+    }
+
+    double getWaste() {
+      return waste;
+    }
+  }
+
+  /**
+   * Kills the attempts that waste the least work first, and of those that
+   * waste the same, the ones that started most recently.
+   */
+  static final Comparator<Victim> WASTE_ORDER = new Comparator<Victim>() {
+    public int compare(Victim v1, Victim v2) {
+      int res = Double.compare(v1.waste, v2.waste);
+      if (res == 0)
+        res = (v1.startTime > v2.startTime ? -1 :
+               (v1.startTime == v2.startTime ? 0 : 1));
+      if (res == 0)
+        res = v1.attemptId.compareTo(v2.attemptId);
+      return res;
+    }
+  };
+
+  /** The running attempts of one pool, and how many it may give up. */
+  static class PoolVictims {
+    private final String poolName;
+    private final float credit;
+    private int tasksOverShare;
+    private final PriorityQueue<Victim> victims =
+      new PriorityQueue<Victim>(11, WASTE_ORDER);
+
+    PoolVictims(String poolName, float credit, int tasksOverShare) {
+      this.poolName = poolName;
+      this.credit = credit;
+      this.tasksOverShare = tasksOverShare;
+    }
+
+    void add(Victim victim) {
+      victims.add(victim);
+    }
+
+    String getPoolName() {
+      return poolName;
+    }
+  }
+
+  /** Takes tasks from the pools with the least credit first. */
+  private static final Comparator<PoolVictims> CREDIT_ORDER =
+    new Comparator<PoolVictims>() {
+      public int compare(PoolVictims p1, PoolVictims p2) {
+        int res = Float.compare(p1.credit, p2.credit);
+        if (res == 0)
+          res = p2.tasksOverShare - p1.tasksOverShare;
+        if (res == 0)
+          res = p1.poolName.compareTo(p2.poolName);
+        return res;
+      }
+    };
+
+  /**
+   * Waste of killing an attempt that has run for the given time and made the
+   * given progress.
+   */
+  static double getWaste(long runTime, float progress) {
+    return Math.max(0, runTime) * (1.0 + Math.min(1f, Math.max(0f, progress)));
+  }
+
+  /**
+   * Collect the running attempts of the pools that run more tasks than their
+   * fair share, from the running tips tracked by their jobs. Must be called
+   * with the scheduler locked.
+   */
+  static List<PoolVictims> collectVictims(List<PoolSchedulable> scheds,
+      long now) {
+    List<PoolVictims> pools = new ArrayList<PoolVictims>();
+    for (PoolSchedulable sched: scheds) {
+      int tasksOverShare =
+        (int) Math.ceil(sched.getRunningTasks() - sched.getFairShare());
+      if (tasksOverShare <= 0)
+        continue;
+      TaskType type = sched.getTaskType();
+      PoolVictims pool = new PoolVictims(sched.getName(),
+          sched.getCredit(type), tasksOverShare);
+      for (JobSchedulable jobSched: sched.getJobSchedulables()) {
+        JobInProgress job = jobSched.getJob();
+        synchronized (job) {
+          for (TaskInProgress tip: jobSched.getRunningTips()) {
+            for (TaskAttemptID id: tip.getActiveTasks().keySet()) {
+              TaskStatus status = tip.getTaskStatus(id);
+              // status is null when the task has been scheduled but not yet
+              // running
+              if (status != null) {
+                pool.add(new Victim(id, status.getTaskTracker(),
+                    status.getStartTime(), getWaste(
+                        now - status.getStartTime(), status.getProgress())));
+              }
+            }
+          }
+        }
+      }
+      pools.add(pool);
+    }
+    return pools;
+  }
+
+  /**
+   * Choose up to tasksToPreempt victims from the given pools, draining the
+   * pools with the least credit first, down to their fair shares.
+   */
+  static List<Victim> planVictims(List<PoolVictims> pools,
+      int tasksToPreempt) {
+    List<Victim> plan = new ArrayList<Victim>();
+    List<PoolVictims> sorted = new ArrayList<PoolVictims>(pools);
+    Collections.sort(sorted, CREDIT_ORDER);
+    for (PoolVictims pool: sorted) {
+      while (plan.size() < tasksToPreempt && pool.tasksOverShare > 0
+          && !pool.victims.isEmpty()) {
+        plan.add(pool.victims.poll());
+        pool.tasksOverShare--;
+      }
+      if (plan.size() == tasksToPreempt)
+        break;
+    }
+    return plan;
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * The state of every pool as of one scheduler update: its credit, running
+ * tasks, demand and shares of each task type.
+ *
+ * States are immutable. The scheduler captures one at the end of each
+ * update, with its lock held, and publishes it together with the states of
+ * the previous updates (see {@link CreditScheduler#getStateHistory()}), so
+ * that readers such as the scheduler's JSON servlet never take the
+ * scheduler or JobTracker locks.
+ */
+class SchedulerState {
+  static final SchedulerState EMPTY =
+    new SchedulerState(0, 0, Collections.<PoolState>emptyList());
+
+  /** Slot usage and credit of one task type in a pool. */
+  static class SlotState {
+    private final int runningTasks;
+    private final int demand;
+    private final int minShare;
+    private final double fairShare;
+    private final float credit;
+
+    SlotState(PoolSchedulable sched, float credit) {
+      this.runningTasks = sched.getRunningTasks();
+      this.demand = sched.getDemand();
+      this.minShare = sched.getMinShare();
+      this.fairShare = sched.getFairShare();
+      this.credit = credit;
+    }
+
+    int getRunningTasks() {
+      return runningTasks;
+    }
+
+    int getDemand() {
+      return demand;
+    }
+
+    int getMinShare() {
+      return minShare;
+    }
+
+    double getFairShare() {
+      return fairShare;
+    }
+
+    /** Running tasks minus min share, as used to order the pools. */
+    int getSlotsGap() {
+      return runningTasks - minShare;
+    }
+
+    float getCredit() {
+      return credit;
+    }
+  }
+
+  /** State of one pool. */
+  static class PoolState {
+    private final String name;
+    private final String parent;
+    private final int runningJobs;
+    private final SlotState maps;
+    private final SlotState reduces;
+
+    PoolState(Pool pool, CreditSnapshot credits) {
+      this.name = pool.getName();
+      this.parent = (pool.getParent() == null ? null :
+          pool.getParent().getName());
+      this.runningJobs = pool.getJobs().size();
+      this.maps = new SlotState(pool.getMapSchedulable(),
+          credits.getCredit(name, TaskType.MAP));
+      this.reduces = new SlotState(pool.getReduceSchedulable(),
+          credits.getCredit(name, TaskType.REDUCE));
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /** Name of the pool this pool is nested in, or null. */
+    String getParent() {
+      return parent;
+    }
+
+    int getRunningJobs() {
+      return runningJobs;
+    }
+
+    SlotState getSlots(TaskType type) {
+      return (type == TaskType.MAP ? maps : reduces);
+    }
+  }
+
+  private final long time;
+  private final long creditTick;
+  private final List<PoolState> pools;
+
+  private SchedulerState(long time, long creditTick, List<PoolState> pools) {
+    this.time = time;
+    this.creditTick = creditTick;
+    this.pools = pools;
+  }
+
+  /**
+   * Capture the state of the given pools. Must be called with the scheduler
+   * locked, after its demands and fair shares have been updated.
+   */
+  static SchedulerState capture(long time, Collection<Pool> pools,
+      CreditSnapshot credits) {
+    List<PoolState> states = new ArrayList<PoolState>(pools.size());
+    for (Pool pool: pools) {
+      states.add(new PoolState(pool, credits));
+    }
+    return new SchedulerState(time, credits.getTick(),
+        Collections.unmodifiableList(states));
+  }
+
+  /** Time of the update this state was captured at. */
+  long getTime() {
+    return time;
+  }
+
+  /** Credit update tick of the credits in this state. */
+  long getCreditTick() {
+    return creditTick;
+  }
+
+  List<PoolState> getPools() {
+    return pools;
+  }
+}
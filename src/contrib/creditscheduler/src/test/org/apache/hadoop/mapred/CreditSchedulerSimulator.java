@@ -0,0 +1,1060 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobInProgress.KillInterruptedException;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.server.jobtracker.TaskTracker;
+import org.apache.hadoop.mapreduce.split.JobSplit;
+import org.apache.hadoop.tools.rumen.ZombieCluster;
+import org.apache.hadoop.tools.rumen.ZombieJob;
+import org.apache.hadoop.tools.rumen.ZombieJobProducer;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * A deterministic simulator that replays a workload against the
+ * {@link CreditScheduler} on a simulated cluster, to measure the scheduler's
+ * throughput and fairness offline.
+ *
+ * The simulator is single-threaded and runs on a virtual clock. Every tracker
+ * heartbeats once per heartbeat interval, at evenly staggered times, and on
+ * each heartbeat first finishes the tasks whose runtime has elapsed and then
+ * calls {@link CreditScheduler#assignTasks(TaskTracker)}. The scheduler runs
+ * in mock mode, so the simulator also drives {@link CreditScheduler#update()}
+ * every update interval and the credit updater every credit update interval.
+ * With the same arguments, two runs therefore make the same decisions; only
+ * the measured latencies differ.
+ *
+ * Jobs are either generated from a seeded random workload or read from a
+ * rumen trace with {@link ZombieJobProducer}. Only the time spent in the
+ * scheduler is measured; the simulated jobs and trackers keep their pending
+ * tasks indexed by host and rack so that they add as little as possible.
+ *
+ * At the end of the run the simulator prints heartbeats per second of
+ * scheduler time, assignTasks and update latency percentiles, slot
+ * utilization and per-pool response times. With -out, it also writes each
+ * pool's credits, running tasks and fair shares at every credit tick as
+ * tab-separated values.
+ *
+ * Scheduler settings can be given with the generic -D options, e.g.
+ * -Dmapred.fairscheduler.creditupdateinterval=30000.
+ */
+public class CreditSchedulerSimulator extends Configured implements Tool {
+  private static final String USAGE =
+    "Usage: CreditSchedulerSimulator [generic options]\n" +
+    "  [-racks N] [-nodesPerRack N] [-mapSlots N] [-reduceSlots N]\n" +
+    "  [-pools N] [-parents N] [-jobs N]\n" +
+    "  [-mapsPerJob N] [-reducesPerJob N]\n" +
+    "  [-mapTime ms] [-reduceTime ms] [-interarrival ms]\n" +
+    "  [-trace rumen-trace.json [-topology rumen-topology.json]]\n" +
+    "  [-alloc allocations.xml] [-heartbeat ms] [-duration ms]\n" +
+    "  [-seed N] [-out trajectories.tsv] [-verbose]";
+
+  // Cluster
+  private int numRacks = 20;
+  private int nodesPerRack = 20;
+  private int mapSlots = 2;
+  private int reduceSlots = 2;
+  private long heartbeatInterval = 3000;
+  // Synthetic workload
+  private int numPools = 10;
+  private int numParents = 0; // Parent pools to nest the pools in, if any
+  private int numJobs = 200;
+  private int mapsPerJob = 50;
+  private int reducesPerJob = 5;
+  private long mapTime = 30000;
+  private long reduceTime = 60000;
+  private long interarrival = 5000;
+  private long seed = 0;
+  // Trace workload
+  private String trace;
+  private String topology;
+  // Run
+  private String allocFile;
+  private long duration = Long.MAX_VALUE;
+  private String out;
+  private boolean verbose = false;
+
+  private final SimClock clock = new SimClock();
+  private SimTaskTrackerManager taskTrackerManager;
+  private CreditScheduler scheduler;
+  private JobTracker jobTracker;
+  private String[] hosts;
+  private int jobCounter = 0;
+  private int runningJobs = 0;
+
+  // Measurements
+  private final LatencyRecorder heartbeatLatency = new LatencyRecorder();
+  private final LatencyRecorder updateLatency = new LatencyRecorder();
+  private long mapSlotSamples = 0, busyMapSlotSamples = 0;
+  private long reduceSlotSamples = 0, busyReduceSlotSamples = 0;
+  private long localMaps = 0, rackLocalMaps = 0, offRackMaps = 0;
+  private final Map<String, PoolStats> poolStats =
+    new TreeMap<String, PoolStats>();
+  private PrintWriter trajectories;
+
+  /** Virtual time, advanced only by the simulator. */
+  static class SimClock extends Clock {
+    long time = 0;
+
+    @Override
+    long getTime() {
+      return time;
+    }
+  }
+
+  /** A job to submit, from a trace or generated. */
+  static class JobSpec {
+    final long submitTime;
+    final String pool;
+    final long[] mapTimes;
+    final long[] reduceTimes;
+    final String[][] mapHosts; // Simulated hosts holding each map's split
+
+    JobSpec(long submitTime, String pool, long[] mapTimes, long[] reduceTimes,
+        String[][] mapHosts) {
+      this.submitTime = submitTime;
+      this.pool = pool;
+      this.mapTimes = mapTimes;
+      this.reduceTimes = reduceTimes;
+      this.mapHosts = mapHosts;
+    }
+  }
+
+  /** Durations of scheduler calls, in nanoseconds. */
+  static class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int count = 0;
+    private long total = 0;
+
+    void add(long nanos) {
+      if (count == samples.length) {
+        samples = Arrays.copyOf(samples, count * 2);
+      }
+      samples[count++] = nanos;
+      total += nanos;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    long getTotal() {
+      return total;
+    }
+
+    /** The given percentile, in microseconds. Sorts the samples. */
+    double percentile(double p) {
+      if (count == 0)
+        return 0;
+      Arrays.sort(samples, 0, count);
+      int i = (int) Math.min(count - 1, Math.ceil(p / 100 * count) - 1);
+      return samples[Math.max(0, i)] / 1000.0;
+    }
+  }
+
+  static class PoolStats {
+    int jobsFinished = 0;
+    long totalResponseTime = 0;
+  }
+
+  /**
+   * A task in progress that remembers its simulated runtime and split hosts,
+   * and whose attempts are started and finished by the simulator.
+   */
+  class SimTaskInProgress extends TaskInProgress {
+    final long runtime;
+    final String[] hosts;
+    private final boolean isMap;
+    private final TreeMap<TaskAttemptID, String> activeTasks =
+      new TreeMap<TaskAttemptID, String>();
+    private TaskStatus taskStatus;
+    private boolean started = false;
+    private boolean complete = false;
+
+    // Constructor for maps
+    SimTaskInProgress(SimJobInProgress job, int id, long runtime,
+        String[] hosts) {
+      super(job.getJobID(), "", JobSplit.EMPTY_TASK_SPLIT, jobTracker,
+          job.getJobConf(), job, id, 1);
+      this.isMap = true;
+      this.runtime = runtime;
+      this.hosts = hosts;
+      this.taskStatus = TaskStatus.createTaskStatus(true);
+    }
+
+    // Constructor for reduces
+    SimTaskInProgress(SimJobInProgress job, int id, int numMaps,
+        long runtime) {
+      super(job.getJobID(), "", numMaps, id, jobTracker, job.getJobConf(),
+          job, 1);
+      this.isMap = false;
+      this.runtime = runtime;
+      this.hosts = null;
+      this.taskStatus = TaskStatus.createTaskStatus(false);
+    }
+
+    void start(Task task, String trackerName) {
+      int oldAttemptsNeeded = getAttemptsNeeded();
+      started = true;
+      activeTasks.put(task.getTaskID(), trackerName);
+      taskStatus = TaskStatus.createTaskStatus(isMap, task.getTaskID(),
+          0.5f, 1, TaskStatus.State.RUNNING, "", "", trackerName,
+          isMap ? TaskStatus.Phase.MAP : TaskStatus.Phase.REDUCE,
+          new Counters());
+      taskStatus.setStartTime(clock.getTime());
+      notifyStateChanged(oldAttemptsNeeded);
+    }
+
+    void finish() {
+      int oldAttemptsNeeded = getAttemptsNeeded();
+      complete = true;
+      activeTasks.clear();
+      taskStatus.setRunState(TaskStatus.State.SUCCEEDED);
+      notifyStateChanged(oldAttemptsNeeded);
+    }
+
+    @Override
+    TreeMap<TaskAttemptID, String> getActiveTasks() {
+      return activeTasks;
+    }
+
+    @Override
+    public boolean isComplete() {
+      return complete;
+    }
+
+    @Override
+    public boolean isRunning() {
+      return !activeTasks.isEmpty();
+    }
+
+    @Override
+    public TaskStatus getTaskStatus(TaskAttemptID taskid) {
+      return taskStatus;
+    }
+  }
+
+  /**
+   * A job whose tasks are described by a {@link JobSpec}. Pending maps are
+   * indexed by host and rack; entries of tasks that have already started
+   * are skipped when they come up.
+   */
+  class SimJobInProgress extends JobInProgress {
+    final JobSpec spec;
+    final long submitTime;
+    private boolean initialized = false;
+    private final Map<String, ArrayDeque<SimTaskInProgress>> pendingByHost =
+      new HashMap<String, ArrayDeque<SimTaskInProgress>>();
+    private final Map<String, ArrayDeque<SimTaskInProgress>> pendingByRack =
+      new HashMap<String, ArrayDeque<SimTaskInProgress>>();
+    private final ArrayDeque<SimTaskInProgress> pendingMaps =
+      new ArrayDeque<SimTaskInProgress>();
+    private final ArrayDeque<SimTaskInProgress> pendingReduces =
+      new ArrayDeque<SimTaskInProgress>();
+    private int tasksLeft;
+
+    SimJobInProgress(JobConf jobConf, JobSpec spec) throws IOException {
+      super(new JobID("sim", ++jobCounter), jobConf, jobTracker);
+      this.spec = spec;
+      this.submitTime = clock.getTime();
+      this.startTime = submitTime;
+    }
+
+    @Override
+    public synchronized void initTasks() throws IOException {
+      JobID jobId = getJobID();
+      JobConf conf = getJobConf();
+      numMapTasks = spec.mapTimes.length;
+      numReduceTasks = spec.reduceTimes.length;
+      // Setup and cleanup tips are needed by getTaskInProgress()
+      cleanup = new TaskInProgress[2];
+      cleanup[0] = new TaskInProgress(jobId, "", null, jobtracker, conf, this,
+          numMapTasks, 1);
+      cleanup[0].setJobCleanupTask();
+      cleanup[1] = new TaskInProgress(jobId, "", numMapTasks, numReduceTasks,
+          jobtracker, conf, this, 1);
+      cleanup[1].setJobCleanupTask();
+      setup = new TaskInProgress[2];
+      setup[0] = new TaskInProgress(jobId, "", null, jobtracker, conf, this,
+          numMapTasks + 1, 1);
+      setup[0].setJobSetupTask();
+      setup[1] = new TaskInProgress(jobId, "", numMapTasks,
+          numReduceTasks + 1, jobtracker, conf, this, 1);
+      setup[1].setJobSetupTask();
+
+      maps = new TaskInProgress[numMapTasks];
+      for (int i = 0; i < numMapTasks; i++) {
+        SimTaskInProgress tip = new SimTaskInProgress(this, i,
+            spec.mapTimes[i], spec.mapHosts[i]);
+        maps[i] = tip;
+        pendingMaps.add(tip);
+        for (String host: tip.hosts) {
+          pending(pendingByHost, host).add(tip);
+          pending(pendingByRack, getRack(host)).add(tip);
+        }
+      }
+      reduces = new TaskInProgress[numReduceTasks];
+      for (int i = 0; i < numReduceTasks; i++) {
+        SimTaskInProgress tip = new SimTaskInProgress(this, i, numMapTasks,
+            spec.reduceTimes[i]);
+        reduces[i] = tip;
+        pendingReduces.add(tip);
+      }
+      completedMapsForReduceSlowstart = (int) Math.ceil(conf.getFloat(
+          "mapred.reduce.slowstart.completed.maps", 0.05f) * numMapTasks);
+      tasksLeft = numMapTasks + numReduceTasks;
+      initialized = true;
+    }
+
+    private ArrayDeque<SimTaskInProgress> pending(
+        Map<String, ArrayDeque<SimTaskInProgress>> index, String key) {
+      ArrayDeque<SimTaskInProgress> tips = index.get(key);
+      if (tips == null) {
+        tips = new ArrayDeque<SimTaskInProgress>();
+        index.put(key, tips);
+      }
+      return tips;
+    }
+
+    private SimTaskInProgress poll(ArrayDeque<SimTaskInProgress> tips) {
+      if (tips != null) {
+        for (SimTaskInProgress tip = tips.poll(); tip != null;
+            tip = tips.poll()) {
+          if (!tip.started)
+            return tip;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean inited() {
+      return initialized;
+    }
+
+    @Override
+    public Task obtainNewNodeLocalMapTask(TaskTrackerStatus tts,
+        int clusterSize, int numUniqueHosts) throws IOException {
+      return obtainNewMapTask(tts, LocalityLevel.NODE);
+    }
+
+    @Override
+    public Task obtainNewNodeOrRackLocalMapTask(TaskTrackerStatus tts,
+        int clusterSize, int numUniqueHosts) throws IOException {
+      return obtainNewMapTask(tts, LocalityLevel.RACK);
+    }
+
+    @Override
+    public Task obtainNewMapTask(TaskTrackerStatus tts, int clusterSize,
+        int numUniqueHosts) throws IOException {
+      return obtainNewMapTask(tts, LocalityLevel.ANY);
+    }
+
+    @Override
+    public List<Task> obtainNewMapTasks(TaskTrackerStatus tts,
+        int clusterSize, int numUniqueHosts, int maxCacheLevel, int numTasks)
+        throws IOException {
+      LocalityLevel level = (maxCacheLevel == 1 ? LocalityLevel.NODE :
+          maxCacheLevel == 2 ? LocalityLevel.RACK : LocalityLevel.ANY);
+      List<Task> tasks = new ArrayList<Task>();
+      while (tasks.size() < numTasks) {
+        Task task = obtainNewMapTask(tts, level);
+        if (task == null)
+          break;
+        tasks.add(task);
+      }
+      return tasks;
+    }
+
+    private Task obtainNewMapTask(TaskTrackerStatus tts, LocalityLevel level)
+        throws IOException {
+      SimTaskInProgress tip = poll(pendingByHost.get(tts.getHost()));
+      if (tip == null && level != LocalityLevel.NODE)
+        tip = poll(pendingByRack.get(getRack(tts.getHost())));
+      if (tip == null && level == LocalityLevel.ANY)
+        tip = poll(pendingMaps);
+      if (tip == null)
+        return null;
+      TaskAttemptID attemptId = new TaskAttemptID(getJobID().getJtIdentifier(),
+          getJobID().getId(), true, tip.getIdWithinJob(), tip.nextTaskId++);
+      Task task = new MapTask("", attemptId, 0,
+          JobSplit.EMPTY_TASK_SPLIT.getSplitIndex(), 1);
+      runningMapTasks++;
+      taskTrackerManager.startTask(tts.getTrackerName(), task, tip);
+      switch (getLocalityLevel(tip, tts)) {
+        case 0: localMaps++; break;
+        case 1: rackLocalMaps++; break;
+        default: offRackMaps++;
+      }
+      return task;
+    }
+
+    @Override
+    public Task obtainNewReduceTask(TaskTrackerStatus tts, int clusterSize,
+        int numUniqueHosts) throws IOException {
+      SimTaskInProgress tip = poll(pendingReduces);
+      if (tip == null)
+        return null;
+      TaskAttemptID attemptId = new TaskAttemptID(getJobID().getJtIdentifier(),
+          getJobID().getId(), false, tip.getIdWithinJob(), tip.nextTaskId++);
+      Task task = new ReduceTask("", attemptId, 0, numMapTasks, 1);
+      runningReduceTasks++;
+      taskTrackerManager.startTask(tts.getTrackerName(), task, tip);
+      return task;
+    }
+
+    @Override
+    int getLocalityLevel(TaskInProgress tip, TaskTrackerStatus tts) {
+      String[] hosts = ((SimTaskInProgress) tip).hosts;
+      if (hosts.length == 0)
+        return -1;
+      String rack = getRack(tts.getHost());
+      int level = 2;
+      for (String host: hosts) {
+        if (host.equals(tts.getHost()))
+          return 0;
+        if (getRack(host).equals(rack))
+          level = 1;
+      }
+      return level;
+    }
+
+    /** Called when a task finishes; completes the job with its last task. */
+    void taskFinished(SimTaskInProgress tip) {
+      if (tip.isMapTask()) {
+        runningMapTasks--;
+        finishedMapTasks++;
+        getJobCounters().incrCounter(Counter.SLOTS_MILLIS_MAPS, tip.runtime);
+      } else {
+        runningReduceTasks--;
+        finishedReduceTasks++;
+        getJobCounters().incrCounter(Counter.SLOTS_MILLIS_REDUCES,
+            tip.runtime);
+      }
+      if (--tasksLeft == 0) {
+        finishTime = clock.getTime();
+        JobStatus prevStatus = (JobStatus) status.clone();
+        status.setRunState(JobStatus.SUCCEEDED);
+        taskTrackerManager.jobs.remove(getJobID());
+        taskTrackerManager.jobUpdated(new JobStatusChangeEvent(this,
+            JobStatusChangeEvent.EventType.RUN_STATE_CHANGED, prevStatus,
+            (JobStatus) status.clone()));
+        runningJobs--;
+        PoolStats stats = poolStats(spec.pool);
+        stats.jobsFinished++;
+        stats.totalResponseTime += finishTime - submitTime;
+      }
+    }
+  }
+
+  /** A task attempt running on a simulated tracker. */
+  static class RunningTask {
+    final SimJobInProgress job;
+    final SimTaskInProgress tip;
+    final TaskStatus status;
+    final long endTime;
+
+    RunningTask(SimJobInProgress job, SimTaskInProgress tip,
+        TaskStatus status, long endTime) {
+      this.job = job;
+      this.tip = tip;
+      this.status = status;
+      this.endTime = endTime;
+    }
+  }
+
+  /** The simulated cluster, standing in for the JobTracker. */
+  class SimTaskTrackerManager implements TaskTrackerManager {
+    final List<JobInProgressListener> listeners =
+      new ArrayList<JobInProgressListener>();
+    final Map<JobID, JobInProgress> jobs = new HashMap<JobID, JobInProgress>();
+    final TaskTracker[] trackers;
+    private final Map<String, TaskTracker> trackersByName =
+      new HashMap<String, TaskTracker>();
+    private final Map<String, List<RunningTask>> running =
+      new HashMap<String, List<RunningTask>>();
+    int runningMaps = 0;
+    int runningReduces = 0;
+
+    SimTaskTrackerManager(String[] hosts) {
+      trackers = new TaskTracker[hosts.length];
+      for (int i = 0; i < hosts.length; i++) {
+        String name = "tracker_" + hosts[i];
+        TaskTracker tt = new TaskTracker(name);
+        tt.setStatus(new TaskTrackerStatus(name, hosts[i], 0,
+            new ArrayList<TaskStatus>(), 0, mapSlots, reduceSlots));
+        trackers[i] = tt;
+        trackersByName.put(name, tt);
+        running.put(name, new ArrayList<RunningTask>());
+      }
+    }
+
+    @Override
+    public ClusterStatus getClusterStatus() {
+      return new ClusterStatus(trackers.length, 0, 0, 10 * 60 * 1000L,
+          runningMaps, runningReduces, trackers.length * mapSlots,
+          trackers.length * reduceSlots, JobTracker.State.RUNNING);
+    }
+
+    @Override
+    public QueueManager getQueueManager() {
+      return null;
+    }
+
+    @Override
+    public int getNumberOfUniqueHosts() {
+      return trackers.length;
+    }
+
+    @Override
+    public Collection<TaskTrackerStatus> taskTrackers() {
+      List<TaskTrackerStatus> statuses = new ArrayList<TaskTrackerStatus>();
+      for (TaskTracker tt: trackers) {
+        statuses.add(tt.getStatus());
+      }
+      return statuses;
+    }
+
+    @Override
+    public void addJobInProgressListener(JobInProgressListener listener) {
+      listeners.add(listener);
+    }
+
+    @Override
+    public void removeJobInProgressListener(JobInProgressListener listener) {
+      listeners.remove(listener);
+    }
+
+    @Override
+    public void addTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    @Override
+    public void removeTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    @Override
+    public int getNextHeartbeatInterval() {
+      return (int) heartbeatInterval;
+    }
+
+    @Override
+    public void killJob(JobID jobid) {
+    }
+
+    @Override
+    public JobInProgress getJob(JobID jobid) {
+      return jobs.get(jobid);
+    }
+
+    @Override
+    public void initJob(JobInProgress job) {
+      try {
+        job.initTasks();
+        job.getStatus().setRunState(JobStatus.RUNNING);
+      } catch (KillInterruptedException e) {
+        throw new RuntimeException("Could not initialize " + job.getJobID(), e);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not initialize " + job.getJobID(), e);
+      }
+    }
+
+    @Override
+    public void failJob(JobInProgress job) {
+    }
+
+    @Override
+    public boolean killTask(TaskAttemptID taskid, boolean shouldFail) {
+      // Preemption is not simulated
+      return false;
+    }
+
+    void submitJob(JobInProgress job) throws IOException {
+      jobs.put(job.getJobID(), job);
+      for (JobInProgressListener listener: listeners) {
+        listener.jobAdded(job);
+      }
+    }
+
+    void jobUpdated(JobChangeEvent event) {
+      for (JobInProgressListener listener: listeners) {
+        listener.jobUpdated(event);
+      }
+    }
+
+    void startTask(String trackerName, Task task, SimTaskInProgress tip) {
+      if (task.isMapTask()) {
+        runningMaps++;
+      } else {
+        runningReduces++;
+      }
+      tip.start(task, trackerName);
+      TaskStatus status = tip.getTaskStatus(task.getTaskID());
+      trackersByName.get(trackerName).getStatus().getTaskReports().add(status);
+      running.get(trackerName).add(new RunningTask(
+          (SimJobInProgress) tip.getJob(), tip, status,
+          clock.getTime() + tip.runtime));
+    }
+
+    /** Finish the tasks on a tracker whose runtime has elapsed. */
+    void finishTasks(TaskTracker tracker, long now) {
+      List<TaskStatus> reports = tracker.getStatus().getTaskReports();
+      Iterator<RunningTask> it = running.get(tracker.getTrackerName()).iterator();
+      while (it.hasNext()) {
+        RunningTask task = it.next();
+        if (task.endTime <= now) {
+          it.remove();
+          reports.remove(task.status);
+          task.tip.finish();
+          if (task.tip.isMapTask()) {
+            runningMaps--;
+          } else {
+            runningReduces--;
+          }
+          task.job.taskFinished(task.tip);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    try {
+      parseArgs(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      return -1;
+    }
+    if (!verbose) {
+      // The scheduler logs at INFO and WARN on every heartbeat
+      Logger.getLogger("org.apache.hadoop").setLevel(Level.ERROR);
+    }
+    setUpCluster();
+    List<JobSpec> specs = (trace != null ? readTrace() : generateJobs());
+    System.out.println("Simulating " + specs.size() + " jobs on " +
+        hosts.length + " trackers");
+    if (out != null) {
+      trajectories = new PrintWriter(new FileWriter(out));
+      trajectories.println("time\tpool\tmapCredit\treduceCredit\t" +
+          "runningMaps\trunningReduces\tmapFairShare\treduceFairShare");
+    }
+    long wallStart = System.currentTimeMillis();
+    try {
+      simulate(specs);
+    } finally {
+      if (trajectories != null)
+        trajectories.close();
+      scheduler.terminate();
+    }
+    report(System.out, System.currentTimeMillis() - wallStart);
+    return 0;
+  }
+
+  private void parseArgs(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-verbose")) {
+        verbose = true;
+        continue;
+      }
+      if (i + 1 == args.length)
+        throw new IllegalArgumentException("Missing value for " + arg);
+      String value = args[++i];
+      if (arg.equals("-racks")) {
+        numRacks = Integer.parseInt(value);
+      } else if (arg.equals("-nodesPerRack")) {
+        nodesPerRack = Integer.parseInt(value);
+      } else if (arg.equals("-mapSlots")) {
+        mapSlots = Integer.parseInt(value);
+      } else if (arg.equals("-reduceSlots")) {
+        reduceSlots = Integer.parseInt(value);
+      } else if (arg.equals("-pools")) {
+        numPools = Integer.parseInt(value);
+      } else if (arg.equals("-parents")) {
+        numParents = Integer.parseInt(value);
+      } else if (arg.equals("-jobs")) {
+        numJobs = Integer.parseInt(value);
+      } else if (arg.equals("-mapsPerJob")) {
+        mapsPerJob = Integer.parseInt(value);
+      } else if (arg.equals("-reducesPerJob")) {
+        reducesPerJob = Integer.parseInt(value);
+      } else if (arg.equals("-mapTime")) {
+        mapTime = Long.parseLong(value);
+      } else if (arg.equals("-reduceTime")) {
+        reduceTime = Long.parseLong(value);
+      } else if (arg.equals("-interarrival")) {
+        interarrival = Long.parseLong(value);
+      } else if (arg.equals("-trace")) {
+        trace = value;
+      } else if (arg.equals("-topology")) {
+        topology = value;
+      } else if (arg.equals("-alloc")) {
+        allocFile = value;
+      } else if (arg.equals("-heartbeat")) {
+        heartbeatInterval = Long.parseLong(value);
+      } else if (arg.equals("-duration")) {
+        duration = Long.parseLong(value);
+      } else if (arg.equals("-seed")) {
+        seed = Long.parseLong(value);
+      } else if (arg.equals("-out")) {
+        out = value;
+      } else {
+        throw new IllegalArgumentException("Unknown option " + arg);
+      }
+    }
+  }
+
+  private void setUpCluster() throws IOException {
+    hosts = new String[numRacks * nodesPerRack];
+    for (int rack = 0; rack < numRacks; rack++) {
+      for (int node = 0; node < nodesPerRack; node++) {
+        hosts[rack * nodesPerRack + node] = "rack" + rack + ".node" + node;
+      }
+    }
+    taskTrackerManager = new SimTaskTrackerManager(hosts);
+
+    JobConf conf = new JobConf(getConf());
+    if (allocFile == null) {
+      allocFile = writeAllocFile();
+    }
+    conf.set("mapred.fairscheduler.allocation.file", allocFile);
+    conf.set("mapred.fairscheduler.poolnameproperty",
+        PoolManager.EXPLICIT_POOL_PROPERTY);
+    // Locality delays cannot be computed from a JobTracker here
+    if (conf.get("mapred.fairscheduler.locality.delay") == null) {
+      conf.setLong("mapred.fairscheduler.locality.delay",
+          (long) (1.5 * heartbeatInterval));
+    }
+    conf.setBoolean("mapred.fairscheduler.credit.ledger.enabled", false);
+    conf.set("mapred.job.tracker", "localhost:0");
+    conf.set("mapred.job.tracker.http.address", "0.0.0.0:0");
+    try {
+      jobTracker = new JobTracker(conf, clock);
+    } catch (Exception e) {
+      throw new IOException("Could not create JobTracker", e);
+    }
+    scheduler = new CreditScheduler(clock, true);
+    scheduler.setConf(conf);
+    scheduler.setTaskTrackerManager(taskTrackerManager);
+    scheduler.start();
+  }
+
+  /**
+   * Write an allocation file giving the generated pools equal min shares
+   * that add up to the cluster's capacity. With -parents, pool i is nested
+   * in parent pool i % parents, whose min shares are the sums of its pools'.
+   */
+  private String writeAllocFile() throws IOException {
+    File file = File.createTempFile("simulator-pools", ".xml");
+    file.deleteOnExit();
+    int minMaps = hosts.length * mapSlots / numPools;
+    int minReduces = hosts.length * reduceSlots / numPools;
+    PrintWriter writer = new PrintWriter(new FileWriter(file));
+    writer.println("<?xml version=\"1.0\"?>");
+    writer.println("<allocations>");
+    if (numParents == 0) {
+      for (int i = 0; i < numPools; i++) {
+        writePool(writer, "  ", "pool" + i, minMaps, minReduces);
+      }
+    } else {
+      for (int p = 0; p < numParents; p++) {
+        writer.println("  <pool name=\"dept" + p + "\">");
+        for (int i = p; i < numPools; i += numParents) {
+          writePool(writer, "    ", "pool" + i, minMaps, minReduces);
+        }
+        writer.println("  </pool>");
+      }
+    }
+    writer.println("</allocations>");
+    writer.close();
+    return file.getAbsolutePath();
+  }
+
+  private static void writePool(PrintWriter writer, String indent,
+      String name, int minMaps, int minReduces) {
+    writer.println(indent + "<pool name=\"" + name + "\">");
+    writer.println(indent + "  <minMaps>" + minMaps + "</minMaps>");
+    writer.println(indent + "  <minReduces>" + minReduces + "</minReduces>");
+    writer.println(indent + "</pool>");
+  }
+
+  /** Full name of the i'th generated pool. */
+  private String getPoolName(int i) {
+    return (numParents == 0 ? "pool" + i :
+      "dept" + (i % numParents) + ".pool" + i);
+  }
+
+  /** Generate a random workload with Poisson arrivals. */
+  private List<JobSpec> generateJobs() {
+    Random random = new Random(seed);
+    List<JobSpec> specs = new ArrayList<JobSpec>();
+    long time = 0;
+    for (int i = 0; i < numJobs; i++) {
+      time += (long) (-Math.log(1 - random.nextDouble()) * interarrival);
+      int maps = 1 + random.nextInt(2 * mapsPerJob);
+      int reduces = random.nextInt(2 * reducesPerJob + 1);
+      long[] mapTimes = new long[maps];
+      String[][] mapHosts = new String[maps][];
+      for (int m = 0; m < maps; m++) {
+        mapTimes[m] = jitter(random, mapTime);
+        mapHosts[m] = new String[Math.min(3, hosts.length)];
+        for (int h = 0; h < mapHosts[m].length; h++) {
+          mapHosts[m][h] = hosts[random.nextInt(hosts.length)];
+        }
+      }
+      long[] reduceTimes = new long[reduces];
+      for (int r = 0; r < reduces; r++) {
+        reduceTimes[r] = jitter(random, reduceTime);
+      }
+      specs.add(new JobSpec(time, getPoolName(random.nextInt(numPools)),
+          mapTimes, reduceTimes, mapHosts));
+    }
+    return specs;
+  }
+
+  /** A duration drawn uniformly from [mean / 2, 3 * mean / 2]. */
+  private static long jitter(Random random, long mean) {
+    return Math.max(1, mean / 2 + (long) (random.nextDouble() * mean));
+  }
+
+  /**
+   * Read jobs from a rumen trace. Jobs are placed in the pool named after
+   * their queue, and split locations are mapped onto the simulated hosts.
+   */
+  private List<JobSpec> readTrace() throws IOException {
+    Configuration conf = getConf();
+    ZombieCluster cluster = (topology == null ? null :
+      new ZombieCluster(new Path(topology), null, conf));
+    ZombieJobProducer producer =
+      new ZombieJobProducer(new Path(trace), cluster, conf, seed);
+    List<JobSpec> specs = new ArrayList<JobSpec>();
+    try {
+      long firstSubmit = -1;
+      for (ZombieJob job = producer.getNextJob();
+          job != null && specs.size() < numJobs; job = producer.getNextJob()) {
+        if (firstSubmit < 0)
+          firstSubmit = job.getSubmissionTime();
+        InputSplit[] splits = job.getInputSplits();
+        int maps = Math.max(0, job.getNumberMaps());
+        long[] mapTimes = new long[maps];
+        String[][] mapHosts = new String[maps][];
+        for (int m = 0; m < maps; m++) {
+          mapTimes[m] = Math.max(1,
+              job.getTaskAttemptInfo(TaskType.MAP, m, 0).getRuntime());
+          String[] locations = new String[0];
+          if (m < splits.length) {
+            try {
+              locations = splits[m].getLocations();
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }
+          mapHosts[m] = new String[locations.length];
+          for (int h = 0; h < locations.length; h++) {
+            mapHosts[m][h] = hosts[(locations[h].hashCode() & Integer.MAX_VALUE)
+                                   % hosts.length];
+          }
+        }
+        int reduces = Math.max(0, job.getNumberReduces());
+        long[] reduceTimes = new long[reduces];
+        for (int r = 0; r < reduces; r++) {
+          reduceTimes[r] = Math.max(1,
+              job.getTaskAttemptInfo(TaskType.REDUCE, r, 0).getRuntime());
+        }
+        specs.add(new JobSpec(job.getSubmissionTime() - firstSubmit,
+            job.getQueueName(), mapTimes, reduceTimes, mapHosts));
+      }
+    } finally {
+      producer.close();
+    }
+    return specs;
+  }
+
+  private void simulate(List<JobSpec> specs) throws IOException {
+    PoolManager poolMgr = scheduler.getPoolManager();
+    long updateInterval = scheduler.updateInterval;
+    long creditInterval = getConf().getLong(
+        "mapred.fairscheduler.creditupdateinterval", 60000);
+    int numTrackers = taskTrackerManager.trackers.length;
+    int nextJob = 0;
+    long nextUpdate = 0;
+    long nextCreditTick = creditInterval;
+    for (long round = 0; nextJob < specs.size() || runningJobs > 0; round++) {
+      for (int i = 0; i < numTrackers; i++) {
+        long now = round * heartbeatInterval +
+            i * heartbeatInterval / numTrackers;
+        if (now > duration)
+          return;
+        clock.time = now;
+        while (nextJob < specs.size() &&
+            specs.get(nextJob).submitTime <= now) {
+          submit(specs.get(nextJob++));
+        }
+        if (now >= nextUpdate) {
+          long start = System.nanoTime();
+          scheduler.update();
+          updateLatency.add(System.nanoTime() - start);
+          sampleUtilization();
+          nextUpdate += updateInterval;
+        }
+        if (now >= nextCreditTick) {
+          poolMgr.updatePoolCredits();
+          recordTrajectories(now);
+          nextCreditTick += creditInterval;
+        }
+        TaskTracker tracker = taskTrackerManager.trackers[i];
+        taskTrackerManager.finishTasks(tracker, now);
+        long start = System.nanoTime();
+        scheduler.assignTasks(tracker);
+        heartbeatLatency.add(System.nanoTime() - start);
+      }
+    }
+  }
+
+  private void submit(JobSpec spec) throws IOException {
+    JobConf jobConf = new JobConf(scheduler.getConf());
+    jobConf.setNumMapTasks(spec.mapTimes.length);
+    jobConf.setNumReduceTasks(spec.reduceTimes.length);
+    jobConf.setMapSpeculativeExecution(false);
+    jobConf.setReduceSpeculativeExecution(false);
+    jobConf.set(PoolManager.EXPLICIT_POOL_PROPERTY, spec.pool);
+    jobConf.setUser("user_" + spec.pool);
+    SimJobInProgress job = new SimJobInProgress(jobConf, spec);
+    runningJobs++;
+    poolStats(spec.pool);
+    taskTrackerManager.submitJob(job);
+  }
+
+  private PoolStats poolStats(String pool) {
+    PoolStats stats = poolStats.get(pool);
+    if (stats == null) {
+      stats = new PoolStats();
+      poolStats.put(pool, stats);
+    }
+    return stats;
+  }
+
+  private void sampleUtilization() {
+    int numTrackers = taskTrackerManager.trackers.length;
+    mapSlotSamples += numTrackers * mapSlots;
+    busyMapSlotSamples += taskTrackerManager.runningMaps;
+    reduceSlotSamples += numTrackers * reduceSlots;
+    busyReduceSlotSamples += taskTrackerManager.runningReduces;
+  }
+
+  private void recordTrajectories(long now) {
+    if (trajectories == null)
+      return;
+    CreditSnapshot credits = scheduler.getPoolManager().getCreditSnapshot();
+    for (Pool pool: scheduler.getPoolManager().getPools()) {
+      PoolSchedulable maps = pool.getMapSchedulable();
+      PoolSchedulable reduces = pool.getReduceSchedulable();
+      trajectories.println(now + "\t" + pool.getName() + "\t" +
+          credits.getCredit(pool.getName(), TaskType.MAP) + "\t" +
+          credits.getCredit(pool.getName(), TaskType.REDUCE) + "\t" +
+          maps.getRunningTasks() + "\t" + reduces.getRunningTasks() + "\t" +
+          maps.getFairShare() + "\t" + reduces.getFairShare());
+    }
+  }
+
+  private void report(PrintStream out, long wallMillis) {
+    int heartbeats = heartbeatLatency.getCount();
+    out.println("Simulated time (s):        " + clock.getTime() / 1000);
+    out.println("Wall time (s):             " + wallMillis / 1000.0);
+    out.println("Heartbeats:                " + heartbeats);
+    out.println("Heartbeats/sec (scheduler): " + String.format("%.0f",
+        heartbeats / Math.max(1e-9, heartbeatLatency.getTotal() / 1e9)));
+    out.println(String.format("assignTasks latency (us):  p50 %.1f  " +
+        "p99 %.1f  max %.1f", heartbeatLatency.percentile(50),
+        heartbeatLatency.percentile(99), heartbeatLatency.percentile(100)));
+    out.println(String.format("update latency (us):       p50 %.1f  " +
+        "p99 %.1f  max %.1f", updateLatency.percentile(50),
+        updateLatency.percentile(99), updateLatency.percentile(100)));
+    out.println(String.format("Slot utilization:          maps %.1f%%  " +
+        "reduces %.1f%%", 100.0 * busyMapSlotSamples / Math.max(1, mapSlotSamples),
+        100.0 * busyReduceSlotSamples / Math.max(1, reduceSlotSamples)));
+    long maps = Math.max(1, localMaps + rackLocalMaps + offRackMaps);
+    out.println(String.format("Map locality:              node %.1f%%  " +
+        "rack %.1f%%  off-rack %.1f%%", 100.0 * localMaps / maps,
+        100.0 * rackLocalMaps / maps, 100.0 * offRackMaps / maps));
+    CreditSnapshot credits = scheduler.getPoolManager().getCreditSnapshot();
+    out.println("Pool\tjobs\tmeanResponse(s)\tmapCredit\treduceCredit");
+    for (Map.Entry<String, PoolStats> entry: poolStats.entrySet()) {
+      PoolStats stats = entry.getValue();
+      out.println(entry.getKey() + "\t" + stats.jobsFinished + "\t" +
+          (stats.jobsFinished == 0 ? "-" : String.valueOf(
+              stats.totalResponseTime / stats.jobsFinished / 1000)) + "\t" +
+          credits.getCredit(entry.getKey(), TaskType.MAP) + "\t" +
+          credits.getCredit(entry.getKey(), TaskType.REDUCE));
+    }
+  }
+
+  /** Number of jobs that ran to completion. */
+  int getFinishedJobs() {
+    int finished = 0;
+    for (PoolStats stats: poolStats.values()) {
+      finished += stats.jobsFinished;
+    }
+    return finished;
+  }
+
+  int getHeartbeats() {
+    return heartbeatLatency.getCount();
+  }
+
+  CreditScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /** Host names are of the form rackN.nodeM. */
+  private static String getRack(String host) {
+    return host.substring(0, host.indexOf('.'));
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new Configuration(),
+        new CreditSchedulerSimulator(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Check that an {@link AllocationSnapshot} gives each pool its own settings
+ * and the defaults for settings and pools missing from the file.
+ */
+public class TestAllocationSnapshot extends TestCase {
+  private static Map<String, Integer> ints(Object... entries) {
+    Map<String, Integer> map = new HashMap<String, Integer>();
+    for (int i = 0; i < entries.length; i += 2) {
+      map.put((String) entries[i], (Integer) entries[i + 1]);
+    }
+    return map;
+  }
+
+  public void testSettings() {
+    Map<String, Double> weights = new HashMap<String, Double>();
+    weights.put("b", 2.0);
+    Map<String, Long> timeouts = new HashMap<String, Long>();
+    timeouts.put("a", 30000L);
+    Map<String, CreditPolicy> policies = new HashMap<String, CreditPolicy>();
+    CreditPolicy capped = new CreditPolicies.CappedBalance(10f);
+    policies.put("b", capped);
+    Map<String, String> parents = new HashMap<String, String>();
+    parents.put("b", "a");
+    CreditPolicy unbounded = new CreditPolicies.Unbounded();
+    AllocationSnapshot allocs = new AllocationSnapshot(Arrays.asList("a", "b"),
+        ints("a", 4), ints("a", 2, "b", 1), ints("a", 2), ints(),
+        ints("b", 3), weights, timeouts, policies, parents,
+        ints("alice", 1), 5, 10, 60000L, 120000L, SchedulingMode.FIFO,
+        unbounded);
+
+    AllocationSnapshot.PoolAllocation a = allocs.getPoolAllocation("a");
+    assertSame(allocs, a.getSnapshot());
+    assertEquals(4, a.getMinShare(TaskType.MAP));
+    assertEquals(2, a.getMinShare(TaskType.REDUCE));
+    assertEquals(2, a.getMaxSlots(TaskType.MAP));
+    assertEquals(Integer.MAX_VALUE, a.getMaxSlots(TaskType.REDUCE));
+    assertTrue(a.isInvertedMinMax(TaskType.MAP));
+    assertFalse(a.isInvertedMinMax(TaskType.REDUCE));
+    assertEquals(10, a.getMaxRunningJobs());
+    assertEquals(1.0, a.getWeight());
+    assertEquals(30000L, a.getMinSharePreemptionTimeout());
+    assertSame(unbounded, a.getCreditPolicy());
+
+    AllocationSnapshot.PoolAllocation b = allocs.getPoolAllocation("b");
+    assertEquals(0, b.getMinShare(TaskType.MAP));
+    assertEquals(3, b.getMaxRunningJobs());
+    assertEquals(2.0, b.getWeight());
+    assertEquals(120000L, b.getMinSharePreemptionTimeout());
+    assertSame(capped, b.getCreditPolicy());
+
+    // Pools not in the file share the defaults
+    AllocationSnapshot.PoolAllocation c = allocs.getPoolAllocation("c");
+    assertSame(c, allocs.getPoolAllocation("d"));
+    assertEquals(0, c.getMinShare(TaskType.MAP));
+    assertEquals(Integer.MAX_VALUE, c.getMaxSlots(TaskType.MAP));
+    assertEquals(10, c.getMaxRunningJobs());
+    assertEquals(120000L, c.getMinSharePreemptionTimeout());
+
+    assertEquals(1, allocs.getUserMaxJobs("alice"));
+    assertEquals(5, allocs.getUserMaxJobs("bob"));
+    assertEquals(60000L, allocs.getFairSharePreemptionTimeout());
+    assertEquals(SchedulingMode.FIFO, allocs.getDefaultSchedulingMode());
+    assertEquals("a", allocs.getParentName("b"));
+    assertTrue(allocs.isParentPool("a"));
+    assertFalse(allocs.isParentPool("b"));
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Check the credit gains computed by {@link CreditEngine}.
+ */
+public class TestCreditEngine extends TestCase {
+  private CreditEngine engine;
+
+  @Override
+  protected void setUp() {
+    engine = new CreditEngine();
+  }
+
+  /**
+   * An idle pool whose capacity another pool needs earns its capacity. The
+   * borrower pays nothing as long as its excess fits in its wasted slots.
+   */
+  public void testIdlePoolEarnsCredit() {
+    engine.reset();
+    // Pool a: 10 slots of capacity, nothing to run
+    engine.add("a", false, 0, 0, 10, 0, 0, 10);
+    // Pool b: 10 slots of capacity, running 16 maps out of a demand of 20
+    engine.add("b", false, 20, 16, 10, 0, 0, 10);
+    engine.computeGains();
+
+    assertEquals(10f, engine.getGain(0, TaskType.MAP));
+    assertEquals(0f, engine.getGain(1, TaskType.MAP));
+    // Nobody needs reduces, so unused reduce capacity earns nothing
+    assertEquals(0f, engine.getGain(0, TaskType.REDUCE));
+    assertEquals(0f, engine.getGain(1, TaskType.REDUCE));
+  }
+
+  /**
+   * The default pool is charged like any other pool but does not count
+   * towards the cluster totals.
+   */
+  public void testDefaultPoolExcludedFromTotals() {
+    engine.reset();
+    engine.add("a", false, 0, 0, 10, 0, 0, 0);
+    engine.add(Pool.DEFAULT_POOL_NAME, true, 100, 4, 0, 0, 0, 0);
+    engine.computeGains();
+
+    // Only a's capacity is counted, and nobody else demands it
+    assertEquals(0f, engine.getGain(0, TaskType.MAP));
+    assertEquals(0f, engine.getGain(1, TaskType.MAP));
+    assertTrue(engine.getSummary().contains("maps demand 0 of capacity 10"));
+  }
+
+  /** Reloading a tick forgets the pools and totals of the previous one. */
+  public void testReset() {
+    for (int i = 0; i < 40; i++) {
+      engine.add("pool" + i, false, 5, 5, 5, 5, 5, 5);
+    }
+    engine.computeGains();
+    assertEquals(40, engine.getNumPools());
+
+    engine.reset();
+    engine.add("a", false, 0, 0, 3, 0, 0, 0);
+    engine.add("b", false, 5, 5, 0, 0, 0, 0);
+    engine.computeGains();
+    assertEquals(2, engine.getNumPools());
+    assertEquals("b", engine.getPoolName(1));
+    assertEquals(3f, engine.getGain(0, TaskType.MAP));
+    assertEquals(0f, engine.getGain(1, TaskType.MAP));
+  }
+
+  /**
+   * A pool running within its slot capacity is charged for the memory of
+   * its tasks beyond its capacity, when other pools demand that memory.
+   */
+  public void testDominantResource() {
+    engine.reset();
+    // Pool a: 10 running maps taking the memory of 4 slots each
+    engine.add("a", false, 10, 10, 10, 0, 0, 0);
+    engine.setUsage(TaskType.MAP, CreditEngine.Resource.MEMORY, 40, 40);
+    // Pool b: 5 running maps out of a demand of 30
+    engine.add("b", false, 30, 5, 10, 0, 0, 0);
+    engine.computeGains();
+
+    assertEquals(0f, engine.getGain(0, TaskType.MAP,
+        CreditEngine.Resource.SLOTS));
+    assertEquals(-10f, engine.getGain(0, TaskType.MAP));
+    assertEquals(CreditEngine.Resource.MEMORY,
+        engine.getDominantResource(0, TaskType.MAP));
+    // b earns memory credit, but its slots decide
+    assertEquals(5f, engine.getGain(1, TaskType.MAP,
+        CreditEngine.Resource.MEMORY));
+    assertEquals(0f, engine.getGain(1, TaskType.MAP));
+    assertEquals(CreditEngine.Resource.SLOTS,
+        engine.getDominantResource(1, TaskType.MAP));
+    // Totals are still reported in slots
+    assertTrue(engine.getSummary().contains("maps demand 40 of capacity 20"));
+  }
+
+  /** A pool running beyond its capacity pays for the slots it was not owed. */
+  public void testGainFormula() {
+    assertEquals(5f, CreditEngine.wastedSlots(2, 4, 10, 3));
+    assertEquals(0f, CreditEngine.wastedSlots(0, 10, 4, 3));
+    // Part slots, as for memory and slot time
+    assertEquals(3.5f, CreditEngine.wastedSlots(1.5f, 4, 10, 2));
+    assertEquals(0.5f, CreditEngine.wastedSlots(0, 9, 4, 5.5f));
+    assertEquals(-4f, CreditEngine.gain(8, 2, 2));
+    assertEquals(0f, CreditEngine.gain(8, 2, 6));
+    assertEquals(1f, CreditEngine.gain(1, 4, 2));
+  }
+}
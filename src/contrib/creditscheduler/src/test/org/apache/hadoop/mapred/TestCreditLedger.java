@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+
+public class TestCreditLedger extends TestCase {
+  final static String TEST_DIR = new File(System.getProperty("test.build.data",
+      "build/contrib/creditscheduler/test/data")).getAbsolutePath();
+  private File ledgerDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    ledgerDir = new File(TEST_DIR, "creditledger");
+    FileUtil.fullyDelete(ledgerDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.fullyDelete(ledgerDir);
+  }
+
+  private static Map<String, float[]> credits(Object... poolsAndCredits) {
+    Map<String, float[]> credits = new HashMap<String, float[]>();
+    for (int i = 0; i < poolsAndCredits.length; i += 3) {
+      credits.put((String) poolsAndCredits[i], new float[] {
+          ((Number) poolsAndCredits[i + 1]).floatValue(),
+          ((Number) poolsAndCredits[i + 2]).floatValue()});
+    }
+    return credits;
+  }
+
+  private static void assertCredits(Map<String, float[]> credits, String pool,
+      float mapCredit, float reduceCredit) {
+    float[] balance = credits.get(pool);
+    assertNotNull("No credits for " + pool, balance);
+    assertEquals(mapCredit, balance[0], 0.0f);
+    assertEquals(reduceCredit, balance[1], 0.0f);
+  }
+
+  public void testEmptyLedger() throws Exception {
+    CreditLedger ledger = new CreditLedger(ledgerDir, 10);
+    assertTrue(ledger.recover().isEmpty());
+    ledger.close();
+    assertTrue(new File(ledgerDir, CreditLedger.SNAPSHOT_FILE).exists());
+  }
+
+  /**
+   * Balances written through the journal, with and without snapshots in
+   * between, are recovered by a new ledger on the same directory.
+   */
+  public void testRecoverJournalAndSnapshot() throws Exception {
+    CreditLedger ledger = new CreditLedger(ledgerDir, 3);
+    ledger.recover();
+    ledger.append(1, credits("a", 1, 2, "b", 0, 0));
+    ledger.append(2, credits("a", 3, 2, "b", 0, 0));
+    ledger.close();
+
+    ledger = new CreditLedger(ledgerDir, 3);
+    Map<String, float[]> recovered = ledger.recover();
+    assertCredits(recovered, "a", 3, 2);
+    assertCredits(recovered, "b", 0, 0);
+    // Third tick triggers a snapshot, the fourth goes to the journal
+    ledger.append(3, credits("a", 5, 2, "b", -1.5f, 0));
+    ledger.append(4, credits("a", 5, 2, "b", -4, 7));
+    ledger.append(5, credits("a", 5, 2, "b", -4, 7));
+    ledger.append(6, credits("a", 6, 2, "b", -4, 7));
+    ledger.close();
+
+    recovered = new CreditLedger(ledgerDir, 3).recover();
+    assertCredits(recovered, "a", 6, 2);
+    assertCredits(recovered, "b", -4, 7);
+  }
+
+  /**
+   * A record torn by a crash in the middle of a write is ignored, and the
+   * records before it are kept.
+   */
+  public void testTornJournalTail() throws Exception {
+    CreditLedger ledger = new CreditLedger(ledgerDir, 100);
+    ledger.recover();
+    ledger.append(1, credits("a", 1, 1));
+    ledger.append(2, credits("a", 2, 2));
+    ledger.close();
+
+    File journal = new File(ledgerDir, CreditLedger.JOURNAL_FILE);
+    RandomAccessFile file = new RandomAccessFile(journal, "rw");
+    try {
+      file.setLength(file.length() - 3);
+    } finally {
+      file.close();
+    }
+    assertCredits(new CreditLedger(ledgerDir, 100).recover(), "a", 1, 1);
+  }
+
+  /**
+   * A record with a bad checksum ends recovery.
+   */
+  public void testCorruptJournalRecord() throws Exception {
+    CreditLedger ledger = new CreditLedger(ledgerDir, 100);
+    ledger.recover();
+    ledger.append(1, credits("a", 1, 1));
+    ledger.append(2, credits("a", 2, 2));
+    ledger.close();
+
+    File journal = new File(ledgerDir, CreditLedger.JOURNAL_FILE);
+    RandomAccessFile file = new RandomAccessFile(journal, "rw");
+    try {
+      file.seek(file.length() - 1);
+      int lastByte = file.read();
+      file.seek(file.length() - 1);
+      file.write(lastByte ^ 0xff);
+    } finally {
+      file.close();
+    }
+    assertCredits(new CreditLedger(ledgerDir, 100).recover(), "a", 1, 1);
+  }
+
+  /**
+   * Balances whose record failed to be written are written again at the
+   * next tick, even if they did not change since.
+   */
+  public void testFailedAppend() throws Exception {
+    CreditLedger ledger = new CreditLedger(ledgerDir, 100);
+    ledger.recover();
+    ledger.append(1, credits("a", 1, 1));
+    ledger.journalFile.close();
+    try {
+      ledger.append(2, credits("a", 2, 2));
+      fail("Appended to a closed journal");
+    } catch (IOException expected) {
+    }
+    ledger.append(3, credits("a", 2, 2));
+    ledger.close();
+    assertCredits(new CreditLedger(ledgerDir, 100).recover(), "a", 2, 2);
+  }
+
+  /**
+   * Shutting down the credit updater in the middle of a tick lets the tick
+   * finish writing the credits to the ledger.
+   */
+  public void testShutdownMidTick() throws Exception {
+    final CountDownLatch appending = new CountDownLatch(1);
+    final CountDownLatch shuttingDown = new CountDownLatch(1);
+    final AtomicBoolean interrupted = new AtomicBoolean(false);
+    CreditLedger ledger = new CreditLedger(ledgerDir, 100) {
+      @Override
+      void append(long time, Map<String, float[]> credits)
+          throws IOException {
+        appending.countDown();
+        try {
+          shuttingDown.await();
+          // give the shutdown time to reach the updater
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          interrupted.set(true);
+          Thread.currentThread().interrupt();
+        }
+        super.append(time, credits);
+      }
+    };
+    CreditScheduler scheduler = new CreditScheduler(new Clock(), true);
+    scheduler.setConf(new Configuration());
+    PoolManager poolMgr = new PoolManager(scheduler);
+    poolMgr.setCreditLedger(ledger);
+    poolMgr.initialize();
+    PoolManager.CreditUpdater updater = poolMgr.new CreditUpdater(poolMgr);
+    updater.start();
+    appending.await();
+    shuttingDown.countDown();
+    updater.shutdown();
+    assertFalse("Interrupted in the middle of a tick", interrupted.get());
+    poolMgr.terminate();
+
+    Map<String, float[]> recovered = new CreditLedger(ledgerDir, 100).recover();
+    assertCredits(recovered, Pool.DEFAULT_POOL_NAME, 0, 0);
+  }
+}
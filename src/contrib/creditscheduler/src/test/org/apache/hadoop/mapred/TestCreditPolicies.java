@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Check the balances computed by the {@link CreditPolicies}.
+ */
+public class TestCreditPolicies extends TestCase {
+  private static final long TICK = 60;
+
+  /** Run ticks of constant gain through a policy, returning the balance. */
+  private float run(CreditPolicy policy, float balance, float gain, int ticks) {
+    for (int i = 0; i < ticks; i++) {
+      balance = policy.updateBalance("pool", TaskType.MAP, balance, gain, TICK);
+    }
+    return balance;
+  }
+
+  public void testUnbounded() {
+    assertEquals(1000f, run(new CreditPolicies.Unbounded(), 0, 10, 100));
+  }
+
+  /** The balance halves every half-life and converges under constant gain. */
+  public void testExponentialDecay() {
+    CreditPolicy policy = new CreditPolicies.ExponentialDecay(600);
+    assertEquals(50f, run(policy, 100, 0, 10), 0.01f);
+    assertEquals(-50f, run(policy, -100, 0, 10), 0.01f);
+    float limit = (float) (10 / (1 - Math.pow(0.5, TICK / 600.0)));
+    assertEquals(limit, run(policy, 0, 10, 1000), 0.1f);
+  }
+
+  /** Only the gains of the last window count. */
+  public void testSlidingWindow() {
+    CreditPolicy policy = new CreditPolicies.SlidingWindow(5 * TICK);
+    assertEquals(30f, run(policy, 0, 10, 3));
+    assertEquals(50f, run(policy, 30, 10, 20));
+    // Once the pool stops gaining, its credit expires within one window
+    assertEquals(20f, run(policy, 50, 0, 3));
+    assertEquals(0f, run(policy, 20, 0, 2));
+
+    // A balance the policy has not seen before expires over one window
+    float balance = 100;
+    for (int i = 0; i < 5; i++) {
+      balance = policy.updateBalance("other", TaskType.REDUCE, balance, 0,
+          TICK);
+      assertEquals(80f - 20 * i, balance);
+    }
+  }
+
+  /** The gains of pools idle for a whole window are not kept. */
+  public void testSlidingWindowDropsIdlePools() {
+    CreditPolicies.SlidingWindow policy =
+      new CreditPolicies.SlidingWindow(5 * TICK);
+    float balance = 0;
+    for (int i = 0; i < 3; i++) {
+      balance = policy.updateBalance("user1", TaskType.MAP, balance, 10,
+          TICK);
+      policy.updateBalance("user1", TaskType.REDUCE, 0, 0, TICK);
+      policy.updateBalance("user2", TaskType.MAP, 0, 1, TICK);
+    }
+    assertEquals(2, policy.getPoolCount());
+
+    // user1 leaves; its credit expires, and then its gains are dropped
+    for (int i = 0; i < 4; i++) {
+      balance = policy.updateBalance("user1", TaskType.MAP, balance, 0,
+          TICK);
+      policy.updateBalance("user1", TaskType.REDUCE, 0, 0, TICK);
+      policy.updateBalance("user2", TaskType.MAP, 0, 1, TICK);
+    }
+    assertEquals(2, policy.getPoolCount());
+    balance = policy.updateBalance("user1", TaskType.MAP, balance, 0, TICK);
+    assertEquals(0f, balance);
+    policy.updateBalance("user1", TaskType.REDUCE, 0, 0, TICK);
+    assertEquals(1, policy.getPoolCount());
+
+    // if it comes back, it starts from its balance as before
+    assertEquals(10f, policy.updateBalance("user1", TaskType.MAP, balance, 10,
+        TICK));
+  }
+
+  /** Neither credit nor debt exceeds the cap. */
+  public void testCappedBalance() {
+    CreditPolicy policy = new CreditPolicies.CappedBalance(100);
+    assertEquals(100f, run(policy, 0, 30, 10));
+    assertEquals(-100f, run(policy, 0, -30, 10));
+    assertEquals(70f, run(policy, 100, -30, 1));
+  }
+}
@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.CreditScheduler.JobInfo;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.metrics2.Metric;
+import org.apache.hadoop.metrics2.MetricsBuilder;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsTag;
+
+/**
+ * Run a small synthetic workload through the {@link CreditSchedulerSimulator}.
+ */
+public class TestCreditSchedulerSimulator extends TestCase {
+  private static final String[] ARGS = {
+    "-racks", "2", "-nodesPerRack", "4", "-pools", "3", "-jobs", "12",
+    "-mapsPerJob", "8", "-reducesPerJob", "2", "-mapTime", "20000",
+    "-reduceTime", "30000", "-interarrival", "10000", "-seed", "42"
+  };
+
+  /** Keeps the tags and values of each record added, by name. */
+  static class RecordingBuilder extends MetricsRecordBuilder
+      implements MetricsBuilder {
+    final List<Map<String, Object>> records =
+      new ArrayList<Map<String, Object>>();
+
+    private MetricsRecordBuilder put(String name, Object value) {
+      records.get(records.size() - 1).put(name, value);
+      return this;
+    }
+
+    public MetricsRecordBuilder addRecord(String name) {
+      records.add(new HashMap<String, Object>());
+      return this;
+    }
+
+    public MetricsRecordBuilder tag(String name, String description,
+        String value) {
+      return put(name, value);
+    }
+
+    public MetricsRecordBuilder add(MetricsTag tag) {
+      return put(tag.name(), tag.value());
+    }
+
+    public MetricsRecordBuilder setContext(String value) {
+      return put("context", value);
+    }
+
+    public MetricsRecordBuilder addCounter(String name, String description,
+        int value) {
+      return put(name, value);
+    }
+
+    public MetricsRecordBuilder addCounter(String name, String description,
+        long value) {
+      return put(name, value);
+    }
+
+    public MetricsRecordBuilder addGauge(String name, String description,
+        int value) {
+      return put(name, value);
+    }
+
+    public MetricsRecordBuilder addGauge(String name, String description,
+        long value) {
+      return put(name, value);
+    }
+
+    public MetricsRecordBuilder addGauge(String name, String description,
+        float value) {
+      return put(name, value);
+    }
+
+    public MetricsRecordBuilder addGauge(String name, String description,
+        double value) {
+      return put(name, value);
+    }
+
+    public MetricsRecordBuilder add(Metric metric) {
+      return put(metric.name(), metric.value());
+    }
+  }
+
+  private CreditSchedulerSimulator simulate() throws Exception {
+    CreditSchedulerSimulator simulator = new CreditSchedulerSimulator();
+    simulator.setConf(new Configuration());
+    assertEquals(0, simulator.run(ARGS));
+    return simulator;
+  }
+
+  /**
+   * Every job runs to completion, and a second run with the same seed takes
+   * the same number of heartbeats.
+   */
+  public void testSyntheticWorkload() throws Exception {
+    CreditSchedulerSimulator first = simulate();
+    assertEquals(12, first.getFinishedJobs());
+    assertTrue(first.getHeartbeats() > 0);
+
+    CreditSchedulerSimulator second = simulate();
+    assertEquals(12, second.getFinishedJobs());
+    assertEquals(first.getHeartbeats(), second.getHeartbeats());
+  }
+
+  /**
+   * Assigning each task type in one batch per heartbeat runs every job to
+   * completion too, in about as many heartbeats as assigning task by task.
+   */
+  public void testBatchAssignment() throws Exception {
+    CreditSchedulerSimulator simulator = new CreditSchedulerSimulator();
+    Configuration conf = new Configuration();
+    conf.setBoolean("mapred.fairscheduler.assignmultiple.batch", true);
+    simulator.setConf(conf);
+    assertEquals(0, simulator.run(ARGS));
+    assertEquals(12, simulator.getFinishedJobs());
+    int heartbeats = simulate().getHeartbeats();
+    assertTrue(Math.abs(simulator.getHeartbeats() - heartbeats) <=
+        heartbeats / 10);
+  }
+
+  /**
+   * The demand that jobs track from task state events matches the demand
+   * found by scanning all of their tasks, part way through a run.
+   */
+  public void testDemandTracking() throws Exception {
+    CreditSchedulerSimulator simulator = new CreditSchedulerSimulator();
+    simulator.setConf(new Configuration());
+    String[] args = new String[ARGS.length + 2];
+    System.arraycopy(ARGS, 0, args, 0, ARGS.length);
+    args[ARGS.length] = "-duration";
+    args[ARGS.length + 1] = "90000";
+    assertEquals(0, simulator.run(args));
+    CreditScheduler scheduler = simulator.getScheduler();
+    scheduler.update();
+    assertFalse(scheduler.infos.isEmpty());
+    long time = scheduler.getClock().getTime();
+    for (JobInfo info: scheduler.infos.values()) {
+      for (JobSchedulable sched: new JobSchedulable[] {
+          info.mapSchedulable, info.reduceSchedulable}) {
+        assertEquals(scanDemand(sched, info.runnable, time),
+            sched.getDemand());
+      }
+    }
+  }
+
+  /**
+   * Pools account for the response time and stretch of their jobs as they
+   * succeed, and pools whose jobs are stretched more earn credit faster.
+   */
+  public void testJobTurnaround() throws Exception {
+    CreditSchedulerSimulator simulator = simulate();
+    int finishedJobs = 0;
+    for (Pool pool: simulator.getScheduler().getPoolManager().getPools()) {
+      finishedJobs += pool.getFinishedJobs();
+      if (pool.getFinishedJobs() > 0) {
+        assertTrue(pool.getResponseTime() > 0);
+        assertTrue(pool.getStretch() >= 1);
+        assertTrue(pool.getRecentStretch() >= 1);
+        assertTrue(pool.getMapResponseTime() > 0);
+      }
+    }
+    assertEquals(12, finishedJobs);
+
+    // The figures are published through metrics2, a record per pool
+    CreditScheduler scheduler = simulator.getScheduler();
+    PoolMetricsSource source = new PoolMetricsSource(scheduler);
+    RecordingBuilder builder = new RecordingBuilder();
+    source.getMetrics(builder, true);
+    assertEquals(scheduler.getPoolManager().getPools().size(),
+        builder.records.size());
+    int reportedJobs = 0;
+    for (Map<String, Object> record: builder.records) {
+      assertEquals("fairscheduler", record.get("context"));
+      Pool pool = scheduler.getPoolManager().getPool(
+          (String) record.get("pool"));
+      assertEquals(pool.getFinishedJobs(), record.get("finished_jobs"));
+      assertEquals(pool.getStretch(), record.get("stretch"));
+      reportedJobs += (Integer) record.get("finished_jobs");
+    }
+    assertEquals(12, reportedJobs);
+    source.close();
+    builder = new RecordingBuilder();
+    source.getMetrics(builder, true);
+    assertTrue(builder.records.isEmpty());
+
+    // 8 maps of 20s each on 4 slots ideally take 40s
+    assertEquals(40000, Pool.getIdealTime(160000, 8, 4));
+    assertEquals(2f, Pool.getStretch(80000, 40000));
+    assertEquals(1f, Pool.getStretch(80000, 0));
+    assertEquals(1.5f, PoolManager.getStretchBoost(3f, 2f, 2f));
+    assertEquals(2f, PoolManager.getStretchBoost(6f, 2f, 2f));
+    assertEquals(1f, PoolManager.getStretchBoost(1f, 2f, 2f));
+    assertEquals(1f, PoolManager.getStretchBoost(0f, 2f, 2f));
+  }
+
+  /** Demand of a job's tasks of one type, found by visiting each task. */
+  private static int scanDemand(JobSchedulable sched, boolean runnable,
+      long time) {
+    JobInProgress job = sched.getJob();
+    TaskType type = sched.getTaskType();
+    if (!runnable || job.getStatus().getRunState() != JobStatus.RUNNING
+        || (type == TaskType.REDUCE && !job.scheduleReduces())) {
+      return 0;
+    }
+    boolean speculationEnabled = (type == TaskType.MAP ?
+        job.getMapSpeculativeExecution() : job.getReduceSpeculativeExecution());
+    double avgProgress = (type == TaskType.MAP ?
+        job.getStatus().mapProgress() : job.getStatus().reduceProgress());
+    int demand = 0;
+    for (TaskInProgress tip: job.getTasks(type)) {
+      if (!tip.isComplete()) {
+        if (tip.isRunning()) {
+          demand += tip.getActiveTasks().size();
+          if (speculationEnabled && tip.hasSpeculativeTask(time, avgProgress)) {
+            demand += 1;
+          }
+        } else {
+          demand += 1;
+        }
+      }
+    }
+    return demand;
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Check the JSON rendering of the pool states that the scheduler publishes.
+ */
+public class TestCreditSchedulerStateServlet extends TestCase {
+
+  private static JsonNode render(List<SchedulerState> states, int maxHistory)
+      throws Exception {
+    StringWriter out = new StringWriter();
+    CreditSchedulerStateServlet.writeJson(states, maxHistory, out);
+    return new ObjectMapper().readTree(out.toString());
+  }
+
+  public void testEmpty() throws Exception {
+    JsonNode json = render(new CreditScheduler().getStateHistory(), 10);
+    assertEquals(0, json.get("pools").size());
+    assertEquals(0, json.get("history").size());
+  }
+
+  /**
+   * A state is published at each update, and the last one matches the
+   * scheduler's pools.
+   */
+  public void testPublishedStates() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt("mapred.fairscheduler.state.history.size", 5);
+    CreditSchedulerSimulator simulator = new CreditSchedulerSimulator();
+    simulator.setConf(conf);
+    assertEquals(0, simulator.run(new String[] {"-racks", "1",
+        "-nodesPerRack", "4", "-pools", "2", "-parents", "1", "-jobs", "4",
+        "-mapsPerJob", "8", "-reducesPerJob", "2", "-mapTime", "20000",
+        "-reduceTime", "30000", "-interarrival", "5000", "-seed", "7",
+        "-duration", "30000"}));
+    CreditScheduler scheduler = simulator.getScheduler();
+    scheduler.update();
+    List<SchedulerState> states = scheduler.getStateHistory();
+    assertEquals(5, states.size());
+
+    JsonNode json = render(states, Integer.MAX_VALUE);
+    assertEquals(4, json.get("history").size());
+    assertEquals(2, render(states, 2).get("history").size());
+    assertEquals(0, render(states, 0).get("history").size());
+
+    PoolManager poolMgr = scheduler.getPoolManager();
+    JsonNode pools = json.get("pools");
+    assertEquals(poolMgr.getPools().size(), pools.size());
+    for (JsonNode poolJson: pools) {
+      Pool pool = poolMgr.getPool(poolJson.get("name").getTextValue());
+      PoolSchedulable maps = pool.getMapSchedulable();
+      JsonNode mapJson = poolJson.get("map");
+      assertEquals(maps.getRunningTasks(),
+          mapJson.get("runningTasks").getIntValue());
+      assertEquals(maps.getDemand(), mapJson.get("demand").getIntValue());
+      assertEquals(maps.getSlotsGap(), mapJson.get("slotsGap").getIntValue());
+      assertEquals(maps.getFairShare(),
+          mapJson.get("fairShare").getDoubleValue(), 0.001);
+      assertEquals(pool.getCredit(TaskType.MAP),
+          mapJson.get("credit").getDoubleValue(), 0.001);
+      if (pool.getParent() != null) {
+        assertEquals(pool.getParent().getName(),
+            poolJson.get("parent").getTextValue());
+      }
+    }
+    JsonNode last = json.get("history").get(3).get("pools");
+    assertEquals(6, last.get(pools.get(0).get("name").getTextValue()).size());
+  }
+}
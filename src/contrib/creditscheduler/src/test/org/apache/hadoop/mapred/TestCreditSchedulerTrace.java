@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+public class TestCreditSchedulerTrace extends TestCase {
+  private ByteArrayOutputStream bytes;
+
+  private CreditSchedulerTrace openTrace(int capacity) throws IOException {
+    CreditSchedulerTrace trace = new CreditSchedulerTrace(capacity);
+    bytes = new ByteArrayOutputStream();
+    trace.open(bytes);
+    return trace;
+  }
+
+  private List<String> readTrace() throws IOException {
+    CreditSchedulerTraceReader reader = new CreditSchedulerTraceReader(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    List<String> lines = new ArrayList<String>();
+    String line;
+    while ((line = reader.next()) != null) {
+      lines.add(line);
+    }
+    reader.close();
+    return lines;
+  }
+
+  public void testCapacityIsRoundedToPowerOfTwo() {
+    assertEquals(2, new CreditSchedulerTrace(1).getCapacity());
+    assertEquals(8, new CreditSchedulerTrace(5).getCapacity());
+    assertEquals(16, new CreditSchedulerTrace(16).getCapacity());
+  }
+
+  public void testDisabledTraceRecordsNothing() throws IOException {
+    CreditSchedulerTrace trace = new CreditSchedulerTrace(16);
+    assertFalse(trace.isEnabled());
+    trace.heartbeat("tt1", 1, 2, 3, 4);
+    trace.flush();
+    trace.shutdown();
+  }
+
+  /**
+   * Records written over two flushes read back in order, with the names of
+   * trackers and pools written only once.
+   */
+  public void testRoundTrip() throws IOException {
+    CreditSchedulerTrace trace = openTrace(16);
+    TaskAttemptID map = new TaskAttemptID("test", 1, true, 3, 0);
+    trace.heartbeat("tt1", 10, 2, 5, 1);
+    trace.check("tt1", TaskType.MAP, "poolA", -2, 1.5f);
+    trace.assign("tt1", TaskType.MAP, "poolA", map);
+    trace.flush();
+    trace.check("tt1", TaskType.REDUCE, "poolA", 0, -0.25f);
+    trace.noTask("tt1", TaskType.REDUCE);
+    trace.reject("tt2", TaskType.MAP, 1, 3, 10);
+    trace.shutdown();
+    assertFalse(trace.isEnabled());
+
+    List<String> lines = readTrace();
+    assertEquals(6, lines.size());
+    assertEquals("HEARTBEAT\ttt1\t10\t2\t5\t1", lines.get(0));
+    assertEquals("CHECK\ttt1\tMAP\tpoolA\t-2\t1.5", lines.get(1));
+    assertEquals("ASSIGN\ttt1\tMAP\tpoolA\t1\t3", lines.get(2));
+    assertEquals("CHECK\ttt1\tREDUCE\tpoolA\t0\t-0.25", lines.get(3));
+    assertEquals("NO_TASK\ttt1\tREDUCE", lines.get(4));
+    assertEquals("REJECT\ttt2\tMAP\t1\t3\t10", lines.get(5));
+  }
+
+  /**
+   * Records overwritten before a flush are counted as lost, and the ones
+   * still in the ring are written.
+   */
+  public void testOverrunIsCounted() throws IOException {
+    CreditSchedulerTrace trace = openTrace(4);
+    for (int i = 0; i < 10; i++) {
+      trace.heartbeat("tt1", i, 0, 0, 0);
+    }
+    trace.flush();
+    trace.heartbeat("tt1", 10, 0, 0, 0);
+    trace.shutdown();
+
+    List<String> lines = readTrace();
+    assertEquals(6, lines.size());
+    assertEquals("LOST\t6", lines.get(0));
+    for (int i = 0; i < 5; i++) {
+      assertEquals("HEARTBEAT\ttt1\t" + (i + 6) + "\t0\t0\t0",
+          lines.get(i + 1));
+    }
+  }
+
+  public void testConcurrentWriters() throws Exception {
+    final CreditSchedulerTrace trace = openTrace(1 << 16);
+    final int perThread = 10000;
+    Thread[] writers = new Thread[4];
+    for (int t = 0; t < writers.length; t++) {
+      final String tracker = "tt" + t;
+      writers[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < perThread; i++) {
+            trace.heartbeat(tracker, i, 0, 0, 0);
+          }
+        }
+      };
+      writers[t].start();
+    }
+    for (Thread writer: writers) {
+      writer.join();
+    }
+    trace.shutdown();
+
+    int[] last = new int[writers.length];
+    for (String line: readTrace()) {
+      String[] fields = line.split("\t");
+      assertEquals("HEARTBEAT", fields[0]);
+      int t = Integer.parseInt(fields[1].substring(2));
+      // Each writer's records appear once and in the order it wrote them
+      assertEquals(last[t]++, Integer.parseInt(fields[2]));
+    }
+    for (int count: last) {
+      assertEquals(perThread, count);
+    }
+  }
+}
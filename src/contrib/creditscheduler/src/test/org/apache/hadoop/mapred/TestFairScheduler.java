@@ -424,6 +424,14 @@ public class TestFairScheduler extends TestCase {
     public void removeJobInProgressListener(JobInProgressListener listener) {
       listeners.remove(listener);
     }
+
+    @Override
+    public void addTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    @Override
+    public void removeTaskTrackerListener(TaskTrackerListener listener) {
+    }
     
     @Override
     public int getNextHeartbeatInterval() {
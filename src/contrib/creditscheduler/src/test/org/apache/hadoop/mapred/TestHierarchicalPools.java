@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Exercise pools nested in other pools in the allocation file.
+ */
+public class TestHierarchicalPools extends TestCase {
+  final static String TEST_DIR = new File(System.getProperty("test.build.data",
+      "build/contrib/creditscheduler/test/data")).getAbsolutePath();
+  final static String ALLOC_FILE = new File(TEST_DIR,
+      "test-hierarchical-pools").getAbsolutePath();
+
+  @Override
+  protected void setUp() throws Exception {
+    new File(TEST_DIR).mkdirs();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    new File(ALLOC_FILE).delete();
+  }
+
+  private static void writeAllocFile(String... lines) throws Exception {
+    PrintWriter out = new PrintWriter(new FileWriter(ALLOC_FILE));
+    out.println("<?xml version=\"1.0\"?>");
+    out.println("<allocations>");
+    for (String line: lines) {
+      out.println(line);
+    }
+    out.println("</allocations>");
+    out.close();
+  }
+
+  private static CreditSchedulerSimulator simulate(String... args)
+      throws Exception {
+    CreditSchedulerSimulator simulator = new CreditSchedulerSimulator();
+    simulator.setConf(new Configuration());
+    assertEquals(0, simulator.run(args));
+    return simulator;
+  }
+
+  private static List<String> names(List<Pool> pools) {
+    List<String> names = new ArrayList<String>();
+    for (Pool pool: pools) {
+      names.add(pool.getName());
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * Nested pools get dotted names and are linked to their parents, parents
+   * without min shares of their own get the sum of their children's, and a
+   * reload moves existing pools to their new parents.
+   */
+  public void testAllocationTree() throws Exception {
+    writeAllocFile(
+        "<pool name=\"eng\">",
+        "  <pool name=\"search\">",
+        "    <minMaps>4</minMaps>",
+        "    <minReduces>2</minReduces>",
+        "  </pool>",
+        "  <pool name=\"ads\">",
+        "    <minMaps>2</minMaps>",
+        "    <pool name=\"batch\"><minMaps>1</minMaps></pool>",
+        "  </pool>",
+        "</pool>",
+        "<pool name=\"ops\"><minMaps>3</minMaps></pool>");
+    CreditScheduler scheduler = simulate("-racks", "1", "-nodesPerRack", "2",
+        "-jobs", "0", "-alloc", ALLOC_FILE).getScheduler();
+    PoolManager poolMgr = scheduler.getPoolManager();
+
+    Pool eng = poolMgr.getPool("eng");
+    Pool ads = poolMgr.getPool("eng.ads");
+    Pool batch = poolMgr.getPool("eng.ads.batch");
+    assertEquals("[default, eng, ops]",
+        names(poolMgr.getRootPools()).toString());
+    assertEquals("[default, eng.ads.batch, eng.search, ops]",
+        names(poolMgr.getLeafPools()).toString());
+    assertSame(ads, batch.getParent());
+    assertSame(eng, ads.getParent());
+    assertEquals("batch", batch.getShortName());
+    assertTrue(poolMgr.isParentPool("eng"));
+    assertTrue(poolMgr.isParentPool("eng.ads"));
+    assertFalse(poolMgr.isParentPool("ops"));
+
+    // eng has no min shares of its own; ads keeps its own
+    assertEquals(6, poolMgr.getAllocation("eng", TaskType.MAP));
+    assertEquals(2, poolMgr.getAllocation("eng", TaskType.REDUCE));
+    assertEquals(2, poolMgr.getAllocation("eng.ads", TaskType.MAP));
+    Pool ops = poolMgr.getPool("ops");
+    assertEquals(3, ops.getMapSchedulable().getMinShare());
+
+    // Pools created for jobs nest under the longest matching parent
+    assertSame(eng, poolMgr.getPool("eng.alice").getParent());
+    assertSame(ads, poolMgr.getPool("eng.ads.bob").getParent());
+    assertNull(poolMgr.getPool("engineering").getParent());
+
+    // The default pool of a parent is a default pool too
+    assertTrue(poolMgr.getPool("eng.default").isDefaultPool());
+    assertFalse(poolMgr.getPool("eng.search").isDefaultPool());
+
+    // Flattening the file moves the nested pools to the top level
+    writeAllocFile(
+        "<pool name=\"eng\"/>",
+        "<pool name=\"ops\"><minMaps>3</minMaps></pool>");
+    poolMgr.reloadAllocs();
+    assertNull(ads.getParent());
+    assertNull(poolMgr.getPool("eng.alice").getParent());
+    assertTrue(eng.isLeaf());
+    assertFalse(poolMgr.isParentPool("eng"));
+    assertEquals(0, poolMgr.getAllocation("eng", TaskType.MAP));
+    // Pools see the reloaded allocations, not the ones they cached
+    writeAllocFile("<pool name=\"ops\"><minMaps>5</minMaps></pool>");
+    poolMgr.reloadAllocs();
+    assertEquals(5, ops.getMapSchedulable().getMinShare());
+  }
+
+  /**
+   * Names of nested pools must not contain dots, which separate the names of
+   * a pool's ancestors in its full name.
+   */
+  public void testBadNestedPoolName() throws Exception {
+    writeAllocFile("<pool name=\"eng\"><pool name=\"a.b\"/></pool>");
+    CreditSchedulerSimulator simulator = new CreditSchedulerSimulator();
+    simulator.setConf(new Configuration());
+    try {
+      simulator.run(new String[] {"-racks", "1", "-nodesPerRack", "1",
+          "-jobs", "0", "-alloc", ALLOC_FILE});
+      fail("Expected a bad allocation file to be rejected");
+    } catch (RuntimeException e) {
+      // CreditScheduler.start wraps the AllocationConfigurationException
+      assertTrue(e.getCause() instanceof AllocationConfigurationException);
+    }
+  }
+
+  /**
+   * Jobs run to completion in pools nested under parent pools. Parents hold
+   * the sums of their children's running tasks and demand, and earn credits
+   * of their own.
+   */
+  public void testSimulatedHierarchy() throws Exception {
+    CreditSchedulerSimulator simulator = simulate("-racks", "2",
+        "-nodesPerRack", "4", "-pools", "4", "-parents", "2", "-jobs", "12",
+        "-mapsPerJob", "8", "-reducesPerJob", "2", "-mapTime", "20000",
+        "-reduceTime", "30000", "-interarrival", "10000", "-seed", "42",
+        "-duration", "90000");
+    CreditScheduler scheduler = simulator.getScheduler();
+    PoolManager poolMgr = scheduler.getPoolManager();
+    scheduler.update();
+    for (String name: new String[] {"dept0", "dept1"}) {
+      Pool parent = poolMgr.getPool(name);
+      assertEquals(2, parent.getChildren().size());
+      for (TaskType type: new TaskType[] {TaskType.MAP, TaskType.REDUCE}) {
+        PoolSchedulable sched = parent.getSchedulable(type);
+        int running = 0;
+        int demand = 0;
+        for (Pool child: parent.getChildren()) {
+          running += child.getSchedulable(type).getRunningTasks();
+          demand += child.getSchedulable(type).getDemand();
+        }
+        assertEquals(running, sched.getRunningTasks());
+        assertEquals(demand, sched.getDemand());
+        assertEquals(2, sched.getChildIndex().size());
+      }
+    }
+    assertTrue(simulator.getHeartbeats() > 0);
+    assertTrue(poolMgr.getCreditSnapshot().getCredits().containsKey("dept0"));
+    assertTrue(poolMgr.getCreditSnapshot().getCredits().containsKey(
+        "dept0.pool0"));
+
+    simulator = simulate("-racks", "2", "-nodesPerRack", "4", "-pools", "4",
+        "-parents", "2", "-jobs", "12", "-mapsPerJob", "8",
+        "-reducesPerJob", "2", "-mapTime", "20000", "-reduceTime", "30000",
+        "-interarrival", "10000", "-seed", "42");
+    assertEquals(12, simulator.getFinishedJobs());
+  }
+
+  /**
+   * A parent pool repositions the child that got a task by the credit
+   * snapshot of the heartbeat it was handed, not by the current one.
+   */
+  public void testChildRepositionedByHeartbeatCredits() throws Exception {
+    CreditScheduler scheduler = simulate("-racks", "1", "-nodesPerRack", "2",
+        "-pools", "2", "-parents", "1", "-jobs", "4", "-mapsPerJob", "50",
+        "-reducesPerJob", "1", "-mapTime", "60000", "-interarrival", "1000",
+        "-seed", "42", "-duration", "10000").getScheduler();
+    PoolManager poolMgr = scheduler.getPoolManager();
+    scheduler.update();
+    PoolSchedulable parent = poolMgr.getPool("dept0").getMapSchedulable();
+    Map<String, float[]> balances = new HashMap<String, float[]>();
+    for (Pool child: poolMgr.getPool("dept0").getChildren()) {
+      balances.put(child.getName(), new float[] {42, 0});
+    }
+    CreditSnapshot credits = new CreditSnapshot(0, balances);
+    TaskTrackerStatus tts =
+      scheduler.taskTrackerManager.taskTrackers().iterator().next();
+
+    // One task at a time
+    Task task = parent.assignTask(tts, 10000, new HashSet<JobInProgress>(),
+        credits);
+    assertNotNull(task);
+    PoolSchedulable child = poolMgr.getPool(
+        poolMgr.getPoolName(scheduler.taskTrackerManager.getJob(
+            task.getJobID()))).getMapSchedulable();
+    assertEquals(42f, child.indexedCredit);
+
+    // In a batch
+    balances = new HashMap<String, float[]>();
+    for (Pool pool: poolMgr.getPool("dept0").getChildren()) {
+      balances.put(pool.getName(), new float[] {7, 0});
+    }
+    credits = new CreditSnapshot(1, balances);
+    List<Task> tasks = new ArrayList<Task>();
+    assertEquals(2, parent.assignTasks(tts, 10000,
+        new HashSet<JobInProgress>(), 2, tasks, credits));
+    for (PoolSchedulable sched: parent.getChildIndex().getOrderedPools()) {
+      if (sched.getRunningTasks() > 0) {
+        assertEquals(7f, sched.indexedCredit);
+      }
+    }
+  }
+}
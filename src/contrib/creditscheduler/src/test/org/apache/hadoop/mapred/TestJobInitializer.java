@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Check that small jobs are initialized while a large job is still being
+ * initialized.
+ */
+public class TestJobInitializer extends TestCase {
+  private JobInitializer initializer;
+  private JobInProgress largeJob;
+  private final CountDownLatch largeJobStarted = new CountDownLatch(1);
+  private final CountDownLatch largeJobReleased = new CountDownLatch(1);
+  private final CountDownLatch smallJobInited = new CountDownLatch(1);
+
+  /** Initializes jobs by counting down latches; the large job blocks. */
+  class BlockingTaskTrackerManager
+      extends TestJobQueueTaskScheduler.FakeTaskTrackerManager {
+    @Override
+    public void initJob(JobInProgress job) {
+      if (job == largeJob) {
+        largeJobStarted.countDown();
+        try {
+          largeJobReleased.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      } else {
+        smallJobInited.countDown();
+      }
+    }
+  }
+
+  /** A job with the given number of maps, needing no JobTracker. */
+  static class FakeJobInProgress extends JobInProgress {
+    FakeJobInProgress(int id, int maps) throws IOException {
+      super(new JobID("test", id), createJobConf(maps), null);
+    }
+
+    private static JobConf createJobConf(int maps) {
+      JobConf conf = new JobConf();
+      conf.setNumMapTasks(maps);
+      return conf;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setInt("mapred.fairscheduler.jobinit.largejob.maps", 100);
+    initializer = new JobInitializer(conf, new BlockingTaskTrackerManager(),
+        false);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    largeJobReleased.countDown();
+    initializer.terminate();
+  }
+
+  public void testLanes() throws Exception {
+    largeJob = new FakeJobInProgress(1, 100);
+    JobInProgress smallJob = new FakeJobInProgress(2, 99);
+    assertTrue(initializer.isLargeJob(largeJob));
+    assertFalse(initializer.isLargeJob(smallJob));
+
+    initializer.initJob(largeJob);
+    assertTrue(largeJobStarted.await(10, TimeUnit.SECONDS));
+    // Prefetching does nothing for a job that was not submitted from files
+    initializer.prefetchSplits(smallJob);
+    initializer.initJob(smallJob);
+    assertTrue(smallJobInited.await(10, TimeUnit.SECONDS));
+  }
+}
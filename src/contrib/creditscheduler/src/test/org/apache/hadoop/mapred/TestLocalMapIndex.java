@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.split.JobSplit;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.net.NodeBase;
+
+/**
+ * Check that a {@link LocalMapIndex} follows maps as they are launched,
+ * fail and complete.
+ */
+public class TestLocalMapIndex extends TestCase {
+  private final NetworkTopology topology = new NetworkTopology();
+  private final Node host1 = new NodeBase("host1", "/rack1");
+  private final Node host2 = new NodeBase("host2", "/rack1");
+  private final Node host3 = new NodeBase("host3", "/rack2");
+  private JobTracker jobTracker;
+  private JobInProgress job;
+
+  /** A map whose state is set by the test. */
+  class FakeTaskInProgress extends TaskInProgress {
+    boolean running = false;
+    boolean complete = false;
+
+    FakeTaskInProgress(int partition, String host) {
+      super(job.getJobID(), "", new JobSplit.TaskSplitMetaInfo(
+          new String[] {host}, 0, 0), jobTracker, job.getJobConf(), job,
+          partition, 1);
+    }
+
+    @Override
+    public boolean isRunning() {
+      return running;
+    }
+
+    @Override
+    public boolean isComplete() {
+      return complete;
+    }
+
+    @Override
+    boolean isRunnable() {
+      return !complete;
+    }
+
+    void launch() {
+      synchronized (job) {
+        int oldAttemptsNeeded = getAttemptsNeeded();
+        running = true;
+        nextTaskId++;
+        notifyStateChanged(oldAttemptsNeeded);
+      }
+    }
+
+    void stop(boolean succeeded) {
+      synchronized (job) {
+        int oldAttemptsNeeded = getAttemptsNeeded();
+        running = false;
+        complete = succeeded;
+        notifyStateChanged(oldAttemptsNeeded);
+      }
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    topology.add(host1);
+    topology.add(host2);
+    topology.add(host3);
+    JobConf conf = new JobConf();
+    conf.set("mapred.job.tracker", "localhost:0");
+    conf.set("mapred.job.tracker.http.address", "0.0.0.0:0");
+    conf.setNumMapTasks(2);
+    conf.setNumReduceTasks(0);
+    jobTracker = new JobTracker(conf, new Clock());
+    job = new JobInProgress(new JobID("test", 1), conf, jobTracker);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    jobTracker.interTrackerServer.stop();
+    jobTracker.infoServer.stop();
+  }
+
+  private void addToCache(TaskInProgress tip, Node host) {
+    for (Node node: new Node[] {host, host.getParent()}) {
+      List<TaskInProgress> tips = job.nonRunningMapCache.get(node);
+      if (tips == null) {
+        tips = new ArrayList<TaskInProgress>();
+        job.nonRunningMapCache.put(node, tips);
+      }
+      tips.add(tip);
+    }
+  }
+
+  public void testLocalMaps() {
+    FakeTaskInProgress map0 = new FakeTaskInProgress(0, "host1");
+    FakeTaskInProgress map1 = new FakeTaskInProgress(1, "host3");
+    job.maps = new TaskInProgress[] {map0, map1};
+    job.nonRunningMapCache =
+      new IdentityHashMap<Node, List<TaskInProgress>>();
+    addToCache(map0, host1);
+    addToCache(map1, host3);
+    LocalMapIndex index;
+    synchronized (job) {
+      index = new LocalMapIndex(job);
+      job.addTaskInProgressListener(index);
+    }
+
+    assertTrue(index.hasLocalMaps(host1, false));
+    assertFalse(index.hasLocalMaps(host2, false));
+    assertTrue(index.hasLocalMaps(host2, true));
+    assertTrue(index.hasLocalMaps(host3, false));
+
+    // A launched map is no longer local anywhere
+    map0.launch();
+    assertFalse(index.hasLocalMaps(host1, false));
+    assertFalse(index.hasLocalMaps(host2, true));
+    assertTrue(index.hasLocalMaps(host3, false));
+
+    // A map that failed may run anywhere, until it is launched again
+    map0.stop(false);
+    assertTrue(index.hasLocalMaps(host2, false));
+    map0.launch();
+    assertFalse(index.hasLocalMaps(host2, true));
+    map0.stop(true);
+    assertFalse(index.hasLocalMaps(host1, true));
+
+    // Maps that completed are gone, and so is the index once removed
+    map1.launch();
+    map1.stop(true);
+    assertFalse(index.hasLocalMaps(host3, true));
+    job.removeTaskInProgressListener(index);
+  }
+}
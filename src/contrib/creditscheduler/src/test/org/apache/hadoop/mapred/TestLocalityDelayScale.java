@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import junit.framework.TestCase;
+
+/**
+ * Check how credit and min shares shorten the locality delays of a pool.
+ */
+public class TestLocalityDelayScale extends TestCase {
+  private static final float EPSILON = 0.0001f;
+  private static final float MIN = 0.25f;
+
+  private static float scale(int running, int minShare, boolean waiting,
+      int waitingPools, float credit, float maxCredit) {
+    return CreditScheduler.getLocalityDelayScale(running, minShare, waiting,
+        waitingPools, credit, maxCredit, MIN);
+  }
+
+  /** Pools that are not owed slots wait out the full delays. */
+  public void testFullDelay() {
+    assertEquals(1f, scale(10, 5, true, 3, 0f, 100f), EPSILON);
+    assertEquals(1f, scale(10, 5, true, 3, -50f, 100f), EPSILON);
+    assertEquals(1f, scale(10, 0, true, 3, 0f, 0f), EPSILON);
+  }
+
+  /** A pool that is the only one waiting for slots waits the least. */
+  public void testOnlyWaitingPool() {
+    assertEquals(MIN, scale(10, 5, true, 1, -50f, 100f), EPSILON);
+    assertEquals(1f, scale(10, 5, false, 1, -50f, 100f), EPSILON);
+  }
+
+  /** Credit shortens the delays in proportion to the largest credit. */
+  public void testCredit() {
+    assertEquals(MIN, scale(10, 5, true, 3, 100f, 100f), EPSILON);
+    assertEquals(0.625f, scale(10, 5, true, 3, 50f, 100f), EPSILON);
+  }
+
+  /** Pools below their min share wait less the further below they are. */
+  public void testBelowMinShare() {
+    assertEquals(MIN, scale(0, 4, true, 3, 0f, 100f), EPSILON);
+    assertEquals(0.625f, scale(2, 4, true, 3, 0f, 100f), EPSILON);
+    // The shorter of the two delays applies
+    assertEquals(0.4375f, scale(1, 4, true, 3, 50f, 100f), EPSILON);
+    assertEquals(MIN, scale(3, 4, true, 3, 100f, 100f), EPSILON);
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapreduce.TaskType;
+
+/**
+ * Exercise the order maintained by {@link PoolPriorityIndex}.
+ */
+public class TestPoolPriorityIndex extends TestCase {
+  private CreditScheduler scheduler;
+  private PoolPriorityIndex index;
+
+  /**
+   * PoolSchedulable whose running tasks, min share, demand and credit are set
+   * directly by the test.
+   */
+  private class FakePoolSchedulable extends PoolSchedulable {
+    int running;
+    int minShare;
+    int demand;
+    float credit;
+
+    FakePoolSchedulable(String name, int running, int minShare, int demand,
+        float credit) {
+      super(scheduler, new Pool(scheduler, name), TaskType.MAP);
+      this.running = running;
+      this.minShare = minShare;
+      this.demand = demand;
+      this.credit = credit;
+    }
+
+    @Override
+    public int getRunningTasks() {
+      return running;
+    }
+
+    @Override
+    public int getMinShare() {
+      return minShare;
+    }
+
+    @Override
+    public int getDemand() {
+      return demand;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    scheduler = new CreditScheduler(new Clock(), true);
+    index = new PoolPriorityIndex(TaskType.MAP);
+  }
+
+  /** Reposition a pool, taking its credit from the fake's credit field. */
+  private boolean reposition(FakePoolSchedulable sched) {
+    Map<String, float[]> credits = new HashMap<String, float[]>();
+    credits.put(sched.getName(), new float[] {sched.credit, 0});
+    return index.reposition(sched, new CreditSnapshot(0, credits));
+  }
+
+  private List<String> order() {
+    List<String> names = new ArrayList<String>();
+    for (PoolSchedulable sched: index.getOrderedPools()) {
+      names.add(sched.getName());
+    }
+    return names;
+  }
+
+  /**
+   * While a pool with demand is below its min share, pools are ordered by
+   * slots gap regardless of credit.
+   */
+  public void testGapOrderWhileBelowMinShare() {
+    reposition(new FakePoolSchedulable("a", 5, 10, 20, 100));
+    reposition(new FakePoolSchedulable("b", 2, 10, 20, 0));
+    reposition(new FakePoolSchedulable("c", 30, 10, 40, 50));
+    assertFalse(index.isCreditOrdered());
+    assertEquals("[b, a, c]", order().toString());
+  }
+
+  /**
+   * Once every pool with demand has its min share, pools are ordered by
+   * decreasing credit, even if idle pools are below their min shares.
+   */
+  public void testCreditOrderOnceMinSharesAreMet() {
+    reposition(new FakePoolSchedulable("idle", 0, 10, 0, 1000));
+    reposition(new FakePoolSchedulable("a", 10, 10, 20, 0.5f));
+    reposition(new FakePoolSchedulable("b", 15, 10, 20, 0.75f));
+    assertTrue(index.isCreditOrdered());
+    // Credits that differ by less than one must still be ordered
+    assertEquals("[idle, b, a]", order().toString());
+  }
+
+  /**
+   * A pool is only moved when it is repositioned, and then moves to the place
+   * given by its new sort keys.
+   */
+  public void testReposition() {
+    FakePoolSchedulable a = new FakePoolSchedulable("a", 0, 2, 10, 0);
+    FakePoolSchedulable b = new FakePoolSchedulable("b", 1, 2, 10, 0);
+    reposition(a);
+    reposition(b);
+    assertEquals("[a, b]", order().toString());
+    assertFalse(reposition(b));
+
+    // Launch two tasks for a; the order is stale until a is repositioned
+    a.running = 2;
+    assertEquals("[a, b]", order().toString());
+    assertTrue(reposition(a));
+    assertEquals("[b, a]", order().toString());
+    assertEquals(2, index.size());
+
+    // Once b reaches its min share too, credit decides the order
+    b.running = 2;
+    a.credit = 5;
+    reposition(a);
+    reposition(b);
+    assertTrue(index.isCreditOrdered());
+    assertEquals("[a, b]", order().toString());
+
+    index.remove(a);
+    assertEquals("[b]", order().toString());
+  }
+}
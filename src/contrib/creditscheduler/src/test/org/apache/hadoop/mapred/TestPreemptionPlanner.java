@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapred.PreemptionPlanner.PoolVictims;
+import org.apache.hadoop.mapred.PreemptionPlanner.Victim;
+
+public class TestPreemptionPlanner extends TestCase {
+  private int nextTask = 0;
+
+  private Victim victim(long startTime, long now, float progress) {
+    TaskAttemptID id = new TaskAttemptID("test", 1, true, nextTask++, 0);
+    return new Victim(id, "tt", startTime,
+        PreemptionPlanner.getWaste(now - startTime, progress));
+  }
+
+  private static List<TaskAttemptID> ids(List<Victim> victims) {
+    List<TaskAttemptID> ids = new ArrayList<TaskAttemptID>();
+    for (Victim victim: victims) {
+      ids.add(victim.getAttemptId());
+    }
+    return ids;
+  }
+
+  /**
+   * Within a pool, attempts that ran for less time and made less progress
+   * are killed first, and attempts that waste the same are killed newest
+   * first.
+   */
+  public void testWasteOrder() {
+    long now = 100000;
+    Victim old = victim(10000, now, 0.5f);
+    Victim recent = victim(90000, now, 0.5f);
+    Victim nearlyDone = victim(80000, now, 1.0f);
+    Victim barelyStarted = victim(70000, now, 0.0f);
+    Victim tie = victim(92500, now, 1.0f);   // wastes as much as recent
+    PoolVictims pool = new PoolVictims("pool", 0f, 5);
+    for (Victim v: new Victim[] {old, recent, nearlyDone, barelyStarted, tie}) {
+      pool.add(v);
+    }
+    List<Victim> plan =
+      PreemptionPlanner.planVictims(Arrays.asList(pool), 5);
+    assertEquals(ids(Arrays.asList(tie, recent, barelyStarted, nearlyDone,
+        old)), ids(plan));
+  }
+
+  /**
+   * Pools with the least credit give up their tasks first, and no pool
+   * gives up more tasks than it runs over its fair share.
+   */
+  public void testCreditOrderAndFairShare() {
+    long now = 100000;
+    PoolVictims rich = new PoolVictims("rich", 50f, 2);
+    PoolVictims poor = new PoolVictims("poor", -50f, 1);
+    Victim richCheap = victim(99000, now, 0f);
+    Victim richDear = victim(0, now, 0.9f);
+    Victim poorDear = victim(0, now, 0.9f);
+    Victim poorCheap = victim(99000, now, 0f);
+    rich.add(richCheap);
+    rich.add(richDear);
+    poor.add(poorDear);
+    poor.add(poorCheap);
+
+    // The poor pool goes first, but is only one task over its share
+    List<Victim> plan =
+      PreemptionPlanner.planVictims(Arrays.asList(rich, poor), 2);
+    assertEquals(ids(Arrays.asList(poorCheap, richCheap)), ids(plan));
+
+    // Only three tasks can be taken without going below fair shares
+    rich = new PoolVictims("rich", 50f, 2);
+    poor = new PoolVictims("poor", -50f, 1);
+    rich.add(richCheap);
+    rich.add(richDear);
+    poor.add(poorDear);
+    poor.add(poorCheap);
+    plan = PreemptionPlanner.planVictims(Arrays.asList(rich, poor), 10);
+    assertEquals(ids(Arrays.asList(poorCheap, richCheap, richDear)),
+        ids(plan));
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.mapred.FairScheduler.JobInfo;
+import org.apache.hadoop.mapreduce.server.jobtracker.TaskTracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the code the FairScheduler runs on every heartbeat and
+ * update, over a {@link FairBenchmarkCluster} of 400 trackers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeartbeatBenchmark {
+  @Param({"10", "100"})
+  public int pools;
+
+  @Param({"5"})
+  public int jobsPerPool;
+
+  private FairBenchmarkCluster cluster;
+  private JobInfo info;
+  private TaskTrackerStatus tts;
+  private final List<JobInProgress> visited = new ArrayList<JobInProgress>();
+  private int nextTracker;
+  private int nextJob;
+
+  /** Locality level that JobSchedulable.assignTask is allowed to use. */
+  @State(Scope.Thread)
+  public static class Locality {
+    @Param({"NODE", "RACK", "ANY"})
+    public LocalityLevel level;
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    cluster = new FairBenchmarkCluster(20, 20, pools, pools * jobsPerPool,
+        100, 10);
+    info = cluster.scheduler.getJobInfo(cluster.jobs.get(0));
+    tts = cluster.trackers[0].getStatus();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    cluster.shutdown();
+  }
+
+  @Benchmark
+  public Task assignTask(Locality locality) throws IOException {
+    info.lastMapLocalityLevel = locality.level;
+    info.timeWaitedForLocalMap = 0;
+    visited.clear();
+    return info.mapSchedulable.assignTask(tts, 1000, visited);
+  }
+
+  @Benchmark
+  public List<Task> assignTasks() throws IOException {
+    TaskTracker tracker = cluster.trackers[nextTracker];
+    nextTracker = (nextTracker + 1) % cluster.trackers.length;
+    return cluster.scheduler.assignTasks(tracker);
+  }
+
+  @Benchmark
+  public FairScheduler updateRunnability() {
+    cluster.scheduler.updateRunnability();
+    return cluster.scheduler;
+  }
+
+  @Benchmark
+  public FairScheduler update() {
+    cluster.scheduler.update();
+    return cluster.scheduler;
+  }
+
+  @Benchmark
+  public String getPoolName() {
+    JobInProgress job = cluster.jobs.get(nextJob);
+    nextJob = (nextJob + 1) % cluster.jobs.size();
+    return cluster.scheduler.getPoolManager().getPoolName(job);
+  }
+}
@@ -90,6 +90,7 @@ public class FairScheduler extends TaskScheduler {
   protected boolean onlyLogPreemption; // Only log when tasks should be killed
   private Clock clock;
   private JobListener jobListener;
+  private TrackerListener trackerListener;
   private JobInitializer jobInitializer;
   private boolean mockMode; // Used for unit tests; disables background updates
                             // and scheduler event log
@@ -98,6 +99,20 @@ public class FairScheduler extends TaskScheduler {
   protected long lastHeartbeatTime;  // Time we last ran assignTasks 
   private long lastPreemptCheckTime; // Time we last ran preemptTasksIfNecessary
   
+  // Capacity of the cluster, kept up to date by the TrackerListener. These
+  // are only written with the TaskTrackerManager locked, so they can be read
+  // without taking the lock behind getClusterStatus().
+  private volatile int totalMapSlots;
+  private volatile int totalReduceSlots;
+  private volatile int numTaskTrackers;
+  
+  // Runnable and running tasks of all pools as of the last update(), plus
+  // the tasks assigned since then
+  private int runnableMaps;
+  private int runningMaps;
+  private int runnableReduces;
+  private int runningReduces;
+  
   /**
    * A class for holding per-job scheduler variables. These always contain the
    * values of the variables at the last update(), and are used along with a
@@ -132,6 +147,7 @@ public class FairScheduler extends TaskScheduler {
     this.clock = clock;
     this.mockMode = mockMode;
     this.jobListener = new JobListener();
+    this.trackerListener = new TrackerListener();
   }
 
   @Override
@@ -152,6 +168,15 @@ public class FairScheduler extends TaskScheduler {
       // Initialize other pieces of the scheduler
       jobInitializer = new JobInitializer(conf, taskTrackerManager);
       taskTrackerManager.addJobInProgressListener(jobListener);
+      // Take the trackers that have already joined from the cluster status,
+      // and the ones joining later from tracker events
+      synchronized (taskTrackerManager) {
+        ClusterStatus clusterStatus = taskTrackerManager.getClusterStatus();
+        totalMapSlots = clusterStatus.getMaxMapTasks();
+        totalReduceSlots = clusterStatus.getMaxReduceTasks();
+        numTaskTrackers = clusterStatus.getTaskTrackers();
+        taskTrackerManager.addTaskTrackerListener(trackerListener);
+      }
       poolMgr = new PoolManager(this);
       poolMgr.initialize();
       loadMgr = (LoadManager) ReflectionUtils.newInstance(
@@ -253,6 +278,8 @@ public class FairScheduler extends TaskScheduler {
     jobInitializer.terminate();
     if (jobListener != null)
       taskTrackerManager.removeJobInProgressListener(jobListener);
+    if (trackerListener != null)
+      taskTrackerManager.removeTaskTrackerListener(trackerListener);
     if (eventLog != null)
       eventLog.shutdown();
     if (metricsUpdater != null) {
@@ -332,6 +359,26 @@ public class FairScheduler extends TaskScheduler {
     }
   }
 
+  /**
+   * Used to keep the slot totals up to date as trackers join and leave the
+   * cluster of our {@link TaskTrackerManager}.
+   */
+  private class TrackerListener extends TaskTrackerListener {
+    @Override
+    public void trackerAdded(TaskTrackerStatus status) {
+      totalMapSlots += status.getMaxMapSlots();
+      totalReduceSlots += status.getMaxReduceSlots();
+      numTaskTrackers++;
+    }
+
+    @Override
+    public void trackerRemoved(TaskTrackerStatus status) {
+      totalMapSlots -= status.getMaxMapSlots();
+      totalReduceSlots -= status.getMaxReduceSlots();
+      numTaskTrackers--;
+    }
+  }
+
   /**
    * A thread which calls {@link FairScheduler#update()} ever
    * <code>UPDATE_INTERVAL</code> milliseconds.
@@ -376,34 +423,30 @@ public class FairScheduler extends TaskScheduler {
       return null;
     String trackerName = tracker.getTrackerName();
     eventLog.log("HEARTBEAT", trackerName);
+    // Only build the messages below, which are logged for every pool on
+    // every heartbeat, if they are going to be written
+    boolean logEnabled = eventLog.isEnabled();
     long currentTime = clock.getTime();
+    TaskTrackerStatus tts = tracker.getStatus();
+
+    // Take the tasks the tracker reports finished off the running counts
+    recountFinishedTasks(tts);
     
-    // Compute total runnable maps and reduces, and currently running ones
-    int runnableMaps = 0;
-    int runningMaps = 0;
-    int runnableReduces = 0;
-    int runningReduces = 0;
-    for (Pool pool: poolMgr.getPools()) {
-      runnableMaps += pool.getMapSchedulable().getDemand();
-      runningMaps += pool.getMapSchedulable().getRunningTasks();
-      runnableReduces += pool.getReduceSchedulable().getDemand();
-      runningReduces += pool.getReduceSchedulable().getRunningTasks();
-    }
+    // Total runnable maps and reduces, and currently running ones
+    int runnableMaps = this.runnableMaps;
+    int runningMaps = this.runningMaps;
+    int runnableReduces = this.runnableReduces;
+    int runningReduces = this.runningReduces;
 
-    ClusterStatus clusterStatus = taskTrackerManager.getClusterStatus();
-    // Compute total map/reduce slots
-    // In the future we can precompute this if the Scheduler becomes a 
-    // listener of tracker join/leave events.
-    int totalMapSlots = getTotalSlots(TaskType.MAP, clusterStatus);
-    int totalReduceSlots = getTotalSlots(TaskType.REDUCE, clusterStatus);
+    // Total map/reduce slots, maintained from tracker join/leave events
+    int totalMapSlots = getTotalSlots(TaskType.MAP);
+    int totalReduceSlots = getTotalSlots(TaskType.REDUCE);
     
     eventLog.log("RUNNABLE_TASKS", 
         runnableMaps, runningMaps, runnableReduces, runningReduces);
 
     // Update time waited for local maps for jobs skipped on last heartbeat
     updateLocalityWaitTimes(currentTime);
-    
-    TaskTrackerStatus tts = tracker.getStatus();
 
     int mapsAssigned = 0; // loop counter for map in the below while loop
     int reducesAssigned = 0; // loop counter for reduce in the below while
@@ -430,7 +473,8 @@ public class FairScheduler extends TaskScheduler {
         if (mapsAssigned == mapCapacity ||
             runningMaps == runnableMaps ||
             !loadMgr.canAssignMap(tts, runnableMaps, totalMapSlots)) {
-          eventLog.log("INFO", "Can't assign another MAP to " + trackerName);
+          if (logEnabled)
+            eventLog.log("INFO", "Can't assign another MAP to " + trackerName);
           mapRejected = true;
         }
       }
@@ -438,7 +482,9 @@ public class FairScheduler extends TaskScheduler {
         if (reducesAssigned == reduceCapacity ||
             runningReduces == runnableReduces ||
             !loadMgr.canAssignReduce(tts, runnableReduces, totalReduceSlots)) {
-          eventLog.log("INFO", "Can't assign another REDUCE to " + trackerName);
+          if (logEnabled)
+            eventLog.log("INFO",
+                "Can't assign another REDUCE to " + trackerName);
           reduceRejected = true;
         }
       }
@@ -472,8 +518,9 @@ public class FairScheduler extends TaskScheduler {
       Collections.sort(scheds, new SchedulingAlgorithms.FairShareComparator());
       boolean foundTask = false;
       for (Schedulable sched: scheds) { // This loop will assign only one task
-        eventLog.log("INFO", "Checking for " + taskType +
-            " task in " + sched.getName());
+        if (logEnabled)
+          eventLog.log("INFO", "Checking for " + taskType +
+              " task in " + sched.getName());
         Task task = taskType == TaskType.MAP ? 
                     sched.assignTask(tts, currentTime, visitedForMap) : 
                     sched.assignTask(tts, currentTime, visitedForReduce);
@@ -507,6 +554,8 @@ public class FairScheduler extends TaskScheduler {
         }
       }
     } // end while (true)
+    this.runningMaps = runningMaps;
+    this.runningReduces = runningReduces;
 
     // Mark any jobs that were visited for map tasks but did not launch a task
     // as skipped on this heartbeat
@@ -520,6 +569,44 @@ public class FairScheduler extends TaskScheduler {
     return tasks.isEmpty() ? null : tasks;
   }
 
+  /**
+   * Count the running tasks of each job that the given tracker reports a
+   * finished task of again, so that the slots those tasks freed can be used
+   * before the next update. Tasks lost with a tracker, which no heartbeat
+   * reports, are only taken off at the next update.
+   */
+  private void recountFinishedTasks(TaskTrackerStatus tts) {
+    for (TaskStatus report: tts.getTaskReports()) {
+      if (!isFinished(report.getRunState()) ||
+          tts.isUnchanged(report.getTaskID())) {
+        continue;
+      }
+      JobInProgress job = taskTrackerManager.getJob(
+          report.getTaskID().getJobID());
+      JobInfo info = (job == null ? null : infos.get(job));
+      if (info == null) {
+        continue;
+      }
+      if (report.getIsMap()) {
+        PoolSchedulable sched =
+            poolMgr.getPool(job).getMapSchedulable();
+        runningMaps += sched.recountRunningTasks(info.mapSchedulable);
+      } else {
+        PoolSchedulable sched =
+            poolMgr.getPool(job).getReduceSchedulable();
+        runningReduces += sched.recountRunningTasks(info.reduceSchedulable);
+      }
+    }
+  }
+
+  private static boolean isFinished(TaskStatus.State state) {
+    return state == TaskStatus.State.SUCCEEDED ||
+        state == TaskStatus.State.FAILED ||
+        state == TaskStatus.State.KILLED ||
+        state == TaskStatus.State.FAILED_UNCLEAN ||
+        state == TaskStatus.State.KILLED_UNCLEAN;
+  }
+
   /**
    * Get maximum number of tasks to assign on a TaskTracker on a heartbeat.
    * The scheduler may launch fewer than this many tasks if the LoadManager
@@ -626,10 +713,6 @@ public class FairScheduler extends TaskScheduler {
    * and needed tasks of each type. 
    */
   protected void update() {
-    // Making more granular locking so that clusterStatus can be fetched 
-    // from Jobtracker without locking the scheduler.
-    ClusterStatus clusterStatus = taskTrackerManager.getClusterStatus();
-    
     // Recompute locality delay from JobTracker heartbeat interval if enabled.
     // This will also lock the JT, so do it outside of a fair scheduler lock.
     if (autoComputeLocalityDelay) {
@@ -639,7 +722,6 @@ public class FairScheduler extends TaskScheduler {
       rackLocalityDelay = nodeLocalityDelay;
     }
     
-    // Got clusterStatus hence acquiring scheduler lock now.
     synchronized (this) {
       // Reload allocations file if it hasn't been loaded in a while
       poolMgr.reloadAllocsIfNecessary();
@@ -659,19 +741,29 @@ public class FairScheduler extends TaskScheduler {
       
       updateRunnability(); // Set job runnability based on user/pool limits 
       
-      // Update demands of jobs and pools
+      // Update demands and running tasks of jobs and pools, and their totals
+      runnableMaps = 0;
+      runningMaps = 0;
+      runnableReduces = 0;
+      runningReduces = 0;
       for (Pool pool: poolMgr.getPools()) {
-        pool.getMapSchedulable().updateDemand();
-        pool.getReduceSchedulable().updateDemand();
+        PoolSchedulable mapSched = pool.getMapSchedulable();
+        PoolSchedulable reduceSched = pool.getReduceSchedulable();
+        mapSched.updateDemand();
+        reduceSched.updateDemand();
+        runnableMaps += mapSched.getDemand();
+        runningMaps += mapSched.getRunningTasks();
+        runnableReduces += reduceSched.getDemand();
+        runningReduces += reduceSched.getRunningTasks();
       }
       
       // Compute fair shares based on updated demands
       List<PoolSchedulable> mapScheds = getPoolSchedulables(TaskType.MAP);
       List<PoolSchedulable> reduceScheds = getPoolSchedulables(TaskType.REDUCE);
       SchedulingAlgorithms.computeFairShares(
-          mapScheds, clusterStatus.getMaxMapTasks());
+          mapScheds, getTotalSlots(TaskType.MAP));
       SchedulingAlgorithms.computeFairShares(
-          reduceScheds, clusterStatus.getMaxReduceTasks());
+          reduceScheds, getTotalSlots(TaskType.REDUCE));
       
       // Use the computed shares to assign shares within each pool
       for (Pool pool: poolMgr.getPools()) {
@@ -702,7 +794,7 @@ public class FairScheduler extends TaskScheduler {
     return scheds;
   }
   
-  private void updateRunnability() {
+  void updateRunnability() {
     // Start by marking everything as not runnable
     for (JobInfo info: infos.values()) {
       info.runnable = false;
@@ -778,9 +870,16 @@ public class FairScheduler extends TaskScheduler {
     return poolMgr;
   }
 
-  private int getTotalSlots(TaskType type, ClusterStatus clusterStatus) {
-    return (type == TaskType.MAP ?
-      clusterStatus.getMaxMapTasks() : clusterStatus.getMaxReduceTasks());
+  private int getTotalSlots(TaskType type) {
+    return (type == TaskType.MAP ? totalMapSlots : totalReduceSlots);
+  }
+
+  /**
+   * Get the number of trackers whose slots count towards the cluster capacity,
+   * without locking the {@link TaskTrackerManager}.
+   */
+  int getNumTaskTrackers() {
+    return numTaskTrackers;
   }
 
   /**
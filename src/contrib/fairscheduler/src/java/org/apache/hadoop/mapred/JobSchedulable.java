@@ -28,6 +28,8 @@ public class JobSchedulable extends Schedulable {
   private JobInProgress job;
   private TaskType taskType;
   private int demand = 0;
+  // Running tasks as last counted into the pool's total
+  private int countedRunningTasks = 0;
 
   public JobSchedulable(FairScheduler scheduler, JobInProgress job, 
       TaskType taskType) {
@@ -113,6 +115,34 @@ public class JobSchedulable extends Schedulable {
     return taskType == TaskType.MAP ? job.runningMaps() : job.runningReduces();
   }
 
+  /**
+   * Count the job's running tasks into its pool's total.
+   */
+  int countRunningTasks() {
+    countedRunningTasks = getRunningTasks();
+    return countedRunningTasks;
+  }
+
+  /**
+   * Count the job's running tasks again, and get by how much they changed
+   * since they were last counted.
+   */
+  int recountRunningTasks() {
+    int previous = countedRunningTasks;
+    return countRunningTasks() - previous;
+  }
+
+  /**
+   * Count a task just assigned from this job.
+   */
+  void countAssignedTask() {
+    countedRunningTasks++;
+  }
+
+  int getCountedRunningTasks() {
+    return countedRunningTasks;
+  }
+
   @Override
   public long getStartTime() {
     return job.startTime;
@@ -134,8 +164,7 @@ public class JobSchedulable extends Schedulable {
     if (isRunnable()) {
       visited.add(job);
       TaskTrackerManager ttm = scheduler.taskTrackerManager;
-      ClusterStatus clusterStatus = ttm.getClusterStatus();
-      int numTaskTrackers = clusterStatus.getTaskTrackers();
+      int numTaskTrackers = scheduler.getNumTaskTrackers();
 
       // check with the load manager whether it is safe to 
       // launch this task on this taskTracker.
@@ -41,6 +41,8 @@ public class PoolSchedulable extends Schedulable {
   private PoolManager poolMgr;
   private List<JobSchedulable> jobScheds = new LinkedList<JobSchedulable>();
   private int demand = 0;
+  // Running tasks of the pool's jobs, as last counted by them
+  private int runningTasks = 0;
   
   // Variables used for preemption
   long lastTimeAtMinShare;
@@ -60,8 +62,10 @@ public class PoolSchedulable extends Schedulable {
 
   public void addJob(JobInProgress job) {
     FairScheduler.JobInfo info = scheduler.getJobInfo(job);
-    jobScheds.add(taskType == TaskType.MAP ?
+    JobSchedulable jobSched = (taskType == TaskType.MAP ?
         info.mapSchedulable : info.reduceSchedulable);
+    jobScheds.add(jobSched);
+    runningTasks += jobSched.getCountedRunningTasks();
   }
   
   public void removeJob(JobInProgress job) {
@@ -69,6 +73,7 @@ public class PoolSchedulable extends Schedulable {
       JobSchedulable jobSched = it.next();
       if (jobSched.getJob() == job) {
         it.remove();
+        runningTasks -= jobSched.getCountedRunningTasks();
         break;
       }
     }
@@ -80,9 +85,11 @@ public class PoolSchedulable extends Schedulable {
   @Override
   public void updateDemand() {
     demand = 0;
+    runningTasks = 0;
     for (JobSchedulable sched: jobScheds) {
       sched.updateDemand();
       demand += sched.getDemand();
+      runningTasks += sched.countRunningTasks();
     }
     // if demand exceeds the cap for this pool, limit to the max
     int maxTasks = poolMgr.getMaxSlots(pool.getName(), taskType);
@@ -125,13 +132,25 @@ public class PoolSchedulable extends Schedulable {
     return JobPriority.NORMAL;
   }
 
+  /**
+   * Get the running tasks of the pool as of the last update, plus the tasks
+   * it has been assigned since then, less the tasks reported finished since
+   * then (see {@link #recountRunningTasks(JobSchedulable)}).
+   */
   @Override
   public int getRunningTasks() {
-    int ans = 0;
-    for (JobSchedulable sched: jobScheds) {
-      ans += sched.getRunningTasks();
-    }
-    return ans;
+    return runningTasks;
+  }
+
+  /**
+   * Count the running tasks of one of the pool's jobs again, after a task of
+   * it was reported finished.
+   * @return by how much the pool's running tasks changed
+   */
+  int recountRunningTasks(JobSchedulable sched) {
+    int change = sched.recountRunningTasks();
+    runningTasks += change;
+    return change;
   }
 
   @Override
@@ -142,7 +161,6 @@ public class PoolSchedulable extends Schedulable {
   @Override
   public Task assignTask(TaskTrackerStatus tts, long currentTime,
       Collection<JobInProgress> visited) throws IOException {
-    int runningTasks = getRunningTasks();
     if (runningTasks >= poolMgr.getMaxSlots(pool.getName(), taskType)) {
       return null;
     }
@@ -158,8 +176,11 @@ public class PoolSchedulable extends Schedulable {
     Collections.sort(jobScheds, comparator);
     for (JobSchedulable sched: jobScheds) {
       Task task = sched.assignTask(tts, currentTime, visited);
-      if (task != null)
+      if (task != null) {
+        sched.countAssignedTask();
+        runningTasks++;
         return task;
+      }
     }
     return null;
   }
@@ -357,6 +357,8 @@ public class TestFairScheduler extends TestCase {
     long ttExpiryInterval = 10 * 60 * 1000L; // default interval
     List<JobInProgressListener> listeners =
       new ArrayList<JobInProgressListener>();
+    List<TaskTrackerListener> trackerListeners =
+      new ArrayList<TaskTrackerListener>();
     Map<JobID, JobInProgress> jobs = new HashMap<JobID, JobInProgress>();
     
     private Map<String, TaskTracker> trackers =
@@ -424,6 +426,34 @@ public class TestFairScheduler extends TestCase {
     public void removeJobInProgressListener(JobInProgressListener listener) {
       listeners.remove(listener);
     }
+
+    @Override
+    public void addTaskTrackerListener(TaskTrackerListener listener) {
+      trackerListeners.add(listener);
+    }
+
+    @Override
+    public void removeTaskTrackerListener(TaskTrackerListener listener) {
+      trackerListeners.remove(listener);
+    }
+    
+    public void addTaskTracker(String ttName, String host) {
+      TaskTracker tt = new TaskTracker(ttName);
+      tt.setStatus(new TaskTrackerStatus(ttName, host, 0,
+          new ArrayList<TaskStatus>(), 0,
+          maxMapTasksPerTracker, maxReduceTasksPerTracker));
+      trackers.put(ttName, tt);
+      for (TaskTrackerListener listener : trackerListeners) {
+        listener.trackerAdded(tt.getStatus());
+      }
+    }
+    
+    public void removeTaskTracker(String ttName) {
+      TaskTracker tt = trackers.remove(ttName);
+      for (TaskTrackerListener listener : trackerListeners) {
+        listener.trackerRemoved(tt.getStatus());
+      }
+    }
     
     @Override
     public int getNextHeartbeatInterval() {
@@ -491,7 +521,18 @@ public class TestFairScheduler extends TestCase {
       }
       tip.finishAttempt();
       TaskStatus status = statuses.get(attemptId);
-      trackers.get(taskTrackerName).getStatus().getTaskReports().remove(status);
+      List<TaskStatus> reports =
+        trackers.get(taskTrackerName).getStatus().getTaskReports();
+      reports.remove(status);
+      reports.add(finishedStatus(tip, attemptId, TaskStatus.State.SUCCEEDED));
+    }
+
+    // The report a tracker sends for a task once it has finished
+    private TaskStatus finishedStatus(FakeTaskInProgress tip,
+        String attemptId, TaskStatus.State state) {
+      return TaskStatus.createTaskStatus(tip.isMapTask(),
+          TaskAttemptID.forName(attemptId), 1.0f, 1, state, "", "", "",
+          TaskStatus.Phase.CLEANUP, new Counters());
     }
 
     @Override
@@ -505,7 +546,10 @@ public class TestFairScheduler extends TestCase {
       }
       tip.killAttempt();
       TaskStatus status = statuses.get(attemptIdStr);
-      trackerForTip.get(attemptIdStr).getTaskReports().remove(status);
+      List<TaskStatus> reports =
+        trackerForTip.get(attemptIdStr).getTaskReports();
+      reports.remove(status);
+      reports.add(finishedStatus(tip, attemptIdStr, TaskStatus.State.KILLED));
       return true;
     }
   }
@@ -717,6 +761,31 @@ public class TestFairScheduler extends TestCase {
     assertNull(scheduler.assignTasks(tracker("tt1")));
   }
 
+  /**
+   * This test checks that the slot totals used for fair shares follow trackers
+   * joining and leaving the cluster. The cluster starts with 4 map and reduce
+   * slots, and a third tracker adds two slots of each type while it is up.
+   */
+  public void testTrackerJoinAndLeave() throws IOException {
+    JobInProgress job1 = submitJob(JobStatus.RUNNING, 10, 10);
+    JobInfo info1 = scheduler.infos.get(job1);
+    assertEquals(4.0,  info1.mapSchedulable.getFairShare());
+    assertEquals(4.0,  info1.reduceSchedulable.getFairShare());
+    
+    // Add a tracker; its slots count from the next update on
+    taskTrackerManager.addTaskTracker("tt3", "rack1.node3");
+    advanceTime(100);
+    assertEquals(6.0,  info1.mapSchedulable.getFairShare());
+    assertEquals(6.0,  info1.reduceSchedulable.getFairShare());
+    checkAssignment("tt3", "attempt_test_0001_m_000000_0 on tt3");
+    
+    // Remove it again
+    taskTrackerManager.removeTaskTracker("tt3");
+    advanceTime(100);
+    assertEquals(4.0,  info1.mapSchedulable.getFairShare());
+    assertEquals(4.0,  info1.reduceSchedulable.getFairShare());
+  }
+
   /**
    * This test contains two jobs with fewer required tasks than there are slots.
    * We check that all tasks are assigned, but job 1 gets them first because it
@@ -1770,6 +1839,35 @@ public class TestFairScheduler extends TestCase {
     assertEquals(3, job2.runningReduceTasks);
   }
 
+  /**
+   * This test checks that a slot that a task of a capped pool frees is given
+   * to the pool's next task on the next heartbeat, without waiting for the
+   * scheduler's next update.
+   */
+  public void testPoolMaxMapsAfterTaskFinishes() throws Exception {
+    PrintWriter out = new PrintWriter(new FileWriter(ALLOC_FILE));
+    out.println("<?xml version=\"1.0\"?>");
+    out.println("<allocations>");
+    out.println("<pool name=\"poolLimited\">");
+    out.println("<maxMaps>1</maxMaps>");
+    out.println("</pool>");
+    out.println("</allocations>");
+    out.close();
+    scheduler.getPoolManager().reloadAllocs();
+    submitJob(JobStatus.RUNNING, 3, 0, "poolLimited");
+    checkAssignment("tt1", "attempt_test_0001_m_000000_0 on tt1");
+    assertNull(scheduler.assignTasks(tracker("tt1")));
+    Pool limited = scheduler.getPoolManager().getPool("poolLimited");
+    assertEquals(1, limited.getSchedulable(TaskType.MAP).getRunningTasks());
+
+    // Finish the task; the next heartbeat of its tracker reports it, and
+    // the pool's next map takes the freed slot
+    taskTrackerManager.finishTask("tt1", "attempt_test_0001_m_000000_0");
+    checkAssignment("tt1", "attempt_test_0001_m_000001_0 on tt1");
+    assertEquals(1, limited.getSchedulable(TaskType.MAP).getRunningTasks());
+    assertNull(scheduler.assignTasks(tracker("tt2")));
+  }
+
   /**
    * Tests that max-running-tasks per node are set by assigning load
    * equally accross the cluster in CapBasedLoadManager.
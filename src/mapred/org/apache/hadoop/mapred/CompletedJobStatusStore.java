@@ -17,16 +17,20 @@
  */  
 package org.apache.hadoop.mapred;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
 
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.AccessControlException;
@@ -43,12 +47,17 @@ import org.apache.hadoop.util.DiskChecker.DiskErrorException;
  * <p/>
  * The retain time can be set with the 'persist.jobstatus.hours'
  * configuration variable (it is in hours).
+ * <p/>
+ * If 'persist.jobstatus.segmented' is set, the job info is appended to the
+ * segments of a {@link JobInfoSegmentStore} rather than written to a file
+ * per job. The files of jobs stored before are still read.
  */
 class CompletedJobStatusStore implements Runnable {
   private boolean active;
   private String jobInfoDir;
   private long retainTime;
   private FileSystem fs;
+  private JobInfoSegmentStore segments;
   private static final String JOB_INFO_STORE_DIR = "/jobtracker/jobsInfo";
 
   private ACLsManager aclsManager;
@@ -101,6 +110,8 @@ class CompletedJobStatusStore implements Runnable {
       if (retainTime == 0) {
         // as retain time is zero, all stored jobstatuses are deleted.
         deleteJobStatusDirs();
+      } else if (conf.getBoolean(JobInfoSegmentStore.SEGMENTED_KEY, false)) {
+        segments = new JobInfoSegmentStore(fs, path, conf);
       }
 
       this.aclsManager = aclsManager;
@@ -124,6 +135,11 @@ class CompletedJobStatusStore implements Runnable {
   public void run() {
     if (retainTime > 0) {
       while (true) {
+        if (segments != null) {
+          // the current segment is deleted once it is closed and expired
+          segments.roll();
+          segments.deleteOlderThan(System.currentTimeMillis() - retainTime);
+        }
         deleteJobStatusDirs();
         try {
           Thread.sleep(SLEEP_TIME);
@@ -143,6 +159,10 @@ class CompletedJobStatusStore implements Runnable {
 
       //noinspection ForLoopReplaceableByForEach
       for (FileStatus jobInfo : jobInfoFiles) {
+        String name = jobInfo.getPath().getName();
+        if (segments != null && JobInfoSegmentStore.getSegmentId(name) >= 0) {
+          continue;
+        }
         try {
           if ((currentTime - jobInfo.getModificationTime()) > retainTime) {
             fs.delete(jobInfo.getPath(), true);
@@ -171,26 +191,23 @@ class CompletedJobStatusStore implements Runnable {
   public void store(JobInProgress job) {
     if (active && retainTime > 0) {
       JobID jobId = job.getStatus().getJobID();
+      if (segments != null) {
+        try {
+          DataOutputBuffer record = new DataOutputBuffer();
+          writeJobInfo(job, record);
+          byte[] bytes = new byte[record.getLength()];
+          System.arraycopy(record.getData(), 0, bytes, 0, bytes.length);
+          segments.append(jobId, bytes);
+        } catch (IOException ex) {
+          LOG.warn("Could not store [" + jobId + "] job info : " +
+                   ex.getMessage(), ex);
+        }
+        return;
+      }
       Path jobStatusFile = getInfoFilePath(jobId);
       try {
         FSDataOutputStream dataOut = fs.create(jobStatusFile);
-
-        job.getStatus().write(dataOut);
-
-        job.getProfile().write(dataOut);
-        
-        Counters counters = new Counters();
-        boolean isFine = job.getCounters(counters);
-        counters = (isFine? counters: new Counters());
-        counters.write(dataOut);
-
-        TaskCompletionEvent[] events = 
-                job.getTaskCompletionEvents(0, Integer.MAX_VALUE);
-        dataOut.writeInt(events.length);
-        for (TaskCompletionEvent event : events) {
-          event.write(dataOut);
-        }
-
+        writeJobInfo(job, dataOut);
         dataOut.close();
       } catch (IOException ex) {
         LOG.warn("Could not store [" + jobId + "] job info : " +
@@ -205,31 +222,56 @@ class CompletedJobStatusStore implements Runnable {
     }
   }
 
-  private FSDataInputStream getJobInfoFile(JobID jobId) throws IOException {
+  private void writeJobInfo(JobInProgress job, DataOutput dataOut)
+      throws IOException {
+    job.getStatus().write(dataOut);
+
+    job.getProfile().write(dataOut);
+
+    Counters counters = new Counters();
+    boolean isFine = job.getCounters(counters);
+    counters = (isFine? counters: new Counters());
+    counters.write(dataOut);
+
+    TaskCompletionEvent[] events =
+            job.getTaskCompletionEvents(0, Integer.MAX_VALUE);
+    dataOut.writeInt(events.length);
+    for (TaskCompletionEvent event : events) {
+      event.write(dataOut);
+    }
+  }
+
+  private DataInputStream getJobInfoFile(JobID jobId) throws IOException {
+    if (segments != null) {
+      byte[] record = segments.read(jobId);
+      if (record != null) {
+        return new DataInputStream(new ByteArrayInputStream(record));
+      }
+    }
     Path jobStatusFile = getInfoFilePath(jobId);
     return (fs.exists(jobStatusFile)) ? fs.open(jobStatusFile) : null;
   }
 
-  private JobStatus readJobStatus(FSDataInputStream dataIn) throws IOException {
+  private JobStatus readJobStatus(DataInput dataIn) throws IOException {
     JobStatus jobStatus = new JobStatus();
     jobStatus.readFields(dataIn);
     return jobStatus;
   }
 
-  private JobProfile readJobProfile(FSDataInputStream dataIn)
+  private JobProfile readJobProfile(DataInput dataIn)
           throws IOException {
     JobProfile jobProfile = new JobProfile();
     jobProfile.readFields(dataIn);
     return jobProfile;
   }
 
-  private Counters readCounters(FSDataInputStream dataIn) throws IOException {
+  private Counters readCounters(DataInput dataIn) throws IOException {
     Counters counters = new Counters();
     counters.readFields(dataIn);
     return counters;
   }
 
-  private TaskCompletionEvent[] readEvents(FSDataInputStream dataIn,
+  private TaskCompletionEvent[] readEvents(DataInput dataIn,
                                            int offset, int len)
           throws IOException {
     int size = dataIn.readInt();
@@ -267,7 +309,7 @@ class CompletedJobStatusStore implements Runnable {
     
     if (active) {
       try {
-        FSDataInputStream dataIn = getJobInfoFile(jobId);
+        DataInputStream dataIn = getJobInfoFile(jobId);
         if (dataIn != null) {
           jobStatus = readJobStatus(dataIn);
           dataIn.close();
@@ -290,7 +332,7 @@ class CompletedJobStatusStore implements Runnable {
     JobProfile jobProfile = null;
     if (active) {
       try {
-        FSDataInputStream dataIn = getJobInfoFile(jobId);
+        DataInputStream dataIn = getJobInfoFile(jobId);
         if (dataIn != null) {
           readJobStatus(dataIn);
           jobProfile = readJobProfile(dataIn);
@@ -315,7 +357,7 @@ class CompletedJobStatusStore implements Runnable {
     Counters counters = null;
     if (active) {
       try {
-        FSDataInputStream dataIn = getJobInfoFile(jobId);
+        DataInputStream dataIn = getJobInfoFile(jobId);
         if (dataIn != null) {
           JobStatus jobStatus = readJobStatus(dataIn);
           JobProfile profile = readJobProfile(dataIn);
@@ -352,7 +394,7 @@ class CompletedJobStatusStore implements Runnable {
     TaskCompletionEvent[] events = TaskCompletionEvent.EMPTY_ARRAY;
     if (active) {
       try {
-        FSDataInputStream dataIn = getJobInfoFile(jobId);
+        DataInputStream dataIn = getJobInfoFile(jobId);
         if (dataIn != null) {
           readJobStatus(dataIn);
           readJobProfile(dataIn);
@@ -367,4 +409,12 @@ class CompletedJobStatusStore implements Runnable {
     return events;
   }
 
+  /**
+   * Close the files the job info is appended to or read from.
+   */
+  public void close() {
+    if (segments != null) {
+      segments.close();
+    }
+  }
 }
@@ -21,15 +21,18 @@ package org.apache.hadoop.mapred;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.WeakHashMap;
 
 import org.apache.commons.logging.*;
 import org.apache.hadoop.io.IntWritable;
@@ -75,6 +78,96 @@ public class Counters implements Writable, Iterable<Counters.Group> {
   /** the number of current counters**/
   private int numCounters = 0;
 
+  /**
+   * Marks the compact serialized form, as the number of groups that starts
+   * the original form is never negative. A change to the ids of the known
+   * names that is not an append, see {@link #KNOWN_GROUPS}, needs a new
+   * marker, so that counters persisted in the old form are not read back
+   * with the wrong names.
+   */
+  private static final int COMPACT_FORMAT = -1;
+
+  /**
+   * Groups of the counters of the framework, whose names are written as
+   * ids in the compact form. Each group has its own range of
+   * {@link #KNOWN_ID_RANGE} ids, in this order, except that the file system
+   * counters, which most tasks have, take the second range so that their
+   * ids fit in a byte. A group's names are numbered within its range in the
+   * order of the enum's constants. Since the job status store persists
+   * counters in that form, new groups may only be added at the end of this
+   * list, and new constants only at the end of their enum.
+   */
+  private static final Class<?>[] KNOWN_GROUPS = {
+    Task.Counter.class,
+    JobInProgress.Counter.class,
+    FileInputFormat.Counter.class,
+    FileOutputFormat.Counter.class,
+    org.apache.hadoop.mapreduce.lib.input.FileInputFormat.Counter.class,
+    org.apache.hadoop.mapreduce.lib.output.FileOutputFormat.Counter.class
+  };
+  /** File systems with known counter names, which may only be appended. */
+  private static final String[] KNOWN_FILESYSTEMS = {"file", "hdfs"};
+  private static final int KNOWN_ID_RANGE = 64;
+
+  /**
+   * Names and display names of the groups and counters of the framework,
+   * indexed by id; ids in a group's range past its names are null.
+   * Strings read in the compact form share these instances, so that the
+   * many counters of a job's tasks do not each hold copies of them.
+   */
+  private static final String[] KNOWN_NAMES =
+    new String[(KNOWN_GROUPS.length + 1) * KNOWN_ID_RANGE];
+  private static final Map<String, Integer> KNOWN_NAME_IDS =
+    new HashMap<String, Integer>();
+  static {
+    List<String> names = new ArrayList<String>();
+    names.add(Task.FILESYSTEM_COUNTER_GROUP);
+    for (String scheme : KNOWN_FILESYSTEMS) {
+      for (String name : Task.getFileSystemCounterNames(scheme)) {
+        names.add(name);
+      }
+    }
+    addKnownNames(1, names);
+    for (int i = 0; i < KNOWN_GROUPS.length; i++) {
+      Class<?> enumClass = KNOWN_GROUPS[i];
+      String groupName = enumClass.getName();
+      ResourceBundle bundle = null;
+      try {
+        bundle = getResourceBundle(groupName);
+      } catch (MissingResourceException neverMind) {
+      }
+      names = new ArrayList<String>();
+      names.add(groupName);
+      names.add(localize(bundle, "CounterGroupName", groupName));
+      for (Object key : enumClass.getEnumConstants()) {
+        String name = key.toString();
+        names.add(name);
+        names.add(localize(bundle, name + ".name", name));
+      }
+      addKnownNames(i == 0 ? 0 : i + 1, names);
+    }
+  }
+
+  private static void addKnownNames(int range, List<String> names) {
+    if (names.size() > KNOWN_ID_RANGE) {
+      throw new IllegalStateException("Group " + names.get(0) + " has " +
+          names.size() + " names, more than " + KNOWN_ID_RANGE);
+    }
+    int id = range * KNOWN_ID_RANGE;
+    for (String name : names) {
+      KNOWN_NAMES[id] = name;
+      // a display name equal to a name keeps the name's id
+      if (!KNOWN_NAME_IDS.containsKey(name)) {
+        KNOWN_NAME_IDS.put(name, id);
+      }
+      id++;
+    }
+  }
+
+  /** Other names read in the compact form, shared while in use. */
+  private static final Map<String, WeakReference<String>> internedNames =
+    new WeakHashMap<String, WeakReference<String>>();
+
   //private static Log log = LogFactory.getLog("Counters.class");
   
   /**
@@ -331,15 +424,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
      * If the bundle or the key doesn't exist, returns the default value.
      */
     private String localize(String key, String defaultValue) {
-      String result = defaultValue;
-      if (bundle != null) {
-        try {
-          result = bundle.getString(key);
-        }
-        catch (MissingResourceException mre) {
-        }
-      }
-      return result;
+      return Counters.localize(bundle, key, defaultValue);
     }
     
     public synchronized void write(DataOutput out) throws IOException {
@@ -361,6 +446,35 @@ public class Counters implements Writable, Iterable<Counters.Group> {
       }
     }
 
+    /**
+     * Write the group in the compact form:
+     *     displayName #counters (name displayName value)*
+     * where every name is written by {@link Counters#writeName} and display
+     * names are only written if they differ from the name.
+     */
+    synchronized void writeCompact(DataOutput out) throws IOException {
+      writeDisplayName(out, groupName, displayName);
+      WritableUtils.writeVInt(out, subcounters.size());
+      for (Counter counter : subcounters.values()) {
+        String name = counter.getName();
+        writeName(out, name);
+        writeDisplayName(out, name, counter.getDisplayName());
+        WritableUtils.writeVLong(out, counter.getValue());
+      }
+    }
+
+    synchronized void readCompact(DataInput in) throws IOException {
+      displayName = readDisplayName(in, groupName);
+      subcounters.clear();
+      int size = WritableUtils.readVInt(in);
+      for (int i = 0; i < size; i++) {
+        String name = readName(in);
+        String counterDisplayName = readDisplayName(in, name);
+        long value = WritableUtils.readVLong(in);
+        subcounters.put(name, new Counter(name, counterDisplayName, value));
+      }
+    }
+
     public synchronized Iterator<Counter> iterator() {
       return new ArrayList<Counter>(subcounters.values()).iterator();
     }
@@ -372,9 +486,10 @@ public class Counters implements Writable, Iterable<Counters.Group> {
 
   /**
    * A cache from enum values to the associated counter. Dramatically speeds up
-   * typical usage.
+   * typical usage. Created on first use, as most counters the JobTracker
+   * holds are only read from the wire and never looked up by enum.
    */
-  private Map<Enum, Counter> cache = new IdentityHashMap<Enum, Counter>();
+  private Map<Enum, Counter> cache = null;
 
   /**
    * Returns the specified resource bundle, or throws an exception.
@@ -385,6 +500,23 @@ public class Counters implements Writable, Iterable<Counters.Group> {
     return ResourceBundle.getBundle(bundleName);
   }
 
+  /**
+   * Looks up key in the ResourceBundle and returns the corresponding value.
+   * If the bundle or the key doesn't exist, returns the default value.
+   */
+  private static String localize(ResourceBundle bundle, String key,
+                                 String defaultValue) {
+    String result = defaultValue;
+    if (bundle != null) {
+      try {
+        result = bundle.getString(key);
+      }
+      catch (MissingResourceException mre) {
+      }
+    }
+    return result;
+  }
+
   /**
    * Returns the names of all counter classes.
    * @return Set of counter names.
@@ -424,6 +556,9 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * @return the matching counter object
    */
   public synchronized Counter findCounter(Enum key) {
+    if (cache == null) {
+      cache = new IdentityHashMap<Enum, Counter>();
+    }
     Counter counter = cache.get(key);
     if (counter == null) {
       Group group = getGroup(key.getDeclaringClass().getName());
@@ -544,31 +679,49 @@ public class Counters implements Writable, Iterable<Counters.Group> {
   /**
    * Write the set of groups.
    * The external format is:
-   *     #groups (groupName group)*
+   *     -1 #groups (groupName group)*
    *
-   * i.e. the number of groups followed by 0 or more groups, where each 
+   * i.e. a marker, the number of groups, then 0 or more groups, where each 
    * group is of the form:
    *
-   *     groupDisplayName #counters (false | true counter)*
+   *     (false | true groupDisplayName) #counters counter*
    *
    * where each counter is of the form:
    *
    *     name (false | true displayName) value
+   *
+   * Names and display names of the framework's groups and counters are
+   * written as a small id, see {@link #writeName}, and display names only
+   * when they differ from the name.
    */
   public synchronized void write(DataOutput out) throws IOException {
-    out.writeInt(counters.size());
+    out.writeInt(COMPACT_FORMAT);
+    WritableUtils.writeVInt(out, counters.size());
     for (Group group: counters.values()) {
-      Text.writeString(out, group.getName());
-      group.write(out);
+      writeName(out, group.getName());
+      group.writeCompact(out);
     }
   }
   
   /**
-   * Read a set of groups.
+   * Read a set of groups, in the compact form or in the original form
+   *     #groups (groupName group)*
+   * that older versions wrote.
    */
   public synchronized void readFields(DataInput in) throws IOException {
     int numClasses = in.readInt();
     counters.clear();
+    cache = null;
+    if (numClasses == COMPACT_FORMAT) {
+      numClasses = WritableUtils.readVInt(in);
+      while (numClasses-- > 0) {
+        String groupName = readName(in);
+        Group group = new Group(groupName);
+        group.readCompact(in);
+        counters.put(groupName, group);
+      }
+      return;
+    }
     while (numClasses-- > 0) {
       String groupName = Text.readString(in);
       Group group = new Group(groupName);
@@ -577,6 +730,63 @@ public class Counters implements Writable, Iterable<Counters.Group> {
     }
   }
   
+  /**
+   * Write a group or counter name, as 1 + its id if it is one of the known
+   * names, and as 0 followed by the name otherwise.
+   */
+  private static void writeName(DataOutput out, String name)
+      throws IOException {
+    Integer id = KNOWN_NAME_IDS.get(name);
+    if (id != null) {
+      WritableUtils.writeVInt(out, id + 1);
+    } else {
+      WritableUtils.writeVInt(out, 0);
+      Text.writeString(out, name);
+    }
+  }
+
+  private static String readName(DataInput in) throws IOException {
+    int id = WritableUtils.readVInt(in);
+    if (id == 0) {
+      return intern(Text.readString(in));
+    }
+    String name = id > KNOWN_NAMES.length ? null : KNOWN_NAMES[id - 1];
+    if (name == null) {
+      throw new IOException("Unknown counter name id " + id);
+    }
+    return name;
+  }
+
+  private static void writeDisplayName(DataOutput out, String name,
+                                       String displayName)
+      throws IOException {
+    boolean distinctDisplayName = !name.equals(displayName);
+    out.writeBoolean(distinctDisplayName);
+    if (distinctDisplayName) {
+      writeName(out, displayName);
+    }
+  }
+
+  private static String readDisplayName(DataInput in, String name)
+      throws IOException {
+    return in.readBoolean() ? readName(in) : name;
+  }
+
+  /**
+   * Return the instance of the given name that other counters read use.
+   */
+  private static String intern(String name) {
+    synchronized (internedNames) {
+      WeakReference<String> ref = internedNames.get(name);
+      String interned = (ref == null) ? null : ref.get();
+      if (interned == null) {
+        internedNames.put(name, new WeakReference<String>(name));
+        interned = name;
+      }
+      return interned;
+    }
+  }
+  
   /**
    * Logs the current counter values.
    * @param log The log to use.
@@ -42,6 +42,7 @@ class HeartbeatResponse implements Writable, Configurable {
   int heartbeatInterval;
   TaskTrackerAction[] actions;
   Set<JobID> recoveredJobs = new HashSet<JobID>();
+  boolean fullStatusRequired = false;
 
   HeartbeatResponse() {}
   
@@ -67,6 +68,19 @@ class HeartbeatResponse implements Writable, Configurable {
     return recoveredJobs;
   }
   
+  /**
+   * Ask the tracker to send its next status with all its task reports,
+   * as the heartbeat could not be processed without the reports it left
+   * out as unchanged.
+   */
+  public void setFullStatusRequired(boolean fullStatusRequired) {
+    this.fullStatusRequired = fullStatusRequired;
+  }
+
+  public boolean isFullStatusRequired() {
+    return fullStatusRequired;
+  }
+  
   public void setActions(TaskTrackerAction[] actions) {
     this.actions = actions;
   }
@@ -108,6 +122,7 @@ class HeartbeatResponse implements Writable, Configurable {
     for (JobID id : recoveredJobs) {
       id.write(out);
     }
+    out.writeBoolean(fullStatusRequired);
   }
   
   public void readFields(DataInput in) throws IOException {
@@ -132,5 +147,6 @@ class HeartbeatResponse implements Writable, Configurable {
       id.readFields(in);
       recoveredJobs.add(id);
     }
+    this.fullStatusRequired = in.readBoolean();
   }
 }
@@ -71,8 +71,12 @@ interface InterTrackerProtocol extends VersionedProtocol {
    * Version 28: Adding user name to the serialized Task for use by TT.
    * Version 29: Adding available memory and CPU usage information on TT to
    *             TaskTrackerStatus for MAPREDUCE-1218
+   * Version 30: TaskTrackerStatus only sends the ids of the tasks whose
+   *             reports did not change since the last acknowledged
+   *             heartbeat, and HeartbeatResponse may ask for a full status
+   * Version 31: Counters are written in a compact form
    */
-  public static final long versionID = 29L;
+  public static final long versionID = 31L;
   
   public final static int TRACKERS_OK = 0;
   public final static int UNKNOWN_TASKTRACKER = 1;
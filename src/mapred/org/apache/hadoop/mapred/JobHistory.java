@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
@@ -126,6 +127,8 @@ public class JobHistory {
   private static long jobHistoryBlockSize = 0;
   private static String jobtrackerHostname;
   private static JobHistoryFilesManager fileManager = null;
+  // Writes the history files in the background, if enabled
+  private static JobHistoryWriter historyWriter = null;
   final static FsPermission HISTORY_DIR_PERMISSION =
     FsPermission.createImmutable((short) 0755); // rwxr-xr-x
   final static FsPermission HISTORY_FILE_PERMISSION =
@@ -291,6 +294,15 @@ public class JobHistory {
       executor.execute(new Runnable() {
 
         public void run() {
+          if (historyWriter != null) {
+            try {
+              historyWriter.awaitClosed(id);
+            } catch (InterruptedException e) {
+              LOG.warn("Interrupted waiting for the history of " + id +
+                       " to be written");
+              return;
+            }
+          }
           long millisecondTime = System.currentTimeMillis();
 
           Path resultDir = canonicalHistoryLogPath(id, millisecondTime);
@@ -525,6 +537,40 @@ public class JobHistory {
 
     // initialize the file manager
     fileManager = new JobHistoryFilesManager(conf, jobTracker);
+
+    // Left from a previous JobTracker in this JVM
+    stopHistoryWriter();
+    if (conf.getBoolean(JobHistoryWriter.ASYNC_KEY, false)) {
+      historyWriter = new JobHistoryWriter(conf);
+      historyWriter.start();
+    } else {
+      historyWriter = null;
+    }
+  }
+
+  /**
+   * Write out the history the writer thread buffered, and stop it. Called
+   * when the JobTracker shuts down, so that the events its jobs would be
+   * recovered from are in their history files.
+   */
+  static void stopHistoryWriter() {
+    if (historyWriter != null) {
+      try {
+        historyWriter.stop();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      historyWriter = null;
+    }
+  }
+
+  /**
+   * Return the stream to log the history of a job to the given file with,
+   * which writes from the history writer thread if it is enabled.
+   */
+  private static OutputStream getHistoryStream(JobID jobId,
+                                               OutputStream out) {
+    return historyWriter == null ? out : historyWriter.wrap(jobId, out);
   }
 
   private static void initLogDir(JobConf conf) throws IOException {
@@ -1699,7 +1745,7 @@ public class JobHistory {
                           defaultBufferSize, 
                           LOGDIR_FS.getDefaultReplication(), 
                           jobHistoryBlockSize, null);
-          writer = new PrintWriter(out);
+          writer = new PrintWriter(getHistoryStream(jobId, out));
           fileManager.addWriter(jobId, writer);
 
           // cache it ...
@@ -1716,7 +1762,7 @@ public class JobHistory {
           fs = userLogFile.getFileSystem(jobConf);
  
           out = fs.create(userLogFile, true, 4096);
-          writer = new PrintWriter(out);
+          writer = new PrintWriter(getHistoryStream(jobId, out));
           fileManager.addWriter(jobId, writer);
         }
         
@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Writes job history files from a thread of its own, so that the
+ * JobTracker threads logging history events do not wait for the history
+ * file system.
+ *
+ * Each history file is written through a {@link HistoryStream}, which only
+ * buffers what is written to it. The writer thread writes and flushes the
+ * buffered events of a job once they reach the batch size, or every flush
+ * interval, and closes the file once the stream is closed and drained. The
+ * total size of the buffered events is bounded; when it is reached, logging
+ * waits for the writer thread to catch up rather than dropping events.
+ * After a file failed to be written, writes to its stream fail, so that
+ * {@link JobHistory} stops logging to it as it did before.
+ */
+class JobHistoryWriter implements Runnable {
+  private static final Log LOG = LogFactory.getLog(JobHistoryWriter.class);
+
+  static final String ASYNC_KEY = "mapred.jobtracker.jobhistory.async";
+  static final String CAPACITY_KEY =
+    "mapred.jobtracker.jobhistory.async.buffer.size";
+  static final String BATCH_SIZE_KEY =
+    "mapred.jobtracker.jobhistory.async.batch.size";
+  static final String FLUSH_INTERVAL_KEY =
+    "mapred.jobtracker.jobhistory.async.flush.interval";
+
+  private final long capacity;
+  private final int batchSize;
+  private final long flushInterval;
+  // Streams not closed and drained yet
+  private final List<HistoryStream> streams = new ArrayList<HistoryStream>();
+  // Bytes written to the streams and not yet to their files
+  private long bufferedBytes = 0;
+  private boolean running = false;
+  private Thread thread;
+
+  JobHistoryWriter(Configuration conf) {
+    capacity = conf.getLong(CAPACITY_KEY, 16 * 1024 * 1024);
+    batchSize = conf.getInt(BATCH_SIZE_KEY, 64 * 1024);
+    flushInterval = conf.getLong(FLUSH_INTERVAL_KEY, 1000);
+  }
+
+  synchronized void start() {
+    running = true;
+    thread = new Thread(this, "JobHistory writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Write what the streams buffered and stop the writer thread.
+   */
+  void stop() throws InterruptedException {
+    synchronized (this) {
+      running = false;
+      notifyAll();
+    }
+    thread.join();
+  }
+
+  /**
+   * Return a stream writing to the given one from the writer thread.
+   */
+  synchronized OutputStream wrap(JobID jobId, OutputStream out) {
+    HistoryStream stream = new HistoryStream(jobId, out);
+    streams.add(stream);
+    return stream;
+  }
+
+  /**
+   * Wait until the history files of the given job that were closed are
+   * written and closed, or failed.
+   */
+  synchronized void awaitClosed(JobID jobId) throws InterruptedException {
+    while (running && hasClosing(jobId)) {
+      wait();
+    }
+  }
+
+  private boolean hasClosing(JobID jobId) {
+    for (HistoryStream stream : streams) {
+      if (stream.closed && stream.jobId.equals(jobId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void run() {
+    List<HistoryStream> ready = new ArrayList<HistoryStream>();
+    List<byte[]> batches = new ArrayList<byte[]>();
+    while (true) {
+      synchronized (this) {
+        if (running && !hasFullBatch()) {
+          try {
+            wait(flushInterval);
+          } catch (InterruptedException e) {
+            running = false;
+          }
+        }
+        for (HistoryStream stream : streams) {
+          if (stream.buffer.size() > 0 || stream.closed) {
+            ready.add(stream);
+            batches.add(stream.buffer.toByteArray());
+            stream.buffer.reset();
+          }
+        }
+        if (!running && ready.isEmpty()) {
+          notifyAll();
+          return;
+        }
+      }
+      long written = 0;
+      for (int i = 0; i < ready.size(); i++) {
+        ready.get(i).writeOut(batches.get(i));
+        written += batches.get(i).length;
+      }
+      synchronized (this) {
+        bufferedBytes -= written;
+        for (Iterator<HistoryStream> it = streams.iterator(); it.hasNext();) {
+          HistoryStream stream = it.next();
+          if (stream.failure != null || stream.fileClosed) {
+            bufferedBytes -= stream.buffer.size();
+            stream.buffer.reset();
+            it.remove();
+          }
+        }
+        notifyAll();
+      }
+      ready.clear();
+      batches.clear();
+    }
+  }
+
+  private boolean hasFullBatch() {
+    for (HistoryStream stream : streams) {
+      if (stream.closed || stream.buffer.size() >= batchSize) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Stream buffering the events logged to one history file. Accessed with
+   * the writer locked, except for the file, which only the writer thread
+   * uses.
+   */
+  class HistoryStream extends OutputStream {
+    private final JobID jobId;
+    private final OutputStream out;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private boolean closed = false;
+    private volatile boolean fileClosed = false;
+    private volatile IOException failure = null;
+
+    HistoryStream(JobID jobId, OutputStream out) {
+      this.jobId = jobId;
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      synchronized (JobHistoryWriter.this) {
+        checkWritable();
+        while (running && bufferedBytes > 0 &&
+               bufferedBytes + len > capacity) {
+          try {
+            JobHistoryWriter.this.wait();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException(
+                "Interrupted waiting to log history of " + jobId);
+          }
+          checkWritable();
+        }
+        buffer.write(b, off, len);
+        bufferedBytes += len;
+        if (buffer.size() >= batchSize) {
+          JobHistoryWriter.this.notifyAll();
+        }
+      }
+    }
+
+    private void checkWritable() throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      if (closed) {
+        throw new IOException("History stream of " + jobId + " is closed");
+      }
+    }
+
+    /**
+     * Only report a failure; the writer thread flushes the file.
+     */
+    @Override
+    public void flush() throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    /**
+     * Close the file once what was written is, without waiting for it.
+     */
+    @Override
+    public void close() {
+      synchronized (JobHistoryWriter.this) {
+        if (!closed) {
+          closed = true;
+          JobHistoryWriter.this.notifyAll();
+        }
+      }
+    }
+
+    // Called from the writer thread only
+    private void writeOut(byte[] batch) {
+      if (failure != null) {
+        return;
+      }
+      boolean closing;
+      synchronized (JobHistoryWriter.this) {
+        closing = closed && buffer.size() == 0;
+      }
+      try {
+        if (batch.length > 0) {
+          out.write(batch);
+          out.flush();
+        }
+        if (closing) {
+          out.close();
+          fileClosed = true;
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed writing history of " + jobId, e);
+        failure = e;
+        try {
+          out.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+}
@@ -36,6 +36,7 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.net.UnknownHostException;
 
 import org.apache.commons.logging.Log;
@@ -123,6 +124,10 @@ public class JobInProgress {
   int speculativeMapTasks = 0;
   int speculativeReduceTasks = 0;
   
+  // Listeners for changes in the state of the map and reduce tips
+  private final List<TaskInProgressListener> taskListeners =
+    new CopyOnWriteArrayList<TaskInProgressListener>();
+  
   final int mapFailuresPercent;
   final int reduceFailuresPercent;
   int failedMapTIPs = 0;
@@ -317,11 +322,19 @@ public class JobInProgress {
   private Map<TaskTracker, FallowSlotInfo> trackersReservedForReduces = 
     new HashMap<TaskTracker, FallowSlotInfo>();
   private Path jobSubmitDir = null;
+  // Split meta info read ahead of initTasks() by prefetchSplits(), and
+  // whether initTasks() has read the splits yet
+  private final Object splitsLock = new Object();
+  private TaskSplitMetaInfo[] prefetchedSplits = null;
+  private boolean splitsRead = false;
 
   final private UserGroupInformation userUGI;
   
   /**
-   * Create an almost empty JobInProgress, which can be used only for tests
+   * Create an almost empty JobInProgress, which can be used only for tests.
+   * The tracker may be null for tests that run without a JobTracker, in
+   * which case the job has no queue metrics and its task limits are not
+   * checked.
    */
   protected JobInProgress(JobID jobid, JobConf conf, JobTracker tracker) 
   throws IOException {
@@ -353,14 +366,18 @@ public class JobInProgress {
     this.mapFailuresPercent = conf.getMaxMapTaskFailuresPercent();
     this.reduceFailuresPercent = conf.getMaxReduceTaskFailuresPercent();
 
-    Queue queue = this.jobtracker.getQueueManager().getQueue(queueName);
-    if (queue == null) {
-      throw new IOException("Queue \"" + queueName + "\" does not exist");
-    }
-    this.queueMetrics = queue.getMetrics();
+    QueueMetrics metrics = null;
+    if (tracker != null) {
+      Queue queue = this.jobtracker.getQueueManager().getQueue(queueName);
+      if (queue == null) {
+        throw new IOException("Queue \"" + queueName + "\" does not exist");
+      }
+      metrics = queue.getMetrics();
 
-    // Check task limits
-    checkTaskLimits();
+      // Check task limits
+      checkTaskLimits();
+    }
+    this.queueMetrics = metrics;
 
     this.taskCompletionEvents = new ArrayList<TaskCompletionEvent>
       (numMapTasks + numReduceTasks + 10);
@@ -811,10 +828,32 @@ public class JobInProgress {
 
   TaskSplitMetaInfo[] createSplits(org.apache.hadoop.mapreduce.JobID jobId)
   throws IOException {
-    TaskSplitMetaInfo[] allTaskSplitMetaInfo =
-      SplitMetaInfoReader.readSplitMetaInfo(jobId, fs, jobtracker.getConf(),
-          jobSubmitDir);
-    return allTaskSplitMetaInfo;
+    synchronized (splitsLock) {
+      splitsRead = true;
+      TaskSplitMetaInfo[] allTaskSplitMetaInfo = prefetchedSplits;
+      prefetchedSplits = null;
+      if (allTaskSplitMetaInfo == null) {
+        allTaskSplitMetaInfo = SplitMetaInfoReader.readSplitMetaInfo(jobId,
+            fs, jobtracker.getConf(), jobSubmitDir);
+      }
+      return allTaskSplitMetaInfo;
+    }
+  }
+
+  /**
+   * Read the split meta info of the job ahead of {@link #initTasks()}, which
+   * then uses it instead of reading it again. Schedulers may call this from
+   * their own threads for jobs they expect to initialize soon. Does nothing
+   * if the splits have been read already.
+   */
+  void prefetchSplits() throws IOException {
+    synchronized (splitsLock) {
+      if (splitsRead || prefetchedSplits != null || jobSubmitDir == null) {
+        return;
+      }
+      prefetchedSplits = SplitMetaInfoReader.readSplitMetaInfo(jobId, fs,
+          jobtracker.getConf(), jobSubmitDir);
+    }
   }
 
   /////////////////////////////////////////////////////
@@ -865,6 +904,29 @@ public class JobInProgress {
     finishedReduceTasks + speculativeReduceTasks;
   }
   
+  /**
+   * Register a listener for changes in the state of this job's map and
+   * reduce tips. To see every change after reading the tips' state, read it
+   * and register the listener with this job locked.
+   */
+  void addTaskInProgressListener(TaskInProgressListener listener) {
+    taskListeners.add(listener);
+  }
+  
+  void removeTaskInProgressListener(TaskInProgressListener listener) {
+    taskListeners.remove(listener);
+  }
+  
+  /**
+   * Called by a tip of this job whose state changed, with this job locked.
+   */
+  void notifyTaskStateChanged(TaskInProgress tip, int oldAttemptsNeeded,
+      int newAttemptsNeeded) {
+    for (TaskInProgressListener listener: taskListeners) {
+      listener.taskStateChanged(tip, oldAttemptsNeeded, newAttemptsNeeded);
+    }
+  }
+  
   /**
    * Return total number of map and reduce tasks desired by the job.
    * @return total number of map and reduce tasks desired by the job
@@ -1449,7 +1511,47 @@ public class JobInProgress {
 
     return result;
   }
-  
+
+  /**
+   * Return up to numTasks MapTasks to run on the given tasktracker, taking
+   * the job lock once for all of them. Maps are chosen one after another as
+   * by {@link #obtainNewMapTask(TaskTrackerStatus, int, int)}, but only
+   * among those whose input is on the tracker's node if maxCacheLevel is 1,
+   * or on its node or rack if it is 2, and at any level if it is
+   * Integer.MAX_VALUE.
+   *
+   * @return the maps to run, which may be fewer than numTasks, or none
+   */
+  public synchronized List<Task> obtainNewMapTasks(TaskTrackerStatus tts,
+                                                   int clusterSize,
+                                                   int numUniqueHosts,
+                                                   int maxCacheLevel,
+                                                   int numTasks
+                                                  ) throws IOException {
+    List<Task> tasks = new ArrayList<Task>(Math.max(0, numTasks));
+    if (status.getRunState() != JobStatus.RUNNING) {
+      LOG.info("Cannot create task split for " + profile.getJobID());
+      return tasks;
+    }
+    int cacheLevel = (maxCacheLevel == Integer.MAX_VALUE ? anyCacheLevel :
+                      Math.min(maxCacheLevel, maxLevel));
+    while (tasks.size() < numTasks) {
+      int target = findNewMapTask(tts, clusterSize, numUniqueHosts,
+                                  cacheLevel, status.mapProgress());
+      if (target == -1) {
+        break;
+      }
+      Task result = maps[target].getTaskToRun(tts.getTrackerName());
+      if (result == null) {
+        break;
+      }
+      addRunningTaskToTIP(maps[target], result.getTaskID(), tts, true);
+      resetSchedulingOpportunities();
+      tasks.add(result);
+    }
+    return tasks;
+  }
+
   public void schedulingOpportunity() {
     ++numSchedulingOpportunities;
   }
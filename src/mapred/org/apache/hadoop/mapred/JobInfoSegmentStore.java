@@ -0,0 +1,367 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Keeps the job info records of the {@link CompletedJobStatusStore} in a
+ * few append-only segment files, rather than in a file per job, so that
+ * reading the info of a retired job does not open a file.
+ * <p/>
+ * Records are appended to the current segment, which is closed once it
+ * reaches the segment size, or when the store is rolled by the
+ * housekeeping thread. Each record is the job id, the length of the info
+ * and the info itself. An index of the records by job id is kept in
+ * memory, and rebuilt when the store is opened by skipping from record to
+ * record through the segments. The info of a job is then read with a
+ * single positioned read from the segment, through a reader that stays
+ * open for each closed segment. What was appended to the current segment
+ * is only sure to be readable once it is closed, so its records are kept
+ * in memory until then. The records last stored or read are cached, up to
+ * a total size.
+ * <p/>
+ * Segments are only deleted as a whole, once the last record appended to
+ * them is older than the retain time, and the reads of them have finished.
+ */
+class JobInfoSegmentStore {
+  public static final Log LOG = LogFactory.getLog(JobInfoSegmentStore.class);
+
+  static final String SEGMENTED_KEY =
+    "mapred.job.tracker.persist.jobstatus.segmented";
+  static final String SEGMENT_SIZE_KEY =
+    "mapred.job.tracker.persist.jobstatus.segment.size";
+  static final String CACHE_SIZE_KEY =
+    "mapred.job.tracker.persist.jobstatus.cache.size";
+  static final String SEGMENT_PREFIX = "segment_";
+
+  /** A segment file, and the reader of it once it is closed. */
+  private static class Segment {
+    final long id;
+    final Path path;
+    long modificationTime;
+    FSDataInputStream reader;
+    // Reads of the segment going on without the store locked
+    int reads = 0;
+
+    Segment(long id, Path path, long modificationTime) {
+      this.id = id;
+      this.path = path;
+      this.modificationTime = modificationTime;
+    }
+  }
+
+  /** Where the info of a job lies. */
+  private static class Location {
+    final Segment segment;
+    final long offset;
+    final int length;
+
+    Location(Segment segment, long offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private final FileSystem fs;
+  private final Path dir;
+  private final long segmentSize;
+  private final long cacheSize;
+  private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+  private final Map<JobID, Location> index = new HashMap<JobID, Location>();
+  // Records last stored or read, least recently used first
+  private final LinkedHashMap<JobID, byte[]> cache =
+    new LinkedHashMap<JobID, byte[]>(16, 0.75f, true);
+  private long cachedBytes = 0;
+  private Segment current = null;
+  // Records of the current segment
+  private final Map<JobID, byte[]> currentRecords =
+    new HashMap<JobID, byte[]>();
+  private FSDataOutputStream out = null;
+  private long nextSegmentId = 0;
+
+  JobInfoSegmentStore(FileSystem fs, Path dir, Configuration conf)
+      throws IOException {
+    this.fs = fs;
+    this.dir = dir;
+    this.segmentSize = conf.getLong(SEGMENT_SIZE_KEY, 64 * 1024 * 1024);
+    this.cacheSize = conf.getLong(CACHE_SIZE_KEY, 16 * 1024 * 1024);
+    for (FileStatus stat : fs.listStatus(dir)) {
+      long id = getSegmentId(stat.getPath().getName());
+      if (id >= 0) {
+        segments.put(id, new Segment(id, stat.getPath(),
+                                     stat.getModificationTime()));
+        nextSegmentId = Math.max(nextSegmentId, id + 1);
+      }
+    }
+    // later records of a job replace the earlier ones
+    for (Segment segment : segments.values()) {
+      loadIndex(segment);
+    }
+    LOG.info("Opened " + segments.size() + " job info segments holding "
+             + index.size() + " jobs");
+  }
+
+  /**
+   * Id of the segment of the given file name, or -1 if it is not the name
+   * of a segment.
+   */
+  static long getSegmentId(String name) {
+    if (name.startsWith(SEGMENT_PREFIX)) {
+      try {
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length()));
+      } catch (NumberFormatException e) {
+        // not a segment
+      }
+    }
+    return -1;
+  }
+
+  private void loadIndex(Segment segment) throws IOException {
+    long length = fs.getFileStatus(segment.path).getLen();
+    FSDataInputStream in = fs.open(segment.path);
+    try {
+      while (in.getPos() < length) {
+        JobID jobId = new JobID();
+        jobId.readFields(in);
+        int recordLength = in.readInt();
+        long offset = in.getPos();
+        if (offset + recordLength > length) {
+          throw new EOFException();
+        }
+        in.seek(offset + recordLength);
+        index.put(jobId, new Location(segment, offset, recordLength));
+      }
+    } catch (EOFException e) {
+      // the job tracker stopped while appending the last record
+      LOG.warn("Ignoring the truncated last record of " + segment.path);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Append the info of a job to the current segment.
+   */
+  synchronized void append(JobID jobId, byte[] record) throws IOException {
+    if (out == null) {
+      Path path = new Path(dir, SEGMENT_PREFIX + nextSegmentId);
+      out = fs.create(path, false);
+      current = new Segment(nextSegmentId, path, System.currentTimeMillis());
+      segments.put(current.id, current);
+      nextSegmentId++;
+    }
+    long offset;
+    try {
+      jobId.write(out);
+      out.writeInt(record.length);
+      offset = out.getPos();
+      out.write(record);
+      out.flush();
+      out.sync();
+    } catch (IOException e) {
+      // keep the partial record at the end of the segment
+      roll();
+      throw e;
+    }
+    current.modificationTime = System.currentTimeMillis();
+    index.put(jobId, new Location(current, offset, record.length));
+    currentRecords.put(jobId, record);
+    cacheRecord(jobId, record);
+    if (out.getPos() >= segmentSize) {
+      roll();
+    }
+  }
+
+  /**
+   * Close the current segment, if any, so that the next record is appended
+   * to a new one.
+   */
+  synchronized void roll() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        LOG.warn("Could not close " + current.path + " : " + e, e);
+      }
+      out = null;
+      current = null;
+      currentRecords.clear();
+    }
+  }
+
+  /**
+   * Read the info of a job.
+   *
+   * @return the info last appended for the job, or null if there is none
+   */
+  byte[] read(JobID jobId) throws IOException {
+    FSDataInputStream reader;
+    Location location;
+    synchronized (this) {
+      byte[] record = cache.get(jobId);
+      if (record != null) {
+        return record;
+      }
+      location = index.get(jobId);
+      if (location == null) {
+        return null;
+      }
+      if (location.segment == current) {
+        return currentRecords.get(jobId);
+      }
+      if (location.segment.reader == null) {
+        location.segment.reader = fs.open(location.segment.path);
+      }
+      reader = location.segment.reader;
+      // keeps the segment from being deleted until the read is done
+      location.segment.reads++;
+    }
+    byte[] record = new byte[location.length];
+    try {
+      reader.readFully(location.offset, record);
+    } finally {
+      synchronized (this) {
+        if (--location.segment.reads == 0) {
+          notifyAll();
+        }
+      }
+    }
+    synchronized (this) {
+      if (index.get(jobId) == location) {
+        cacheRecord(jobId, record);
+      }
+    }
+    return record;
+  }
+
+  /**
+   * Wait for the reads of a segment that is no longer indexed to finish.
+   */
+  private void awaitReads(Segment segment) {
+    boolean interrupted = false;
+    while (segment.reads > 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void cacheRecord(JobID jobId, byte[] record) {
+    byte[] old = cache.put(jobId, record);
+    if (old != null) {
+      cachedBytes -= old.length;
+    }
+    cachedBytes += record.length;
+    Iterator<byte[]> it = cache.values().iterator();
+    while (cachedBytes > cacheSize && it.hasNext()) {
+      cachedBytes -= it.next().length;
+      it.remove();
+    }
+  }
+
+  /**
+   * Delete the closed segments whose last record was appended before the
+   * given time, and the records they hold.
+   */
+  synchronized void deleteOlderThan(long time) {
+    List<Segment> expired = new ArrayList<Segment>();
+    for (Segment segment : segments.values()) {
+      if (segment != current && segment.modificationTime < time) {
+        expired.add(segment);
+      }
+    }
+    if (expired.isEmpty()) {
+      return;
+    }
+    for (Iterator<Map.Entry<JobID, Location>> it =
+           index.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<JobID, Location> entry = it.next();
+      if (expired.contains(entry.getValue().segment)) {
+        byte[] record = cache.remove(entry.getKey());
+        if (record != null) {
+          cachedBytes -= record.length;
+        }
+        it.remove();
+      }
+    }
+    for (Segment segment : expired) {
+      segments.remove(segment.id);
+      awaitReads(segment);
+      try {
+        closeReader(segment);
+        fs.delete(segment.path, false);
+      } catch (IOException e) {
+        LOG.warn("Could not delete job info segment " + segment.path
+                 + " : " + e, e);
+      }
+    }
+  }
+
+  private void closeReader(Segment segment) throws IOException {
+    if (segment.reader != null) {
+      segment.reader.close();
+      segment.reader = null;
+    }
+  }
+
+  /**
+   * Close the current segment and the segment readers.
+   */
+  synchronized void close() {
+    roll();
+    // waiting for reads lets other threads change the segments
+    for (Segment segment : new ArrayList<Segment>(segments.values())) {
+      awaitReads(segment);
+      try {
+        closeReader(segment);
+      } catch (IOException e) {
+        LOG.warn("Could not close " + segment.path + " : " + e, e);
+      }
+    }
+  }
+
+  /** Number of segment files. */
+  synchronized int getSegmentCount() {
+    return segments.size();
+  }
+}
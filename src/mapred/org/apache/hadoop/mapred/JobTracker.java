@@ -220,6 +220,8 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   private final TaskScheduler taskScheduler;
   private final List<JobInProgressListener> jobInProgressListeners =
     new CopyOnWriteArrayList<JobInProgressListener>();
+  private final List<TaskTrackerListener> taskTrackerListeners =
+    new CopyOnWriteArrayList<TaskTrackerListener>();
 
   private static final LocalDirAllocator lDirAlloc = 
                               new LocalDirAllocator("mapred.local.dir");
@@ -950,6 +952,17 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       }
     }
 
+    /**
+     * Whether any faults or listings are kept for the host; if not, both
+     * {@link #checkTrackerFaultTimeout(String, long)} and
+     * {@link #markTrackerHealthy(String)} leave it alone.
+     */
+    boolean isPotentiallyFaulty(String hostName) {
+      synchronized (potentiallyFaultyTrackers) {
+        return potentiallyFaultyTrackers.containsKey(hostName);
+      }
+    }
+
     /**
      * Check whether tasks can be assigned to the tracker.
      *
@@ -1062,6 +1075,7 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
           ++numTrackersOnHost;
           getInstrumentation().addBlackListedMapSlots(mapSlots);
           getInstrumentation().addBlackListedReduceSlots(reduceSlots);
+          notifyTrackerRemoved(status);
         }
         uniqueHostsMap.remove(hostName);
         incrBlacklistedTrackers(numTrackersOnHost);
@@ -1082,6 +1096,7 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
           numTrackersOnHost++;
           getInstrumentation().decBlackListedMapSlots(mapSlots);
           getInstrumentation().decBlackListedReduceSlots(reduceSlots);
+          notifyTrackerAdded(status);
         }
         uniqueHostsMap.put(hostName, numTrackersOnHost);
         decrBlacklistedTrackers(numTrackersOnHost);
@@ -2070,9 +2085,10 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   TreeMap<String, Set<TaskAttemptID>> trackerToMarkedTasksMap =
     new TreeMap<String, Set<TaskAttemptID>>();
 
-  // (trackerID --> last sent HeartBeatResponse)
+  // (trackerID --> last sent HeartBeatResponse); read without the
+  // JobTracker lock to answer duplicate heartbeats
   Map<String, HeartbeatResponse> trackerToHeartbeatResponseMap = 
-    new TreeMap<String, HeartbeatResponse>();
+    new ConcurrentHashMap<String, HeartbeatResponse>();
 
   // (hostname --> Node (NetworkTopology))
   Map<String, Node> hostnameToNodeMap = 
@@ -2668,6 +2684,11 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
         ex.printStackTrace();
       }
     }
+    if (completedJobStatusStore != null) {
+      completedJobStatusStore.close();
+    }
+    LOG.info("Stopping job history writer");
+    JobHistory.stopHistoryWriter();
     if (jobHistoryServer != null) {
       LOG.info("Stopping job history server");
       try {
@@ -3271,6 +3292,14 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   public void removeJobInProgressListener(JobInProgressListener listener) {
     jobInProgressListeners.remove(listener);
   }
+
+  public void addTaskTrackerListener(TaskTrackerListener listener) {
+    taskTrackerListeners.add(listener);
+  }
+
+  public void removeTaskTrackerListener(TaskTrackerListener listener) {
+    taskTrackerListeners.remove(listener);
+  }
   
   // Update the listeners about the job
   // Assuming JobTracker is locked on entry.
@@ -3302,12 +3331,18 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * The {@link JobTracker} processes the status information sent by the 
    * {@link TaskTracker} and responds with instructions to start/stop 
    * tasks or jobs, and also 'reset' instructions during contingencies. 
+   * 
+   * Only checking that the tracker is allowed, and answering a duplicate
+   * heartbeat with the response it already got, are done without the
+   * JobTracker lock. Every other heartbeat is processed, and assigned
+   * tasks, holding the lock, so heartbeats from different trackers are
+   * still handled one at a time.
    */
-  public synchronized HeartbeatResponse heartbeat(TaskTrackerStatus status, 
-                                                  boolean restarted,
-                                                  boolean initialContact,
-                                                  boolean acceptNewTasks, 
-                                                  short responseId) 
+  public HeartbeatResponse heartbeat(TaskTrackerStatus status, 
+                                     boolean restarted,
+                                     boolean initialContact,
+                                     boolean acceptNewTasks, 
+                                     short responseId) 
     throws IOException {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Got heartbeat from: " + status.getTrackerName() + 
@@ -3322,14 +3357,49 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       throw new DisallowedTaskTrackerException(status);
     }
 
-    // First check if the last heartbeat response got through
     String trackerName = status.getTrackerName();
-    long now = clock.getTime();
+    if (!initialContact) {
+      // The response to a duplicate heartbeat was already computed; the
+      // JobTracker lock is only needed to lift the graylisting of a
+      // tracker whose faults timed out
+      HeartbeatResponse prevHeartbeatResponse =
+        trackerToHeartbeatResponseMap.get(trackerName);
+      if (prevHeartbeatResponse != null &&
+          prevHeartbeatResponse.getResponseId() != responseId) {
+        if (faultyTrackers.isPotentiallyFaulty(status.getHost())) {
+          synchronized (this) {
+            checkTrackerFaults(status, restarted, clock.getTime());
+          }
+        }
+        LOG.info("Ignoring 'duplicate' heartbeat from '" + 
+            trackerName + "'; resending the previous 'lost' response");
+        return prevHeartbeatResponse;
+      }
+    }
+    return handleHeartbeat(status, restarted, initialContact,
+                           acceptNewTasks, responseId);
+  }
+
+  // Assumes JobTracker is locked on entry
+  private void checkTrackerFaults(TaskTrackerStatus status,
+                                  boolean restarted, long now) {
     if (restarted) {
       faultyTrackers.markTrackerHealthy(status.getHost());
     } else {
       faultyTrackers.checkTrackerFaultTimeout(status.getHost(), now);
     }
+  }
+
+  /**
+   * Process a heartbeat that was allowed, with the JobTracker locked.
+   */
+  private synchronized HeartbeatResponse handleHeartbeat(
+      TaskTrackerStatus status, boolean restarted, boolean initialContact,
+      boolean acceptNewTasks, short responseId) throws IOException {
+    // First check if the last heartbeat response got through
+    String trackerName = status.getTrackerName();
+    long now = clock.getTime();
+    checkTrackerFaults(status, restarted, now);
     
     HeartbeatResponse prevHeartbeatResponse =
       trackerToHeartbeatResponseMap.get(trackerName);
@@ -3371,6 +3441,17 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
         }
       }
     }
+
+    // Take the reports the tracker left out as unchanged from its previous
+    // status; if they are lost, e.g. on a restart, ask for all of them
+    if (!status.addUnchangedReports(getTaskTrackerStatus(trackerName))) {
+      LOG.info("Cannot find the previous status of '" + trackerName +
+               "'; asking for its full status");
+      HeartbeatResponse response =
+        new HeartbeatResponse(responseId, new TaskTrackerAction[0]);
+      response.setFullStatusRequired(true);
+      return response;
+    }
       
     // Process this heartbeat 
     short newResponseId = (short)(responseId + 1);
@@ -3500,6 +3581,9 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
                                           TaskTrackerStatus status) {
     TaskTracker tt = getTaskTracker(trackerName);
     TaskTrackerStatus oldStatus = (tt == null) ? null : tt.getStatus();
+    // Whether the old and new status count towards the cluster capacity
+    boolean oldCounted = false;
+    boolean newCounted = false;
     if (oldStatus != null) {
       totalMaps -= oldStatus.countMapTasks();
       totalReduces -= oldStatus.countReduceTasks();
@@ -3510,6 +3594,7 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       getInstrumentation().decOccupiedMapSlots(oldStatus.countOccupiedMapSlots());
       getInstrumentation().decOccupiedReduceSlots(oldStatus.countOccupiedReduceSlots());
       if (!faultyTrackers.isBlacklisted(oldStatus.getHost())) {
+        oldCounted = true;
         int mapSlots = oldStatus.getMaxMapSlots();
         totalMapTaskCapacity -= mapSlots;
         int reduceSlots = oldStatus.getMaxReduceSlots();
@@ -3540,6 +3625,7 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       getInstrumentation().addOccupiedMapSlots(status.countOccupiedMapSlots());
       getInstrumentation().addOccupiedReduceSlots(status.countOccupiedReduceSlots());
       if (!faultyTrackers.isBlacklisted(status.getHost())) {
+        newCounted = true;
         int mapSlots = status.getMaxMapSlots();
         totalMapTaskCapacity += mapSlots;
         int reduceSlots = status.getMaxReduceSlots();
@@ -3601,10 +3687,35 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
         uniqueHostsMap.put(status.getHost(), numTaskTrackersInHost);
       }
     }
+    // Most heartbeats leave the capacity unchanged, and are not reported
+    if (oldCounted != newCounted || (oldCounted &&
+        (oldStatus.getMaxMapSlots() != status.getMaxMapSlots() ||
+         oldStatus.getMaxReduceSlots() != status.getMaxReduceSlots()))) {
+      if (oldCounted) {
+        notifyTrackerRemoved(oldStatus);
+      }
+      if (newCounted) {
+        notifyTrackerAdded(status);
+      }
+    }
     getInstrumentation().setMapSlots(totalMapTaskCapacity);
     getInstrumentation().setReduceSlots(totalReduceTaskCapacity);
     return oldStatus != null;
   }
+
+  // Assumes JobTracker and taskTrackers are locked on entry.
+  private void notifyTrackerAdded(TaskTrackerStatus status) {
+    for (TaskTrackerListener listener : taskTrackerListeners) {
+      listener.trackerAdded(status);
+    }
+  }
+
+  // Assumes JobTracker and taskTrackers are locked on entry.
+  private void notifyTrackerRemoved(TaskTrackerStatus status) {
+    for (TaskTrackerListener listener : taskTrackerListeners) {
+      listener.trackerRemoved(status);
+    }
+  }
   
   // Increment the number of reserved slots in the cluster.
   // This method assumes the caller has JobTracker lock.
@@ -4688,8 +4799,12 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   void updateTaskStatuses(TaskTrackerStatus status) {
     String trackerName = status.getTrackerName();
     for (TaskStatus report : status.getTaskReports()) {
-      report.setTaskTracker(trackerName);
       TaskAttemptID taskId = report.getTaskID();
+      if (status.isUnchanged(taskId)) {
+        // Already processed when it was last sent
+        continue;
+      }
+      report.setTaskTracker(trackerName);
       
       // expire it
       expireLaunchingTasks.removeTask(taskId);
@@ -339,6 +339,31 @@ class TaskInProgress {
     return !activeTasks.isEmpty();
   }
 
+  /**
+   * Get the number of attempts of this tip that are running or waiting to
+   * run: one per running attempt, or one if no attempt is running, until the
+   * tip is complete. This does not include speculative attempts that have
+   * not been launched yet.
+   */
+  int getAttemptsNeeded() {
+    if (isComplete()) {
+      return 0;
+    }
+    return Math.max(1, getActiveTasks().size());
+  }
+
+  /**
+   * Tell the job's {@link TaskInProgressListener}s that the state of this
+   * tip changed. Must be called with the job locked.
+   * @param oldAttemptsNeeded {@link #getAttemptsNeeded()} before the change
+   */
+  void notifyStateChanged(int oldAttemptsNeeded) {
+    if (job != null && !jobSetup && !jobCleanup) {
+      job.notifyTaskStateChanged(this, oldAttemptsNeeded,
+          getAttemptsNeeded());
+    }
+  }
+
   /**
    * Is this attempt currently running ?
    * @param  taskId task attempt id.
@@ -627,6 +652,7 @@ class TaskInProgress {
    */
   public void incompleteSubTask(TaskAttemptID taskid, 
                                 JobStatus jobStatus) {
+    int oldAttemptsNeeded = getAttemptsNeeded();
     //
     // Note the failure and its location
     //
@@ -711,6 +737,7 @@ class TaskInProgress {
       kill();
     }
     this.user = job.getUser();
+    notifyStateChanged(oldAttemptsNeeded);
   }
   
   /**
@@ -744,8 +771,10 @@ class TaskInProgress {
    * taskid as {@link TaskStatus.State.KILLED}. 
    */
   void alreadyCompletedTask(TaskAttemptID taskid) {
+    int oldAttemptsNeeded = getAttemptsNeeded();
     // 'KILL' the task 
     completedTask(taskid, TaskStatus.State.KILLED);
+    notifyStateChanged(oldAttemptsNeeded);
     
     // Note the reason for the task being 'KILLED'
     addDiagnosticInfo(taskid, "Already completed TIP");
@@ -759,6 +788,7 @@ class TaskInProgress {
    * has successfully completed!
    */
   public void completed(TaskAttemptID taskid) {
+    int oldAttemptsNeeded = getAttemptsNeeded();
     //
     // Record that this taskid is complete
     //
@@ -776,7 +806,7 @@ class TaskInProgress {
     this.completes++;
     this.execFinishTime = jobtracker.getClock().getTime();
     recomputeProgress();
-    
+    notifyStateChanged(oldAttemptsNeeded);
   }
 
   /**
@@ -982,6 +1012,7 @@ class TaskInProgress {
   public Task addRunningTask(TaskAttemptID taskid, 
                              String taskTracker,
                              boolean taskCleanup) {
+    int oldAttemptsNeeded = getAttemptsNeeded();
     // 1 slot is enough for taskCleanup task
     int numSlotsNeeded = taskCleanup ? 1 : numSlotsRequired;
     // create the task
@@ -1029,6 +1060,7 @@ class TaskInProgress {
     if (firstTaskId == null) {
       firstTaskId = taskid;
     }
+    notifyStateChanged(oldAttemptsNeeded);
     return t;
   }
 
@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+/**
+ * A listener for changes in the state of the map and reduce
+ * {@link TaskInProgress}es of a {@link JobInProgress}, which lets schedulers
+ * keep per-job task counts current without scanning every task of the job.
+ *
+ * The events are delivered by the thread that changed the task, with the
+ * {@link JobInProgress} locked, so listeners should only update their own
+ * bookkeeping. A listener that is registered with the job locked sees every
+ * change made after the state it read under that lock.
+ */
+abstract class TaskInProgressListener {
+
+  /**
+   * Invoked when an attempt of a task was started or ended, or the task
+   * completed or was made to run again, for example because the output of a
+   * completed map was lost.
+   * @param tip The task whose state changed.
+   * @param oldAttemptsNeeded {@link TaskInProgress#getAttemptsNeeded()}
+   *        before the change.
+   * @param newAttemptsNeeded {@link TaskInProgress#getAttemptsNeeded()}
+   *        after the change.
+   */
+  public abstract void taskStateChanged(TaskInProgress tip,
+      int oldAttemptsNeeded, int newAttemptsNeeded);
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+
+/**
+ * The task reports and counters that the {@link JobTracker} acknowledged
+ * in a {@link TaskTracker}'s last heartbeat, kept so that the next heartbeat
+ * only carries what changed since.
+ *
+ * The counters of a running task are left out of its report if they are
+ * the ones the JobTracker already has. A report without counters that
+ * otherwise serializes exactly as the acknowledged one is then sent as its
+ * task id only, and the JobTracker reuses the report it kept from that
+ * heartbeat. Only used from the heartbeat thread.
+ */
+class TaskStatusBaseline {
+  private final DataOutputBuffer buffer = new DataOutputBuffer();
+  // Serialized reports, without counters, and counters of the acknowledged
+  // heartbeat
+  private Map<TaskAttemptID, byte[]> ackedReports =
+    new HashMap<TaskAttemptID, byte[]>();
+  private Map<TaskAttemptID, byte[]> ackedCounters =
+    new HashMap<TaskAttemptID, byte[]>();
+  // Serialized reports and counters of the heartbeat being sent
+  private Map<TaskAttemptID, byte[]> sentReports =
+    new HashMap<TaskAttemptID, byte[]>();
+  private Map<TaskAttemptID, byte[]> sentCounters =
+    new HashMap<TaskAttemptID, byte[]>();
+  // Reports of the heartbeat being sent whose counters were left out
+  private List<TaskStatus> countersLeftOut = new ArrayList<TaskStatus>();
+
+  /**
+   * Mark the reports of a new heartbeat that did not change since the
+   * acknowledged heartbeat, and leave out the counters that did not change.
+   */
+  void diff(TaskTrackerStatus status) throws IOException {
+    sentReports = new HashMap<TaskAttemptID, byte[]>();
+    sentCounters = new HashMap<TaskAttemptID, byte[]>();
+    countersLeftOut = new ArrayList<TaskStatus>();
+    status.clearUnchangedTasks();
+    for (TaskStatus report : status.getTaskReports()) {
+      TaskAttemptID taskId = report.getTaskID();
+      byte[] counters = ackedCounters.get(taskId);
+      if (report.getIncludeCounters()) {
+        buffer.reset();
+        report.getCounters().write(buffer);
+        byte[] newCounters = Arrays.copyOf(buffer.getData(),
+                                           buffer.getLength());
+        // Finished and commit pending tasks always send their counters
+        if (report.getRunState() == TaskStatus.State.RUNNING &&
+            Arrays.equals(newCounters, counters)) {
+          report.setIncludeCounters(false);
+          countersLeftOut.add(report);
+        } else {
+          counters = newCounters;
+        }
+      }
+      if (counters != null) {
+        sentCounters.put(taskId, counters);
+      }
+      boolean includeCounters = report.getIncludeCounters();
+      report.setIncludeCounters(false);
+      buffer.reset();
+      TaskStatus.writeTaskStatus(buffer, report);
+      report.setIncludeCounters(includeCounters);
+      byte[] bytes = Arrays.copyOf(buffer.getData(), buffer.getLength());
+      if (!includeCounters &&
+          Arrays.equals(bytes, ackedReports.get(taskId))) {
+        status.addUnchangedTask(taskId);
+      }
+      sentReports.put(taskId, bytes);
+    }
+  }
+
+  /**
+   * The heartbeat last passed to {@link #diff} got through; later
+   * heartbeats are compared to it.
+   */
+  void acknowledge() {
+    ackedReports = sentReports;
+    ackedCounters = sentCounters;
+    countersLeftOut = new ArrayList<TaskStatus>();
+  }
+
+  /**
+   * Forget the acknowledged heartbeat, as when the JobTracker lost it, and
+   * put back the counters left out of the heartbeat being sent, so that
+   * it may be sent again in full.
+   */
+  void reset() {
+    for (TaskStatus report : countersLeftOut) {
+      report.setIncludeCounters(true);
+    }
+    ackedReports = new HashMap<TaskAttemptID, byte[]>();
+    ackedCounters = new HashMap<TaskAttemptID, byte[]>();
+    sentReports = new HashMap<TaskAttemptID, byte[]>();
+    sentCounters = new HashMap<TaskAttemptID, byte[]>();
+    countersLeftOut = new ArrayList<TaskStatus>();
+  }
+}
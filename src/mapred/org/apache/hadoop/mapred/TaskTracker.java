@@ -255,6 +255,13 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
    * again.
    */
   TaskTrackerStatus status = null;
+
+  /**
+   * The task reports of the last 'status' the JobTracker acknowledged; only
+   * the reports that changed since are sent in full.
+   */
+  private final TaskStatusBaseline taskStatusBaseline =
+    new TaskStatusBaseline();
   
   // The system-directory on HDFS where job files are stored 
   Path systemDirectory = null;
@@ -747,6 +754,7 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
     this.reduceTotal = 0;
     this.acceptNewTasks = true;
     this.status = null;
+    this.taskStatusBaseline.reset();
 
     this.minSpaceStart = this.fConf.getLong("mapred.local.dir.minspacestart", 0L);
     this.minSpaceKill = this.fConf.getLong("mapred.local.dir.minspacekill", 0L);
@@ -1795,6 +1803,7 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
                                        failures, 
                                        maxMapSlots,
                                        maxReduceSlots); 
+        taskStatusBaseline.diff(status);
       }
     } else {
       LOG.info("Resending 'status' to '" + jobTrackAddr.getHostName() +
@@ -1860,10 +1869,23 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
                                                               askForNewTask, 
                                                               heartbeatResponseId);
       
+    //
+    // The JobTracker could not use the reports left out as unchanged, e.g.
+    // as it restarted; resend the same 'status' in full
+    //
+    if (heartbeatResponse.isFullStatusRequired()) {
+      LOG.info("Resending 'status' to '" + jobTrackAddr.getHostName() +
+               "' with all its task reports");
+      taskStatusBaseline.reset();
+      status.clearUnchangedTasks();
+      return heartbeatResponse;
+    }
+
     //
     // The heartbeat got through successfully!
     //
     heartbeatResponseId = heartbeatResponse.getResponseId();
+    taskStatusBaseline.acknowledge();
       
     synchronized (this) {
       for (TaskStatus taskStatus : status.getTaskReports()) {
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+/**
+ * A listener for changes in the set of {@link TaskTracker}s whose slots count
+ * towards the capacity of the cluster in the {@link JobTracker}.
+ * 
+ * The events are delivered with the {@link JobTracker} and its tracker map
+ * locked, so listeners should only update their own bookkeeping.
+ */
+abstract class TaskTrackerListener {
+
+  /**
+   * Invoked when a tracker's slots have been added to the cluster capacity,
+   * because the tracker joined or its host was taken off the blacklist.
+   * A tracker that reports new slot counts is removed and added again.
+   * @param status The status of the added tracker.
+   */
+  public abstract void trackerAdded(TaskTrackerStatus status);
+
+  /**
+   * Invoked when a tracker's slots have been removed from the cluster
+   * capacity, because the tracker was lost or its host was blacklisted.
+   * @param status The last counted status of the removed tracker.
+   */
+  public abstract void trackerRemoved(TaskTrackerStatus status);
+}
@@ -57,6 +57,20 @@ interface TaskTrackerManager {
    */
   public void removeJobInProgressListener(JobInProgressListener listener);
 
+  /**
+   * Registers a {@link TaskTrackerListener} for updates from this
+   * {@link TaskTrackerManager}.
+   * @param listener the {@link TaskTrackerListener} to add
+   */
+  public void addTaskTrackerListener(TaskTrackerListener listener);
+
+  /**
+   * Unregisters a {@link TaskTrackerListener} from this
+   * {@link TaskTrackerManager}.
+   * @param listener the {@link TaskTrackerListener} to remove
+   */
+  public void removeTaskTrackerListener(TaskTrackerListener listener);
+
   /**
    * Return the {@link QueueManager} which manages the queues in this
    * {@link TaskTrackerManager}.
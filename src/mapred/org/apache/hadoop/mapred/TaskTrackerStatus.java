@@ -49,6 +49,9 @@ public class TaskTrackerStatus implements Writable {
   int httpPort;
   int failures;
   List<TaskStatus> taskReports;
+  // Tasks whose reports are only sent as their ids, as they did not change
+  // since the last heartbeat the JobTracker acknowledged
+  private Set<TaskAttemptID> unchangedTasks = new HashSet<TaskAttemptID>();
     
   volatile long lastSeen;
   private int maxMapTasks;
@@ -409,6 +412,61 @@ public class TaskTrackerStatus implements Writable {
     return taskReports;
   }
    
+  /**
+   * Send only the id of the given task, whose report did not change since
+   * the last heartbeat the JobTracker acknowledged.
+   */
+  void addUnchangedTask(TaskAttemptID taskId) {
+    unchangedTasks.add(taskId);
+  }
+
+  /**
+   * Did the report of the given task not change since the previous
+   * heartbeat?
+   */
+  boolean isUnchanged(TaskAttemptID taskId) {
+    return unchangedTasks.contains(taskId);
+  }
+
+  /**
+   * Send the reports of all tasks in full.
+   */
+  void clearUnchangedTasks() {
+    unchangedTasks.clear();
+  }
+
+  /**
+   * Add the reports that were only sent as their task ids, taking them from
+   * the status of the previous heartbeat.
+   * @param previous status of the previous heartbeat, or null if unknown
+   * @return false if a report could not be found, and the status has to be
+   *         sent again in full
+   */
+  boolean addUnchangedReports(TaskTrackerStatus previous) {
+    if (unchangedTasks.isEmpty()) {
+      return true;
+    }
+    if (previous == null) {
+      return false;
+    }
+    Map<TaskAttemptID, TaskStatus> previousReports =
+      new HashMap<TaskAttemptID, TaskStatus>();
+    for (TaskStatus report : previous.getTaskReports()) {
+      previousReports.put(report.getTaskID(), report);
+    }
+    List<TaskStatus> unchangedReports =
+      new ArrayList<TaskStatus>(unchangedTasks.size());
+    for (TaskAttemptID taskId : unchangedTasks) {
+      TaskStatus report = previousReports.get(taskId);
+      if (report == null) {
+        return false;
+      }
+      unchangedReports.add(report);
+    }
+    taskReports.addAll(unchangedReports);
+    return true;
+  }
+   
   /**
    * Is the given task considered as 'running' ?
    * @param taskStatus
@@ -656,11 +714,24 @@ public class TaskTrackerStatus implements Writable {
     out.writeInt(maxMapTasks);
     out.writeInt(maxReduceTasks);
     resStatus.write(out);
-    out.writeInt(taskReports.size());
+    List<TaskStatus> changedReports = new ArrayList<TaskStatus>(taskReports);
+    List<TaskAttemptID> unchangedIds = new ArrayList<TaskAttemptID>();
+    for (Iterator<TaskStatus> it = changedReports.iterator(); it.hasNext();) {
+      TaskAttemptID taskId = it.next().getTaskID();
+      if (unchangedTasks.contains(taskId)) {
+        unchangedIds.add(taskId);
+        it.remove();
+      }
+    }
+    out.writeInt(changedReports.size());
 
-    for (TaskStatus taskStatus : taskReports) {
+    for (TaskStatus taskStatus : changedReports) {
       TaskStatus.writeTaskStatus(out, taskStatus);
     }
+    WritableUtils.writeVInt(out, unchangedIds.size());
+    for (TaskAttemptID taskId : unchangedIds) {
+      taskId.write(out);
+    }
     getHealthStatus().write(out);
   }
 
@@ -678,6 +749,13 @@ public class TaskTrackerStatus implements Writable {
     for (int i = 0; i < numTasks; i++) {
       taskReports.add(TaskStatus.readTaskStatus(in));
     }
+    unchangedTasks.clear();
+    int numUnchanged = WritableUtils.readVInt(in);
+    for (int i = 0; i < numUnchanged; i++) {
+      TaskAttemptID taskId = new TaskAttemptID();
+      taskId.readFields(in);
+      unchangedTasks.add(taskId);
+    }
     getHealthStatus().readFields(in);
   }
 }
@@ -60,9 +60,10 @@ public interface TaskUmbilicalProtocol extends VersionedProtocol {
    * Version 17 Change in signature of getTask() for HADOOP-5488
    * Version 18 Added fatalError for child to communicate fatal errors to TT
    * Version 19 Added jvmContext to most method signatures for MAPREDUCE-2429
+   * Version 20 Counters are written in a compact form
    * */
 
-  public static final long versionID = 19L;
+  public static final long versionID = 20L;
   
   /**
    * Called when a child task process starts, to get its task.
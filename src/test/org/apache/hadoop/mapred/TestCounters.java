@@ -22,7 +22,12 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.Random;
 
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.Counters.Group;
 
 /**
  * TestCounters checks the sanity and recoverability of {@code Counters}
@@ -93,6 +98,108 @@ public class TestCounters extends TestCase {
     }
   }
   
+  private static Counters readCounters(DataOutputBuffer out)
+      throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Counters counters = new Counters();
+    counters.readFields(in);
+    return counters;
+  }
+
+  private static Counters writeAndRead(Counters counters)
+      throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    counters.write(out);
+    return readCounters(out);
+  }
+
+  /**
+   * Test the compact serialized form, and reading the original one
+   */
+  public void testWritable() throws IOException {
+    Enum[] keysWithResource = {Task.Counter.MAP_INPUT_BYTES, 
+                               Task.Counter.MAP_OUTPUT_BYTES};
+    Counters framework = getEnumCounters(keysWithResource);
+    framework.incrCounter(Task.FILESYSTEM_COUNTER_GROUP, "HDFS_BYTES_READ",
+                          1L << 40);
+    Counters[] all = {
+      framework,
+      getEnumCounters(new Enum[] {myCounters.TEST1, myCounters.TEST2}),
+      getEnumCounters(new String[] {"group1", "group{}()[]"},
+                      new String[] {"counter1", "counter{}()[]"})
+    };
+    for (Counters counters : all) {
+      Counters read = writeAndRead(counters);
+      assertEquals(counters, read);
+      assertEquals(counters.makeEscapedCompactString(),
+                   read.makeEscapedCompactString());
+
+      // Counters written by older versions can still be read
+      DataOutputBuffer out = new DataOutputBuffer();
+      out.writeInt(counters.getGroupNames().size());
+      for (Group group : counters) {
+        Text.writeString(out, group.getName());
+        group.write(out);
+      }
+      assertEquals(counters, readCounters(out));
+    }
+
+    // The framework's names are written as ids, and shared once read
+    DataOutputBuffer out = new DataOutputBuffer();
+    framework.write(out);
+    assertTrue("Counters take " + out.getLength() + " bytes",
+               out.getLength() < 30);
+    Counters first = writeAndRead(framework);
+    Counters second = writeAndRead(framework);
+    Counter firstCounter = first.findCounter(Task.Counter.MAP_INPUT_BYTES);
+    assertSame(firstCounter.getDisplayName(),
+        second.findCounter(Task.Counter.MAP_INPUT_BYTES).getDisplayName());
+    assertEquals(45, firstCounter.getValue());
+    Counters user = writeAndRead(all[2]);
+    assertSame(user.getGroupNames().iterator().next(),
+               writeAndRead(all[2]).getGroupNames().iterator().next());
+  }
+
+  /**
+   * Counters persisted in the compact form keep their names: the ids of the
+   * framework's names do not change when groups or counters are appended
+   */
+  public void testCompactIds() throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    out.writeInt(-1);
+    WritableUtils.writeVInt(out, 2);
+    // Task.Counter, the first group: MAP_OUTPUT_BYTES is its 5th counter
+    WritableUtils.writeVInt(out, 1);
+    out.writeBoolean(false);
+    WritableUtils.writeVInt(out, 1);
+    WritableUtils.writeVInt(out, 1 + 2 + 2 * 4);
+    out.writeBoolean(false);
+    WritableUtils.writeVLong(out, 7);
+    // the file system counters take the second range of 64 ids
+    WritableUtils.writeVInt(out, 1 + 64);
+    out.writeBoolean(false);
+    WritableUtils.writeVInt(out, 1);
+    WritableUtils.writeVInt(out, 1 + 64 + 3);
+    out.writeBoolean(false);
+    WritableUtils.writeVLong(out, 9);
+    Counters read = readCounters(out);
+    assertEquals(7, read.getCounter(Task.Counter.MAP_OUTPUT_BYTES));
+    assertEquals(9, read.findCounter(Task.FILESYSTEM_COUNTER_GROUP,
+                                     "HDFS_BYTES_READ").getValue());
+
+    // an id past the names of its group is not read as another name
+    out = new DataOutputBuffer();
+    out.writeInt(-1);
+    WritableUtils.writeVInt(out, 1);
+    WritableUtils.writeVInt(out, 1 + 64 + 5);
+    try {
+      readCounters(out);
+      fail("Read an unknown counter name id");
+    } catch (IOException expected) {
+    }
+  }
+
   /**
    * Verify counter value works
    */
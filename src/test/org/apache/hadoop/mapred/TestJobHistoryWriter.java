@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Test that the {@link JobHistoryWriter} keeps logging from waiting for the
+ * history files, and writes and closes them in order.
+ */
+public class TestJobHistoryWriter extends TestCase {
+  private final JobID jobId = new JobID("test", 1);
+  private JobHistoryWriter writer;
+
+  /** A history file that blocks its writes until released. */
+  static class SlowFile extends ByteArrayOutputStream {
+    final CountDownLatch released = new CountDownLatch(1);
+    volatile boolean failing = false;
+    volatile boolean closed = false;
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (failing) {
+        throw new IOException("Cannot write");
+      }
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Override
+  protected void setUp() {
+    JobConf conf = new JobConf();
+    conf.setInt(JobHistoryWriter.BATCH_SIZE_KEY, 16);
+    conf.setLong(JobHistoryWriter.FLUSH_INTERVAL_KEY, 10);
+    writer = new JobHistoryWriter(conf);
+    writer.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    writer.stop();
+  }
+
+  public void testLogWithoutWaiting() throws Exception {
+    SlowFile file = new SlowFile();
+    PrintWriter out = new PrintWriter(writer.wrap(jobId, file));
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      String line = "Task TASKID=\"task_" + i + "\" .";
+      // The file blocks, yet logging goes on
+      out.println(line);
+      assertFalse(out.checkError());
+      expected.append(line).append(System.getProperty("line.separator"));
+    }
+    out.close();
+    assertFalse(file.closed);
+
+    file.released.countDown();
+    writer.awaitClosed(jobId);
+    assertTrue(file.closed);
+    assertEquals(expected.toString(), file.toString());
+  }
+
+  public void testStopWritesBuffered() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setLong(JobHistoryWriter.FLUSH_INTERVAL_KEY, 60 * 60 * 1000);
+    JobHistoryWriter idle = new JobHistoryWriter(conf);
+    idle.start();
+    SlowFile file = new SlowFile();
+    file.released.countDown();
+    PrintWriter out = new PrintWriter(idle.wrap(jobId, file));
+    out.print("Job JOBID=\"job_test_0001\" .");
+    out.flush();
+    // Neither a full batch nor a flush interval, yet stopping writes it
+    idle.stop();
+    assertEquals("Job JOBID=\"job_test_0001\" .", file.toString());
+    assertFalse(file.closed);
+  }
+
+  public void testFailedFile() throws Exception {
+    SlowFile file = new SlowFile();
+    file.failing = true;
+    file.released.countDown();
+    PrintWriter out = new PrintWriter(writer.wrap(jobId, file));
+    out.println("Job JOBID=\"job_test_0001\" .");
+    assertFalse(out.checkError());
+    // Once the writer thread failed, logging to the file reports an error
+    for (int i = 0; i < 100 && !out.checkError(); i++) {
+      Thread.sleep(10);
+      out.println("Job JOBID=\"job_test_0001\" .");
+    }
+    assertTrue(out.checkError());
+    out.close();
+    writer.awaitClosed(jobId);
+    assertTrue(file.closed);
+  }
+}
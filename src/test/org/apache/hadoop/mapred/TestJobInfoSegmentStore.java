@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Test that a {@link JobInfoSegmentStore} reads back the records appended
+ * to it, before and after it is reopened, and deletes expired segments.
+ */
+public class TestJobInfoSegmentStore extends TestCase {
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"),
+             "job-info-segments");
+
+  private FileSystem fs;
+  private Configuration conf;
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = new Configuration();
+    // no caching, and a new segment every few records
+    conf.setLong(JobInfoSegmentStore.CACHE_SIZE_KEY, 0);
+    conf.setLong(JobInfoSegmentStore.SEGMENT_SIZE_KEY, 400);
+    fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    fs.mkdirs(TEST_DIR);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    fs.delete(TEST_DIR, true);
+  }
+
+  private static byte[] record(int job) {
+    byte[] record = new byte[50 + job];
+    Arrays.fill(record, (byte) job);
+    return record;
+  }
+
+  private void appendJobs(JobInfoSegmentStore store, int from, int to)
+      throws IOException {
+    for (int i = from; i < to; i++) {
+      store.append(new JobID("test", i), record(i));
+    }
+  }
+
+  private void checkJobs(JobInfoSegmentStore store, int from, int to)
+      throws IOException {
+    for (int i = from; i < to; i++) {
+      assertTrue("job " + i, Arrays.equals(record(i),
+          store.read(new JobID("test", i))));
+    }
+  }
+
+  public void testAppendAndRead() throws IOException {
+    JobInfoSegmentStore store = new JobInfoSegmentStore(fs, TEST_DIR, conf);
+    appendJobs(store, 0, 10);
+    int segmentCount = store.getSegmentCount();
+    assertTrue(segmentCount > 1);
+    // records of the current segment are read too, without closing it
+    checkJobs(store, 0, 10);
+    assertEquals(segmentCount, store.getSegmentCount());
+    assertNull(store.read(new JobID("test", 10)));
+
+    // the last record of a job is read
+    store.append(new JobID("test", 3), record(4));
+    assertTrue(Arrays.equals(record(4), store.read(new JobID("test", 3))));
+    store.close();
+  }
+
+  public void testReopen() throws IOException {
+    JobInfoSegmentStore store = new JobInfoSegmentStore(fs, TEST_DIR, conf);
+    appendJobs(store, 0, 10);
+    int segmentCount = store.getSegmentCount();
+    store.close();
+
+    // a record cut short when the job tracker stopped is ignored
+    Path last = new Path(TEST_DIR,
+        JobInfoSegmentStore.SEGMENT_PREFIX + (segmentCount - 1));
+    byte[] contents = new byte[(int) fs.getFileStatus(last).getLen()];
+    FSDataInputStream in = fs.open(last);
+    in.readFully(0, contents);
+    in.close();
+    FSDataOutputStream out = fs.create(last, true);
+    out.write(contents);
+    new JobID("test", 10).write(out);
+    out.writeInt(100);
+    out.write(new byte[10]);
+    out.close();
+
+    store = new JobInfoSegmentStore(fs, TEST_DIR, conf);
+    assertEquals(segmentCount, store.getSegmentCount());
+    checkJobs(store, 0, 10);
+    assertNull(store.read(new JobID("test", 10)));
+
+    // new records go to a new segment
+    appendJobs(store, 10, 12);
+    assertEquals(segmentCount + 1, store.getSegmentCount());
+    checkJobs(store, 0, 12);
+    store.close();
+  }
+
+  public void testDeleteOlderThan() throws IOException {
+    conf.setLong(JobInfoSegmentStore.CACHE_SIZE_KEY, 1024 * 1024);
+    JobInfoSegmentStore store = new JobInfoSegmentStore(fs, TEST_DIR, conf);
+    appendJobs(store, 0, 10);
+    store.deleteOlderThan(0);
+    checkJobs(store, 0, 10);
+
+    // the current segment is kept, and cached records of the deleted
+    // segments are dropped
+    store.deleteOlderThan(System.currentTimeMillis() + 1);
+    assertEquals(1, store.getSegmentCount());
+    assertNull(store.read(new JobID("test", 0)));
+    checkJobs(store, 9, 10);
+
+    store.roll();
+    store.deleteOlderThan(System.currentTimeMillis() + 1);
+    assertEquals(0, store.getSegmentCount());
+    assertNull(store.read(new JobID("test", 9)));
+    assertEquals(0, fs.listStatus(TEST_DIR).length);
+    store.close();
+  }
+
+  /** A file system whose positioned reads wait until they are released. */
+  static class SlowReadFileSystem extends FilterFileSystem {
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+
+    SlowReadFileSystem(FileSystem fs) {
+      super(fs);
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize)
+        throws IOException {
+      final FSDataInputStream in = fs.open(f, bufferSize);
+      return new FSDataInputStream(new FSInputStream() {
+        public int read(long position, byte[] buffer, int offset,
+                        int length) throws IOException {
+          reading.countDown();
+          try {
+            released.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e.toString());
+          }
+          return in.read(position, buffer, offset, length);
+        }
+
+        public int read() throws IOException {
+          return in.read();
+        }
+
+        public void seek(long pos) throws IOException {
+          in.seek(pos);
+        }
+
+        public long getPos() throws IOException {
+          return in.getPos();
+        }
+
+        public boolean seekToNewSource(long targetPos) {
+          return false;
+        }
+
+        public void close() throws IOException {
+          in.close();
+        }
+      });
+    }
+  }
+
+  public void testDeleteWaitsForReads() throws Exception {
+    JobInfoSegmentStore store = new JobInfoSegmentStore(fs, TEST_DIR, conf);
+    appendJobs(store, 0, 10);
+    store.close();
+    final SlowReadFileSystem slowFs = new SlowReadFileSystem(fs);
+    final JobInfoSegmentStore slowStore =
+      new JobInfoSegmentStore(slowFs, TEST_DIR, conf);
+    final byte[][] read = new byte[1][];
+    Thread reader = new Thread() {
+      public void run() {
+        try {
+          read[0] = slowStore.read(new JobID("test", 0));
+        } catch (IOException e) {
+        }
+      }
+    };
+    reader.start();
+    slowFs.reading.await();
+    Thread deleter = new Thread() {
+      public void run() {
+        slowStore.deleteOlderThan(System.currentTimeMillis() + 1);
+      }
+    };
+    deleter.start();
+    deleter.join(200);
+    // the segment being read is not deleted under the read
+    assertTrue(deleter.isAlive());
+    Path first = new Path(TEST_DIR, JobInfoSegmentStore.SEGMENT_PREFIX + 0);
+    assertTrue(fs.exists(first));
+
+    slowFs.released.countDown();
+    reader.join();
+    deleter.join();
+    assertTrue(Arrays.equals(record(0), read[0]));
+    assertFalse(fs.exists(first));
+    assertEquals(0, slowStore.getSegmentCount());
+    slowStore.close();
+  }
+}
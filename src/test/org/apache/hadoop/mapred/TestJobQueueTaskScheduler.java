@@ -176,6 +176,14 @@ public class TestJobQueueTaskScheduler extends TestCase {
     public void removeJobInProgressListener(JobInProgressListener listener) {
       listeners.remove(listener);
     }
+
+    @Override
+    public void addTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    @Override
+    public void removeTaskTrackerListener(TaskTrackerListener listener) {
+    }
     
     @Override
     public QueueManager getQueueManager() {
@@ -18,6 +18,7 @@
 package org.apache.hadoop.mapred;
 
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
 
@@ -72,6 +73,86 @@ public class TestMapredHeartbeat extends TestCase {
     }
   }
   
+  /**
+   * Duplicate heartbeats from a healthy tracker are answered while another
+   * thread holds the JobTracker lock.
+   */
+  public void testDuplicateHeartbeatWithoutLock() throws Exception {
+    JobConf conf = new JobConf();
+    conf.set("mapred.job.tracker", "localhost:0");
+    conf.set("mapred.job.tracker.http.address", "0.0.0.0:0");
+    final JobTracker jt = new JobTracker(conf, new Clock());
+    try {
+      TaskTrackerStatus status = new TaskTrackerStatus("tt1", "localhost");
+      HeartbeatResponse first =
+        jt.heartbeat(status, false, true, false, (short) 0);
+      assertEquals(1, first.getResponseId());
+      assertEquals(1, jt.getClusterStatus().getTaskTrackers());
+
+      final CountDownLatch locked = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      Thread holder = new Thread() {
+        public void run() {
+          synchronized (jt) {
+            locked.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+            }
+          }
+        }
+      };
+      holder.start();
+      try {
+        locked.await();
+        // The response to heartbeat 0 got lost; the tracker sends it again
+        assertSame(first, jt.heartbeat(status, false, false, false, (short) 0));
+      } finally {
+        release.countDown();
+        holder.join();
+      }
+      HeartbeatResponse second =
+        jt.heartbeat(status, false, false, false, (short) 1);
+      assertEquals(2, second.getResponseId());
+    } finally {
+      jt.interTrackerServer.stop();
+      jt.infoServer.stop();
+    }
+  }
+
+  /**
+   * A heartbeat leaving out reports the JobTracker does not have is answered
+   * by asking for the full status, and is not acknowledged.
+   */
+  public void testFullStatusRequired() throws Exception {
+    JobConf conf = new JobConf();
+    conf.set("mapred.job.tracker", "localhost:0");
+    conf.set("mapred.job.tracker.http.address", "0.0.0.0:0");
+    JobTracker jt = new JobTracker(conf, new Clock());
+    try {
+      TaskTrackerStatus status = new TaskTrackerStatus("tt1", "localhost");
+      HeartbeatResponse first =
+        jt.heartbeat(status, false, true, false, (short) 0);
+      assertFalse(first.isFullStatusRequired());
+
+      status.addUnchangedTask(TaskAttemptID.forName(
+          "attempt_test_0001_m_000000_0"));
+      HeartbeatResponse second =
+        jt.heartbeat(status, false, false, false, (short) 1);
+      assertTrue(second.isFullStatusRequired());
+      assertEquals(1, second.getResponseId());
+
+      status.clearUnchangedTasks();
+      HeartbeatResponse third =
+        jt.heartbeat(status, false, false, false, (short) 1);
+      assertFalse(third.isFullStatusRequired());
+      assertEquals(2, third.getResponseId());
+    } finally {
+      jt.interTrackerServer.stop();
+      jt.infoServer.stop();
+    }
+  }
+
   public void testOutOfBandHeartbeats() throws Exception {
     MiniDFSCluster dfs = null;
     MiniMRCluster mr = null;
@@ -120,6 +120,12 @@ public class TestParallelInitialization extends TestCase {
     public void removeJobInProgressListener(JobInProgressListener listener) {
       listeners.remove(listener);
     }
+
+    public void addTaskTrackerListener(TaskTrackerListener listener) {
+    }
+
+    public void removeTaskTrackerListener(TaskTrackerListener listener) {
+    }
     
     
     public QueueManager getQueueManager() {
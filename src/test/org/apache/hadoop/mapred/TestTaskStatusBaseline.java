@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+/**
+ * Check that heartbeats only carry the task reports and counters that
+ * changed since the last acknowledged heartbeat, and that the JobTracker
+ * side gets all the reports back.
+ */
+public class TestTaskStatusBaseline extends TestCase {
+  private final JobID jobId = new JobID("test", 1);
+  private final Counters counters = new Counters();
+
+  private TaskStatus newReport(int id, float progress, TaskStatus.State state) {
+    TaskAttemptID taskId =
+      new TaskAttemptID(new TaskID(jobId, true, id), 0);
+    return TaskStatus.createTaskStatus(true, taskId, progress, 1, state, "",
+        "", "tt1", TaskStatus.Phase.MAP, counters);
+  }
+
+  private TaskTrackerStatus newStatus(TaskStatus... reports) {
+    List<TaskStatus> list = new ArrayList<TaskStatus>();
+    for (TaskStatus report : reports) {
+      list.add(report);
+    }
+    return new TaskTrackerStatus("tt1", "host1", 0, list, 0, 2, 2);
+  }
+
+  /** Send a status over the wire. */
+  private static TaskTrackerStatus send(TaskTrackerStatus status)
+      throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    status.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TaskTrackerStatus received = new TaskTrackerStatus();
+    received.readFields(in);
+    return received;
+  }
+
+  public void testUnchangedReports() throws IOException {
+    counters.incrCounter("group", "records", 10);
+    TaskStatus.State running = TaskStatus.State.RUNNING;
+    TaskStatusBaseline baseline = new TaskStatusBaseline();
+
+    TaskTrackerStatus first = newStatus(newReport(0, 0.5f, running),
+                                        newReport(1, 0.5f, running));
+    baseline.diff(first);
+    TaskTrackerStatus received = send(first);
+    assertEquals(2, received.getTaskReports().size());
+    assertTrue(received.addUnchangedReports(null));
+    baseline.acknowledge();
+
+    // Only the report that moved is sent; its counters are left out
+    TaskTrackerStatus second = newStatus(newReport(0, 0.5f, running),
+                                         newReport(1, 0.7f, running));
+    baseline.diff(second);
+    assertEquals(2, second.countMapTasks());
+    assertFalse(second.getTaskReports().get(1).getIncludeCounters());
+    TaskTrackerStatus delta = send(second);
+    assertEquals(1, delta.getTaskReports().size());
+    assertEquals(0.7f, delta.getTaskReports().get(0).getProgress());
+    assertTrue(delta.isUnchanged(second.getTaskReports().get(0).getTaskID()));
+    assertTrue(delta.addUnchangedReports(received));
+    assertEquals(2, delta.getTaskReports().size());
+    assertEquals(10, delta.getTaskReports().get(1).getCounters()
+        .findCounter("group", "records").getValue());
+
+    // Without its previous status, the delta cannot be used
+    assertFalse(send(second).addUnchangedReports(null));
+
+    // Resending in full puts the counters back
+    baseline.reset();
+    second.clearUnchangedTasks();
+    assertTrue(second.getTaskReports().get(1).getIncludeCounters());
+    assertEquals(2, send(second).getTaskReports().size());
+
+    // Finished tasks always send their counters
+    baseline.acknowledge();
+    baseline.diff(second);
+    baseline.acknowledge();
+    TaskTrackerStatus third = newStatus(
+        newReport(0, 1.0f, TaskStatus.State.SUCCEEDED),
+        newReport(1, 0.7f, running));
+    baseline.diff(third);
+    assertTrue(third.getTaskReports().get(0).getIncludeCounters());
+    assertEquals(1, send(third).getTaskReports().size());
+  }
+}